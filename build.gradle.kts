@@ -19,6 +19,11 @@ dependencies {
     implementation("org.xerial:sqlite-jdbc:3.42.0.0")
     implementation("com.zaxxer:HikariCP:5.0.1")
     implementation("com.google.code.gson:gson:2.10.1")
+
+    testImplementation("com.velocitypowered:velocity-api:3.1.1")
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 tasks {
@@ -43,6 +48,28 @@ tasks {
     build {
         dependsOn(shadowJar)
     }
+    
+    test {
+        useJUnitPlatform {
+            excludeTags("load")
+        }
+    }
+
+    // 合成プレイヤーによる負荷試験（-Dvelocord.load.players=1000 のように規模を渡す）
+    register<Test>("loadTest") {
+        group = "verification"
+        description = "Runs the synthetic player load simulation"
+        testClassesDirs = sourceSets.test.get().output.classesDirs
+        classpath = sourceSets.test.get().runtimeClasspath
+        useJUnitPlatform {
+            includeTags("load")
+        }
+        systemProperties(System.getProperties()
+            .filterKeys { it.toString().startsWith("velocord.load.") }
+            .mapKeys { it.key.toString() })
+        testLogging.showStandardStreams = true
+        outputs.upToDateWhen { false }
+    }
 }
 
 java {
@@ -15,9 +15,7 @@ import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.Map;
 
 public class AccountLinkingManager extends ListenerAdapter implements SimpleCommand {
 
@@ -27,8 +25,10 @@ public class AccountLinkingManager extends ListenerAdapter implements SimpleComm
     private final Logger logger;
     private final ScheduledExecutorService scheduler;
     
-    private final ConcurrentHashMap<String, UUID> verificationCodes = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Long> codeExpiry = new ConcurrentHashMap<>();
+    // 連携コードの失効チェック間隔（タイミングホイールの1tick）
+    private static final long CODE_TICK_MILLIS = 1000;
+    
+    private final VerificationCodeTable verificationCodes = new VerificationCodeTable(CODE_TICK_MILLIS);
     private final ConcurrentHashMap<String, UUID> playerUuidCache = new ConcurrentHashMap<>();
     
     public AccountLinkingManager(ConfigManager configManager, DatabaseManager databaseManager, 
@@ -38,26 +38,40 @@ public class AccountLinkingManager extends ListenerAdapter implements SimpleComm
         this.permissionManager = permissionManager;
         this.logger = logger;
         this.scheduler = scheduler;
+        
+        // 全コードの失効を1本の定期タスクで処理する
+        scheduler.scheduleAtFixedRate(verificationCodes::tick, CODE_TICK_MILLIS, CODE_TICK_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void onSlashCommandInteraction(SlashCommandInteractionEvent event) {
         if (!event.getName().equals("link")) return;
 
-        String code = event.getOption("code").getAsString();
+        if (databaseManager.isFailed()) {
+            event.reply("❌ データベースに接続できないため、現在アカウント連携は利用できません。管理者に連絡してください。").setEphemeral(true).queue();
+            return;
+        }
+        // 起動直後、Discordのログインがデータベースの初期化より先に終わった場合
+        if (!databaseManager.isReady()) {
+            event.reply("⏳ 起動中です。しばらくしてからもう一度お試しください。").setEphemeral(true).queue();
+            return;
+        }
+
+        int code = parseCode(event.getOption("code").getAsString());
         String discordUserId = event.getUser().getId();
+        UUID playerUuid = code >= 0 ? verificationCodes.lookup(code) : null;
 
-        if (verificationCodes.containsKey(code)) {
-            UUID playerUuid = verificationCodes.get(code);
-            
-            databaseManager.linkAccount(playerUuid, discordUserId).thenAccept(success -> {
-                if (success) {
-                    event.reply("✅ アカウント連携が完了しました！ Minecraftに再接続してください。").setEphemeral(true).queue();
-                    logger.info("Successfully linked Discord user {} to Minecraft UUID: {}", discordUserId, playerUuid);
-                    verificationCodes.remove(code);
-                    codeExpiry.remove(code);
-                } else {
-                    event.reply("❌ データベースエラーにより、アカウント連携に失敗しました。").setEphemeral(true).queue();
+        if (playerUuid != null) {
+            // 連携済みでないことを確かめ、メモリとジャーナルに記録した時点で応答する（DB書き込みはバックグラウンドでまとめて実行）
+            databaseManager.linkAccountDeferred(playerUuid, discordUserId).thenAccept(result -> {
+                switch (result) {
+                    case LINKED -> {
+                        event.reply("✅ アカウント連携が完了しました！ Minecraftに再接続してください。").setEphemeral(true).queue();
+                        logger.info("Successfully linked Discord user {} to Minecraft UUID: {}", discordUserId, playerUuid);
+                        verificationCodes.release(code);
+                    }
+                    case ALREADY_LINKED -> event.reply("❌ このDiscordアカウントは既に別のMinecraftアカウントに連携されています。").setEphemeral(true).queue();
+                    default -> event.reply("❌ データベースエラーにより、アカウント連携に失敗しました。").setEphemeral(true).queue();
                 }
             });
         } else {
@@ -65,6 +79,25 @@ public class AccountLinkingManager extends ListenerAdapter implements SimpleComm
         }
     }
 
+    /**
+     * 6桁の連携コード文字列を整数に変換する（不正な形式なら-1）
+     */
+    private static int parseCode(String input) {
+        String trimmed = input.trim();
+        if (trimmed.isEmpty() || trimmed.length() > 6) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+
     @Override
     public void execute(Invocation invocation) {
         invocation.source().sendMessage(Component.text("アカウント連携はDiscordのスラッシュコマンド `/link` から行ってください。", NamedTextColor.RED));
@@ -87,21 +120,14 @@ public class AccountLinkingManager extends ListenerAdapter implements SimpleComm
         playerUuidCache.put(username, realUuid);
     }
 
+    /**
+     * プレイヤーの連携コードを発行する
+     * 有効なコードが既にある場合は同じコードを返し、期限を延長する
+     */
     public String generateVerificationCode(UUID playerUuid) {
-        String code = String.format("%06d", ThreadLocalRandom.current().nextInt(1000000));
-        verificationCodes.put(code, playerUuid);
-        
-        long expiryTime = System.currentTimeMillis() + (long) configManager.getAccountLinkingVerificationTimeout() * 60 * 1000;
-        codeExpiry.put(code, expiryTime);
-
-        scheduler.schedule(() -> {
-            if (Long.valueOf(expiryTime).equals(codeExpiry.get(code))) {
-                verificationCodes.remove(code);
-                codeExpiry.remove(code);
-            }
-        }, configManager.getAccountLinkingVerificationTimeout(), TimeUnit.MINUTES);
-
-        return code;
+        long timeoutMillis = TimeUnit.MINUTES.toMillis(configManager.getAccountLinkingVerificationTimeout());
+        int code = verificationCodes.acquire(playerUuid, timeoutMillis);
+        return String.format("%06d", code);
     }
     
     public CompletableFuture<String> getPlayerDiscordId(UUID minecraftUuid) {
@@ -0,0 +1,94 @@
+package com.example.velocitydiscord;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * プレイヤーのアバター画像URLを解決するプロバイダー
+ * AvatarResolverがUUID単位でキャッシュするため、resolveは初回のみ呼ばれる
+ */
+public interface AvatarProvider {
+
+    CompletableFuture<String> resolve(UUID playerUuid, String playerName);
+
+    /**
+     * %uuid% / %name% を置換したURLテンプレートを返す（外部通信なし）
+     * 既定はmc-heads.netのUUID指定で、名前変更後もDiscord側のキャッシュが効く
+     */
+    class UrlTemplate implements AvatarProvider {
+        private final String template;
+
+        public UrlTemplate(String template) {
+            this.template = template;
+        }
+
+        @Override
+        public CompletableFuture<String> resolve(UUID playerUuid, String playerName) {
+            return CompletableFuture.completedFuture(format(template, playerUuid, playerName));
+        }
+
+        static String format(String template, UUID playerUuid, String playerName) {
+            return template
+                    .replace("%uuid%", playerUuid.toString().replace("-", ""))
+                    .replace("%name%", playerName);
+        }
+    }
+
+    /**
+     * ローカルのアバター描画サービスに問い合わせ、レスポンス本文をURLとして使う
+     * 失敗した場合はフォールバックのテンプレートを使う
+     */
+    class RenderService implements AvatarProvider {
+        private final HttpClient httpClient;
+        private final String serviceUrl;
+        private final UrlTemplate fallback;
+
+        public RenderService(HttpClient httpClient, String serviceUrl, UrlTemplate fallback) {
+            this.httpClient = httpClient;
+            this.serviceUrl = serviceUrl;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public CompletableFuture<String> resolve(UUID playerUuid, String playerName) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(UrlTemplate.format(serviceUrl, playerUuid, playerName)))
+                    .timeout(Duration.ofSeconds(2))
+                    .GET()
+                    .build();
+            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .thenCompose(response -> {
+                        String body = response.body() == null ? "" : response.body().trim();
+                        if (response.statusCode() == 200 && body.startsWith("http")) {
+                            return CompletableFuture.completedFuture(body);
+                        }
+                        return fallback.resolve(playerUuid, playerName);
+                    })
+                    .exceptionallyCompose(e -> fallback.resolve(playerUuid, playerName));
+        }
+    }
+
+    /**
+     * 固定のURL表から返すローカル代替プロバイダー（外部サービスなしでの動作確認用）
+     */
+    class Local implements AvatarProvider {
+        private final Map<UUID, String> urls;
+        private final String defaultUrl;
+
+        public Local(Map<UUID, String> urls, String defaultUrl) {
+            this.urls = urls;
+            this.defaultUrl = defaultUrl;
+        }
+
+        @Override
+        public CompletableFuture<String> resolve(UUID playerUuid, String playerName) {
+            return CompletableFuture.completedFuture(urls.getOrDefault(playerUuid, defaultUrl));
+        }
+    }
+}
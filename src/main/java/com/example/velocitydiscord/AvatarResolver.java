@@ -0,0 +1,68 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.net.http.HttpClient;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * プレイヤーUUIDをキーにアバターURLをLRUキャッシュする
+ * Webhook送信やEmbed作成のたびにURLを組み立てず、プロバイダーへの問い合わせも1人1回に抑える
+ */
+public class AvatarResolver {
+
+    private final AvatarProvider provider;
+    private final Logger logger;
+    private final Map<UUID, String> cache;
+
+    public AvatarResolver(AvatarProvider provider, int cacheSize, Logger logger) {
+        this.provider = provider;
+        this.logger = logger;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * 設定に従ってプロバイダーを選んでAvatarResolverを作成する
+     */
+    public static AvatarResolver fromConfig(ConfigManager configManager, HttpClient httpClient, Logger logger) {
+        AvatarProvider.UrlTemplate template = new AvatarProvider.UrlTemplate(configManager.getAvatarUrlTemplate());
+        AvatarProvider provider;
+        switch (configManager.getAvatarProvider().toLowerCase()) {
+            case "render-service":
+                provider = new AvatarProvider.RenderService(httpClient, configManager.getAvatarRenderServiceUrl(), template);
+                break;
+            case "local":
+                provider = new AvatarProvider.Local(Collections.emptyMap(),
+                        AvatarProvider.UrlTemplate.format(configManager.getAvatarUrlTemplate(), new UUID(0, 0), "Steve"));
+                break;
+            default:
+                provider = template;
+                break;
+        }
+        return new AvatarResolver(provider, configManager.getAvatarCacheSize(), logger);
+    }
+
+    /**
+     * アバターURLを取得する（キャッシュ済みなら即座に完了）
+     */
+    public CompletableFuture<String> resolve(UUID playerUuid, String playerName) {
+        String cached = cache.get(playerUuid);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return provider.resolve(playerUuid, playerName).thenApply(url -> {
+            cache.put(playerUuid, url);
+            logger.debug("アバターURLを解決しました: {} -> {}", playerName, url);
+            return url;
+        });
+    }
+}
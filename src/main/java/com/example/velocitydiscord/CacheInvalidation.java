@@ -0,0 +1,28 @@
+package com.example.velocitydiscord;
+
+import java.util.UUID;
+
+/**
+ * 他のプロキシへ伝えるキャッシュ無効化の通知
+ *
+ * @param kind 変更の種類
+ * @param minecraftUuid 対象のMinecraft UUID（不明な場合はnull）
+ * @param discordId 対象のDiscordユーザーID（不明な場合はnull）
+ */
+public record CacheInvalidation(Kind kind, UUID minecraftUuid, String discordId) {
+
+    public enum Kind {
+        // 連携の追加・変更
+        LINK,
+        // 連携の解除
+        UNLINK,
+        // Discordロールの変更
+        ROLE,
+        // 一括インポートなど、全キャッシュを破棄する変更
+        ALL
+    }
+
+    public static CacheInvalidation all() {
+        return new CacheInvalidation(Kind.ALL, null, null);
+    }
+}
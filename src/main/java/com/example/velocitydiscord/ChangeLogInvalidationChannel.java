@@ -0,0 +1,193 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 共有DBの変更ログテーブル（link_changes）を使う無効化経路
+ * 通知は単調増加のversion付きで1行ずつ追記し、各プロキシは前回読んだversion以降を定期的に読む
+ * 反映までの遅延は最大でポーリング間隔になる
+ */
+public class ChangeLogInvalidationChannel implements InvalidationChannel {
+
+    // 1回のポーリングで読む最大行数
+    private static final int POLL_LIMIT = 500;
+    // 古い行を削除する間隔（ポーリング回数）
+    private static final int PRUNE_EVERY_POLLS = 60;
+    // 採番順とコミット順が前後した行を拾うため、前回位置より少し前から読み直す
+    private static final int VERSION_OVERLAP = 64;
+    private static final int APPLIED_HISTORY = 1024;
+
+    private final DatabaseManager databaseManager;
+    private final ConfigManager configManager;
+    private final Logger logger;
+    private final String origin = UUID.randomUUID().toString();
+    private final ScheduledExecutorService executor;
+
+    private Consumer<CacheInvalidation> listener;
+    private long lastVersion;
+    // 読み直し範囲で同じ行を二重に適用しないための最近の適用済みversion
+    private final LinkedHashSet<Long> appliedVersions = new LinkedHashSet<>();
+    private boolean resyncRequired;
+    private int pollCount;
+
+    public ChangeLogInvalidationChannel(DatabaseManager databaseManager, ConfigManager configManager, Logger logger) {
+        this.databaseManager = databaseManager;
+        this.configManager = configManager;
+        this.logger = logger;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "velocord-changelog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(Consumer<CacheInvalidation> listener) {
+        this.listener = listener;
+        try (Connection conn = databaseManager.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute(createTableSql());
+            try (ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM link_changes")) {
+                lastVersion = rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            logger.error("変更ログテーブルの準備に失敗しました。他のプロキシの変更はキャッシュの有効期限まで反映されません", e);
+            return;
+        }
+        long interval = configManager.getCacheInvalidationPollMillis();
+        executor.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("変更ログによるキャッシュ無効化を開始しました (version {}, 間隔 {}ms)", lastVersion, interval);
+    }
+
+    private String createTableSql() {
+        if ("sqlite".equalsIgnoreCase(configManager.getDatabaseType())) {
+            return "CREATE TABLE IF NOT EXISTS link_changes ("
+                 + "version INTEGER PRIMARY KEY AUTOINCREMENT,"
+                 + "kind TEXT NOT NULL,"
+                 + "minecraft_uuid TEXT,"
+                 + "discord_id TEXT,"
+                 + "origin TEXT NOT NULL,"
+                 + "changed_at INTEGER NOT NULL"
+                 + ");";
+        }
+        return "CREATE TABLE IF NOT EXISTS link_changes ("
+             + "version BIGINT AUTO_INCREMENT PRIMARY KEY,"
+             + "kind VARCHAR(16) NOT NULL,"
+             + "minecraft_uuid VARCHAR(36),"
+             + "discord_id VARCHAR(255),"
+             + "origin VARCHAR(36) NOT NULL,"
+             + "changed_at BIGINT NOT NULL"
+             + ");";
+    }
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        executor.execute(() -> {
+            String sql = "INSERT INTO link_changes (kind, minecraft_uuid, discord_id, origin, changed_at) VALUES (?, ?, ?, ?, ?)";
+            try (Connection conn = databaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, invalidation.kind().name());
+                pstmt.setString(2, invalidation.minecraftUuid() == null ? null : invalidation.minecraftUuid().toString());
+                pstmt.setString(3, invalidation.discordId());
+                pstmt.setString(4, origin);
+                pstmt.setLong(5, System.currentTimeMillis());
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                logger.error("変更ログへの書き込みに失敗しました: {}", invalidation, e);
+            }
+        });
+    }
+
+    private void poll() {
+        String sql = "SELECT version, kind, minecraft_uuid, discord_id, origin FROM link_changes "
+                   + "WHERE version > ? ORDER BY version LIMIT " + (POLL_LIMIT + VERSION_OVERLAP);
+        try (Connection conn = databaseManager.getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            if (resyncRequired) {
+                // DBに届かなかった間の変更は追えないため、全キャッシュを破棄する
+                listener.accept(CacheInvalidation.all());
+                resyncRequired = false;
+            }
+
+            pstmt.setLong(1, Math.max(0, lastVersion - VERSION_OVERLAP));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long version = rs.getLong("version");
+                    lastVersion = Math.max(lastVersion, version);
+                    if (!markApplied(version) || origin.equals(rs.getString("origin"))) {
+                        continue;
+                    }
+                    CacheInvalidation invalidation = parse(rs);
+                    if (invalidation != null) {
+                        listener.accept(invalidation);
+                    }
+                }
+            }
+
+            if (++pollCount % PRUNE_EVERY_POLLS == 0) {
+                prune(conn);
+            }
+        } catch (SQLException e) {
+            if (!resyncRequired) {
+                logger.warn("変更ログを読み込めません。復旧後に全キャッシュを破棄します: {}", e.getMessage());
+            }
+            resyncRequired = true;
+        } catch (RuntimeException e) {
+            logger.error("キャッシュ無効化の処理中にエラーが発生しました", e);
+        }
+    }
+
+    private boolean markApplied(long version) {
+        if (!appliedVersions.add(version)) {
+            return false;
+        }
+        if (appliedVersions.size() > APPLIED_HISTORY) {
+            Iterator<Long> eldest = appliedVersions.iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return true;
+    }
+
+    private CacheInvalidation parse(ResultSet rs) throws SQLException {
+        try {
+            CacheInvalidation.Kind kind = CacheInvalidation.Kind.valueOf(rs.getString("kind"));
+            String uuid = rs.getString("minecraft_uuid");
+            return new CacheInvalidation(kind, uuid == null ? null : UUID.fromString(uuid), rs.getString("discord_id"));
+        } catch (IllegalArgumentException e) {
+            // 新しいバージョンのプラグインが書いた未知の種類などは全破棄で扱う
+            return CacheInvalidation.all();
+        }
+    }
+
+    private void prune(Connection conn) throws SQLException {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(configManager.getCacheChangeLogRetentionMinutes());
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM link_changes WHERE changed_at < ?")) {
+            pstmt.setLong(1, cutoff);
+            int deleted = pstmt.executeUpdate();
+            if (deleted > 0) {
+                logger.debug("古い変更ログを {} 件削除しました", deleted);
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
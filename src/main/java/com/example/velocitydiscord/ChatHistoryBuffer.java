@@ -0,0 +1,209 @@
+package com.example.velocitydiscord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 最近のチャットを固定サイズで保持するリングバッファ
+ * 本文はUTF-8のバイト列として1つのbyte[]に詰め、時刻やUUIDなどのメタデータはエントリ番号ごとの配列に持つ
+ * チャット量に関係なくメモリ使用量は一定で、古いエントリから上書きされる
+ *
+ * Discordへの送信待ちのエントリは古い順に取り出して送信し、成功したら送信済みにする
+ */
+public class ChatHistoryBuffer {
+
+    /**
+     * 読み出したチャット1件
+     */
+    public record Entry(long sequence, long timestampMillis, UUID playerUuid, String playerName, String serverName, String message) {}
+
+    private final int maxEntries;
+    private final byte[] data;
+
+    // エントリ番号 % maxEntries の位置に格納するメタデータ
+    private final long[] timestamps;
+    private final long[] uuidMost;
+    private final long[] uuidLeast;
+    private final long[] positions;
+    private final int[] lengths;
+    private final boolean[] pending;
+
+    // 次に書き込むエントリ番号と、まだ読み出せる最古のエントリ番号
+    private long nextSequence;
+    private long oldestSequence;
+    // data上の通算書き込み位置（data.lengthで割った余りが実際の位置）
+    private long writePosition;
+    // 送信待ちの最古のエントリ番号（これより前に送信待ちはない）
+    private long pendingCursor;
+    // 送信前に上書きされたエントリ数
+    private long droppedUndelivered;
+
+    public ChatHistoryBuffer(int maxEntries, int bufferBytes) {
+        this.maxEntries = maxEntries;
+        this.data = new byte[bufferBytes];
+        this.timestamps = new long[maxEntries];
+        this.uuidMost = new long[maxEntries];
+        this.uuidLeast = new long[maxEntries];
+        this.positions = new long[maxEntries];
+        this.lengths = new int[maxEntries];
+        this.pending = new boolean[maxEntries];
+    }
+
+    /**
+     * チャットを追加する
+     *
+     * @param needsDelivery Discordへの送信待ちにする場合true
+     * @return 追加したエントリ番号
+     */
+    public synchronized long append(UUID playerUuid, String playerName, String serverName, String message, boolean needsDelivery) {
+        byte[] name = truncate(playerName.getBytes(StandardCharsets.UTF_8), 0xFFFF);
+        byte[] server = truncate(serverName.getBytes(StandardCharsets.UTF_8), 0xFFFF);
+        // 1件でバッファの1/4を超えないよう本文を切り詰める
+        int maxBody = Math.max(0, data.length / 4 - 4 - name.length - server.length);
+        byte[] body = truncate(message.getBytes(StandardCharsets.UTF_8), maxBody);
+        int length = 4 + name.length + server.length + body.length;
+
+        long sequence = nextSequence++;
+        long position = writePosition;
+        writePosition += length;
+
+        // エントリ数とバイト数の両方の上限で、上書きされる古いエントリを捨てる
+        while (oldestSequence < nextSequence - 1
+                && (oldestSequence <= nextSequence - 1 - maxEntries
+                    || positions[slot(oldestSequence)] < writePosition - data.length)) {
+            if (pending[slot(oldestSequence)]) {
+                pending[slot(oldestSequence)] = false;
+                droppedUndelivered++;
+            }
+            oldestSequence++;
+        }
+        pendingCursor = Math.max(pendingCursor, oldestSequence);
+
+        int slot = slot(sequence);
+        timestamps[slot] = System.currentTimeMillis();
+        uuidMost[slot] = playerUuid.getMostSignificantBits();
+        uuidLeast[slot] = playerUuid.getLeastSignificantBits();
+        positions[slot] = position;
+        lengths[slot] = length;
+        pending[slot] = needsDelivery;
+
+        long cursor = position;
+        cursor = writeShort(cursor, name.length);
+        cursor = writeBytes(cursor, name);
+        cursor = writeShort(cursor, server.length);
+        cursor = writeBytes(cursor, server);
+        writeBytes(cursor, body);
+        return sequence;
+    }
+
+    /**
+     * 送信待ちの最古のエントリ（なければnull）
+     */
+    public synchronized Entry oldestPending() {
+        while (pendingCursor < nextSequence) {
+            if (pendingCursor >= oldestSequence && pending[slot(pendingCursor)]) {
+                return read(pendingCursor);
+            }
+            pendingCursor++;
+        }
+        return null;
+    }
+
+    public synchronized boolean hasPending() {
+        return oldestPending() != null;
+    }
+
+    public synchronized void markDelivered(long sequence) {
+        if (sequence >= oldestSequence && sequence < nextSequence) {
+            pending[slot(sequence)] = false;
+        }
+    }
+
+    /**
+     * 新しい順ではなく古い順に、最近のチャットを最大count件返す
+     */
+    public synchronized List<Entry> recent(int count) {
+        long from = Math.max(oldestSequence, nextSequence - count);
+        List<Entry> entries = new ArrayList<>((int) (nextSequence - from));
+        for (long sequence = from; sequence < nextSequence; sequence++) {
+            entries.add(read(sequence));
+        }
+        return entries;
+    }
+
+    /**
+     * Discordへ送信される前に上書きされたエントリ数
+     */
+    public synchronized long getDroppedUndelivered() {
+        return droppedUndelivered;
+    }
+
+    private Entry read(long sequence) {
+        int slot = slot(sequence);
+        long cursor = positions[slot];
+        int nameLength = readShort(cursor);
+        cursor += 2;
+        String name = readString(cursor, nameLength);
+        cursor += nameLength;
+        int serverLength = readShort(cursor);
+        cursor += 2;
+        String server = readString(cursor, serverLength);
+        cursor += serverLength;
+        int bodyLength = (int) (positions[slot] + lengths[slot] - cursor);
+        String body = readString(cursor, bodyLength);
+        return new Entry(sequence, timestamps[slot], new UUID(uuidMost[slot], uuidLeast[slot]), name, server, body);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % maxEntries);
+    }
+
+    private int index(long position) {
+        return (int) (position % data.length);
+    }
+
+    private long writeShort(long position, int value) {
+        data[index(position)] = (byte) (value >>> 8);
+        data[index(position + 1)] = (byte) value;
+        return position + 2;
+    }
+
+    private int readShort(long position) {
+        return ((data[index(position)] & 0xFF) << 8) | (data[index(position + 1)] & 0xFF);
+    }
+
+    private long writeBytes(long position, byte[] bytes) {
+        int start = index(position);
+        int first = Math.min(bytes.length, data.length - start);
+        System.arraycopy(bytes, 0, data, start, first);
+        System.arraycopy(bytes, first, data, 0, bytes.length - first);
+        return position + bytes.length;
+    }
+
+    private String readString(long position, int length) {
+        byte[] bytes = new byte[length];
+        int start = index(position);
+        int first = Math.min(length, data.length - start);
+        System.arraycopy(data, start, bytes, 0, first);
+        System.arraycopy(data, 0, bytes, first, length - first);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * UTF-8の文字の途中で切らないように切り詰める
+     */
+    static byte[] truncate(byte[] bytes, int maxLength) {
+        if (bytes.length <= maxLength) {
+            return bytes;
+        }
+        int end = maxLength;
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        byte[] truncated = new byte[end];
+        System.arraycopy(bytes, 0, truncated, 0, end);
+        return truncated;
+    }
+}
@@ -0,0 +1,584 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * チャットの追記専用ログ（モデレーション用の検索可能な履歴）
+ * データフォルダのchatlog/にメモリマップした固定サイズのセグメントファイルを作り、末尾に追記していく
+ *
+ * レコード形式: [int 残りの長さ][long 時刻][byte 種類][long UUID上位][long UUID下位][u8 名前長][名前][u8 サーバー名長][サーバー名][本文]
+ * セグメントごとに一定バイト数おきの（時刻, 位置）を疎な索引として持ち、検索は索引から開始位置を決めて
+ * マップしたファイルを直接走査する（セグメントをヒープに読み込まない）
+ *
+ * セグメントの切り替え時の事前確保・封印（索引の書き出しと切り詰め）と保持期間による削除は専用スレッドで行う
+ */
+public class ChatLog {
+
+    /**
+     * メッセージの発生元
+     */
+    public enum Source {
+        GAME,
+        DISCORD
+    }
+
+    /**
+     * 検索結果の1件
+     */
+    public record Record(long timestampMillis, Source source, UUID playerUuid, String playerName, String serverName, String message) {}
+
+    private static final int MAGIC = 0x56434C47; // "VCLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    // 長さ・時刻・種類・UUID・名前長・サーバー名長
+    private static final int FIXED_RECORD_SIZE = 4 + 8 + 1 + 16 + 1 + 1;
+    private static final int MAX_BODY_BYTES = 0xFFFF;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final long FLUSH_INTERVAL_SECONDS = 5;
+    private static final long RETENTION_INTERVAL_MINUTES = 1;
+
+    private final Path directory;
+    private final Logger logger;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final long retentionMillis;
+    private final long maxTotalBytes;
+    private final ScheduledExecutorService executor;
+
+    // 古い順の封印済みセグメント
+    private final List<SegmentIndex> sealed = new CopyOnWriteArrayList<>();
+    private volatile ActiveSegment active;
+    // 事前に確保しておく次のセグメント
+    private ActiveSegment spare;
+    private long nextSegmentNumber;
+    private long lastTimestamp;
+
+    public ChatLog(ConfigManager configManager, Logger logger) {
+        this.directory = configManager.getDataDirectory().resolve("chatlog");
+        this.logger = logger;
+        this.segmentSize = Math.max(1, configManager.getChatLogSegmentSizeMb()) * 1024 * 1024;
+        this.indexInterval = Math.max(1, configManager.getChatLogIndexIntervalKb()) * 1024;
+        this.retentionMillis = TimeUnit.DAYS.toMillis(configManager.getChatLogRetentionDays());
+        this.maxTotalBytes = (long) configManager.getChatLogMaxTotalMb() * 1024 * 1024;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "velocord-chatlog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 既存のセグメントを読み込み、新しいセグメントで追記を開始する
+     * 前回の終了時に書き込み中だったセグメントはここで封印する
+     */
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        for (Path path : segments) {
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(path) + 1);
+            SegmentIndex index = loadIndex(path);
+            if (index == null) {
+                // 1件も書かれていないセグメント（事前確保のみ）は削除
+                Files.deleteIfExists(path);
+                Files.deleteIfExists(indexPath(path));
+            } else {
+                sealed.add(index);
+                lastTimestamp = Math.max(lastTimestamp, index.lastTimestamp);
+            }
+        }
+
+        synchronized (this) {
+            active = createSegment(nextSegmentNumber++);
+        }
+        executor.execute(this::prepareSpare);
+        executor.scheduleAtFixedRate(this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        executor.scheduleAtFixedRate(this::applyRetention, 0, RETENTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        logger.info("チャットログを開始しました（既存セグメント: {} 件）", sealed.size());
+    }
+
+    /**
+     * 1件追記する（チャットのイベントスレッドから呼ばれ、マップ済みのメモリに書き込むだけで返る）
+     */
+    public void append(Source source, UUID playerUuid, String playerName, String serverName, String message) {
+        byte[] name = ChatHistoryBuffer.truncate(playerName.getBytes(StandardCharsets.UTF_8), 0xFF);
+        byte[] server = ChatHistoryBuffer.truncate(serverName.getBytes(StandardCharsets.UTF_8), 0xFF);
+        byte[] body = ChatHistoryBuffer.truncate(message.getBytes(StandardCharsets.UTF_8), MAX_BODY_BYTES);
+        int length = FIXED_RECORD_SIZE + name.length + server.length + body.length;
+        long mostBits = playerUuid == null ? 0 : playerUuid.getMostSignificantBits();
+        long leastBits = playerUuid == null ? 0 : playerUuid.getLeastSignificantBits();
+
+        synchronized (this) {
+            if (active == null) {
+                return;
+            }
+            // 時計の巻き戻りがあっても索引の二分探索が成り立つよう時刻を単調にする
+            long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+            lastTimestamp = timestamp;
+
+            if (active.remaining() < length && !rotate()) {
+                return;
+            }
+
+            ActiveSegment segment = active;
+            MappedByteBuffer buffer = segment.buffer;
+            int position = segment.position;
+            buffer.position(position + 4);
+            buffer.putLong(timestamp);
+            buffer.put((byte) source.ordinal());
+            buffer.putLong(mostBits);
+            buffer.putLong(leastBits);
+            buffer.put((byte) name.length);
+            buffer.put(name);
+            buffer.put((byte) server.length);
+            buffer.put(server);
+            buffer.put(body);
+            // 長さは最後に書き、読み手が書きかけのレコードを読まないようにする
+            buffer.putInt(position, length - 4);
+            segment.index.record(timestamp, position, length, indexInterval);
+            segment.position = position + length;
+        }
+    }
+
+    /**
+     * 現在のセグメントを封印して次のセグメントへ切り替える
+     */
+    private boolean rotate() {
+        ActiveSegment previous = active;
+        ActiveSegment next = spare;
+        spare = null;
+        try {
+            if (next == null) {
+                next = createSegment(nextSegmentNumber++);
+            }
+        } catch (IOException e) {
+            logger.warn("チャットログのセグメントを作成できませんでした: {}", e.getMessage());
+            return false;
+        }
+        active = next;
+        sealed.add(previous.index);
+        executor.execute(() -> {
+            seal(previous);
+            prepareSpare();
+        });
+        return true;
+    }
+
+    private void prepareSpare() {
+        long number;
+        synchronized (this) {
+            if (spare != null || active == null) {
+                return;
+            }
+            number = nextSegmentNumber++;
+        }
+        try {
+            // ファイルの確保は追記をブロックしないようロックの外で行う
+            ActiveSegment segment = createSegment(number);
+            synchronized (this) {
+                if (active != null) {
+                    spare = segment;
+                    return;
+                }
+            }
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            logger.warn("チャットログのセグメントを事前確保できませんでした: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 新しいセグメントファイルを確保してマップする
+     */
+    private ActiveSegment createSegment(long number) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", number, SEGMENT_SUFFIX));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(segmentSize);
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            return new ActiveSegment(path, buffer);
+        }
+    }
+
+    /**
+     * 書き込みの終わったセグメントをディスクに反映し、索引を書き出して未使用部分を切り詰める
+     */
+    private void seal(ActiveSegment segment) {
+        try {
+            segment.buffer.force();
+            writeIndex(segment.path, segment.index);
+            try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.WRITE)) {
+                channel.truncate(segment.position);
+            }
+        } catch (IOException | RuntimeException e) {
+            // 切り詰めに失敗しても終端は長さ0のレコードで判定できる
+            logger.debug("チャットログのセグメントの封印に失敗しました: {}", e.getMessage());
+        }
+    }
+
+    private void flush() {
+        ActiveSegment segment = active;
+        if (segment != null) {
+            try {
+                segment.buffer.force();
+            } catch (RuntimeException e) {
+                logger.warn("チャットログの書き出しに失敗しました: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 保持期間を過ぎたセグメントと、合計サイズの上限を超えた古いセグメントを削除する
+     */
+    private void applyRetention() {
+        try {
+            long cutoff = System.currentTimeMillis() - retentionMillis;
+            long total = segmentSize;
+            for (SegmentIndex index : sealed) {
+                total += Files.exists(index.path) ? Files.size(index.path) : 0;
+            }
+            for (SegmentIndex index : sealed) {
+                boolean expired = retentionMillis > 0 && index.lastTimestamp < cutoff;
+                boolean overLimit = maxTotalBytes > 0 && total > maxTotalBytes;
+                if (!expired && !overLimit) {
+                    break;
+                }
+                long size = Files.exists(index.path) ? Files.size(index.path) : 0;
+                sealed.remove(index);
+                Files.deleteIfExists(index.path);
+                Files.deleteIfExists(indexPath(index.path));
+                total -= size;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("チャットログの古いセグメントの削除に失敗しました: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 指定時刻以降の指定プレイヤー（名前の大文字小文字は区別しない）のメッセージを検索し、新しいものを最大limit件返す
+     * 結果は古い順
+     */
+    public CompletableFuture<List<Record>> query(String playerName, long sinceMillis, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            byte[] target = playerName.toLowerCase().getBytes(StandardCharsets.UTF_8);
+            Deque<Record> results = new ArrayDeque<>(limit);
+
+            List<SegmentIndex> segments = new ArrayList<>(sealed);
+            synchronized (this) {
+                if (active != null) {
+                    segments.add(active.index);
+                }
+            }
+
+            for (SegmentIndex index : segments) {
+                // 終端を先に読み、追記中のセグメントでも書き終えたレコードまでを走査する
+                int end = index.endOffset;
+                if (index.count > 0 && index.lastTimestamp >= sinceMillis) {
+                    scan(index.path, index.startOffset(sinceMillis), end, target, sinceMillis, limit, results);
+                }
+            }
+            return new ArrayList<>(results);
+        }, executor);
+    }
+
+    /**
+     * セグメントを読み取り専用でマップして走査する（一致したレコードのみ文字列にする）
+     *
+     * @param end 走査する終端（封印時の切り詰めと競合しないよう、ファイルサイズではなく書き込み済みの位置まで）
+     */
+    private void scan(Path path, int start, int end, byte[] target, long sinceMillis, int limit, Deque<Record> results) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = Math.min(end, channel.size());
+            if (size <= start) {
+                return;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int position = start;
+            while (position + FIXED_RECORD_SIZE <= size) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + 4L + length > size) {
+                    break;
+                }
+                long timestamp = buffer.getLong(position + 4);
+                int nameOffset = position + FIXED_RECORD_SIZE - 1;
+                int nameLength = buffer.get(nameOffset - 1) & 0xFF;
+                if (timestamp >= sinceMillis && matchesName(buffer, nameOffset, nameLength, target)) {
+                    if (results.size() == limit) {
+                        results.removeFirst();
+                    }
+                    results.addLast(readRecord(buffer, position, length));
+                }
+                position += 4 + length;
+            }
+        } catch (IOException e) {
+            // 保持期間で削除されたセグメントは読み飛ばす
+            logger.debug("チャットログのセグメントを読めませんでした: {}", path.getFileName());
+        }
+    }
+
+    private static boolean matchesName(ByteBuffer buffer, int offset, int length, byte[] target) {
+        if (length != target.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(offset + i);
+            // Minecraftのユーザー名はASCIIのみ
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != target[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Record readRecord(ByteBuffer buffer, int position, int length) {
+        int cursor = position + 4;
+        long timestamp = buffer.getLong(cursor);
+        cursor += 8;
+        Source[] sources = Source.values();
+        int sourceOrdinal = buffer.get(cursor++);
+        Source source = sourceOrdinal >= 0 && sourceOrdinal < sources.length ? sources[sourceOrdinal] : Source.GAME;
+        long mostBits = buffer.getLong(cursor);
+        long leastBits = buffer.getLong(cursor + 8);
+        cursor += 16;
+        int nameLength = buffer.get(cursor++) & 0xFF;
+        String name = readString(buffer, cursor, nameLength);
+        cursor += nameLength;
+        int serverLength = buffer.get(cursor++) & 0xFF;
+        String server = readString(buffer, cursor, serverLength);
+        cursor += serverLength;
+        String body = readString(buffer, cursor, position + 4 + length - cursor);
+        UUID uuid = mostBits == 0 && leastBits == 0 ? null : new UUID(mostBits, leastBits);
+        return new Record(timestamp, source, uuid, name, server, body);
+    }
+
+    private static String readString(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 索引ファイルを読み込む（なければセグメントを走査して作り直す）
+     *
+     * @return レコードが1件もなければnull
+     */
+    private SegmentIndex loadIndex(Path path) throws IOException {
+        Path indexPath = indexPath(path);
+        if (Files.exists(indexPath)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(indexPath))) {
+                SegmentIndex index = new SegmentIndex(path);
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    index.add(in.readLong(), in.readInt());
+                }
+                index.count = in.readLong();
+                index.lastTimestamp = in.readLong();
+                index.endOffset = in.readInt();
+                return index.count > 0 ? index : null;
+            } catch (IOException e) {
+                logger.warn("チャットログの索引が壊れているため作り直します: {}", indexPath.getFileName());
+            }
+        }
+
+        SegmentIndex index = new SegmentIndex(path);
+        int end = HEADER_SIZE;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size >= HEADER_SIZE) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (buffer.getInt(0) != MAGIC) {
+                    logger.warn("チャットログのセグメントの形式が不正です: {}", path.getFileName());
+                    return null;
+                }
+                while (end + FIXED_RECORD_SIZE <= size) {
+                    int length = buffer.getInt(end);
+                    if (length <= 0 || end + 4L + length > size) {
+                        break;
+                    }
+                    index.record(buffer.getLong(end + 4), end, 4 + length, indexInterval);
+                    end += 4 + length;
+                }
+            }
+        }
+        if (index.count == 0) {
+            return null;
+        }
+        writeIndex(path, index);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(end);
+        }
+        return index;
+    }
+
+    private void writeIndex(Path path, SegmentIndex index) throws IOException {
+        Path indexPath = indexPath(path);
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tempPath))) {
+            out.writeInt(index.size);
+            for (int i = 0; i < index.size; i++) {
+                out.writeLong(index.timestamps[i]);
+                out.writeInt(index.offsets[i]);
+            }
+            out.writeLong(index.count);
+            out.writeLong(index.lastTimestamp);
+            out.writeInt(index.endOffset);
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path indexPath(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return segmentPath.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 書き込み中の内容をディスクに反映して停止する
+     */
+    public void shutdown() {
+        ActiveSegment segment;
+        ActiveSegment unused;
+        synchronized (this) {
+            segment = active;
+            unused = spare;
+            active = null;
+            spare = null;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (segment != null) {
+            seal(segment);
+        }
+        if (unused != null) {
+            try {
+                Files.deleteIfExists(unused.path);
+            } catch (IOException e) {
+                logger.debug("未使用のセグメントを削除できませんでした: {}", unused.path.getFileName());
+            }
+        }
+    }
+
+    /**
+     * 書き込み中のセグメント
+     */
+    private static class ActiveSegment {
+        final Path path;
+        final MappedByteBuffer buffer;
+        final SegmentIndex index;
+        int position = HEADER_SIZE;
+
+        ActiveSegment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+            this.index = new SegmentIndex(path);
+        }
+
+        int remaining() {
+            return buffer.capacity() - position;
+        }
+    }
+
+    /**
+     * セグメントの疎な時刻索引（一定バイト数おきのレコードの時刻と位置）
+     * 書き込み中のセグメントでも検索と並行して更新されるため、読み書きは同期する
+     */
+    private static class SegmentIndex {
+        final Path path;
+        long[] timestamps = new long[16];
+        int[] offsets = new int[16];
+        int size;
+        volatile long count;
+        volatile long lastTimestamp;
+        // 書き込み済みの終端（これより後ろは読まない）
+        volatile int endOffset = HEADER_SIZE;
+        private int nextIndexedOffset;
+
+        SegmentIndex(Path path) {
+            this.path = path;
+        }
+
+        synchronized void record(long timestamp, int offset, int length, int interval) {
+            if (offset >= nextIndexedOffset) {
+                add(timestamp, offset);
+                nextIndexedOffset = offset + interval;
+            }
+            count++;
+            lastTimestamp = timestamp;
+            endOffset = offset + length;
+        }
+
+        synchronized void add(long timestamp, int offset) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            timestamps[size] = timestamp;
+            offsets[size] = offset;
+            size++;
+        }
+
+        /**
+         * 指定時刻以降のレコードを含む最初の走査開始位置（時刻がsinceより前の最後の索引点）
+         */
+        synchronized int startOffset(long since) {
+            int low = 0;
+            int high = size - 1;
+            int result = HEADER_SIZE;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] < since) {
+                    result = offsets[mid];
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.velocitydiscord;
 
 import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.connection.DisconnectEvent;
 import com.velocitypowered.api.event.player.PlayerChatEvent;
 import com.velocitypowered.api.event.player.ServerConnectedEvent;
 import com.velocitypowered.api.proxy.Player;
@@ -14,8 +15,14 @@ import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
 import org.slf4j.Logger;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ChatManager {
     
@@ -23,8 +30,26 @@ public class ChatManager {
     private final ConfigManager configManager;
     private final PermissionManager permissionManager;
     private final WebhookManager webhookManager;
-    private final Map<UUID, String> playerServers;
+    private final OnlinePlayerIndex onlinePlayers;
     private final Logger logger;
+    private ClusterManager clusterManager;
+    
+    // 送信失敗時の再送間隔
+    private static final long INITIAL_RETRY_MILLIS = 2000;
+    private static final long MAX_RETRY_MILLIS = 60000;
+    // 1件のチャットを再送する上限（超えたら未完了の送信先を諦めて次へ進む）
+    private static final int MAX_DELIVERY_ATTEMPTS = 8;
+    
+    private final ChatHistoryBuffer chatHistory;
+    private final AtomicBoolean delivering = new AtomicBoolean();
+    private volatile long retryDelayMillis = INITIAL_RETRY_MILLIS;
+    private volatile CompletableFuture<Void> pendingRetry;
+    // 送信中のエントリと、それを受け付けた（または恒久的に拒否した）Guild。再送時に受け付け済みのGuildへは送らない
+    private long deliveringSequence = -1;
+    private final Set<String> completedGuilds = ConcurrentHashMap.newKeySet();
+    private int deliveryAttempts;
+    private ChatLog chatLog;
+    private StageTimings stageTimings;
     
     public ChatManager(ProxyServer server, Logger logger, ConfigManager configManager, 
                       PermissionManager permissionManager, WebhookManager webhookManager) {
@@ -33,11 +58,42 @@ public class ChatManager {
         this.configManager = configManager;
         this.permissionManager = permissionManager;
         this.webhookManager = webhookManager;
-        this.playerServers = new HashMap<>();
+        this.onlinePlayers = new OnlinePlayerIndex(logger);
+        this.chatHistory = new ChatHistoryBuffer(configManager.getChatHistoryMaxEntries(), configManager.getChatHistoryBufferBytes());
+    }
+    
+    public void setChatLog(ChatLog chatLog) {
+        this.chatLog = chatLog;
+    }
+    
+    public void setClusterManager(ClusterManager clusterManager) {
+        this.clusterManager = clusterManager;
+    }
+    
+    public void setStageTimings(StageTimings stageTimings) {
+        this.stageTimings = stageTimings;
+    }
+    
+    private void recordStage(StageTimings.Stage stage, long startNanos, long startBytes) {
+        if (stageTimings != null) {
+            stageTimings.record(stage, startNanos, startBytes);
+        }
     }
     
     @Subscribe
     public void onPlayerChat(PlayerChatEvent event) {
+        long startNanos = System.nanoTime();
+        long startBytes = StageTimings.allocatedBytes();
+        try {
+            relayChat(event);
+        } finally {
+            recordStage(StageTimings.Stage.CHAT_RELAY, startNanos, startBytes);
+        }
+    }
+    
+    private void relayChat(PlayerChatEvent event) {
+        FlightEvents.ChatRelay flightEvent = new FlightEvents.ChatRelay();
+        flightEvent.begin();
         Player sourcePlayer = event.getPlayer();
         String originalMessage = event.getMessage();
 
@@ -60,6 +116,7 @@ public class ChatManager {
         Component formattedComponent = LegacyComponentSerializer.legacyAmpersand().deserialize(formattedMessageText);
 
         // 他のサーバーにいるプレイヤーにのみ、整形済みメッセージを送信
+        int recipients = 0;
         for (Player targetPlayer : server.getAllPlayers()) {
             // 自分自身には送信しない（バニラチャットが既にあるため）
             if (targetPlayer.equals(sourcePlayer)) {
@@ -75,28 +132,132 @@ public class ChatManager {
             
             // 異なるサーバーにいるか、プロキシにいるプレイヤーにメッセージを送信
             targetPlayer.sendMessage(formattedComponent);
+            recipients++;
         }
 
-        // DiscordへのWebhook送信は常に行う
-        if (configManager.isGameToDiscordEnabled()) {
-            String discordMessage = String.format("[%s] %s: %s", sourceServerDisplayName, sourcePlayer.getUsername(), originalMessage);
-            
-            webhookManager.sendMessageWithSkin(sourcePlayer.getUsername(), discordMessage, sourceServerDisplayName)
-                    .thenAccept(success -> {
-                        if (!success) {
-                            logger.warn("Discord Webhookへのメッセージ送信に失敗しました: {}", sourcePlayer.getUsername());
-                        }
-                    });
+        // クラスタ構成では他のプロキシのプレイヤーにも表示する（Webhook送信はリーダーが行う）
+        if (clusterManager != null) {
+            clusterManager.publishChat(sourcePlayer.getUniqueId(), sourcePlayer.getUsername(), sourceServerName,
+                sourceServerDisplayName, originalMessage, formattedMessageText);
+        }
+
+        // DiscordへのWebhook送信は常に行う（履歴に記録し、古い順に送信）
+        boolean deliver = configManager.isGameToDiscordEnabled() && (clusterManager == null || clusterManager.isLeader());
+        recordChat(sourcePlayer.getUniqueId(), sourcePlayer.getUsername(), sourceServerDisplayName, originalMessage, deliver);
+
+        if (flightEvent.shouldCommit()) {
+            flightEvent.player = sourcePlayer.getUsername();
+            flightEvent.server = sourceServerName;
+            flightEvent.messageLength = originalMessage.length();
+            flightEvent.recipients = recipients;
+            flightEvent.forwardedToDiscord = deliver;
+            flightEvent.commit();
         }
     }
+
+    /**
+     * チャットを履歴に記録し、必要ならDiscordへの送信待ちにする（クラスタの他ノードからのチャットも含む）
+     */
+    public void recordChat(UUID playerUuid, String playerName, String serverDisplayName, String message, boolean deliverToDiscord) {
+        boolean deliver = deliverToDiscord && webhookManager.hasTargets();
+        chatHistory.append(playerUuid, playerName, serverDisplayName, message, deliver);
+        if (chatLog != null) {
+            chatLog.append(ChatLog.Source.GAME, playerUuid, playerName, serverDisplayName, message);
+        }
+        if (deliver) {
+            deliverPending();
+        }
+    }
+
+    /**
+     * 送信待ちのチャットを古い順に1件ずつWebhookへ送る
+     * 一時的な失敗（5xx・通信エラー・429）は順序を保つため後続も止め、待機してから同じエントリの未完了の送信先だけに再送する
+     * 拒否された送信先（429以外の4xx）はそのエントリについて諦め、再送の上限に達したエントリも未完了の送信先を諦めて次へ進む
+     */
+    private void deliverPending() {
+        if (delivering.compareAndSet(false, true)) {
+            deliverNext();
+        }
+    }
+
+    private void deliverNext() {
+        ChatHistoryBuffer.Entry entry = chatHistory.oldestPending();
+        if (entry == null) {
+            delivering.set(false);
+            // 送信停止と同時に追加されたエントリを取りこぼさない
+            if (chatHistory.hasPending() && delivering.compareAndSet(false, true)) {
+                deliverNext();
+            }
+            return;
+        }
+
+        if (entry.sequence() != deliveringSequence) {
+            deliveringSequence = entry.sequence();
+            completedGuilds.clear();
+            deliveryAttempts = 0;
+        }
+        String discordMessage = String.format("[%s] %s: %s", entry.serverName(), entry.playerName(), entry.message());
+        webhookManager.sendMessageWithSkin(entry.playerUuid(), entry.playerName(), discordMessage, entry.serverName(), completedGuilds)
+                .whenComplete((success, error) -> {
+                    if (Boolean.TRUE.equals(success)) {
+                        chatHistory.markDelivered(entry.sequence());
+                        retryDelayMillis = INITIAL_RETRY_MILLIS;
+                        deliverNext();
+                        return;
+                    }
+                    if (++deliveryAttempts >= MAX_DELIVERY_ATTEMPTS) {
+                        logger.error("Discord Webhookへのメッセージ送信に {} 回失敗したため、このメッセージの送信を諦めます: {}",
+                            deliveryAttempts, entry.playerName());
+                        chatHistory.markDelivered(entry.sequence());
+                        retryDelayMillis = INITIAL_RETRY_MILLIS;
+                        deliverNext();
+                        return;
+                    }
+                    logger.warn("Discord Webhookへのメッセージ送信に失敗しました: {}。{}ms後に再送します",
+                        entry.playerName(), retryDelayMillis);
+                    CompletableFuture<Void> retry = new CompletableFuture<>();
+                    retry.completeOnTimeout(null, retryDelayMillis, TimeUnit.MILLISECONDS)
+                        .thenRun(this::deliverNext);
+                    pendingRetry = retry;
+                    retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_MILLIS);
+                });
+    }
+
+    /**
+     * 待機中の再送をすぐに実行する（Discordへの再接続時など）
+     */
+    public void retryPendingDeliveries() {
+        retryDelayMillis = INITIAL_RETRY_MILLIS;
+        CompletableFuture<Void> retry = pendingRetry;
+        if (retry != null) {
+            retry.complete(null);
+        }
+    }
+
+    /**
+     * 最近のチャット（古い順）
+     */
+    public List<ChatHistoryBuffer.Entry> getRecentChat(int count) {
+        return chatHistory.recent(count);
+    }
     
     @Subscribe
     public void onServerConnected(ServerConnectedEvent event) {
+        long startNanos = System.nanoTime();
+        long startBytes = StageTimings.allocatedBytes();
+        try {
+            announceServerConnected(event);
+        } finally {
+            recordStage(StageTimings.Stage.SERVER_CONNECTED, startNanos, startBytes);
+        }
+    }
+    
+    private void announceServerConnected(ServerConnectedEvent event) {
         Player player = event.getPlayer();
         RegisteredServer server = event.getServer();
         
         // プレイヤーが接続したサーバーを記録
-        playerServers.put(player.getUniqueId(), server.getServerInfo().getName());
+        onlinePlayers.put(player.getUniqueId(), player.getUsername(), server.getServerInfo().getName());
         
         // サーバー接続メッセージを送信
         String serverName = permissionManager.getServerDisplayName(server.getServerInfo().getName());
@@ -110,6 +271,11 @@ public class ChatManager {
         }
     }
     
+    @Subscribe
+    public void onDisconnect(DisconnectEvent event) {
+        onlinePlayers.remove(event.getPlayer().getUniqueId());
+    }
+    
     /**
      * 全プレイヤーにメッセージを送信（Discordからのメッセージ用）
      */
@@ -121,18 +287,47 @@ public class ChatManager {
         }
     }
     
+    /**
+     * 他のプロキシのプレイヤーのチャットを表示する
+     * 送信元と同じサーバーにいるプレイヤーにはバニラチャットで表示済みのため送らない（サーバー名が不明なら全員に送る）
+     */
+    public void broadcastClusterChat(String message, String sourceServerName) {
+        Component component = LegacyComponentSerializer.legacyAmpersand().deserialize(message);
+        
+        for (Player onlinePlayer : server.getAllPlayers()) {
+            if (sourceServerName != null && onlinePlayer.getCurrentServer()
+                    .map(connection -> connection.getServerInfo().getName().equals(sourceServerName))
+                    .orElse(false)) {
+                continue;
+            }
+            onlinePlayer.sendMessage(component);
+        }
+    }
+    
     /**
      * プレイヤーが現在接続しているサーバーを取得
      */
     public String getPlayerCurrentServer(UUID playerId) {
-        return playerServers.getOrDefault(playerId, "unknown");
+        OnlinePlayerIndex.Entry entry = onlinePlayers.get(playerId);
+        return entry != null ? entry.serverName() : "unknown";
     }
     
     /**
      * 全プレイヤーのサーバー情報を取得
      */
     public Map<UUID, String> getAllPlayerServers() {
-        return new HashMap<>(playerServers);
+        Map<UUID, String> playerServers = new HashMap<>();
+        for (OnlinePlayerIndex.Entry entry : onlinePlayers.getAll()) {
+            playerServers.put(entry.uuid(), entry.serverName());
+        }
+        return playerServers;
+    }
+    
+    /**
+     * 接続中のプレイヤーの索引（Discordのコマンドから参照する）
+     */
+    public OnlinePlayerIndex getOnlinePlayers() {
+        return onlinePlayers;
     }
 
     /**
@@ -0,0 +1,235 @@
+package com.example.velocitydiscord;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 外部依存（Discord REST・データベース）ごとのサーキットブレーカーと同時実行数の上限（バルクヘッド）
+ *
+ * 連続してfailure_threshold回失敗（タイムアウトを含む）するとOPENになり、open_msの間は呼び出さずに即座に失敗させる
+ * 期間が過ぎるとHALF_OPENになって1件だけ試し、成功すればCLOSEDに戻り、失敗すれば再びOPENになる
+ * 同時実行数が上限に達している場合も待たずに失敗させ、遅い依存先で呼び出し元のスレッドが詰まらないようにする
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 依存先が使えないため呼び出さなかった（またはタイムアウトした）ことを示す例外
+     */
+    public static class UnavailableException extends RuntimeException {
+        public UnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * 計測値のスナップショット
+     */
+    public record Metrics(String name, State state, long calls, long successes, long failures, long timeouts,
+                          long rejectedOpen, long rejectedBulkhead, int inFlight) {}
+
+    private final String name;
+    private final long timeoutMillis;
+    private final int maxConcurrent;
+    private final int failureThreshold;
+    private final long openMillis;
+    // 依存先の障害ではない例外（存在しないメンバーの取得など）を判定する
+    private final Predicate<Throwable> ignored;
+    private final Semaphore bulkhead;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtMillis;
+    private boolean probeInFlight;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejectedOpen = new AtomicLong();
+    private final AtomicLong rejectedBulkhead = new AtomicLong();
+
+    public CircuitBreaker(String name, long timeoutMillis, int maxConcurrent, int failureThreshold, long openMillis,
+                          Predicate<Throwable> ignored) {
+        this.name = name;
+        this.timeoutMillis = timeoutMillis;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.ignored = ignored;
+        this.bulkhead = new Semaphore(this.maxConcurrent);
+    }
+
+    /**
+     * resilience.<name>.* の設定から作成する
+     */
+    public static CircuitBreaker fromConfig(String name, ConfigManager configManager, Predicate<Throwable> ignored) {
+        return new CircuitBreaker(name,
+            configManager.getBreakerTimeoutMillis(name),
+            configManager.getBreakerMaxConcurrent(name),
+            configManager.getBreakerFailureThreshold(name),
+            configManager.getBreakerOpenMillis(name),
+            ignored);
+    }
+
+    /**
+     * 非同期の呼び出しを保護して実行する
+     * OPEN中・同時実行数超過・タイムアウトの場合はUnavailableExceptionで失敗したFutureを返す
+     */
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> action) {
+        calls.incrementAndGet();
+        boolean probe;
+        synchronized (this) {
+            probe = !permitCall();
+            if (probe && state != State.HALF_OPEN) {
+                rejectedOpen.incrementAndGet();
+                return CompletableFuture.failedFuture(new UnavailableException(name + " は一時的に停止中です（OPEN）", null));
+            }
+            if (probe) {
+                if (probeInFlight) {
+                    rejectedOpen.incrementAndGet();
+                    return CompletableFuture.failedFuture(new UnavailableException(name + " は復旧確認中です（HALF_OPEN）", null));
+                }
+                probeInFlight = true;
+            }
+        }
+        if (!bulkhead.tryAcquire()) {
+            rejectedBulkhead.incrementAndGet();
+            if (probe) {
+                synchronized (this) {
+                    probeInFlight = false;
+                }
+            }
+            return CompletableFuture.failedFuture(new UnavailableException(name + " の同時実行数が上限に達しています", null));
+        }
+
+        // 結果の記録はタイムアウトと本来の完了のうち先に来た方の1回だけ行う
+        AtomicBoolean recorded = new AtomicBoolean();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> future;
+        try {
+            future = action.get();
+        } catch (RuntimeException e) {
+            bulkhead.release();
+            record(recorded, e, probe);
+            return CompletableFuture.failedFuture(unavailable(e));
+        }
+
+        // 同時実行数は依存先の処理が実際に終わるまで解放しない（タイムアウト後も処理中なら数える）
+        future.whenComplete((value, error) -> {
+            bulkhead.release();
+            record(recorded, error, probe);
+            if (error == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        if (timeoutMillis > 0) {
+            result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return result.exceptionallyCompose(error -> {
+            Throwable cause = unwrap(error);
+            if (cause instanceof TimeoutException) {
+                timeouts.incrementAndGet();
+                record(recorded, cause, probe);
+                return CompletableFuture.failedFuture(new UnavailableException(name + " が " + timeoutMillis + "ms 以内に応答しませんでした", cause));
+            }
+            return CompletableFuture.failedFuture(unavailable(cause));
+        });
+    }
+
+    /**
+     * 依存先の障害による例外はUnavailableExceptionにまとめ、呼び出し側が縮退判定できるようにする
+     */
+    private Throwable unavailable(Throwable error) {
+        Throwable cause = unwrap(error);
+        if (ignored.test(cause) || cause instanceof UnavailableException) {
+            return cause;
+        }
+        return new UnavailableException(name + " の呼び出しに失敗しました: " + cause.getMessage(), cause);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * CLOSED、またはOPENの期間が過ぎてHALF_OPENになった場合のみ通常どおり呼び出せる
+     * HALF_OPENではfalseを返し、呼び出し側で1件だけ試行させる
+     */
+    private boolean permitCall() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAtMillis >= openMillis) {
+            state = State.HALF_OPEN;
+        }
+        return state == State.CLOSED;
+    }
+
+    /**
+     * 呼び出し結果を状態に反映する
+     *
+     * @param probe HALF_OPENでの試行だった場合true（その結果でCLOSEDに戻すか再びOPENにするかを決める）
+     */
+    private void record(AtomicBoolean recorded, Throwable error, boolean probe) {
+        if (!recorded.compareAndSet(false, true)) {
+            return;
+        }
+        Throwable cause = error == null ? null : unwrap(error);
+        boolean failed = cause != null && !ignored.test(cause);
+        synchronized (this) {
+            if (probe) {
+                probeInFlight = false;
+            }
+            if (!failed) {
+                successes.incrementAndGet();
+                consecutiveFailures = 0;
+                if (probe) {
+                    state = State.CLOSED;
+                }
+                return;
+            }
+            failures.incrementAndGet();
+            consecutiveFailures++;
+            if (probe || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = State.OPEN;
+                openedAtMillis = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * 例外（ExecutionException・CompletionExceptionで包まれたものを含む）が依存先の停止によるものか
+     */
+    public static boolean isUnavailable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof UnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        permitCall();
+        return state;
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(name, getState(), calls.get(), successes.get(), failures.get(), timeouts.get(),
+            rejectedOpen.get(), rejectedBulkhead.get(), maxConcurrent - bulkhead.availablePermits());
+    }
+}
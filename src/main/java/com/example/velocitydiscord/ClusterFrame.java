@@ -0,0 +1,125 @@
+package com.example.velocitydiscord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ノード間で送る1フレーム（複数メッセージをまとめたもの）
+ * 送信元ノード・起動エポック・連番を持ち、受信側は連番で重複を除外する
+ *
+ * @param senderId 送信元ノードID
+ * @param epoch 送信元の起動時刻（再起動で連番がリセットされたことを判定する）
+ * @param sequence 宛先ごとの連番
+ * @param messages まとめて送るメッセージ
+ */
+public record ClusterFrame(String senderId, long epoch, long sequence, List<Message> messages) {
+
+    private static final int VERSION = 1;
+
+    /**
+     * メッセージの種類
+     */
+    public enum Type {
+        // 生存通知（fields: リーダーを名乗っているか "1"/"0"）
+        HEARTBEAT,
+        // ゲーム内チャット（fields: UUID, プレイヤー名, サーバー表示名, 本文, 整形済みテキスト, 送信元のサーバー名）
+        CHAT,
+        // 参加・退出・移動のEmbed（fields: UUID, プレイヤー名, 種類, 移動元, 移動先）
+        PLAYER_ACTION,
+        // Discordからのメッセージ（fields: 表示名, 本文）
+        DISCORD_MESSAGE,
+        // サーバー接続権限の問い合わせ（fields: 要求ID, UUID, サーバー名）
+        ACCESS_QUERY,
+        // 問い合わせ結果（fields: 要求ID, "1"/"0"）
+        ACCESS_RESULT,
+        // キャッシュ無効化（fields: 種類, UUID, DiscordユーザーID）
+        INVALIDATE
+    }
+
+    /**
+     * フレーム内の1メッセージ
+     */
+    public record Message(Type type, List<String> fields) {
+        public static Message of(Type type, String... fields) {
+            return new Message(type, List.of(fields));
+        }
+
+        public String field(int index) {
+            return fields.get(index);
+        }
+    }
+
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            writeString(out, senderId);
+            out.writeLong(epoch);
+            out.writeLong(sequence);
+            out.writeInt(messages.size());
+            for (Message message : messages) {
+                out.writeByte(message.type().ordinal());
+                out.writeByte(message.fields().size());
+                for (String field : message.fields()) {
+                    writeString(out, field);
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static ClusterFrame decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("未対応のフレームバージョンです: " + version);
+        }
+        String senderId = readString(in);
+        long epoch = in.readLong();
+        long sequence = in.readLong();
+        int count = in.readInt();
+        Type[] types = Type.values();
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int ordinal = in.readUnsignedByte();
+            if (ordinal >= types.length) {
+                throw new IOException("不明なメッセージ種別です: " + ordinal);
+            }
+            int fieldCount = in.readUnsignedByte();
+            List<String> fields = new ArrayList<>(fieldCount);
+            for (int f = 0; f < fieldCount; f++) {
+                fields.add(readString(in));
+            }
+            messages.add(new Message(types[ordinal], fields));
+        }
+        return new ClusterFrame(senderId, epoch, sequence, messages);
+    }
+
+    // writeUTFは64KBまでのため、長さ付きのUTF-8で書く
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("不正な文字列長です: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
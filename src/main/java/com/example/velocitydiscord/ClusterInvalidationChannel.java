@@ -0,0 +1,31 @@
+package com.example.velocitydiscord;
+
+import java.util.function.Consumer;
+
+/**
+ * クラスタ通信で無効化通知を配る経路（DBへのポーリングなしで即座に反映される）
+ * 停止中のノードは通知を受け取れないが、キャッシュはメモリ上のみのため起動時には空になっている
+ */
+public class ClusterInvalidationChannel implements InvalidationChannel {
+
+    private final ClusterManager clusterManager;
+
+    public ClusterInvalidationChannel(ClusterManager clusterManager) {
+        this.clusterManager = clusterManager;
+    }
+
+    @Override
+    public void start(Consumer<CacheInvalidation> listener) {
+        clusterManager.setInvalidationListener(listener);
+    }
+
+    @Override
+    public void publish(CacheInvalidation invalidation) {
+        clusterManager.publishInvalidation(invalidation);
+    }
+
+    @Override
+    public void stop() {
+        clusterManager.setInvalidationListener(invalidation -> { });
+    }
+}
@@ -0,0 +1,424 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 複数のVelocityプロキシを1つのBotで運用するためのクラスタ管理
+ * 選出された1台（リーダー）だけがDiscordにログインし、他のプロキシはチャットやEmbedをリーダーへ転送する
+ * Discordからのメッセージはリーダーが各プロキシへ1回ずつ配り、各プロキシが自分のプレイヤーにだけ表示する
+ *
+ * リーダーは生存しているノードのうち、既にリーダーを名乗っているノード（いなければ全体）の最小IDとする
+ * 再起動したノードが現在のリーダーからリーダーを奪わないよう、名乗っているノードを優先する
+ */
+public class ClusterManager {
+
+    /**
+     * リーダーの交代通知（専用スレッドから呼ばれるため、ログイン処理などで待機してよい）
+     */
+    public interface LeadershipListener {
+        void onLeadershipChanged(boolean leader);
+    }
+
+    private final ConfigManager configManager;
+    private final ClusterTransport transport;
+    // ハートビートと送信のまとめ。サーバー監視など他の定期処理の遅れでハートビートが途切れないよう専用にする
+    private final ScheduledExecutorService scheduler;
+    private final ChatManager chatManager;
+    private final DiscordRelayQueue relayQueue;
+    private final Logger logger;
+
+    private final String nodeId;
+    private final long epoch = System.currentTimeMillis();
+    private final long heartbeatMillis;
+    private final long peerTimeoutMillis;
+    private final long batchMillis;
+    private final long queryTimeoutMillis;
+
+    private final Map<String, PeerState> peers = new ConcurrentHashMap<>();
+    private final Map<String, List<ClusterFrame.Message>> outbox = new HashMap<>();
+    private final Map<String, Long> nextSequence = new HashMap<>();
+    private final Map<Long, CompletableFuture<Boolean>> pendingQueries = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+    private final ExecutorService leadershipExecutor;
+    private final CircuitBreaker leaderBreaker;
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    private DiscordManager discordManager;
+    private PermissionManager permissionManager;
+    private LeadershipListener leadershipListener = leader -> { };
+    private volatile Consumer<CacheInvalidation> invalidationListener = invalidation -> { };
+
+    private volatile boolean electionOpen;
+    private volatile boolean leader;
+    private volatile String leaderId;
+
+    public ClusterManager(ConfigManager configManager, ClusterTransport transport, ChatManager chatManager,
+                          DiscordRelayQueue relayQueue, Logger logger) {
+        this.configManager = configManager;
+        this.transport = transport;
+        this.chatManager = chatManager;
+        this.relayQueue = relayQueue;
+        this.logger = logger;
+        this.nodeId = configManager.getClusterNodeId();
+        this.heartbeatMillis = configManager.getClusterHeartbeatMillis();
+        this.peerTimeoutMillis = configManager.getClusterPeerTimeoutMillis();
+        this.batchMillis = configManager.getClusterBatchMillis();
+        this.queryTimeoutMillis = configManager.getClusterQueryTimeoutMillis();
+        // リーダーが応答しなくなったら、ピアのタイムアウト（次のリーダー選出まで）の間は問い合わせずに縮退判定する
+        this.leaderBreaker = new CircuitBreaker("cluster", queryTimeoutMillis, 64, 3, peerTimeoutMillis, error -> false);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "velocord-cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.leadershipExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "velocord-cluster-leadership");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setDiscordManager(DiscordManager discordManager) {
+        this.discordManager = discordManager;
+    }
+
+    public void setPermissionManager(PermissionManager permissionManager) {
+        this.permissionManager = permissionManager;
+    }
+
+    public void setLeadershipListener(LeadershipListener leadershipListener) {
+        this.leadershipListener = leadershipListener;
+    }
+
+    public void setInvalidationListener(Consumer<CacheInvalidation> invalidationListener) {
+        this.invalidationListener = invalidationListener;
+    }
+
+    /**
+     * 通信を開始し、最初のリーダー選出が終わるまで待つ
+     * このノードがリーダーになった場合は、通知先の処理（Discordログイン）が終わるまで戻らない
+     */
+    public void start() {
+        try {
+            transport.start(this::onFrame);
+        } catch (IOException e) {
+            throw new IllegalStateException("クラスタ通信を開始できません: " + e.getMessage(), e);
+        }
+        synchronized (tasks) {
+            tasks.add(scheduler.scheduleAtFixedRate(this::heartbeat, 0, heartbeatMillis, TimeUnit.MILLISECONDS));
+            tasks.add(scheduler.scheduleAtFixedRate(this::flush, batchMillis, batchMillis, TimeUnit.MILLISECONDS));
+        }
+
+        try {
+            // 既存ノードのハートビートを受け取ってから選出する
+            Thread.sleep(heartbeatMillis * 2);
+            electionOpen = true;
+            evaluateLeadership();
+            leadershipExecutor.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("リーダー選出後の処理でエラーが発生しました", e.getCause());
+        }
+        logger.info("クラスタに参加しました: {} (リーダー: {})", nodeId, leaderId);
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getLeaderId() {
+        return leaderId;
+    }
+
+    /**
+     * ゲーム内チャットを全ノードへ送る
+     * 各ノードは自分のプレイヤーに表示し、リーダーはDiscordのWebhookへも送信する
+     */
+    public void publishChat(UUID playerUuid, String playerName, String serverName, String serverDisplayName,
+                            String message, String formattedMessage) {
+        sendToAll(ClusterFrame.Message.of(ClusterFrame.Type.CHAT,
+            playerUuid.toString(), playerName, serverDisplayName, message, formattedMessage, serverName));
+    }
+
+    /**
+     * 参加・退出・移動のEmbed送信をリーダーへ依頼する
+     */
+    public void forwardPlayerAction(UUID playerUuid, String playerName, DiscordManager.PlayerActionType actionType, String fromServer, String toServer) {
+        String target = leaderId;
+        if (target == null || target.equals(nodeId)) {
+            return;
+        }
+        sendTo(target, ClusterFrame.Message.of(ClusterFrame.Type.PLAYER_ACTION,
+            playerUuid.toString(), playerName, actionType.name(),
+            fromServer == null ? "" : fromServer, toServer == null ? "" : toServer));
+    }
+
+    /**
+     * Discordから受信したメッセージを他の全ノードへ1回ずつ配る（リーダーのみ呼び出す）
+     */
+    public void publishDiscordMessage(String authorName, String content) {
+        sendToAll(ClusterFrame.Message.of(ClusterFrame.Type.DISCORD_MESSAGE, authorName, content));
+    }
+
+    /**
+     * キャッシュ無効化を他の全ノードへ通知する
+     */
+    public void publishInvalidation(CacheInvalidation invalidation) {
+        sendToAll(ClusterFrame.Message.of(ClusterFrame.Type.INVALIDATE, invalidation.kind().name(),
+            invalidation.minecraftUuid() == null ? "" : invalidation.minecraftUuid().toString(),
+            invalidation.discordId() == null ? "" : invalidation.discordId()));
+    }
+
+    /**
+     * サーバー接続権限をリーダーに問い合わせる（Discordに接続していないノード用）
+     * 問い合わせはサーキットブレーカーで保護し、リーダーがいない・時間内に応答がない・応答しない状態が続いて
+     * 停止中の場合はCircuitBreaker.UnavailableExceptionを投げる（呼び出し元が resilience.fallback で判定する）
+     */
+    public boolean queryAccess(UUID playerUuid, String serverName) {
+        String target = leaderId;
+        if (target == null || target.equals(nodeId)) {
+            throw new CircuitBreaker.UnavailableException("クラスタのリーダーがいません", null);
+        }
+        long requestId = requestIds.incrementAndGet();
+        CompletableFuture<Boolean> query = leaderBreaker.call(() -> {
+            CompletableFuture<Boolean> result = new CompletableFuture<>();
+            pendingQueries.put(requestId, result);
+            sendTo(target, ClusterFrame.Message.of(ClusterFrame.Type.ACCESS_QUERY,
+                String.valueOf(requestId), playerUuid.toString(), serverName));
+            return result;
+        });
+        try {
+            return query.join();
+        } catch (CompletionException e) {
+            logger.warn("リーダー {} に権限を問い合わせできません（{}）: {}", target, serverName, e.getCause().getMessage());
+            throw e.getCause() instanceof CircuitBreaker.UnavailableException unavailable
+                ? unavailable : new CircuitBreaker.UnavailableException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            pendingQueries.remove(requestId);
+        }
+    }
+
+    public CircuitBreaker getLeaderCircuitBreaker() {
+        return leaderBreaker;
+    }
+
+    private void heartbeat() {
+        try {
+            evaluateLeadership();
+            sendToAll(ClusterFrame.Message.of(ClusterFrame.Type.HEARTBEAT, leader ? "1" : "0"));
+        } catch (RuntimeException e) {
+            logger.error("クラスタのハートビート処理でエラーが発生しました", e);
+        }
+    }
+
+    private synchronized void evaluateLeadership() {
+        if (!electionOpen) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        TreeSet<String> alive = new TreeSet<>();
+        TreeSet<String> claimers = new TreeSet<>();
+        alive.add(nodeId);
+        if (leader) {
+            claimers.add(nodeId);
+        }
+        for (Map.Entry<String, PeerState> entry : peers.entrySet()) {
+            PeerState state = entry.getValue();
+            if (now - state.lastSeenMillis <= peerTimeoutMillis) {
+                alive.add(entry.getKey());
+                if (state.claimsLeadership) {
+                    claimers.add(entry.getKey());
+                }
+            }
+        }
+
+        String elected = claimers.isEmpty() ? alive.first() : claimers.first();
+        if (!elected.equals(leaderId)) {
+            logger.info("クラスタのリーダーが変わりました: {} -> {}", leaderId, elected);
+            leaderId = elected;
+        }
+        boolean nowLeader = elected.equals(nodeId);
+        if (nowLeader != leader) {
+            leader = nowLeader;
+            leadershipExecutor.execute(() -> {
+                try {
+                    leadershipListener.onLeadershipChanged(nowLeader);
+                } catch (RuntimeException e) {
+                    logger.error("リーダー交代の処理でエラーが発生しました", e);
+                }
+            });
+        }
+    }
+
+    private void sendToAll(ClusterFrame.Message message) {
+        for (String peerId : transport.getPeerIds()) {
+            sendTo(peerId, message);
+        }
+    }
+
+    private void sendTo(String peerId, ClusterFrame.Message message) {
+        synchronized (outbox) {
+            outbox.computeIfAbsent(peerId, id -> new ArrayList<>()).add(message);
+        }
+    }
+
+    /**
+     * 宛先ごとに溜まったメッセージを1フレームにまとめて送信する
+     */
+    private void flush() {
+        List<ClusterFrame> frames = new ArrayList<>();
+        List<String> targets = new ArrayList<>();
+        synchronized (outbox) {
+            for (Map.Entry<String, List<ClusterFrame.Message>> entry : outbox.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                long sequence = nextSequence.merge(entry.getKey(), 1L, Long::sum);
+                frames.add(new ClusterFrame(nodeId, epoch, sequence, List.copyOf(entry.getValue())));
+                targets.add(entry.getKey());
+                entry.getValue().clear();
+            }
+        }
+        for (int i = 0; i < frames.size(); i++) {
+            try {
+                transport.send(targets.get(i), frames.get(i).encode());
+            } catch (RuntimeException e) {
+                logger.error("クラスタフレームの送信に失敗しました: {}", targets.get(i), e);
+            }
+        }
+    }
+
+    private void onFrame(byte[] data) {
+        ClusterFrame frame;
+        try {
+            frame = ClusterFrame.decode(data);
+        } catch (IOException e) {
+            logger.warn("クラスタフレームを解析できません: {}", e.getMessage());
+            return;
+        }
+
+        PeerState state = peers.computeIfAbsent(frame.senderId(), id -> new PeerState());
+        synchronized (state) {
+            if (state.epoch != frame.epoch()) {
+                // 送信元が再起動したので連番を振り直す
+                state.epoch = frame.epoch();
+                state.lastSequence = 0;
+            }
+            if (frame.sequence() <= state.lastSequence) {
+                // 再送による重複
+                return;
+            }
+            state.lastSequence = frame.sequence();
+            state.lastSeenMillis = System.currentTimeMillis();
+        }
+
+        for (ClusterFrame.Message message : frame.messages()) {
+            try {
+                handle(frame.senderId(), state, message);
+            } catch (RuntimeException e) {
+                logger.error("クラスタメッセージの処理でエラーが発生しました: {} from {}", message.type(), frame.senderId(), e);
+            }
+        }
+    }
+
+    private void handle(String senderId, PeerState state, ClusterFrame.Message message) {
+        switch (message.type()) {
+            case HEARTBEAT -> state.claimsLeadership = "1".equals(message.field(0));
+            case CHAT -> {
+                // 送信元のサーバー名がない古いノードからのフレームは全員に表示する
+                String sourceServer = message.fields().size() > 5 ? emptyToNull(message.field(5)) : null;
+                chatManager.broadcastClusterChat(message.field(4), sourceServer);
+                // リーダーは履歴経由でWebhookへ送信する（失敗時は順序を保って再送）
+                chatManager.recordChat(UUID.fromString(message.field(0)), message.field(1), message.field(2), message.field(3),
+                    leader && configManager.isGameToDiscordEnabled());
+            }
+            case PLAYER_ACTION -> {
+                if (leader && discordManager != null) {
+                    discordManager.sendPlayerActionEmbed(UUID.fromString(message.field(0)), message.field(1),
+                        DiscordManager.PlayerActionType.valueOf(message.field(2)),
+                        emptyToNull(message.field(3)), emptyToNull(message.field(4)));
+                }
+            }
+            case DISCORD_MESSAGE -> relayQueue.enqueue(message.field(0), message.field(1));
+            case ACCESS_QUERY -> {
+                if (!leader || permissionManager == null) {
+                    sendTo(senderId, ClusterFrame.Message.of(ClusterFrame.Type.ACCESS_RESULT, message.field(0), "0"));
+                    return;
+                }
+                UUID playerUuid = UUID.fromString(message.field(1));
+                String serverName = message.field(2);
+                CompletableFuture.supplyAsync(() -> permissionManager.canAccessServer(playerUuid, serverName))
+                    .exceptionally(e -> false)
+                    .thenAccept(allowed -> sendTo(senderId,
+                        ClusterFrame.Message.of(ClusterFrame.Type.ACCESS_RESULT, message.field(0), allowed ? "1" : "0")));
+            }
+            case INVALIDATE -> {
+                String uuid = message.field(1);
+                invalidationListener.accept(new CacheInvalidation(CacheInvalidation.Kind.valueOf(message.field(0)),
+                    uuid.isEmpty() ? null : UUID.fromString(uuid), emptyToNull(message.field(2))));
+            }
+            case ACCESS_RESULT -> {
+                CompletableFuture<Boolean> pending = pendingQueries.get(Long.parseLong(message.field(0)));
+                if (pending != null) {
+                    pending.complete("1".equals(message.field(1)));
+                }
+            }
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * リーダーを辞退したことを通知してから通信を閉じる
+     */
+    public void shutdown() {
+        synchronized (tasks) {
+            for (ScheduledFuture<?> task : tasks) {
+                task.cancel(false);
+            }
+            tasks.clear();
+        }
+        leader = false;
+        sendToAll(ClusterFrame.Message.of(ClusterFrame.Type.HEARTBEAT, "0"));
+        flush();
+        scheduler.shutdownNow();
+        leadershipExecutor.shutdownNow();
+        transport.close();
+    }
+
+    /**
+     * 受信側から見た送信元ノードの状態
+     */
+    private static final class PeerState {
+        private long epoch;
+        private long lastSequence;
+        private volatile long lastSeenMillis;
+        private volatile boolean claimsLeadership;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * クラスタ内のプロキシ間でフレームを送受信する通信路
+ * 送信は宛先ごとに順序を保つ。重複排除や再送の判定はClusterManager側で行う
+ */
+public interface ClusterTransport {
+
+    /**
+     * 受信したフレームの通知先
+     */
+    interface FrameListener {
+        void onFrame(byte[] frame);
+    }
+
+    /**
+     * 受信を開始する
+     */
+    void start(FrameListener listener) throws IOException;
+
+    /**
+     * 指定したノードへフレームを送信する（呼び出し元はブロックしない）
+     */
+    void send(String nodeId, byte[] frame);
+
+    /**
+     * 自分以外の送信先ノードID
+     */
+    Set<String> getPeerIds();
+
+    void close();
+
+    /**
+     * 設定に応じた通信路を作成する（tcp / local）
+     */
+    static ClusterTransport fromConfig(ConfigManager configManager, Logger logger) {
+        String nodeId = configManager.getClusterNodeId();
+        if ("local".equalsIgnoreCase(configManager.getClusterTransport())) {
+            return new LocalClusterTransport(nodeId);
+        }
+        return new TcpClusterTransport(nodeId, configManager.getClusterBindAddress(),
+            configManager.getClusterPeers(), configManager.getClusterSecret(), logger);
+    }
+}
@@ -2,6 +2,7 @@ package com.example.velocitydiscord;
 
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
@@ -10,16 +11,48 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ConfigManager {
     private final Path dataDirectory;
-    private Map<String, Object> config;
+    private volatile Map<String, Object> config;
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final ConfigPersistenceWriter persistenceWriter;
+
+    /**
+     * 設定変更の種類（リロード時に差分として通知される）
+     */
+    public enum ChangeType {
+        GUILDS, WEBHOOKS, ROLE_MAPPING, FORMATS, SERVER_STATUS, OTHER
+    }
+
+    /**
+     * 設定変更の通知先。変更された種類だけを受け取り、該当するキャッシュのみ再構築する
+     */
+    public interface ChangeListener {
+        void onConfigChanged(Set<ChangeType> changes);
+    }
 
     public ConfigManager(Path dataDirectory) {
         this.dataDirectory = dataDirectory;
+        this.persistenceWriter = new ConfigPersistenceWriter(dataDirectory.resolve("config.yml"), path -> get(path, null));
+    }
+
+    /**
+     * 予約済みの設定書き込みを完了させる
+     */
+    public void shutdown() {
+        persistenceWriter.shutdown();
+    }
+
+    public Path getDataDirectory() {
+        return dataDirectory;
     }
 
     public void loadConfig() {
@@ -64,6 +97,100 @@ public class ConfigManager {
         }
     }
 
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * config.ymlを再読み込みし、変更のあった種類を各リスナーに通知する
+     * ファイルがない・空・YAMLとして読めない・discordセクションがない場合は（エディタの保存途中など）
+     * 現在の設定を維持してIllegalStateExceptionを投げる
+     *
+     * @return 変更のあった種類（変更なしの場合は空）
+     */
+    public Set<ChangeType> reloadConfig() {
+        Map<String, Object> loaded = readConfigForReload(new File(dataDirectory.toFile(), "config.yml"));
+        Set<ChangeType> changes = EnumSet.noneOf(ChangeType.class);
+        // set()と同じロックで差し替えと差分の計算を行い、Guildの自動検出などの書き込みと入れ違わないようにする
+        synchronized (this) {
+            Map<String, Object> oldConfig = config;
+            Map<String, String> oldWebhooks = getGuildWebhookUrls();
+            // まだconfig.ymlに保存されていない変更は、読み直した内容で上書きせずに残す
+            for (String path : persistenceWriter.getPendingPaths()) {
+                loaded = withValue(loaded, path, get(path, null));
+            }
+            config = loaded;
+            System.out.println("[ConfigManager] ✅ config.ymlを再読み込みしました。設定項目数: " + config.size());
+
+            if (!Objects.equals(section(oldConfig, "discord", "guilds"), section(config, "discord", "guilds"))
+                    || !Objects.equals(section(oldConfig, "discord", "global_commands"), section(config, "discord", "global_commands"))) {
+                changes.add(ChangeType.GUILDS);
+            }
+            if (!oldWebhooks.equals(getGuildWebhookUrls())) {
+                changes.add(ChangeType.WEBHOOKS);
+            }
+            if (!Objects.equals(section(oldConfig, "permissions"), section(config, "permissions"))) {
+                changes.add(ChangeType.ROLE_MAPPING);
+            }
+            if (!Objects.equals(section(oldConfig, "chat"), section(config, "chat"))
+                    || !Objects.equals(section(oldConfig, "messages"), section(config, "messages"))
+                    || !Objects.equals(section(oldConfig, "embed"), section(config, "embed"))
+                    || !Objects.equals(section(oldConfig, "servers"), section(config, "servers"))) {
+                changes.add(ChangeType.FORMATS);
+            }
+            if (!Objects.equals(section(oldConfig, "server-status"), section(config, "server-status"))) {
+                changes.add(ChangeType.SERVER_STATUS);
+            }
+            if (changes.isEmpty() && !Objects.equals(oldConfig, config)) {
+                changes.add(ChangeType.OTHER);
+            }
+        }
+
+        if (!changes.isEmpty()) {
+            System.out.println("[ConfigManager] 🔄 変更された設定: " + changes);
+            for (ChangeListener listener : changeListeners) {
+                try {
+                    listener.onConfigChanged(changes);
+                } catch (RuntimeException e) {
+                    System.err.println("[ConfigManager] 設定変更の反映に失敗しました: " + e.getMessage());
+                }
+            }
+        }
+        return changes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readConfigForReload(File configFile) {
+        if (!configFile.isFile()) {
+            throw new IllegalStateException("config.ymlが見つかりません");
+        }
+        Object document;
+        try (FileInputStream fis = new FileInputStream(configFile)) {
+            document = new Yaml().load(fis);
+        } catch (IOException | YAMLException e) {
+            throw new IllegalStateException("config.ymlを読み込めません: " + e.getMessage(), e);
+        }
+        if (!(document instanceof Map<?, ?> map) || map.isEmpty()) {
+            throw new IllegalStateException("config.ymlが空か、設定の形式になっていません");
+        }
+        if (!(map.get("discord") instanceof Map)) {
+            throw new IllegalStateException("config.ymlにdiscordセクションがありません");
+        }
+        return (Map<String, Object>) map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object section(Map<String, Object> root, String... path) {
+        Object node = root;
+        for (String key : path) {
+            if (!(node instanceof Map)) {
+                return null;
+            }
+            node = ((Map<String, Object>) node).get(key);
+        }
+        return node;
+    }
+
     private void createDefaultConfig(File configFile) throws IOException {
         configFile.getParentFile().mkdirs();
         try (FileWriter writer = new FileWriter(configFile)) {
@@ -77,6 +204,14 @@ public class ConfigManager {
             writer.write("  # Guild ID自動検出機能（trueの場合、参加しているサーバーを自動検出）\n");
             writer.write("  auto_guild_detection: true\n");
             writer.write("  \n");
+            writer.write("  # スラッシュコマンドをグローバル登録する（trueの場合、サーバーごとの登録を行わず1回だけ登録）\n");
+            writer.write("  # グローバル登録は全サーバーへの反映に最大1時間かかります\n");
+            writer.write("  global_commands: false\n");
+            writer.write("  \n");
+            writer.write("  # Discord APIの接続先（空なら本番のDiscord）。負荷試験などで互換サーバーに向ける場合に指定\n");
+            writer.write("  # 例: \"http://127.0.0.1:8090/api\"（Webhook URLとBotのREST呼び出しの両方に適用。再起動で反映）\n");
+            writer.write("  api_base_url: \"\"\n");
+            writer.write("  \n");
             writer.write("  # 複数のDiscordサーバー設定\n");
             writer.write("  # auto_guild_detectionがtrueの場合、参加しているサーバーが自動追加されます\n");
             writer.write("  guilds: {}\n");
@@ -93,7 +228,37 @@ public class ConfigManager {
             writer.write("  discord_format: \"**[%server%]** %player%: %message%\"\n");
             writer.write("  discord_to_game_enabled: true\n");
             writer.write("  discord_to_game_format: \"&9[Discord] &b%player%&7: &f%message%\"\n");
-            writer.write("  game_to_discord_enabled: true\n\n");
+            writer.write("  game_to_discord_enabled: true\n");
+            writer.write("  # Discord→ゲーム内の中継設定（専用スレッドが一定間隔でまとめて配信）\n");
+            writer.write("  discord_relay:\n");
+            writer.write("    # 未配信メッセージの上限件数（変更は再起動後に反映）\n");
+            writer.write("    queue_capacity: 256\n");
+            writer.write("    # 配信間隔（ミリ秒、変更は再起動後に反映）\n");
+            writer.write("    tick_ms: 50\n");
+            writer.write("    # 1回の配信にまとめる最大メッセージ数\n");
+            writer.write("    max_lines_per_tick: 10\n");
+            writer.write("    # 1メッセージの最大文字数と最大行数（超えた分は切り詰め）\n");
+            writer.write("    max_message_length: 256\n");
+            writer.write("    max_message_lines: 4\n");
+            writer.write("    # 上限を超えたときの扱い（drop: 破棄 / summarize: 破棄した件数をゲーム内に表示）\n");
+            writer.write("    overflow_policy: \"summarize\"\n");
+            writer.write("    overflow_message: \"&7(Discordからのメッセージ %count% 件を省略しました)\"\n");
+            writer.write("  # 最近のチャット履歴（固定サイズのリングバッファ。Discordへの送信失敗時はここから順に再送）\n");
+            writer.write("  history:\n");
+            writer.write("    # 保持する最大件数と本文の最大バイト数（変更は再起動後に反映）\n");
+            writer.write("    max_entries: 512\n");
+            writer.write("    buffer_bytes: 131072\n");
+            writer.write("    # /serverstatus に表示する件数（0で非表示）\n");
+            writer.write("    show_in_status: 5\n");
+            writer.write("  # チャットログ（データフォルダのchatlog/に追記し、/vddebug chatlog で検索。変更は再起動後に反映）\n");
+            writer.write("  log:\n");
+            writer.write("    enabled: true\n");
+            writer.write("    # 1セグメントファイルのサイズと、時刻索引を作る間隔\n");
+            writer.write("    segment_size_mb: 16\n");
+            writer.write("    index_interval_kb: 64\n");
+            writer.write("    # 保持期間と合計サイズの上限（超えた古いセグメントから削除、0で無制限）\n");
+            writer.write("    retention_days: 30\n");
+            writer.write("    max_total_mb: 1024\n\n");
             
             // プレイヤーアクションメッセージ設定（Embed形式で送信）
             writer.write("messages:\n");
@@ -164,6 +329,10 @@ public class ConfigManager {
             writer.write("  failure_message: \"&cアカウントの連携に失敗しました。\"\n");
             writer.write("  already_linked_message: \"&eこのアカウントは既に連携されています。\"\n");
             writer.write("  unlink_message: \"&aアカウントの連携を解除しました。\"\n");
+            writer.write("  # 連携のDB書き込みをまとめて行う（ジャーナルで永続化し、クラッシュ後も復元）\n");
+            writer.write("  write_behind:\n");
+            writer.write("    enabled: true\n");
+            writer.write("    flush_interval_ms: 1000\n");
             writer.write("  connection_denied_message: |\n");
             writer.write("    &cこのサーバーを利用するにはDiscord連携が必要です\n");
             writer.write("    &eあなたの認証コード: &b%code%\n");
@@ -179,14 +348,130 @@ public class ConfigManager {
             writer.write("  # サーバーへの接続タイムアウト時間（ミリ秒）\n");
             writer.write("  ping-timeout: 3000\n");
             writer.write("  # サーバー状態通知専用のDiscordチャンネルID（空の場合は通常のチャンネルを使用）\n");
-            writer.write("  discord-channel: \"\"\n\n");
+            writer.write("  discord-channel: \"\"\n");
+            writer.write("  # 状態変化ごとに新しいメッセージを送る代わりに、1つのメッセージを編集し続けるダッシュボード\n");
+            writer.write("  dashboard:\n");
+            writer.write("    enabled: false\n");
+            writer.write("    # 更新間隔（秒）。内容が変わっていなければ編集しない\n");
+            writer.write("    update-interval: 10\n");
+            writer.write("    # チャンネルごとの1分あたりの最大編集回数\n");
+            writer.write("    max-edits-per-minute: 6\n\n");
+            
+            // アバター設定
+            writer.write("avatar:\n");
+            writer.write("  # アバターURLの取得方法（template: URLテンプレート / render-service: ローカル描画サービス / local: 固定URL）\n");
+            writer.write("  provider: \"template\"\n");
+            writer.write("  # %uuid% と %name% が置換されます\n");
+            writer.write("  url_template: \"https://mc-heads.net/avatar/%uuid%\"\n");
+            writer.write("  # render-service使用時の問い合わせ先（レスポンス本文を画像URLとして使用）\n");
+            writer.write("  render_service_url: \"http://127.0.0.1:8085/avatar/%uuid%\"\n");
+            writer.write("  # キャッシュするプレイヤー数\n");
+            writer.write("  cache_size: 2000\n\n");
             
             // Embed設定
             writer.write("embed:\n");
             writer.write("  # Embedのフッター設定\n");
             writer.write("  footer:\n");
             writer.write("    text: \"Velocord v4.7.5\"\n");
-            writer.write("    icon_url: \"\"\n");
+            writer.write("    icon_url: \"\"\n\n");
+            
+            // 起動設定
+            writer.write("startup:\n");
+            writer.write("  # DB・Discord接続完了前、またはDBの初期化に失敗した後の接続の扱い（deny: 拒否 / allow: 権限チェックなしで許可）\n");
+            writer.write("  degraded_connect_policy: \"deny\"\n");
+            writer.write("  degraded_message: \"&eプロキシを起動中です。しばらくしてから再接続してください。\"\n");
+            writer.write("  # DBの初期化に失敗した状態で接続を拒否するときのメッセージ\n");
+            writer.write("  database_failed_message: \"&cデータベースに接続できないため、現在サーバーに接続できません。管理者に連絡してください。\"\n\n");
+            
+            // 設定ファイル監視
+            writer.write("config_watch:\n");
+            writer.write("  # config.ymlの変更を検知して自動で再読み込み（変更された項目のみ反映）\n");
+            writer.write("  enabled: true\n");
+            writer.write("  # 連続した書き込みをまとめる待機時間（ミリ秒）\n");
+            writer.write("  debounce_ms: 500\n");
+            writer.write("\n");
+            writer.write("# クラスタ設定（複数のVelocityプロキシで1つのBotを共有する場合）\n");
+            writer.write("# リーダーに選ばれた1台だけがDiscordにログインし、他はチャットやEmbedをリーダーへ転送します\n");
+            writer.write("# 全プロキシで同じMySQLデータベースを使用してください\n");
+            writer.write("cluster:\n");
+            writer.write("  enabled: false\n");
+            writer.write("  # このプロキシのID（クラスタ内で一意。IDが小さいノードが優先してリーダーになる）\n");
+            writer.write("  node_id: \"proxy-1\"\n");
+            writer.write("  # 通信方式（tcp: プロキシ間のTCP接続 / local: 同一JVM内のみ、動作確認用）\n");
+            writer.write("  transport: \"tcp\"\n");
+            writer.write("  # 待ち受けアドレス（他のホストのプロキシとつなぐ場合は、そのホストから届くアドレスを指定）\n");
+            writer.write("  bind: \"127.0.0.1:25590\"\n");
+            writer.write("  # 接続時に照合する共有シークレット（全プロキシで同じ値、16文字以上。空の場合tcpでは起動しません）\n");
+            writer.write("  secret: \"\"\n");
+            writer.write("  # 他のプロキシ（ノードID: \"host:port\"）\n");
+            writer.write("  peers: {}\n");
+            writer.write("    # proxy-2: \"10.0.0.2:25590\"\n");
+            writer.write("  # 生存通知の間隔と、応答がないノードを停止とみなすまでの時間（ミリ秒）\n");
+            writer.write("  heartbeat_ms: 1000\n");
+            writer.write("  peer_timeout_ms: 5000\n");
+            writer.write("  # 転送メッセージをまとめて送る間隔（ミリ秒）\n");
+            writer.write("  batch_ms: 20\n");
+            writer.write("  # リーダーへの権限問い合わせのタイムアウト（ミリ秒）。応答がなければ resilience.fallback で判定\n");
+            writer.write("  access_query_timeout_ms: 1000\n");
+            writer.write("\n");
+            writer.write("# キャッシュ設定（連携情報と権限チェック結果をプロキシごとに保持）\n");
+            writer.write("cache:\n");
+            writer.write("  # 連携情報をキャッシュする最大プレイヤー数\n");
+            writer.write("  link_cache_size: 10000\n");
+            writer.write("  # 許可された権限チェック結果の有効期限（秒、0で無効）\n");
+            writer.write("  permission_ttl_seconds: 60\n");
+            writer.write("  # 他のプロキシの変更を受け取る方法\n");
+            writer.write("  # changelog: 共有DBの変更ログを定期的に読む / cluster: クラスタ通信で即時通知 / none: 通知しない\n");
+            writer.write("  # auto: クラスタが有効なら cluster、MySQLなら changelog、どちらでもなければ none（単独のプロキシでは不要）\n");
+            writer.write("  invalidation: \"auto\"\n");
+            writer.write("  # changelog使用時の読み込み間隔（ミリ秒）。他のプロキシの変更はこの時間以内に反映されます\n");
+            writer.write("  poll_interval_ms: 1000\n");
+            writer.write("  # 変更ログを保持する時間（分）\n");
+            writer.write("  changelog_retention_minutes: 60\n");
+            writer.write("\n");
+            writer.write("# 外部依存（Discord REST・データベース）の障害対策（変更は再起動後に反映）\n");
+            writer.write("resilience:\n");
+            writer.write("  # 依存先ごとの設定\n");
+            writer.write("  # timeout_ms: 応答を待つ時間 / max_concurrent: 同時に実行する呼び出しの上限（超えた分は待たずに失敗）\n");
+            writer.write("  # failure_threshold: 連続で失敗したら呼び出しを止める回数 / open_ms: 止めておく時間（過ぎたら1件だけ試して復旧を確認）\n");
+            writer.write("  discord:\n");
+            writer.write("    timeout_ms: 3000\n");
+            writer.write("    max_concurrent: 16\n");
+            writer.write("    failure_threshold: 5\n");
+            writer.write("    open_ms: 30000\n");
+            writer.write("  database:\n");
+            writer.write("    timeout_ms: 2000\n");
+            writer.write("    max_concurrent: 8\n");
+            writer.write("    failure_threshold: 5\n");
+            writer.write("    open_ms: 15000\n");
+            writer.write("  # 依存先が使えないときの接続判定\n");
+            writer.write("  # deny: 拒否 / allow_if_cached: 以前に許可されていれば許可 / degrade: startup.degraded_connect_policy に従う\n");
+            writer.write("  fallback: \"allow_if_cached\"\n");
+            writer.write("\n");
+            writer.write("# 負荷を考慮した接続先の振り分け（ログイン時の接続先とキックされたときの移動先）\n");
+            writer.write("routing:\n");
+            writer.write("  enabled: false\n");
+            writer.write("  # 振り分け候補のサーバー（空ならVelocityのtryリスト）\n");
+            writer.write("  servers: []\n");
+            writer.write("  # 接続人数1人あたりのスコア加算（ミリ秒換算。応答時間と合計して小さいサーバーを選ぶ）\n");
+            writer.write("  player_penalty_ms: 5\n");
+            writer.write("  # サーバーからキックされたときに候補の中から移動先を選ぶ\n");
+            writer.write("  kick_fallback: true\n");
+            writer.write("  # サーバーがオフラインになったとき、接続中のプレイヤーを候補のサーバーへまとめて移動する（server-status.enabled が必要）\n");
+            writer.write("  evacuation:\n");
+            writer.write("    enabled: false\n");
+            writer.write("    # 同時に行う接続要求の数\n");
+            writer.write("    max_concurrent: 8\n");
+            writer.write("    # プレイヤーが接続中のサーバーを、何回続けて接続できなかったらオフラインとみなすか\n");
+            writer.write("    confirm_probes: 2\n");
+            writer.write("\n");
+            writer.write("# 診断用の計測（/vddebug latency で表示）\n");
+            writer.write("diagnostics:\n");
+            writer.write("  # 1件あたりのメモリ確保量の上限（バイト）。超えた段階は赤で表示する（0で上限なし）\n");
+            writer.write("  allocation_budget_bytes:\n");
+            writer.write("    chat_relay: 65536\n");
+            writer.write("    discord_relay: 32768\n");
+            writer.write("    permission_check: 16384\n");
         }
     }
 
@@ -203,85 +488,6 @@ public class ConfigManager {
         }
     }
 
-    /**
-     * コメント保持機能付きでguilds設定のみを更新する
-     */
-    private void saveConfigWithComments() {
-        File configFile = new File(dataDirectory.toFile(), "config.yml");
-        try {
-            // 現在のファイル内容を読み取り
-            String currentContent = Files.readString(configFile.toPath());
-            
-            // guildsセクションの開始位置を見つける
-            int guildsStart = currentContent.indexOf("  guilds:");
-            if (guildsStart == -1) {
-                // guildsセクションが見つからない場合は通常の保存を実行
-                saveConfig();
-                return;
-            }
-            
-            // guilds行の終わり（改行）を見つける
-            int guildsLineEnd = currentContent.indexOf("\n", guildsStart);
-            if (guildsLineEnd == -1) guildsLineEnd = currentContent.length();
-            
-            // 次のセクション（permissions:）の開始位置を見つける
-            int nextSectionStart = currentContent.indexOf("\npermissions:", guildsLineEnd);
-            if (nextSectionStart == -1) {
-                nextSectionStart = currentContent.length();
-            }
-            
-            // guilds設定の新しい内容を生成
-            StringBuilder guildsContent = new StringBuilder();
-            guildsContent.append("  guilds:");
-            
-            Map<String, Map<String, Object>> guilds = getDiscordGuilds();
-            if (guilds.isEmpty()) {
-                guildsContent.append(" {}\n");
-                guildsContent.append("  # 手動設定例:\n");
-                guildsContent.append("  # \"1234567890123456789\":\n");
-                guildsContent.append("  #   name: \"メインサーバー\"\n");
-                guildsContent.append("  #   channel_id: \"YOUR_CHANNEL_ID\"\n");
-                guildsContent.append("  #   webhookUrl: \"YOUR_WEBHOOK_URL\"\n");
-                guildsContent.append("  #   enabled: true\n");
-            } else {
-                guildsContent.append("\n");
-                for (Map.Entry<String, Map<String, Object>> entry : guilds.entrySet()) {
-                    String guildId = entry.getKey();
-                    Map<String, Object> guildConfig = entry.getValue();
-                    
-                    guildsContent.append("    \"").append(guildId).append("\":\n");
-                    guildsContent.append("      name: \"").append(guildConfig.get("name")).append("\"\n");
-                    guildsContent.append("      channel_id: \"").append(guildConfig.getOrDefault("channel_id", "")).append("\"\n");
-                    guildsContent.append("      webhookUrl: \"").append(guildConfig.getOrDefault("webhookUrl", "")).append("\"\n");
-                    guildsContent.append("      enabled: ").append(guildConfig.getOrDefault("enabled", true)).append("\n");
-                    if ((boolean) guildConfig.getOrDefault("auto_detected", false)) {
-                        guildsContent.append("      auto_detected: true\n");
-                    }
-                }
-                
-                // コメント例を最後に追加
-                guildsContent.append("  # 手動設定例:\n");
-                guildsContent.append("  # \"1234567890123456789\":\n");
-                guildsContent.append("  #   name: \"メインサーバー\"\n");
-                guildsContent.append("  #   channel_id: \"YOUR_CHANNEL_ID\"\n");
-                guildsContent.append("  #   webhookUrl: \"YOUR_WEBHOOK_URL\"\n");
-                guildsContent.append("  #   enabled: true\n");
-            }
-            
-            // ファイル内容を再構築
-            String beforeGuilds = currentContent.substring(0, guildsStart);
-            String afterGuilds = currentContent.substring(nextSectionStart);
-            String newContent = beforeGuilds + guildsContent.toString() + afterGuilds;
-            
-            // ファイルに書き込み
-            Files.writeString(configFile.toPath(), newContent);
-            
-        } catch (IOException e) {
-            System.err.println("コメント保持機能付き保存に失敗しました。通常の保存を実行します: " + e.getMessage());
-            saveConfig(); // フォールバック
-        }
-    }
-
     @SuppressWarnings("unchecked")
     private <T> T get(String path, T def) {
         String[] parts = path.split("\\.");
@@ -297,14 +503,31 @@ public class ConfigManager {
         return (T) current.getOrDefault(parts[parts.length - 1], def);
     }
     
+    /**
+     * 値を設定する。読み取り中のスレッドに影響しないよう、経路上のマップを複製してから差し替える
+     */
+    private synchronized void set(String path, Object value) {
+        config = withValue(config, path, value);
+    }
+
+    /**
+     * 経路上のマップを複製して値を置き換えた設定を返す（元の設定は変更しない）
+     */
     @SuppressWarnings("unchecked")
-    private void set(String path, Object value) {
+    private static Map<String, Object> withValue(Map<String, Object> config, String path, Object value) {
         String[] parts = path.split("\\.");
-        Map<String, Object> current = config;
+        Map<String, Object> root = new java.util.LinkedHashMap<>(config);
+        Map<String, Object> current = root;
         for (int i = 0; i < parts.length - 1; i++) {
-            current = (Map<String, Object>) current.computeIfAbsent(parts[i], k -> new HashMap<>());
+            Object node = current.get(parts[i]);
+            Map<String, Object> copy = node instanceof Map
+                    ? new java.util.LinkedHashMap<>((Map<String, Object>) node)
+                    : new java.util.LinkedHashMap<>();
+            current.put(parts[i], copy);
+            current = copy;
         }
         current.put(parts[parts.length - 1], value);
+        return root;
     }
 
     // Discord
@@ -330,7 +553,18 @@ public class ConfigManager {
     
     public void setAutoGuildDetection(boolean enabled) {
         set("discord.auto_guild_detection", enabled);
-        saveConfig();
+        persistenceWriter.markDirty("discord.auto_guild_detection");
+    }
+    
+    public boolean isGlobalCommandsEnabled() {
+        return get("discord.global_commands", false);
+    }
+
+    /**
+     * Discord APIの接続先（空なら本番）
+     */
+    public String getDiscordApiBaseUrl() {
+        return get("discord.api_base_url", "");
     }
     
     // 複数Discordサーバー対応メソッド
@@ -344,13 +578,13 @@ public class ConfigManager {
      * Guild設定のみ自動生成し、ロール設定は手動設定が必要
      */
     @SuppressWarnings("unchecked")
-    public void autoGenerateGuildSettings(List<net.dv8tion.jda.api.entities.Guild> availableGuilds) {
+    public synchronized void autoGenerateGuildSettings(List<net.dv8tion.jda.api.entities.Guild> availableGuilds) {
         if (availableGuilds.isEmpty()) {
             return;
         }
         
         Map<String, Map<String, Object>> existingGuilds = getDiscordGuilds();
-        Map<String, Object> guildsConfig = new HashMap<>();
+        Map<String, Object> guildsConfig = new java.util.LinkedHashMap<>();
         
         // 既存の設定を保持
         for (Map.Entry<String, Map<String, Object>> entry : existingGuilds.entrySet()) {
@@ -364,7 +598,7 @@ public class ConfigManager {
             
             if (!guildsConfig.containsKey(guildId)) {
                 // Guild設定のみを追加
-                Map<String, Object> guildConfig = new HashMap<>();
+                Map<String, Object> guildConfig = new java.util.LinkedHashMap<>();
                 guildConfig.put("name", guild.getName());
                 guildConfig.put("channel_id", ""); // 手動設定が必要
                 guildConfig.put("webhookUrl", ""); // 手動設定が必要
@@ -378,7 +612,8 @@ public class ConfigManager {
         
         if (hasNewGuilds) {
             set("discord.guilds", guildsConfig);
-            saveConfigWithComments(); // コメント保持機能付きで保存
+            // ファイルへの書き込みは専用スレッドで行う（コメントを保持したままguildsのみ更新）
+            persistenceWriter.markDirty("discord.guilds");
         }
     }
     
@@ -426,6 +661,35 @@ public class ConfigManager {
         return (String) guildConfig.getOrDefault("webhookUrl", "");
     }
     
+    /**
+     * 有効なGuildのWebhook URLを Guild ID -> URL で返す
+     * Guildに設定がない場合は旧形式の discord.webhook_url を "default" として返す
+     */
+    public Map<String, String> getGuildWebhookUrls() {
+        Map<String, String> urls = new java.util.LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : getDiscordGuilds().entrySet()) {
+            Map<String, Object> guildConfig = entry.getValue();
+            if (!(Boolean) guildConfig.getOrDefault("enabled", true)) {
+                continue;
+            }
+            Object webhookUrl = guildConfig.get("webhookUrl");
+            if (isConfiguredWebhookUrl(webhookUrl)) {
+                urls.put(entry.getKey(), (String) webhookUrl);
+            }
+        }
+        if (urls.isEmpty()) {
+            String legacyUrl = get("discord.webhook_url", "");
+            if (isConfiguredWebhookUrl(legacyUrl)) {
+                urls.put("default", legacyUrl);
+            }
+        }
+        return urls;
+    }
+    
+    private static boolean isConfiguredWebhookUrl(Object url) {
+        return url instanceof String s && !s.isEmpty() && !s.equals("YOUR_WEBHOOK_URL");
+    }
+    
     // 後方互換性のため、最初に見つかったサーバーのチャンネルIDを返す
     public String getDiscordChannelId() { 
         Map<String, Map<String, Object>> guilds = getDiscordGuilds();
@@ -456,6 +720,29 @@ public class ConfigManager {
     public String getChatFormat() { return get("chat.format", "&7[&a%server%&7] &f%player%&7: &f%message%"); }
     public String getDiscordFormat() { return get("chat.discord_format", "**[%server%]** %player%: %message%"); }
     public String getDiscordToGameFormat() { return get("chat.discord_to_game_format", "&9[Discord] &b%player%&7: &f%message%"); }
+    
+    // Discord→ゲーム中継キュー
+    public int getRelayQueueCapacity() { return get("chat.discord_relay.queue_capacity", 256); }
+    public int getRelayTickMillis() { return get("chat.discord_relay.tick_ms", 50); }
+    public int getRelayMaxLinesPerTick() { return get("chat.discord_relay.max_lines_per_tick", 10); }
+    public int getRelayMaxMessageLength() { return get("chat.discord_relay.max_message_length", 256); }
+    public int getRelayMaxMessageLines() { return get("chat.discord_relay.max_message_lines", 4); }
+    public String getRelayOverflowMessage() { return get("chat.discord_relay.overflow_message", "&7(Discordからのメッセージ %count% 件を省略しました)"); }
+    
+    public int getChatHistoryMaxEntries() { return get("chat.history.max_entries", 512); }
+    public int getChatHistoryBufferBytes() { return get("chat.history.buffer_bytes", 131072); }
+    public int getChatHistoryShowInStatus() { return get("chat.history.show_in_status", 5); }
+    
+    public boolean isChatLogEnabled() { return get("chat.log.enabled", true); }
+    public int getChatLogSegmentSizeMb() { return get("chat.log.segment_size_mb", 16); }
+    public int getChatLogIndexIntervalKb() { return get("chat.log.index_interval_kb", 64); }
+    public int getChatLogRetentionDays() { return get("chat.log.retention_days", 30); }
+    public int getChatLogMaxTotalMb() { return get("chat.log.max_total_mb", 1024); }
+    
+    public DiscordRelayQueue.OverflowPolicy getRelayOverflowPolicy() {
+        String policy = get("chat.discord_relay.overflow_policy", "summarize");
+        return "drop".equalsIgnoreCase(policy) ? DiscordRelayQueue.OverflowPolicy.DROP : DiscordRelayQueue.OverflowPolicy.SUMMARIZE;
+    }
 
     // Linking - account_linkingセクションに対応
     public boolean isAccountLinkingEnabled() { return get("account_linking.enabled", true); }
@@ -464,10 +751,13 @@ public class ConfigManager {
     public String getAccountLinkingConnectionDeniedMessage() { return get("account_linking.connection_denied_message", "&cDiscord連携が必要です。あなたのコード: %code%"); }
     public String getAccountLinkingAlreadyLinkedMessage() { return get("account_linking.already_linked_message", "&eこのアカウントは既に連携済みです。"); }
     public String getAccountLinkingUnlinkMessage() { return get("account_linking.unlink_message", "&aアカウントの連携を解除しました。"); }
+    public boolean isLinkWriteBehindEnabled() { return get("account_linking.write_behind.enabled", true); }
+    public int getLinkWriteBehindFlushInterval() { return get("account_linking.write_behind.flush_interval_ms", 1000); }
     
     // Database
     public String getDatabaseType() { return get("database.type", "sqlite"); }
     public Map<String, Object> getMysqlConfig() { return get("database.mysql", Collections.emptyMap()); }
+    public String getSqliteFile() { return get("database.sqlite.file", "plugins/velocord/accounts.db"); }
 
     // Permissions - 複数サーバー対応の新しいロールマッピング構造
     @SuppressWarnings("unchecked")
@@ -514,6 +804,18 @@ public class ConfigManager {
     public String getServerStatusDiscordChannel() {
         return get("server-status.discord-channel", "");
     }
+
+    public boolean isServerStatusDashboardEnabled() {
+        return get("server-status.dashboard.enabled", false);
+    }
+
+    public int getServerStatusDashboardInterval() {
+        return get("server-status.dashboard.update-interval", 10);
+    }
+
+    public int getServerStatusDashboardMaxEditsPerMinute() {
+        return get("server-status.dashboard.max-edits-per-minute", 6);
+    }
     
     /**
      * サーバーの表示名を取得する
@@ -549,6 +851,23 @@ public class ConfigManager {
         return get("messages.server_offline", "🔴 **%server%** server is offline");
     }
     
+    // Avatar - アバター画像設定
+    public String getAvatarProvider() {
+        return get("avatar.provider", "template");
+    }
+    
+    public String getAvatarUrlTemplate() {
+        return get("avatar.url_template", "https://mc-heads.net/avatar/%uuid%");
+    }
+    
+    public String getAvatarRenderServiceUrl() {
+        return get("avatar.render_service_url", "http://127.0.0.1:8085/avatar/%uuid%");
+    }
+    
+    public int getAvatarCacheSize() {
+        return get("avatar.cache_size", 2000);
+    }
+    
     // Embed Footer - Embedフッター設定
     public String getEmbedFooterText() {
         return get("embed.footer.text", "Velocord v4.7.5");
@@ -557,4 +876,151 @@ public class ConfigManager {
     public String getEmbedFooterIconUrl() {
         return get("embed.footer.icon_url", "");
     }
-} 
\ No newline at end of file
+    
+    // Startup - 起動処理中の接続ポリシー
+    public boolean isDegradedConnectAllowed() {
+        return "allow".equalsIgnoreCase(get("startup.degraded_connect_policy", "deny"));
+    }
+    
+    public String getStartupDegradedMessage() {
+        return get("startup.degraded_message", "&eプロキシを起動中です。しばらくしてから再接続してください。");
+    }
+    
+    public String getStartupDatabaseFailedMessage() {
+        return get("startup.database_failed_message", "&cデータベースに接続できないため、現在サーバーに接続できません。管理者に連絡してください。");
+    }
+    
+    // Config Watch - 設定ファイル監視
+    public boolean isConfigWatchEnabled() {
+        return get("config_watch.enabled", true);
+    }
+    
+    public int getConfigWatchDebounce() {
+        return get("config_watch.debounce_ms", 500);
+    }
+    
+    // Cluster - 複数プロキシ構成
+    public boolean isClusterEnabled() {
+        return get("cluster.enabled", false);
+    }
+    
+    public String getClusterNodeId() {
+        return get("cluster.node_id", "proxy-1");
+    }
+    
+    public String getClusterTransport() {
+        return get("cluster.transport", "tcp");
+    }
+    
+    public String getClusterBindAddress() {
+        return get("cluster.bind", "127.0.0.1:25590");
+    }
+    
+    public String getClusterSecret() {
+        return get("cluster.secret", "");
+    }
+    
+    public Map<String, String> getClusterPeers() {
+        Map<String, Object> peers = get("cluster.peers", Collections.emptyMap());
+        Map<String, String> result = new java.util.LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : peers.entrySet()) {
+            if (entry.getValue() != null) {
+                result.put(entry.getKey(), entry.getValue().toString());
+            }
+        }
+        return result;
+    }
+    
+    public int getClusterHeartbeatMillis() {
+        return get("cluster.heartbeat_ms", 1000);
+    }
+    
+    public int getClusterPeerTimeoutMillis() {
+        return get("cluster.peer_timeout_ms", 5000);
+    }
+    
+    public int getClusterBatchMillis() {
+        return get("cluster.batch_ms", 20);
+    }
+    
+    public int getClusterQueryTimeoutMillis() {
+        return get("cluster.access_query_timeout_ms", 1000);
+    }
+    
+    // Cache - キャッシュ設定
+    public int getLinkCacheSize() {
+        return get("cache.link_cache_size", 10000);
+    }
+    
+    public int getPermissionCacheTtlSeconds() {
+        return get("cache.permission_ttl_seconds", 60);
+    }
+    
+    public String getCacheInvalidationMode() {
+        return get("cache.invalidation", "auto");
+    }
+    
+    public int getCacheInvalidationPollMillis() {
+        return get("cache.poll_interval_ms", 1000);
+    }
+    
+    public int getCacheChangeLogRetentionMinutes() {
+        return get("cache.changelog_retention_minutes", 60);
+    }
+    
+    // Resilience - 外部依存ごとのサーキットブレーカー設定（name: discord / database）
+    public int getBreakerTimeoutMillis(String name) {
+        return get("resilience." + name + ".timeout_ms", 3000);
+    }
+    
+    public int getBreakerMaxConcurrent(String name) {
+        return get("resilience." + name + ".max_concurrent", 16);
+    }
+    
+    public int getBreakerFailureThreshold(String name) {
+        return get("resilience." + name + ".failure_threshold", 5);
+    }
+    
+    public int getBreakerOpenMillis(String name) {
+        return get("resilience." + name + ".open_ms", 30000);
+    }
+    
+    public String getResilienceFallback() {
+        return get("resilience.fallback", "allow_if_cached");
+    }
+    
+    // Routing - 接続先の振り分け設定
+    public boolean isRoutingEnabled() {
+        return get("routing.enabled", false);
+    }
+    
+    public List<String> getRoutingServers() {
+        return get("routing.servers", Collections.emptyList());
+    }
+    
+    public int getRoutingPlayerPenaltyMillis() {
+        return get("routing.player_penalty_ms", 5);
+    }
+    
+    public boolean isRoutingKickFallbackEnabled() {
+        return get("routing.kick_fallback", true);
+    }
+    
+    public boolean isEvacuationEnabled() {
+        return get("routing.evacuation.enabled", false);
+    }
+    
+    public int getEvacuationMaxConcurrent() {
+        return get("routing.evacuation.max_concurrent", 8);
+    }
+    
+    public int getEvacuationConfirmProbes() {
+        return get("routing.evacuation.confirm_probes", 2);
+    }
+    
+    // Diagnostics - 診断用の計測設定
+    public long getAllocationBudgetBytes(String stageKey) {
+        Number budget = get("diagnostics.allocation_budget_bytes." + stageKey, 0);
+        return budget.longValue();
+    }
+}
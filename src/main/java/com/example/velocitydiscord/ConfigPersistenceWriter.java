@@ -0,0 +1,201 @@
+package com.example.velocitydiscord;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.representer.Representer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * config.ymlへの書き込みを専用スレッドで行うクラス
+ * 変更された設定パスだけをYAMLノードツリー上で置き換えるため、ユーザーのコメントはそのまま残る
+ * 短時間の複数変更は1回の書き込みにまとめ、一時ファイル＋リネームで原子的に置き換える
+ */
+public class ConfigPersistenceWriter {
+
+    // 変更をまとめる待機時間
+    private static final long COALESCE_MILLIS = 200;
+
+    private final Path configFile;
+    private final Function<String, Object> valueLookup;
+    private final Yaml yaml;
+    private final ScheduledExecutorService executor;
+
+    // 次回書き込み対象の設定パス（"discord.guilds" など）
+    private final Set<String> dirtyPaths = new LinkedHashSet<>();
+    // 書き込み中の設定パス
+    private final Set<String> writingPaths = new LinkedHashSet<>();
+    private boolean writeScheduled;
+
+    /**
+     * @param valueLookup 設定パスから現在のメモリ上の値を取得する関数
+     */
+    public ConfigPersistenceWriter(Path configFile, Function<String, Object> valueLookup) {
+        this.configFile = configFile;
+        this.valueLookup = valueLookup;
+
+        LoaderOptions loaderOptions = new LoaderOptions();
+        loaderOptions.setProcessComments(true);
+        DumperOptions dumperOptions = new DumperOptions();
+        dumperOptions.setProcessComments(true);
+        dumperOptions.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        dumperOptions.setIndent(2);
+        dumperOptions.setWidth(4096);
+        this.yaml = new Yaml(new Constructor(loaderOptions), new Representer(dumperOptions), dumperOptions, loaderOptions);
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "velocord-config-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 設定パスの書き込みを予約する（呼び出し元はブロックしない）
+     */
+    public synchronized void markDirty(String path) {
+        dirtyPaths.add(path);
+        if (!writeScheduled) {
+            writeScheduled = true;
+            executor.schedule(this::flush, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        List<String> paths;
+        synchronized (this) {
+            paths = new ArrayList<>(dirtyPaths);
+            dirtyPaths.clear();
+            writingPaths.addAll(paths);
+            writeScheduled = false;
+        }
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        try {
+            write(paths);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[ConfigManager] config.ymlの保存に失敗しました: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                paths.forEach(writingPaths::remove);
+            }
+        }
+    }
+
+    /**
+     * まだconfig.ymlに書き込み終わっていない設定パス（予約中と書き込み中）
+     */
+    public synchronized Set<String> getPendingPaths() {
+        Set<String> pending = new LinkedHashSet<>(dirtyPaths);
+        pending.addAll(writingPaths);
+        return pending;
+    }
+
+    private void write(List<String> paths) throws IOException {
+        Node root;
+        try (Reader reader = Files.newBufferedReader(configFile, StandardCharsets.UTF_8)) {
+            root = yaml.compose(reader);
+        }
+        if (!(root instanceof MappingNode)) {
+            root = new MappingNode(Tag.MAP, new ArrayList<>(), DumperOptions.FlowStyle.BLOCK);
+        }
+
+        for (String path : paths) {
+            replaceValue((MappingNode) root, path.split("\\."), yaml.represent(valueLookup.apply(path)));
+        }
+
+        Path temp = configFile.resolveSibling(configFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            yaml.serialize(root, writer);
+        }
+        Files.move(temp, configFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * ノードツリー上の指定パスの値を置き換える。途中のマッピングがなければ作成する
+     * キー側のノードはそのまま使うので、キーの上に書かれたコメントは保持される
+     */
+    private void replaceValue(MappingNode mapping, String[] path, Node value) {
+        MappingNode current = mapping;
+        for (int depth = 0; depth < path.length; depth++) {
+            String key = path[depth];
+            boolean last = depth == path.length - 1;
+            List<NodeTuple> tuples = current.getValue();
+
+            int index = -1;
+            for (int i = 0; i < tuples.size(); i++) {
+                Node keyNode = tuples.get(i).getKeyNode();
+                if (keyNode instanceof ScalarNode scalar && scalar.getValue().equals(key)) {
+                    index = i;
+                    break;
+                }
+            }
+
+            if (last) {
+                if (index >= 0) {
+                    NodeTuple old = tuples.get(index);
+                    value.setInLineComments(old.getValueNode().getInLineComments());
+                    value.setEndComments(old.getValueNode().getEndComments());
+                    tuples.set(index, new NodeTuple(old.getKeyNode(), value));
+                } else {
+                    tuples.add(new NodeTuple(scalarKey(key), value));
+                }
+                return;
+            }
+
+            Node child = index >= 0 ? tuples.get(index).getValueNode() : null;
+            if (!(child instanceof MappingNode)) {
+                MappingNode created = new MappingNode(Tag.MAP, new ArrayList<>(), DumperOptions.FlowStyle.BLOCK);
+                if (index >= 0) {
+                    tuples.set(index, new NodeTuple(tuples.get(index).getKeyNode(), created));
+                } else {
+                    tuples.add(new NodeTuple(scalarKey(key), created));
+                }
+                child = created;
+            }
+            current = (MappingNode) child;
+        }
+    }
+
+    private static ScalarNode scalarKey(String key) {
+        return new ScalarNode(Tag.STR, key, null, null, DumperOptions.ScalarStyle.PLAIN);
+    }
+
+    /**
+     * 予約済みの書き込みを済ませてから停止する
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
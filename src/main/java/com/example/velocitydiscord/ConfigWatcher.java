@@ -0,0 +1,108 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * config.ymlの変更を監視し、一定時間書き込みが止まってから再読み込みする
+ * エディタの保存で複数回イベントが来ても再読み込みは1回にまとめる
+ */
+public class ConfigWatcher implements Runnable {
+
+    private static final String CONFIG_FILE_NAME = "config.yml";
+
+    private final ConfigManager configManager;
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger;
+    private final long debounceMillis;
+
+    private WatchService watchService;
+    private Thread thread;
+    private ScheduledFuture<?> pendingReload;
+
+    public ConfigWatcher(ConfigManager configManager, ScheduledExecutorService scheduler, Logger logger) {
+        this.configManager = configManager;
+        this.scheduler = scheduler;
+        this.logger = logger;
+        this.debounceMillis = configManager.getConfigWatchDebounce();
+    }
+
+    /**
+     * データフォルダの監視を開始する
+     */
+    public void start() throws IOException {
+        Path directory = configManager.getDataDirectory();
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(this, "velocord-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("config.ymlの変更監視を開始しました (待機時間: {}ms)", debounceMillis);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path path && path.getFileName().toString().equals(CONFIG_FILE_NAME)) {
+                        scheduleReload();
+                    }
+                }
+                if (!key.reset()) {
+                    logger.warn("データフォルダが監視できなくなりました。config.ymlの自動再読み込みを停止します");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 停止
+        }
+    }
+
+    private synchronized void scheduleReload() {
+        if (pendingReload != null) {
+            pendingReload.cancel(false);
+        }
+        pendingReload = scheduler.schedule(this::reload, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void reload() {
+        try {
+            Set<ConfigManager.ChangeType> changes = configManager.reloadConfig();
+            if (!changes.isEmpty()) {
+                logger.info("config.ymlの変更を反映しました: {}", changes);
+            }
+        } catch (RuntimeException e) {
+            // 編集途中の不正なYAMLなど。現在の設定を維持する
+            logger.warn("config.ymlの再読み込みに失敗しました。現在の設定を維持します: {}", e.getMessage());
+        }
+    }
+
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("設定ファイル監視の停止に失敗しました: {}", e.getMessage());
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
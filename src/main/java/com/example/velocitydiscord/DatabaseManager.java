@@ -1,31 +1,154 @@
 package com.example.velocitydiscord;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import org.slf4j.Logger;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
 public class DatabaseManager {
+    // database.sqlite.file を使う前のバージョンがSQLiteのファイルを作っていた場所
+    private static final String LEGACY_SQLITE_FILE = "plugins/VelocityDiscord/accounts.db";
+    // 一括インポート/エクスポートの1トランザクションあたりの行数
+    private static final int BULK_CHUNK_SIZE = 1000;
+    // 進捗を通知する行間隔
+    private static final long BULK_PROGRESS_INTERVAL = 10000;
+
     private final ConfigManager configManager;
     private final Logger logger;
-    private HikariDataSource dataSource;
+    private final ScheduledExecutorService dbExecutor;
+    private volatile HikariDataSource dataSource;
+    private volatile State state = State.STARTING;
+    private LinkWriteBehindQueue writeBehindQueue;
+    private final LinkCache linkCache;
+    // 接続時に通る読み込みを保護する（DBが遅い・落ちている場合に接続処理を詰まらせない）
+    private final CircuitBreaker circuitBreaker;
+    // 同じプレイヤー・Discordユーザーの読み込みが同時に来たら1回のクエリにまとめる
+    private final SingleFlight<LookupKey, String> discordIdLookups = new SingleFlight<>();
+    private final SingleFlight<LookupKey, UUID> minecraftUuidLookups = new SingleFlight<>();
+
+    // キャッシュの世代が変わった後の読み込みは、変更前に始まった読み込みに相乗りさせない
+    private record LookupKey(Object id, long generation) {}
+    private final List<Consumer<CacheInvalidation>> invalidationListeners = new CopyOnWriteArrayList<>();
+    private InvalidationChannel invalidationChannel;
+
+    /**
+     * 初期化の状態
+     */
+    public enum State {
+        STARTING,
+        // テーブル作成とライトビハインドの準備まで終わった
+        READY,
+        // ドライバーの読み込み・接続・テーブル作成のいずれかに失敗した（再起動するまで使えない）
+        FAILED
+    }
 
     public DatabaseManager(ConfigManager configManager, Logger logger) {
         this.configManager = configManager;
         this.logger = logger;
+        this.dbExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "velocord-db");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.linkCache = new LinkCache(configManager.getLinkCacheSize());
+        this.circuitBreaker = CircuitBreaker.fromConfig("database", configManager, error -> false);
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * 同時の読み込みをまとめて省略できたクエリ数
+     */
+    public long getCoalescedLookups() {
+        return discordIdLookups.getCoalesced() + minecraftUuidLookups.getCoalesced();
+    }
+
+    /**
+     * 他のプロキシとキャッシュ無効化をやり取りする経路を設定する（initialize前に呼ぶ）
+     */
+    public void setInvalidationChannel(InvalidationChannel invalidationChannel) {
+        this.invalidationChannel = invalidationChannel;
+    }
+
+    /**
+     * 連携・ロールの変更通知を受け取る（自分と他のプロキシの両方の変更が通知される）
+     */
+    public void addInvalidationListener(Consumer<CacheInvalidation> listener) {
+        invalidationListeners.add(listener);
+    }
+
+    /**
+     * 変更をこのプロキシのキャッシュに反映し、他のプロキシへ通知する
+     */
+    public void publishInvalidation(CacheInvalidation invalidation) {
+        applyInvalidation(invalidation);
+        if (invalidationChannel != null) {
+            invalidationChannel.publish(invalidation);
+        }
+    }
+
+    private void applyInvalidation(CacheInvalidation invalidation) {
+        if (invalidation.kind() == CacheInvalidation.Kind.ALL) {
+            linkCache.clear();
+        } else if (invalidation.kind() != CacheInvalidation.Kind.ROLE) {
+            linkCache.invalidate(invalidation.minecraftUuid(), invalidation.discordId());
+        }
+        for (Consumer<CacheInvalidation> listener : invalidationListeners) {
+            try {
+                listener.accept(invalidation);
+            } catch (RuntimeException e) {
+                logger.error("キャッシュ無効化の通知先でエラーが発生しました", e);
+            }
+        }
     }
 
+    /**
+     * DBを初期化する。失敗した場合は例外を投げずにFAILEDの状態にする
+     */
     public void initialize() {
+        try {
+            open();
+        } finally {
+            if (state != State.READY) {
+                state = State.FAILED;
+                logger.error("データベースを使えません。アカウント連携など、DBを使う機能は再起動するまで無効です。");
+            }
+        }
+    }
+
+    private void open() {
         String dbType = configManager.getDatabaseType();
         logger.info("{} データベースの初期化を開始します...", dbType);
 
@@ -65,7 +188,7 @@ public class DatabaseManager {
             config.addDataSourceProperty("useSSL", "false");
             config.addDataSourceProperty("allowPublicKeyRetrieval", "true");
         } else { // sqlite
-            File dbFile = new File("plugins/VelocityDiscord/accounts.db");
+            File dbFile = resolveSqliteFile();
             logger.info("SQLite database file path: {}", dbFile.getAbsolutePath());
             
             if (!dbFile.getParentFile().exists()) {
@@ -93,7 +216,75 @@ public class DatabaseManager {
             logger.info("{} データベースの初期化が完了しました。", dbType);
         } catch (Exception e) {
             logger.error("{} データベースの初期化中にエラーが発生しました。", dbType, e);
+            return;
+        }
+
+        if (configManager.isLinkWriteBehindEnabled()) {
+            startWriteBehind();
+        }
+        state = State.READY;
+
+        if (invalidationChannel != null) {
+            invalidationChannel.start(this::applyInvalidation);
+        }
+    }
+
+    /**
+     * 連携書き込みのライトビハインドキューを開き、前回の未反映分を再投入して定期フラッシュを開始する
+     */
+    private void startWriteBehind() {
+        LinkWriteBehindQueue queue = new LinkWriteBehindQueue(
+                configManager.getDataDirectory().resolve("link-journal.log"), logger);
+        try {
+            int replayed = queue.open();
+            if (replayed > 0) {
+                logger.info("連携ジャーナルから未反映の連携を {} 件復元しました", replayed);
+            }
+        } catch (IOException e) {
+            logger.error("連携ジャーナルを開けません。連携はDBへ直接書き込みます。", e);
+            return;
+        }
+
+        writeBehindQueue = queue;
+        long interval = configManager.getLinkWriteBehindFlushInterval();
+        dbExecutor.scheduleWithFixedDelay(this::flushWriteBehind, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 未反映の連携をDBに書き込む（dbExecutor上で実行）
+     */
+    private void flushWriteBehind() {
+        if (writeBehindQueue == null || writeBehindQueue.getPendingCount() == 0) {
+            return;
+        }
+        FlightEvents.DatabaseStatement flightEvent = beginStatement();
+        try (Connection conn = getConnection()) {
+            LinkWriteBehindQueue.FlushResult result = writeBehindQueue.flush(conn, getUpsertSql());
+            commitStatement(flightEvent, "flushWriteBehind", getUpsertSql(), result.written().size(), true);
+            logger.debug("連携 {} 件をDBに書き込みました", result.written().size());
+            result.written().forEach((uuid, discordId) ->
+                    publishInvalidation(new CacheInvalidation(CacheInvalidation.Kind.LINK, uuid, discordId)));
+            result.rejected().forEach((uuid, discordId) -> {
+                logger.error("Discord ID {} は別のプレイヤーに連携済みのため、{} の連携を破棄しました", discordId, uuid);
+                // 未反映の連携をもとにした許可などを取り消す
+                publishInvalidation(new CacheInvalidation(CacheInvalidation.Kind.UNLINK, uuid, null));
+            });
+        } catch (SQLException | IOException e) {
+            commitStatement(flightEvent, "flushWriteBehind", getUpsertSql(), 0, false);
+            logger.error("連携のDB書き込みに失敗しました。次回のフラッシュで再試行します", e);
+        }
+    }
+
+    /**
+     * SQLiteのファイル（database.sqlite.file）
+     * 以前のバージョンは設定に関係なく固定の場所に作っていたため、そこにファイルがあればそれを使い続ける
+     */
+    private File resolveSqliteFile() {
+        File legacyFile = new File(LEGACY_SQLITE_FILE);
+        if (legacyFile.exists()) {
+            return legacyFile;
         }
+        return new File(configManager.getSqliteFile());
     }
 
     private void createTables() {
@@ -102,144 +293,602 @@ public class DatabaseManager {
                    + "minecraft_uuid VARCHAR(36) NOT NULL UNIQUE,"
                    + "discord_id VARCHAR(255) NOT NULL UNIQUE"
                    + ");";
+        // サーバー状態ダッシュボードのメッセージID（チャンネルごとに1件）
+        String dashboardSql = "CREATE TABLE IF NOT EXISTS status_dashboard ("
+                            + "channel_id VARCHAR(32) PRIMARY KEY,"
+                            + "message_id VARCHAR(32) NOT NULL"
+                            + ");";
         if ("sqlite".equalsIgnoreCase(configManager.getDatabaseType())) {
             sql = "CREATE TABLE IF NOT EXISTS linked_accounts ("
                 + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
                 + "minecraft_uuid TEXT NOT NULL UNIQUE,"
                 + "discord_id TEXT NOT NULL UNIQUE"
                 + ");";
+            dashboardSql = "CREATE TABLE IF NOT EXISTS status_dashboard ("
+                         + "channel_id TEXT PRIMARY KEY,"
+                         + "message_id TEXT NOT NULL"
+                         + ");";
         }
         
+        FlightEvents.DatabaseStatement flightEvent = beginStatement();
         try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
+            commitStatement(flightEvent, "createTables", sql, 0, true);
             logger.info("Database table 'linked_accounts' created/verified successfully");
             
         } catch (SQLException e) {
+            commitStatement(flightEvent, "createTables", sql, 0, false);
             logger.error("テーブルの作成に失敗しました", e);
         }
+
+        flightEvent = beginStatement();
+        try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute(dashboardSql);
+            commitStatement(flightEvent, "createTables", dashboardSql, 0, true);
+        } catch (SQLException e) {
+            commitStatement(flightEvent, "createTables", dashboardSql, 0, false);
+            logger.error("ダッシュボードのテーブル作成に失敗しました", e);
+        }
+    }
+
+    /**
+     * 初期化が完了してDBを使える状態か（起動直後はDiscordのログインと並列に初期化している）
+     */
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * 初期化に失敗してDBを使えない状態か
+     */
+    public boolean isFailed() {
+        return state == State.FAILED;
+    }
+
+    public State getState() {
+        return state;
     }
 
     public Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        HikariDataSource current = dataSource;
+        if (current == null) {
+            throw new SQLException(state == State.FAILED ? "データベースの初期化に失敗しています" : "データベースはまだ初期化されていません");
+        }
+        return current.getConnection();
+    }
+
+    private static FlightEvents.DatabaseStatement beginStatement() {
+        FlightEvents.DatabaseStatement flightEvent = new FlightEvents.DatabaseStatement();
+        flightEvent.begin();
+        return flightEvent;
+    }
+
+    /**
+     * JFRで記録中であれば、beginStatement()からの所要時間とSQLをイベントとして記録する
+     */
+    private static void commitStatement(FlightEvents.DatabaseStatement flightEvent, String operation, String sql, long rows, boolean success) {
+        if (flightEvent.shouldCommit()) {
+            flightEvent.operation = operation;
+            flightEvent.sql = sql;
+            flightEvent.rows = rows;
+            flightEvent.success = success;
+            flightEvent.commit();
+        }
     }
 
     public void shutdown() {
+        if (invalidationChannel != null) {
+            invalidationChannel.stop();
+        }
+        dbExecutor.shutdown();
+        try {
+            dbExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writeBehindQueue != null) {
+            // 残りを書き込んでから閉じる（失敗してもジャーナルから次回起動時に復元される）
+            flushWriteBehind();
+            writeBehindQueue.close();
+        }
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
             logger.info("データベース接続をシャットダウンしました。");
         }
     }
 
+    /**
+     * DBの種類に応じたlinked_accountsのUPSERT文を返す
+     */
+    private String getUpsertSql() {
+        if ("sqlite".equalsIgnoreCase(configManager.getDatabaseType())) {
+            return "INSERT INTO linked_accounts (minecraft_uuid, discord_id) VALUES (?, ?) "
+                 + "ON CONFLICT(minecraft_uuid) DO UPDATE SET discord_id=excluded.discord_id;";
+        }
+        return "INSERT INTO linked_accounts (minecraft_uuid, discord_id) VALUES (?, ?) "
+             + "ON DUPLICATE KEY UPDATE discord_id = VALUES(discord_id);";
+    }
+
     public CompletableFuture<Boolean> linkAccount(UUID minecraftUuid, String discordId) {
         return CompletableFuture.supplyAsync(() -> {
-            String sql = "INSERT INTO linked_accounts (minecraft_uuid, discord_id) VALUES (?, ?) "
-                       + "ON DUPLICATE KEY UPDATE discord_id = VALUES(discord_id);";
-            if ("sqlite".equalsIgnoreCase(configManager.getDatabaseType())) {
-                sql = "INSERT INTO linked_accounts (minecraft_uuid, discord_id) VALUES (?, ?) "
-                    + "ON CONFLICT(minecraft_uuid) DO UPDATE SET discord_id=excluded.discord_id;";
-            }
+            String sql = getUpsertSql();
             
+            FlightEvents.DatabaseStatement flightEvent = beginStatement();
             try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 pstmt.setString(1, minecraftUuid.toString());
                 pstmt.setString(2, discordId);
-                pstmt.executeUpdate();
+                int affected = pstmt.executeUpdate();
+                commitStatement(flightEvent, "linkAccount", sql, affected, true);
+                publishInvalidation(new CacheInvalidation(CacheInvalidation.Kind.LINK, minecraftUuid, discordId));
                 return true;
             } catch (SQLException e) {
+                commitStatement(flightEvent, "linkAccount", sql, 0, false);
                 logger.error("アカウント連携中にエラーが発生しました", e);
                 return false;
             }
         });
     }
 
-    public CompletableFuture<Boolean> isAccountLinked(UUID minecraftUuid) {
-        return CompletableFuture.supplyAsync(() -> {
-            String sql = "SELECT 1 FROM linked_accounts WHERE minecraft_uuid = ?";
-            try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                pstmt.setString(1, minecraftUuid.toString());
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    return rs.next();
-                }
-            } catch (SQLException e) {
-                logger.error("連携状態の確認中にエラーが発生しました", e);
-                return false;
+    /**
+     * linkAccountDeferredの結果
+     */
+    public enum LinkResult {
+        LINKED,
+        // Discord IDが別のプレイヤーに連携済み
+        ALREADY_LINKED,
+        FAILED
+    }
+
+    /**
+     * Discord IDが別のプレイヤーに連携済みでないことを確かめてから、連携をメモリとジャーナルに記録して返す
+     * （DBへは後でまとめて書き込む）
+     * ライトビハインドが無効な場合はlinkAccountと同じく直接書き込む
+     * 連携済みかどうかを確かめられない場合（DB障害など）は連携せずにFAILEDを返す
+     */
+    public CompletableFuture<LinkResult> linkAccountDeferred(UUID minecraftUuid, String discordId) {
+        return getMinecraftUuid(discordId).handle((owner, error) -> {
+            if (error != null) {
+                logger.error("Discord ID {} の連携状況を確認できません", discordId, error);
+                return CompletableFuture.completedFuture(LinkResult.FAILED);
             }
-        });
+            if (owner != null && !owner.equals(minecraftUuid)) {
+                return CompletableFuture.completedFuture(LinkResult.ALREADY_LINKED);
+            }
+            if (writeBehindQueue == null) {
+                return linkAccount(minecraftUuid, discordId).thenApply(success -> success ? LinkResult.LINKED : LinkResult.FAILED);
+            }
+            // 他のプロキシへの通知はDBに書き込んだ時点で行う
+            linkCache.invalidate(minecraftUuid, discordId);
+            return CompletableFuture.completedFuture(writeBehindQueue.enqueue(minecraftUuid, discordId));
+        }).thenCompose(result -> result);
+    }
+
+    public CompletableFuture<Boolean> isAccountLinked(UUID minecraftUuid) {
+        return getDiscordUserId(minecraftUuid).thenApply(discordId -> discordId != null);
     }
     
     public CompletableFuture<String> getDiscordUserId(UUID minecraftUuid) {
-        return CompletableFuture.supplyAsync(() -> {
+        if (writeBehindQueue != null) {
+            String pendingId = writeBehindQueue.getPendingDiscordId(minecraftUuid);
+            if (pendingId != null) {
+                return CompletableFuture.completedFuture(pendingId);
+            }
+        }
+        Optional<String> cached = linkCache.getDiscordId(minecraftUuid);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.orElse(null));
+        }
+        long generation = linkCache.generation();
+        return discordIdLookups.execute(new LookupKey(minecraftUuid, generation), () -> circuitBreaker.call(() -> CompletableFuture.supplyAsync(() -> {
             String sql = "SELECT discord_id FROM linked_accounts WHERE minecraft_uuid = ?";
+            FlightEvents.DatabaseStatement flightEvent = beginStatement();
             try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 pstmt.setString(1, minecraftUuid.toString());
+                String discordId = null;
                 try (ResultSet rs = pstmt.executeQuery()) {
                     if (rs.next()) {
-                        return rs.getString("discord_id");
+                        discordId = rs.getString("discord_id");
                     }
                 }
+                commitStatement(flightEvent, "getDiscordUserId", sql, discordId != null ? 1 : 0, true);
+                linkCache.putDiscordId(minecraftUuid, discordId, generation);
+                return discordId;
             } catch (SQLException e) {
+                commitStatement(flightEvent, "getDiscordUserId", sql, 0, false);
                 logger.error("DiscordユーザーIDの取得中にエラーが発生しました", e);
+                // 未連携と区別できるよう失敗として返す
+                throw new CompletionException(e);
             }
-            return null;
-        });
+        })));
     }
     
     public CompletableFuture<UUID> getMinecraftUuid(String discordId) {
-        return CompletableFuture.supplyAsync(() -> {
+        if (writeBehindQueue != null) {
+            UUID pendingUuid = writeBehindQueue.getPendingMinecraftUuid(discordId);
+            if (pendingUuid != null) {
+                return CompletableFuture.completedFuture(pendingUuid);
+            }
+        }
+        Optional<UUID> cached = linkCache.getMinecraftUuid(discordId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.orElse(null));
+        }
+        long generation = linkCache.generation();
+        return minecraftUuidLookups.execute(new LookupKey(discordId, generation), () -> circuitBreaker.call(() -> CompletableFuture.supplyAsync(() -> {
             String sql = "SELECT minecraft_uuid FROM linked_accounts WHERE discord_id = ?";
+            FlightEvents.DatabaseStatement flightEvent = beginStatement();
             try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 pstmt.setString(1, discordId);
+                UUID minecraftUuid = null;
                 try (ResultSet rs = pstmt.executeQuery()) {
                     if (rs.next()) {
-                        return UUID.fromString(rs.getString("minecraft_uuid"));
+                        minecraftUuid = UUID.fromString(rs.getString("minecraft_uuid"));
                     }
                 }
+                commitStatement(flightEvent, "getMinecraftUuid", sql, minecraftUuid != null ? 1 : 0, true);
+                linkCache.putMinecraftUuid(discordId, minecraftUuid, generation);
+                return minecraftUuid;
             } catch (SQLException e) {
+                commitStatement(flightEvent, "getMinecraftUuid", sql, 0, false);
                 logger.error("Minecraft UUIDの取得中にエラーが発生しました", e);
+                throw new CompletionException(e);
             }
-            return null;
-        });
+        })));
     }
     
+    /**
+     * 連携を解除する
+     * ライトビハインドのフラッシュと同じdbExecutor上で行い、書き込み中の連携が解除後に書き戻されないようにする
+     */
     public CompletableFuture<Boolean> unlinkAccount(UUID minecraftUuid) {
         return CompletableFuture.supplyAsync(() -> {
+            boolean discarded = false;
+            if (writeBehindQueue != null) {
+                discarded = writeBehindQueue.getPendingDiscordId(minecraftUuid) != null;
+                writeBehindQueue.discard(minecraftUuid);
+            }
             String sql = "DELETE FROM linked_accounts WHERE minecraft_uuid = ?";
+            FlightEvents.DatabaseStatement flightEvent = beginStatement();
             try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 pstmt.setString(1, minecraftUuid.toString());
                 int affected = pstmt.executeUpdate();
-                return affected > 0;
+                commitStatement(flightEvent, "unlinkAccount", sql, affected, true);
+                publishInvalidation(new CacheInvalidation(CacheInvalidation.Kind.UNLINK, minecraftUuid, null));
+                return affected > 0 || discarded;
             } catch (SQLException e) {
+                commitStatement(flightEvent, "unlinkAccount", sql, 0, false);
                 logger.error("アカウント連携解除中にエラーが発生しました", e);
                 return false;
             }
-        });
+        }, dbExecutor);
     }
     
+    /**
+     * Discord IDで連携を解除する（unlinkAccountと同じくdbExecutor上で行う）
+     */
     public CompletableFuture<Boolean> unlinkByDiscordId(String discordId) {
         return CompletableFuture.supplyAsync(() -> {
+            boolean discarded = false;
+            if (writeBehindQueue != null) {
+                UUID pendingUuid = writeBehindQueue.getPendingMinecraftUuid(discordId);
+                if (pendingUuid != null) {
+                    writeBehindQueue.discard(pendingUuid);
+                    discarded = true;
+                }
+            }
             String sql = "DELETE FROM linked_accounts WHERE discord_id = ?";
+            FlightEvents.DatabaseStatement flightEvent = beginStatement();
             try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 pstmt.setString(1, discordId);
                 int affected = pstmt.executeUpdate();
-                return affected > 0;
+                commitStatement(flightEvent, "unlinkByDiscordId", sql, affected, true);
+                publishInvalidation(new CacheInvalidation(CacheInvalidation.Kind.UNLINK, null, discordId));
+                return affected > 0 || discarded;
             } catch (SQLException e) {
+                commitStatement(flightEvent, "unlinkByDiscordId", sql, 0, false);
                 logger.error("Discord IDによるアカウント連携解除中にエラーが発生しました", e);
                 return false;
             }
-        });
+        }, dbExecutor);
+    }
+    
+    /**
+     * チャンネルに置いたサーバー状態ダッシュボードのメッセージID（未作成ならnull）
+     * 読み込みに失敗した場合は例外で完了する（未作成と区別し、ダッシュボードを二重に作らないため）
+     */
+    public CompletableFuture<String> getDashboardMessageId(String channelId) {
+        return circuitBreaker.call(() -> CompletableFuture.supplyAsync(() -> {
+            String sql = "SELECT message_id FROM status_dashboard WHERE channel_id = ?";
+            FlightEvents.DatabaseStatement flightEvent = beginStatement();
+            try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, channelId);
+                String messageId = null;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        messageId = rs.getString("message_id");
+                    }
+                }
+                commitStatement(flightEvent, "getDashboardMessageId", sql, messageId != null ? 1 : 0, true);
+                return messageId;
+            } catch (SQLException e) {
+                commitStatement(flightEvent, "getDashboardMessageId", sql, 0, false);
+                throw new CompletionException(e);
+            }
+        }));
+    }
+
+    /**
+     * サーバー状態ダッシュボードのメッセージIDを保存する（再起動やリーダー交代後も同じメッセージを編集するため）
+     */
+    public CompletableFuture<Boolean> saveDashboardMessageId(String channelId, String messageId) {
+        return circuitBreaker.call(() -> CompletableFuture.supplyAsync(() -> {
+            String sql;
+            if ("sqlite".equalsIgnoreCase(configManager.getDatabaseType())) {
+                sql = "INSERT INTO status_dashboard (channel_id, message_id) VALUES (?, ?) "
+                    + "ON CONFLICT(channel_id) DO UPDATE SET message_id=excluded.message_id;";
+            } else {
+                sql = "INSERT INTO status_dashboard (channel_id, message_id) VALUES (?, ?) "
+                    + "ON DUPLICATE KEY UPDATE message_id = VALUES(message_id);";
+            }
+            FlightEvents.DatabaseStatement flightEvent = beginStatement();
+            try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, channelId);
+                pstmt.setString(2, messageId);
+                int affected = pstmt.executeUpdate();
+                commitStatement(flightEvent, "saveDashboardMessageId", sql, affected, true);
+                return true;
+            } catch (SQLException e) {
+                commitStatement(flightEvent, "saveDashboardMessageId", sql, 0, false);
+                throw new CompletionException(e);
+            }
+        }));
+    }
+
+    /**
+     * 一括エクスポートのファイル形式
+     */
+    public enum ExportFormat {
+        CSV, NDJSON
+    }
+
+    /**
+     * 一括インポートの結果
+     */
+    public record ImportResult(long imported, long skipped) {}
+
+    /**
+     * linked_accountsをidの順にBULK_CHUNK_SIZE件ずつ読み出し、ファイルへストリーミング出力する
+     * 全件をメモリに載せずに書き出すため、数十万件でもヒープ使用量は一定
+     * コネクションはチャンクごとに取得して返すため、SQLite（コネクション1本）でもエクスポート中に連携の検索が止まらない
+     * その代わり全体で1つのスナップショットにはならず、出力中に変更された連携は変更前後のどちらかで出力される
+     *
+     * @param progress 出力済み件数の通知先（BULK_PROGRESS_INTERVAL件ごと）
+     * @return 出力した件数
+     */
+    public CompletableFuture<Long> exportLinkedAccounts(Path file, ExportFormat format, LongConsumer progress) {
+        return CompletableFuture.supplyAsync(() -> {
+            String sql = "SELECT id, minecraft_uuid, discord_id FROM linked_accounts WHERE id > ? ORDER BY id LIMIT ?";
+            long count = 0;
+
+            FlightEvents.DatabaseStatement flightEvent = beginStatement();
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                if (format == ExportFormat.CSV) {
+                    writer.write("minecraft_uuid,discord_id");
+                    writer.newLine();
+                }
+
+                long lastId = 0;
+                int fetched;
+                do {
+                    fetched = 0;
+                    try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                        pstmt.setLong(1, lastId);
+                        pstmt.setInt(2, BULK_CHUNK_SIZE);
+                        try (ResultSet rs = pstmt.executeQuery()) {
+                            while (rs.next()) {
+                                lastId = rs.getLong(1);
+                                writeExportRow(writer, format, rs.getString(2), rs.getString(3));
+                                fetched++;
+                                if (++count % BULK_PROGRESS_INTERVAL == 0) {
+                                    progress.accept(count);
+                                }
+                            }
+                        }
+                    }
+                } while (fetched == BULK_CHUNK_SIZE);
+            } catch (SQLException | IOException e) {
+                commitStatement(flightEvent, "exportLinkedAccounts", sql, count, false);
+                logger.error("連携アカウントのエクスポート中にエラーが発生しました", e);
+                throw new CompletionException(e);
+            }
+            commitStatement(flightEvent, "exportLinkedAccounts", sql, count, true);
+
+            logger.info("連携アカウント {} 件を {} にエクスポートしました", count, file.toAbsolutePath());
+            return count;
+        }, dbExecutor);
+    }
+
+    private void writeExportRow(BufferedWriter writer, ExportFormat format, String uuid, String discordId) throws IOException {
+        if (format == ExportFormat.CSV) {
+            writer.write(uuid);
+            writer.write(',');
+            writer.write(discordId);
+        } else {
+            JsonObject row = new JsonObject();
+            row.addProperty("minecraft_uuid", uuid);
+            row.addProperty("discord_id", discordId);
+            writer.write(row.toString());
+        }
+        writer.newLine();
+    }
+
+    /**
+     * CSVまたはNDJSONファイルから連携アカウントを一括インポートする
+     * ファイルは1行ずつ読み込み、BULK_CHUNK_SIZE件ごとにバッチ実行してコミットする（コネクションもチャンクごとに取得する）
+     * 形式は拡張子（.csv / それ以外はNDJSON）で判定し、既存の連携はUPSERTで上書きする
+     * discord_idが別のプレイヤーに連携済みの行は、インポートを止めずにスキップとして数える
+     *
+     * @param progress 処理済み件数の通知先（BULK_PROGRESS_INTERVAL件ごと）
+     */
+    public CompletableFuture<ImportResult> importLinkedAccounts(Path file, LongConsumer progress) {
+        return CompletableFuture.supplyAsync(() -> {
+            ExportFormat format = file.getFileName().toString().toLowerCase().endsWith(".csv")
+                    ? ExportFormat.CSV : ExportFormat.NDJSON;
+            long imported = 0;
+            long skipped = 0;
+
+            FlightEvents.DatabaseStatement flightEvent = beginStatement();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                List<String[]> chunk = new ArrayList<>(BULK_CHUNK_SIZE);
+                String line;
+                while (true) {
+                    line = reader.readLine();
+                    if (line != null) {
+                        String[] row = parseImportLine(line, format);
+                        if (row == null) {
+                            // ヘッダー行・空行・不正な行
+                            if (!line.isBlank() && !line.startsWith("minecraft_uuid")) {
+                                skipped++;
+                            }
+                            continue;
+                        }
+                        chunk.add(row);
+                    }
+                    if (chunk.size() == BULK_CHUNK_SIZE || (line == null && !chunk.isEmpty())) {
+                        long before = imported;
+                        int written = importChunk(chunk);
+                        imported += written;
+                        skipped += chunk.size() - written;
+                        chunk.clear();
+                        if (imported / BULK_PROGRESS_INTERVAL != before / BULK_PROGRESS_INTERVAL) {
+                            progress.accept(imported);
+                        }
+                    }
+                    if (line == null) {
+                        break;
+                    }
+                }
+            } catch (SQLException | IOException e) {
+                commitStatement(flightEvent, "importLinkedAccounts", getUpsertSql(), imported, false);
+                logger.error("連携アカウントのインポート中にエラーが発生しました（{}件コミット済み）", imported, e);
+                if (imported > 0) {
+                    publishInvalidation(CacheInvalidation.all());
+                }
+                throw new CompletionException(e);
+            }
+
+            commitStatement(flightEvent, "importLinkedAccounts", getUpsertSql(), imported, true);
+            publishInvalidation(CacheInvalidation.all());
+
+            logger.info("{} から連携アカウント {} 件をインポートしました（スキップ: {} 件）", file.toAbsolutePath(), imported, skipped);
+            return new ImportResult(imported, skipped);
+        }, dbExecutor);
+    }
+
+    /**
+     * 1チャンク分の行を1トランザクションで書き込み、書き込んだ行数を返す
+     * discord_idのUNIQUE制約に反する行（別のプレイヤーに連携済み、またはチャンク内で別のプレイヤーと重複）は除外する
+     */
+    private int importChunk(List<String[]> rows) throws SQLException {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement owner = conn.prepareStatement("SELECT minecraft_uuid FROM linked_accounts WHERE discord_id = ?");
+                 PreparedStatement upsert = conn.prepareStatement(getUpsertSql())) {
+                // discord_id -> このチャンクで連携するminecraft_uuid
+                Map<String, String> claimed = new HashMap<>();
+                int written = 0;
+                for (String[] row : rows) {
+                    String claimedBy = claimed.get(row[1]);
+                    String linkedTo = claimedBy != null ? claimedBy : findLinkedUuid(owner, row[1]);
+                    if (linkedTo != null && !linkedTo.equals(row[0])) {
+                        logger.debug("Discord ID {} は {} に連携済みのため {} の行をスキップします", row[1], linkedTo, row[0]);
+                        continue;
+                    }
+                    claimed.put(row[1], row[0]);
+                    upsert.setString(1, row[0]);
+                    upsert.setString(2, row[1]);
+                    upsert.addBatch();
+                    written++;
+                }
+                if (written > 0) {
+                    upsert.executeBatch();
+                }
+                conn.commit();
+                return written;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static String findLinkedUuid(PreparedStatement owner, String discordId) throws SQLException {
+        owner.setString(1, discordId);
+        try (ResultSet rs = owner.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    /**
+     * インポートファイルの1行を [minecraft_uuid, discord_id] に変換する。不正な行はnull
+     */
+    private String[] parseImportLine(String line, ExportFormat format) {
+        String uuid;
+        String discordId;
+        if (format == ExportFormat.CSV) {
+            int comma = line.indexOf(',');
+            if (comma < 0) {
+                return null;
+            }
+            uuid = line.substring(0, comma).trim();
+            discordId = line.substring(comma + 1).trim();
+        } else {
+            if (line.isBlank()) {
+                return null;
+            }
+            try {
+                JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+                JsonElement uuidElement = json.get("minecraft_uuid");
+                JsonElement discordElement = json.get("discord_id");
+                if (uuidElement == null || discordElement == null) {
+                    return null;
+                }
+                uuid = uuidElement.getAsString();
+                discordId = discordElement.getAsString();
+            } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+                return null;
+            }
+        }
+
+        try {
+            uuid = UUID.fromString(uuid).toString();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (discordId.isEmpty()) {
+            return null;
+        }
+        return new String[] { uuid, discordId };
     }
     
     // デバッグ用：データベース情報を表示
     public void debugDatabaseContents() {
+        String sql = "SELECT COUNT(*) as count FROM linked_accounts";
+        FlightEvents.DatabaseStatement flightEvent = beginStatement();
         try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
             // テーブル情報を確認
-            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) as count FROM linked_accounts")) {
+            try (ResultSet rs = stmt.executeQuery(sql)) {
                 if (rs.next()) {
                     int count = rs.getInt("count");
                     logger.info("Connected accounts: {}", count);
                 }
             }
+            commitStatement(flightEvent, "debugDatabaseContents", sql, 1, true);
             
         } catch (SQLException e) {
+            commitStatement(flightEvent, "debugDatabaseContents", sql, 0, false);
             logger.error("データベース内容の確認中にエラーが発生しました", e);
         }
     }
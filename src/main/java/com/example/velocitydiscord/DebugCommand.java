@@ -6,15 +6,38 @@ import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 public class DebugCommand implements SimpleCommand {
     private final PermissionManager permissionManager;
     private final DatabaseManager databaseManager;
+    private final ConfigManager configManager;
+    private final ChatLog chatLog;
+    private final StageTimings stageTimings;
+
+    // /vddebug chatlog で表示する最大件数
+    private static final int CHATLOG_RESULT_LIMIT = 50;
 
-    public DebugCommand(PermissionManager permissionManager, DatabaseManager databaseManager) {
+    public DebugCommand(PermissionManager permissionManager, DatabaseManager databaseManager, ConfigManager configManager, ChatLog chatLog,
+                        StageTimings stageTimings) {
         this.permissionManager = permissionManager;
         this.databaseManager = databaseManager;
+        this.configManager = configManager;
+        this.chatLog = chatLog;
+        this.stageTimings = stageTimings;
     }
 
     @Override
@@ -30,6 +53,9 @@ public class DebugCommand implements SimpleCommand {
         
         if (args.length == 0) {
             source.sendMessage(Component.text("使用方法: /vddebug <player> または /vddebug db", NamedTextColor.YELLOW));
+            source.sendMessage(Component.text("  /vddebug export <csv|ndjson> / /vddebug import <file>", NamedTextColor.GRAY));
+            source.sendMessage(Component.text("  /vddebug chatlog <player> <since> / /vddebug resilience", NamedTextColor.GRAY));
+            source.sendMessage(Component.text("  /vddebug latency [reset]", NamedTextColor.GRAY));
             return;
         }
         
@@ -42,6 +68,21 @@ public class DebugCommand implements SimpleCommand {
             case "cleanup":
                 performDatabaseCleanup(source);
                 break;
+            case "export":
+                performExport(source, args);
+                break;
+            case "import":
+                performImport(source, args);
+                break;
+            case "chatlog":
+                searchChatLog(source, args);
+                break;
+            case "resilience":
+                showResilienceInfo(source);
+                break;
+            case "latency":
+                showLatencyInfo(source, args);
+                break;
             default:
                 showPlayerInfo(source, args[0]);
                 break;
@@ -77,12 +118,16 @@ public class DebugCommand implements SimpleCommand {
             }
             
             // Discord連携状態
-            String discordId = databaseManager.getDiscordUserId(playerUuid).get();
-            if (discordId != null) {
-                source.sendMessage(Component.text("Discord連携: ✅ 連携済み", NamedTextColor.GREEN));
-                source.sendMessage(Component.text("Discord ID: " + discordId, NamedTextColor.GRAY));
+            if (databaseManager.isFailed()) {
+                source.sendMessage(Component.text("Discord連携: ⚠ データベースの初期化に失敗したため確認できません", NamedTextColor.YELLOW));
             } else {
-                source.sendMessage(Component.text("Discord連携: ❌ 未連携", NamedTextColor.RED));
+                String discordId = databaseManager.getDiscordUserId(playerUuid).get();
+                if (discordId != null) {
+                    source.sendMessage(Component.text("Discord連携: ✅ 連携済み", NamedTextColor.GREEN));
+                    source.sendMessage(Component.text("Discord ID: " + discordId, NamedTextColor.GRAY));
+                } else {
+                    source.sendMessage(Component.text("Discord連携: ❌ 未連携", NamedTextColor.RED));
+                }
             }
             
             // 詳細な権限情報
@@ -145,6 +190,82 @@ public class DebugCommand implements SimpleCommand {
         source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.AQUA));
     }
     
+    /**
+     * /vddebug resilience - 外部依存ごとのサーキットブレーカーの状態と計測値
+     */
+    private void showResilienceInfo(CommandSource source) {
+        source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.AQUA));
+        source.sendMessage(Component.text("🛡️ 外部依存の状態（フォールバック: " + configManager.getResilienceFallback() + "）", NamedTextColor.GREEN));
+        source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.AQUA));
+
+        DatabaseManager.State databaseState = databaseManager.getState();
+        source.sendMessage(Component.text("データベース: ", NamedTextColor.WHITE)
+            .append(Component.text(databaseState.name(), switch (databaseState) {
+                case READY -> NamedTextColor.GREEN;
+                case STARTING -> NamedTextColor.YELLOW;
+                case FAILED -> NamedTextColor.RED;
+            })));
+
+        for (CircuitBreaker breaker : List.of(permissionManager.getDiscordCircuitBreaker(), databaseManager.getCircuitBreaker())) {
+            CircuitBreaker.Metrics metrics = breaker.getMetrics();
+            NamedTextColor stateColor = switch (metrics.state()) {
+                case CLOSED -> NamedTextColor.GREEN;
+                case HALF_OPEN -> NamedTextColor.YELLOW;
+                case OPEN -> NamedTextColor.RED;
+            };
+            source.sendMessage(Component.text(metrics.name() + ": ", NamedTextColor.WHITE)
+                .append(Component.text(metrics.state().name(), stateColor))
+                .append(Component.text("（実行中: " + metrics.inFlight() + "）", NamedTextColor.GRAY)));
+            source.sendMessage(Component.text("  呼び出し: " + metrics.calls() + " / 成功: " + metrics.successes()
+                + " / 失敗: " + metrics.failures() + "（うちタイムアウト: " + metrics.timeouts() + "）", NamedTextColor.GRAY));
+            source.sendMessage(Component.text("  停止中で拒否: " + metrics.rejectedOpen()
+                + " / 同時実行数超過で拒否: " + metrics.rejectedBulkhead(), NamedTextColor.GRAY));
+        }
+
+        // 同時の問い合わせを1回にまとめて省略できた呼び出し
+        source.sendMessage(Component.text("同時問い合わせの統合で省略: 権限判定 " + permissionManager.getCoalescedChecks()
+            + " / メンバー取得 " + permissionManager.getCoalescedMemberFetches()
+            + " / DB読み込み " + databaseManager.getCoalescedLookups(), NamedTextColor.WHITE));
+
+        source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.AQUA));
+    }
+    
+    private void showLatencyInfo(CommandSource source, String[] args) {
+        if (args.length >= 2 && args[1].equalsIgnoreCase("reset")) {
+            stageTimings.reset();
+            source.sendMessage(Component.text("処理時間の計測値をリセットしました。", NamedTextColor.GREEN));
+            return;
+        }
+
+        source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.AQUA));
+        source.sendMessage(Component.text("⏱️ イベント処理時間とメモリ確保量", NamedTextColor.GREEN));
+        source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.AQUA));
+
+        for (StageTimings.Stage stage : StageTimings.Stage.values()) {
+            StageTimings.Summary summary = stageTimings.summarize(stage);
+            source.sendMessage(Component.text(stage.getLabel() + ": ", NamedTextColor.WHITE)
+                .append(Component.text(summary.count() + "件 (" + String.format("%.1f", summary.throughputPerSecond()) + "件/秒)", NamedTextColor.GRAY)));
+            source.sendMessage(Component.text("  p50: " + formatNanos(summary.p50()) + " / p99: " + formatNanos(summary.p99())
+                + " / p999: " + formatNanos(summary.p999()) + " / 最大: " + formatNanos(summary.max()), NamedTextColor.GRAY));
+            if (summary.bytesPerOperation() >= 0) {
+                long budget = configManager.getAllocationBudgetBytes(stage.name().toLowerCase());
+                boolean overBudget = budget > 0 && summary.bytesPerOperation() > budget;
+                String budgetText = budget > 0 ? "（上限 " + budget + " B" + (overBudget ? "・超過" : "") + "）" : "";
+                source.sendMessage(Component.text("  メモリ確保: " + summary.bytesPerOperation() + " B/件" + budgetText,
+                    overBudget ? NamedTextColor.RED : NamedTextColor.GRAY));
+            }
+        }
+
+        source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.AQUA));
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos >= 1_000_000) {
+            return String.format("%.1fms", nanos / 1_000_000.0);
+        }
+        return String.format("%.1fµs", nanos / 1_000.0);
+    }
+    
     private void performDatabaseCleanup(CommandSource source) {
         source.sendMessage(Component.text("🧹 データベースクリーンアップを実行中...", NamedTextColor.YELLOW));
         
@@ -157,6 +278,158 @@ public class DebugCommand implements SimpleCommand {
         }
     }
     
+    /**
+     * /vddebug export <csv|ndjson> - 連携アカウントをデータフォルダのexports/に書き出す
+     */
+    private void performExport(CommandSource source, String[] args) {
+        DatabaseManager.ExportFormat format;
+        try {
+            format = args.length >= 2 ? DatabaseManager.ExportFormat.valueOf(args[1].toUpperCase()) : DatabaseManager.ExportFormat.CSV;
+        } catch (IllegalArgumentException e) {
+            source.sendMessage(Component.text("使用方法: /vddebug export <csv|ndjson>", NamedTextColor.YELLOW));
+            return;
+        }
+
+        Path exportDir = getExportDirectory();
+        try {
+            Files.createDirectories(exportDir);
+        } catch (IOException e) {
+            source.sendMessage(Component.text("❌ エクスポート先フォルダを作成できません: " + e.getMessage(), NamedTextColor.RED));
+            return;
+        }
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path file = exportDir.resolve("linked_accounts-" + timestamp + "." + format.name().toLowerCase());
+        source.sendMessage(Component.text("📤 エクスポートを開始しました: " + file.getFileName(), NamedTextColor.YELLOW));
+
+        databaseManager.exportLinkedAccounts(file, format,
+                count -> source.sendMessage(Component.text("  ... " + count + " 件出力済み", NamedTextColor.GRAY)))
+            .whenComplete((count, error) -> {
+                if (error != null) {
+                    source.sendMessage(Component.text("❌ エクスポート中にエラーが発生しました: " + error.getMessage(), NamedTextColor.RED));
+                } else {
+                    source.sendMessage(Component.text("✅ " + count + " 件をエクスポートしました: " + file, NamedTextColor.GREEN));
+                }
+            });
+    }
+
+    /**
+     * /vddebug import <file> - exports/内のCSV/NDJSONを一括インポートする
+     * exports/の外（絶対パスや ../）は指定できない
+     */
+    private void performImport(CommandSource source, String[] args) {
+        if (args.length < 2) {
+            source.sendMessage(Component.text("使用方法: /vddebug import <file>", NamedTextColor.YELLOW));
+            return;
+        }
+
+        Path exportDir = getExportDirectory().toAbsolutePath().normalize();
+        Path file;
+        try {
+            file = exportDir.resolve(args[1]).normalize();
+        } catch (InvalidPathException e) {
+            file = null;
+        }
+        if (file == null || !file.startsWith(exportDir) || file.equals(exportDir)) {
+            source.sendMessage(Component.text("❌ exports/ 内のファイル名を指定してください: " + args[1], NamedTextColor.RED));
+            return;
+        }
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+            source.sendMessage(Component.text("❌ ファイルが見つかりません: " + file, NamedTextColor.RED));
+            return;
+        }
+
+        source.sendMessage(Component.text("📥 インポートを開始しました: " + file.getFileName(), NamedTextColor.YELLOW));
+
+        databaseManager.importLinkedAccounts(file,
+                count -> source.sendMessage(Component.text("  ... " + count + " 件取り込み済み", NamedTextColor.GRAY)))
+            .whenComplete((result, error) -> {
+                if (error != null) {
+                    source.sendMessage(Component.text("❌ インポート中にエラーが発生しました: " + error.getMessage(), NamedTextColor.RED));
+                } else {
+                    source.sendMessage(Component.text("✅ " + result.imported() + " 件をインポートしました（スキップ: "
+                            + result.skipped() + " 件）", NamedTextColor.GREEN));
+                }
+            });
+    }
+
+    /**
+     * /vddebug chatlog <player> <since> - チャットログから指定プレイヤーの発言を検索する
+     * sinceは 30m / 12h / 7d のような相対時間、または yyyy-MM-dd / yyyy-MM-ddTHH:mm
+     */
+    private void searchChatLog(CommandSource source, String[] args) {
+        if (chatLog == null) {
+            source.sendMessage(Component.text("チャットログは無効化されています。", NamedTextColor.RED));
+            return;
+        }
+        if (args.length < 3) {
+            source.sendMessage(Component.text("使用方法: /vddebug chatlog <player> <since>（例: 30m, 12h, 7d, 2024-01-31T18:00）", NamedTextColor.YELLOW));
+            return;
+        }
+
+        long since;
+        try {
+            since = parseSince(args[2], System.currentTimeMillis());
+        } catch (IllegalArgumentException | ArithmeticException | DateTimeParseException e) {
+            source.sendMessage(Component.text("❌ 時刻の指定が不正です: " + args[2], NamedTextColor.RED));
+            source.sendMessage(Component.text("使用方法: /vddebug chatlog <player> <since>（例: 30m, 12h, 7d, 2024-01-31T18:00）", NamedTextColor.YELLOW));
+            return;
+        }
+
+        String playerName = args[1];
+        chatLog.query(playerName, since, CHATLOG_RESULT_LIMIT).whenComplete((records, error) -> {
+            if (error != null) {
+                source.sendMessage(Component.text("❌ チャットログの検索中にエラーが発生しました: " + error.getMessage(), NamedTextColor.RED));
+                return;
+            }
+
+            source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.AQUA));
+            source.sendMessage(Component.text("📜 チャットログ: " + playerName + "（" + records.size() + " 件）", NamedTextColor.GREEN));
+            source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.AQUA));
+            SimpleDateFormat timeFormat = new SimpleDateFormat("MM/dd HH:mm:ss");
+            for (ChatLog.Record record : records) {
+                source.sendMessage(Component.text(timeFormat.format(new Date(record.timestampMillis())) + " ", NamedTextColor.GRAY)
+                    .append(Component.text("[" + record.serverName() + "] ", NamedTextColor.GRAY))
+                    .append(Component.text(record.playerName() + ": ", NamedTextColor.WHITE))
+                    .append(Component.text(record.message(), NamedTextColor.GRAY)));
+            }
+            if (records.size() == CHATLOG_RESULT_LIMIT) {
+                source.sendMessage(Component.text("（最新の " + CHATLOG_RESULT_LIMIT + " 件のみ表示しています）", NamedTextColor.YELLOW));
+            }
+        });
+    }
+
+    /**
+     * sinceの指定をエポックミリ秒にする
+     * 桁あふれする相対時間や、1970年より前にさかのぼる指定はArithmeticException・IllegalArgumentExceptionで拒否する
+     */
+    static long parseSince(String value, long nowMillis) {
+        char unit = Character.toLowerCase(value.charAt(value.length() - 1));
+        if (Character.isLetter(unit) && value.length() > 1 && Character.isDigit(value.charAt(0))) {
+            long amount = Long.parseLong(value.substring(0, value.length() - 1));
+            long unitMillis = switch (unit) {
+                case 's' -> 1000L;
+                case 'm' -> 60_000L;
+                case 'h' -> 3_600_000L;
+                case 'd' -> 86_400_000L;
+                default -> throw new IllegalArgumentException("不明な単位です: " + unit);
+            };
+            long since = nowMillis - Math.multiplyExact(amount, unitMillis);
+            if (since < 0) {
+                throw new IllegalArgumentException("さかのぼる時間が長すぎます: " + value);
+            }
+            return since;
+        }
+        LocalDateTime dateTime = value.contains("T")
+            ? LocalDateTime.parse(value)
+            : LocalDate.parse(value).atStartOfDay();
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private Path getExportDirectory() {
+        return configManager.getDataDirectory().resolve("exports");
+    }
+    
     @Override
     public boolean hasPermission(Invocation invocation) {
         return invocation.source().hasPermission("velocitydiscord.debug");
@@ -9,38 +9,59 @@ import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.guild.GuildJoinEvent;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.session.SessionRecreateEvent;
+import net.dv8tion.jda.api.events.session.SessionResumeEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.requests.RestConfig;
 import net.dv8tion.jda.api.EmbedBuilder;
-import java.awt.Color;
+import net.dv8tion.jda.api.entities.MessageEmbed;
 import org.slf4j.Logger;
-import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.time.Instant;
 
-public class DiscordManager extends ListenerAdapter {
+public class DiscordManager extends ListenerAdapter implements ConfigManager.ChangeListener {
     
     private final ConfigManager configManager;
-    private final ChatManager chatManager;
+    private final DiscordRelayQueue relayQueue;
     private final AccountLinkingManager accountLinkingManager;
+    private final AvatarResolver avatarResolver;
     private final Logger logger;
-    private JDA jda;
+    private final SlashCommandRegistry commandRegistry;
+    private final EmbedTemplates embedTemplates;
+    private ClusterManager clusterManager;
+    private PlayerLookupCommands playerLookupCommands;
+    private StageTimings stageTimings;
+    private Consumer<String> roleChangeListener = discordId -> { };
+    private Runnable reconnectListener = () -> { };
+    private volatile JDA jda;
     
     @Inject
-    public DiscordManager(ConfigManager configManager, ChatManager chatManager, 
-                          AccountLinkingManager accountLinkingManager, Logger logger) {
+    public DiscordManager(ConfigManager configManager, DiscordRelayQueue relayQueue, 
+                          AccountLinkingManager accountLinkingManager, AvatarResolver avatarResolver, Logger logger) {
         this.configManager = configManager;
-        this.chatManager = chatManager;
+        this.relayQueue = relayQueue;
         this.accountLinkingManager = accountLinkingManager;
+        this.avatarResolver = avatarResolver;
         this.logger = logger;
+        this.commandRegistry = new SlashCommandRegistry(
+            configManager.getDataDirectory().resolve("command-hashes.properties"), logger);
+        this.embedTemplates = new EmbedTemplates(configManager);
     }
     
     public void initialize() {
@@ -58,12 +79,19 @@ public class DiscordManager extends ListenerAdapter {
                 logger.info("Discord連携機能は無効化されました。");
                 return;
             }
-            jda = JDABuilder.createDefault(token)
+            JDABuilder builder = JDABuilder.createDefault(token)
                     .enableIntents(GatewayIntent.GUILD_MESSAGES, GatewayIntent.MESSAGE_CONTENT, GatewayIntent.GUILD_MEMBERS)
                     .addEventListeners(this, accountLinkingManager)
-                    .setActivity(Activity.playing("Minecraft"))
-                    .build()
-                    .awaitReady();
+                    .setActivity(Activity.playing("Minecraft"));
+            
+            // REST呼び出し（メッセージ送信・メンバー取得など）の接続先を差し替える。Gateway接続は対象外
+            String restBaseUrl = getRestBaseUrl(configManager);
+            if (restBaseUrl != null) {
+                builder.setRestConfig(new RestConfig().setBaseUrl(restBaseUrl));
+                logger.warn("Discord APIの接続先を {} に変更しています", restBaseUrl);
+            }
+            
+            jda = builder.build().awaitReady();
 
             // 自動検出処理
             performAutoGuildDetection();
@@ -189,6 +217,18 @@ public class DiscordManager extends ListenerAdapter {
     
     @Override
     public void onMessageReceived(MessageReceivedEvent event) {
+        long startNanos = System.nanoTime();
+        long startBytes = StageTimings.allocatedBytes();
+        try {
+            relayDiscordMessage(event);
+        } finally {
+            if (stageTimings != null) {
+                stageTimings.record(StageTimings.Stage.DISCORD_RELAY, startNanos, startBytes);
+            }
+        }
+    }
+    
+    private void relayDiscordMessage(MessageReceivedEvent event) {
         if (event.getAuthor().isBot()) {
             return;
         }
@@ -237,12 +277,13 @@ public class DiscordManager extends ListenerAdapter {
         
         String content = event.getMessage().getContentDisplay();
 
-        String formattedMessage = configManager.getDiscordToGameFormat()
-                .replace("%player%", discordDisplayName)
-                .replace("%message%", content);
+        // 整形とプレイヤーへの配信は中継キューの専用スレッドで行う
+        relayQueue.enqueue(discordDisplayName, content);
 
-        Component messageComponent = LegacyComponentSerializer.legacyAmpersand().deserialize(formattedMessage);
-        chatManager.broadcastMessage(messageComponent);
+        // クラスタ構成では他のプロキシへも1回ずつ配る
+        if (clusterManager != null) {
+            clusterManager.publishDiscordMessage(discordDisplayName, content);
+        }
     }
     
     /**
@@ -320,42 +361,37 @@ public class DiscordManager extends ListenerAdapter {
     /**
      * プレイヤーアクション用のEmbedメッセージを送信する
      */
-    public void sendPlayerActionEmbed(String playerName, PlayerActionType actionType, String fromServer, String toServer) {
-        CompletableFuture.runAsync(() -> {
+    public void sendPlayerActionEmbed(UUID playerUuid, String playerName, PlayerActionType actionType, String fromServer, String toServer) {
+        // Discordに接続していないクラスタノードはリーダーに送信を任せる
+        if (clusterManager != null && !clusterManager.isLeader()) {
+            clusterManager.forwardPlayerAction(playerUuid, playerName, actionType, fromServer, toServer);
+            return;
+        }
+        
+        avatarResolver.resolve(playerUuid, playerName).thenAcceptAsync(avatarUrl -> {
             try {
-                EmbedBuilder embed = new EmbedBuilder();
+                // 色・フッターはひな形に設定済み
+                EmbedTemplates.Kind kind = EmbedTemplates.Kind.of(actionType);
+                EmbedBuilder embed = embedTemplates.derive(kind);
+                embed.setAuthor(kind.getAuthorName(), null, avatarUrl);
                 
                 switch (actionType) {
                     case JOIN:
                         embed.setTitle(playerName + " が 参加 しました");
-                        embed.setAuthor("ログイン", null, "https://mc-heads.net/avatar/" + playerName);
-                        embed.setColor(Color.GREEN);
                         break;
                     case LEAVE:
                         embed.setTitle(playerName + " が 退出 しました");
-                        embed.setAuthor("ログアウト", null, "https://mc-heads.net/avatar/" + playerName);
-                        embed.setColor(Color.RED);
                         break;
                     case MOVE:
                         embed.setTitle(String.format("%s が %s から %s へ移動しました", playerName, fromServer, toServer));
-                        embed.setAuthor("サーバー移動", null, "https://mc-heads.net/avatar/" + playerName);
-                        embed.setColor(Color.BLUE);
                         break;
                 }
                 
                 // タイムスタンプを追加
                 embed.setTimestamp(Instant.now());
                 
-                // フッターを設定
-                String footerText = configManager.getEmbedFooterText();
-                String footerIconUrl = configManager.getEmbedFooterIconUrl();
-                if (footerIconUrl != null && !footerIconUrl.isEmpty()) {
-                    embed.setFooter(footerText, footerIconUrl);
-                } else {
-                    embed.setFooter(footerText);
-                }
-                
-                sendEmbedToAllChannels(embed);
+                // 全チャンネルで同じEmbedを共有する
+                sendEmbedToAllChannels(embed.build());
                 logger.debug("プレイヤーアクション Embed 送信: {} -> {}", playerName, actionType);
                 
             } catch (Exception e) {
@@ -368,62 +404,84 @@ public class DiscordManager extends ListenerAdapter {
      * サーバー状態変化用のEmbedメッセージを送信する
      */
     public void sendServerStatusMessage(String message, String serverName, boolean isOnline) {
+        // クラスタのリーダー以外はDiscordに接続していない
+        if (jda == null) return;
+        
         CompletableFuture.runAsync(() -> {
             try {
-                EmbedBuilder embed = new EmbedBuilder();
+                // タイトル・色・フッターはひな形に設定済み
+                EmbedBuilder builder = embedTemplates.derive(EmbedTemplates.Kind.ofServerStatus(isOnline));
                 String displayName = configManager.getServerDisplayName(serverName);
                 
-                // タイトルを設定
-                embed.setTitle("サーバーステータス");
-                
                 if (isOnline) {
-                    embed.setDescription(String.format("**%s**がオンラインになりました", displayName));
-                    embed.setColor(Color.GREEN);
+                    builder.setDescription(String.format("**%s**がオンラインになりました", displayName));
                 } else {
-                    embed.setDescription(String.format("**%s**がオフラインになりました", displayName));
-                    embed.setColor(Color.RED);
+                    builder.setDescription(String.format("**%s**がオフラインになりました", displayName));
                 }
                 
                 // タイムスタンプを追加
-                embed.setTimestamp(Instant.now());
+                builder.setTimestamp(Instant.now());
+                sendStatusEmbed(builder.build());
+                logger.debug("サーバー状態 Embed を送信: {} -> {}", serverName, isOnline ? "ONLINE" : "OFFLINE");
                 
-                // フッターを設定
-                String footerText = configManager.getEmbedFooterText();
-                String footerIconUrl = configManager.getEmbedFooterIconUrl();
-                if (footerIconUrl != null && !footerIconUrl.isEmpty()) {
-                    embed.setFooter(footerText, footerIconUrl);
-                } else {
-                    embed.setFooter(footerText);
-                }
-                
-                // サーバー状態監視専用のチャンネルがあるかチェック
-                String statusChannelId = configManager.getServerStatusDiscordChannel();
+            } catch (Exception e) {
+                logger.error("サーバー状態 Embed の送信に失敗しました {}: {}", serverName, message, e);
+            }
+        });
+    }
+    
+    /**
+     * オフラインになったサーバーからの退避結果を送信する
+     */
+    public void sendEvacuationReport(ServerEvacuator.Report report) {
+        if (jda == null) return;
+        
+        CompletableFuture.runAsync(() -> {
+            try {
+                EmbedBuilder builder = embedTemplates.derive(EmbedTemplates.Kind.SERVER_OFFLINE);
+                builder.setDescription(String.format("**%s**から%d人中%d人を移動しました",
+                    configManager.getServerDisplayName(report.serverName()), report.total(), report.moved()));
                 
-                if (statusChannelId != null && !statusChannelId.isEmpty()) {
-                    TextChannel statusChannel = jda.getTextChannelById(statusChannelId);
-                    if (statusChannel != null) {
-                        statusChannel.sendMessageEmbeds(embed.build()).queue();
-                        logger.debug("サーバー状態 Embed を専用チャンネルに送信: {} -> {}", serverName, isOnline ? "ONLINE" : "OFFLINE");
-                        return;
-                    } else {
-                        logger.warn("サーバー状態監視用チャンネルが見つかりません: {}", statusChannelId);
-                    }
+                StringBuilder destinations = new StringBuilder();
+                report.destinations().forEach((serverName, count) -> destinations
+                    .append(configManager.getServerDisplayName(serverName)).append(": ").append(count).append("人\n"));
+                if (destinations.length() > 0) {
+                    builder.addField("移動先", destinations.toString(), false);
                 }
-                
-                // 専用チャンネルがない場合は通常のチャンネルに送信
-                sendEmbedToAllChannels(embed);
-                logger.debug("サーバー状態 Embed を通常チャンネルに送信: {} -> {}", serverName, isOnline ? "ONLINE" : "OFFLINE");
-                
+                if (report.failed() > 0 || report.stranded() > 0) {
+                    builder.addField("移動できなかったプレイヤー",
+                        String.format("接続失敗 %d人 / 移動先なし %d人", report.failed(), report.stranded()), false);
+                }
+                builder.setTimestamp(Instant.now());
+                sendStatusEmbed(builder.build());
             } catch (Exception e) {
-                logger.error("サーバー状態 Embed の送信に失敗しました {}: {}", serverName, message, e);
+                logger.error("退避結果の送信に失敗しました {}", report.serverName(), e);
             }
         });
     }
     
+    /**
+     * サーバー状態監視専用のチャンネルがあればそこへ、なければ通常のチャンネルにEmbedを送信する
+     */
+    private void sendStatusEmbed(MessageEmbed embed) {
+        String statusChannelId = configManager.getServerStatusDiscordChannel();
+        
+        if (statusChannelId != null && !statusChannelId.isEmpty()) {
+            TextChannel statusChannel = jda.getTextChannelById(statusChannelId);
+            if (statusChannel != null) {
+                statusChannel.sendMessageEmbeds(embed).queue();
+                return;
+            }
+            logger.warn("サーバー状態監視用チャンネルが見つかりません: {}", statusChannelId);
+        }
+        
+        sendEmbedToAllChannels(embed);
+    }
+    
     /**
      * 全ての設定済みチャンネルにEmbedメッセージを送信する
      */
-    private void sendEmbedToAllChannels(EmbedBuilder embed) {
+    private void sendEmbedToAllChannels(MessageEmbed embed) {
         if (jda == null) return;
         
         Map<String, Map<String, Object>> guilds = configManager.getDiscordGuilds();
@@ -456,7 +514,7 @@ public class DiscordManager extends ListenerAdapter {
                         try {
                             TextChannel channel = jda.getTextChannelById(channelId);
                             if (channel != null) {
-                                channel.sendMessageEmbeds(embed.build()).queue();
+                                channel.sendMessageEmbeds(embed).queue();
                             } else {
                                 logger.warn("チャンネルが見つかりません: {} (Guild: {})", channelId, guild.getName());
                             }
@@ -476,12 +534,12 @@ public class DiscordManager extends ListenerAdapter {
     /**
      * サーバーのデフォルトチャンネルにEmbedメッセージを送信
      */
-    private void sendEmbedToGuildDefaultChannel(Guild guild, EmbedBuilder embed) {
+    private void sendEmbedToGuildDefaultChannel(Guild guild, MessageEmbed embed) {
         try {
             List<TextChannel> channels = guild.getTextChannels();
             for (TextChannel channel : channels) {
                 if (channel.canTalk()) {
-                    channel.sendMessageEmbeds(embed.build()).queue();
+                    channel.sendMessageEmbeds(embed).queue();
                     logger.debug("Embed を送信しました: {} > #{}", guild.getName(), channel.getName());
                     return;
                 }
@@ -505,6 +563,12 @@ public class DiscordManager extends ListenerAdapter {
     public void updateGuildCommands() {
         if (jda == null) return;
         
+        if (configManager.isGlobalCommandsEnabled()) {
+            // グローバルモード：全サーバー共通で1回だけ登録
+            commandRegistry.registerGlobalCommands(jda, buildSlashCommands());
+            return;
+        }
+        
         Map<String, Map<String, Object>> guilds = configManager.getDiscordGuilds();
         boolean autoDetectionEnabled = configManager.isAutoGuildDetectionEnabled();
         
@@ -523,32 +587,158 @@ public class DiscordManager extends ListenerAdapter {
             }
         }
         
-        for (Guild guild : targetGuilds) {
-            try {
-                guild.updateCommands().addCommands(
-                    Commands.slash("link", "MinecraftアカウントとDiscordアカウントを連携します。")
-                            .addOption(net.dv8tion.jda.api.interactions.commands.OptionType.STRING, "code", "ゲーム内に表示された連携コード", true)
-                ).queue(
-                    success -> logger.info("スラッシュコマンドを登録しました: {} ({})", guild.getName(), guild.getId()),
-                    error -> logger.warn("スラッシュコマンドの登録に失敗しました: {} ({}): {}", guild.getName(), guild.getId(), error.getMessage())
-                );
-            } catch (Exception e) {
-                logger.warn("スラッシュコマンドの登録でエラーが発生しました: {} ({}): {}", guild.getName(), guild.getId(), e.getMessage());
-            }
-        }
+        commandRegistry.registerGuildCommands(jda, targetGuilds, buildSlashCommands());
         
         if (targetGuilds.isEmpty()) {
             logger.warn("スラッシュコマンドを登録するサーバーがありません。");
         }
     }
 
+    /**
+     * 登録するスラッシュコマンドの一覧
+     */
+    private List<SlashCommandData> buildSlashCommands() {
+        List<SlashCommandData> commands = new java.util.ArrayList<>();
+        commands.add(Commands.slash("link", "MinecraftアカウントとDiscordアカウントを連携します。")
+                .addOption(net.dv8tion.jda.api.interactions.commands.OptionType.STRING, "code", "ゲーム内に表示された連携コード", true));
+        if (playerLookupCommands != null) {
+            commands.addAll(PlayerLookupCommands.buildSlashCommands());
+        }
+        return commands;
+    }
+    
+    @Override
+    public void onSlashCommandInteraction(SlashCommandInteractionEvent event) {
+        // /link はAccountLinkingManagerが処理する
+        if (playerLookupCommands != null) {
+            playerLookupCommands.handle(event);
+        }
+    }
+
+    @Override
+    public void onConfigChanged(Set<ConfigManager.ChangeType> changes) {
+        // 追加・有効化されたGuildにスラッシュコマンドを登録する
+        if (changes.contains(ConfigManager.ChangeType.GUILDS)) {
+            updateGuildCommands();
+        }
+        // フッター設定の変更をEmbedのひな形に反映する
+        if (changes.contains(ConfigManager.ChangeType.FORMATS)) {
+            embedTemplates.reload();
+        }
+    }
+
+    /**
+     * /online・/whois を有効にする場合に設定する（Discordへのログイン前に呼ぶ）
+     */
+    public void setPlayerLookupCommands(PlayerLookupCommands playerLookupCommands) {
+        this.playerLookupCommands = playerLookupCommands;
+    }
+    
+    public void setStageTimings(StageTimings stageTimings) {
+        this.stageTimings = stageTimings;
+    }
+    
+    public void setClusterManager(ClusterManager clusterManager) {
+        this.clusterManager = clusterManager;
+    }
+
+    /**
+     * メンバーのロールが変わったとき（サーバー退出を含む）にDiscordユーザーIDを通知する
+     */
+    public void setRoleChangeListener(Consumer<String> roleChangeListener) {
+        this.roleChangeListener = roleChangeListener;
+    }
+
+    /**
+     * Discordとの接続が再開したときの通知先（保留中の送信の再開に使う）
+     */
+    public void setReconnectListener(Runnable reconnectListener) {
+        this.reconnectListener = reconnectListener;
+    }
+
+    @Override
+    public void onSessionResume(SessionResumeEvent event) {
+        reconnectListener.run();
+    }
+
+    @Override
+    public void onSessionRecreate(SessionRecreateEvent event) {
+        reconnectListener.run();
+    }
+
+    @Override
+    public void onGuildJoin(GuildJoinEvent event) {
+        Guild guild = event.getGuild();
+        if (configManager.isGlobalCommandsEnabled() || !isCommandTarget(guild.getId())) {
+            return;
+        }
+        // 再招待された場合など、前回の登録記録が残っていてもDiscord側のコマンドを確かめて登録し直す
+        commandRegistry.verifyGuildCommands(jda != null ? jda : event.getJDA(), guild, buildSlashCommands());
+    }
+
+    @Override
+    public void onGuildLeave(GuildLeaveEvent event) {
+        // 退出したGuildのコマンドはDiscord側で消えるため、登録記録も破棄する
+        commandRegistry.forgetGuild(event.getGuild().getId());
+    }
+
+    /**
+     * Guild単位でスラッシュコマンドを登録する対象か（updateGuildCommandsと同じ基準）
+     */
+    private boolean isCommandTarget(String guildId) {
+        Map<String, Map<String, Object>> guilds = configManager.getDiscordGuilds();
+        if (configManager.isAutoGuildDetectionEnabled() && guilds.isEmpty()) {
+            return true;
+        }
+        return guilds.containsKey(guildId);
+    }
+
+    @Override
+    public void onGuildMemberRoleAdd(GuildMemberRoleAddEvent event) {
+        roleChangeListener.accept(event.getUser().getId());
+    }
+
+    @Override
+    public void onGuildMemberRoleRemove(GuildMemberRoleRemoveEvent event) {
+        roleChangeListener.accept(event.getUser().getId());
+    }
+
+    @Override
+    public void onGuildMemberRemove(GuildMemberRemoveEvent event) {
+        roleChangeListener.accept(event.getUser().getId());
+    }
+
+    public EmbedTemplates getEmbedTemplates() {
+        return embedTemplates;
+    }
+    
     public JDA getJda() {
         return jda;
     }
+
+    /**
+     * ログイン済みのJDAを使う（initializeの代わり。テストや負荷試験で偽のJDAを渡す）
+     */
+    void attachJda(JDA jda) {
+        this.jda = jda;
+    }
+
+    /**
+     * discord.api_base_url から作ったJDAのREST呼び出しの接続先（未設定ならnullで本番のまま）
+     */
+    static String getRestBaseUrl(ConfigManager configManager) {
+        String apiBaseUrl = configManager.getDiscordApiBaseUrl();
+        if (apiBaseUrl == null || apiBaseUrl.isEmpty()) {
+            return null;
+        }
+        return (apiBaseUrl.endsWith("/") ? apiBaseUrl : apiBaseUrl + "/") + "v10/";
+    }
     
     public void shutdown() {
-        if (jda != null) {
-            jda.shutdown();
+        JDA current = jda;
+        jda = null;
+        if (current != null) {
+            current.shutdown();
         }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,155 @@
+package com.example.velocitydiscord;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Discord→ゲーム内チャットの中継キュー
+ * JDAのイベントスレッドはキューに積むだけで、プレイヤーへの配信は専用スレッドが一定間隔でまとめて行う
+ * 1回の配信で複数行を1つのメッセージに結合し、キューがあふれた分は設定に応じて破棄または件数を通知する
+ */
+public class DiscordRelayQueue {
+
+    /**
+     * キューがあふれたときの扱い
+     */
+    public enum OverflowPolicy {
+        // 破棄してログにのみ記録
+        DROP,
+        // 破棄した件数をゲーム内に通知
+        SUMMARIZE
+    }
+
+    private final ChatManager chatManager;
+    private final ConfigManager configManager;
+    private final Logger logger;
+    private final BlockingQueue<RelayLine> queue;
+    private final long tickMillis;
+    private final AtomicLong dropped = new AtomicLong();
+    private final ScheduledExecutorService executor;
+    private ChatLog chatLog;
+
+    public DiscordRelayQueue(ChatManager chatManager, ConfigManager configManager, Logger logger) {
+        this.chatManager = chatManager;
+        this.configManager = configManager;
+        this.logger = logger;
+        this.queue = new ArrayBlockingQueue<>(configManager.getRelayQueueCapacity());
+        this.tickMillis = configManager.getRelayTickMillis();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "velocord-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setChatLog(ChatLog chatLog) {
+        this.chatLog = chatLog;
+    }
+
+    public void start() {
+        executor.scheduleAtFixedRate(this::drain, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Discordのメッセージを中継キューに積む（JDAのイベントスレッドから呼ばれる）
+     * 長すぎる本文はこの時点で切り詰めるため、キューが保持するサイズには上限がある
+     */
+    public void enqueue(String authorName, String content) {
+        if (chatLog != null) {
+            chatLog.append(ChatLog.Source.DISCORD, null, authorName, "Discord", content);
+        }
+        RelayLine line = new RelayLine(authorName,
+                truncate(content, configManager.getRelayMaxMessageLines(), configManager.getRelayMaxMessageLength()));
+        if (!queue.offer(line)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * 本文を最大行数・最大文字数に収める
+     */
+    static String truncate(String content, int maxLines, int maxLength) {
+        String[] lines = content.split("\n", -1);
+        String result = content;
+        int hiddenLines = 0;
+        if (lines.length > maxLines) {
+            hiddenLines = lines.length - maxLines;
+            result = String.join("\n", java.util.Arrays.copyOf(lines, maxLines));
+        }
+        if (result.length() > maxLength) {
+            // 絵文字などのサロゲートペアを途中で切らない
+            int end = maxLength > 0 && Character.isHighSurrogate(result.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+            result = result.substring(0, end) + "…";
+        }
+        if (hiddenLines > 0) {
+            result += " (+" + hiddenLines + "行)";
+        }
+        return result;
+    }
+
+    /**
+     * キューから1回分を取り出し、1つのメッセージにまとめて配信する
+     */
+    private void drain() {
+        try {
+            List<RelayLine> batch = new ArrayList<>();
+            queue.drainTo(batch, configManager.getRelayMaxLinesPerTick());
+            long droppedCount = dropped.getAndSet(0);
+
+            if (droppedCount > 0) {
+                logger.warn("Discordからのメッセージが多すぎるため {} 件を破棄しました", droppedCount);
+            }
+
+            boolean summarize = droppedCount > 0 && configManager.getRelayOverflowPolicy() == OverflowPolicy.SUMMARIZE;
+            if (batch.isEmpty() && !summarize) {
+                return;
+            }
+
+            String format = configManager.getDiscordToGameFormat();
+            Component message = null;
+            for (RelayLine line : batch) {
+                String formatted = format
+                        .replace("%player%", line.authorName())
+                        .replace("%message%", line.content());
+                message = append(message, LegacyComponentSerializer.legacyAmpersand().deserialize(formatted));
+            }
+            if (summarize) {
+                String summary = configManager.getRelayOverflowMessage().replace("%count%", String.valueOf(droppedCount));
+                message = append(message, LegacyComponentSerializer.legacyAmpersand().deserialize(summary));
+            }
+
+            chatManager.broadcastMessage(message);
+        } catch (RuntimeException e) {
+            // 例外でスケジュールが止まらないようにする
+            logger.error("Discordメッセージの中継中にエラーが発生しました", e);
+        }
+    }
+
+    private static Component append(Component message, Component line) {
+        return message == null ? line : message.append(Component.newline()).append(line);
+    }
+
+    /**
+     * 未配信のメッセージ件数
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record RelayLine(String authorName, String content) {
+    }
+}
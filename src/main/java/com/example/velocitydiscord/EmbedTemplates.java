@@ -0,0 +1,93 @@
+package com.example.velocitydiscord;
+
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+
+import java.awt.Color;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 種類ごとのEmbedのひな形
+ * 色・作成者ラベル・フッターなどイベントによらない部分を設定読み込み時に1度だけ組み立てておき、
+ * 送信時はひな形をコピーしてプレイヤー名や時刻だけを設定する
+ */
+public class EmbedTemplates {
+
+    /**
+     * ひな形の種類
+     */
+    public enum Kind {
+        JOIN("ログイン", Color.GREEN),
+        LEAVE("ログアウト", Color.RED),
+        MOVE("サーバー移動", Color.BLUE),
+        SERVER_ONLINE(null, Color.GREEN),
+        SERVER_OFFLINE(null, Color.RED);
+
+        private final String authorName;
+        private final Color color;
+
+        Kind(String authorName, Color color) {
+            this.authorName = authorName;
+            this.color = color;
+        }
+
+        /**
+         * 作成者欄のラベル（アイコンはイベントごとに異なるため、ひな形には含めない）
+         */
+        public String getAuthorName() {
+            return authorName;
+        }
+
+        public static Kind of(DiscordManager.PlayerActionType actionType) {
+            return switch (actionType) {
+                case JOIN -> JOIN;
+                case LEAVE -> LEAVE;
+                case MOVE -> MOVE;
+            };
+        }
+
+        public static Kind ofServerStatus(boolean isOnline) {
+            return isOnline ? SERVER_ONLINE : SERVER_OFFLINE;
+        }
+    }
+
+    private final ConfigManager configManager;
+    private volatile Map<Kind, MessageEmbed> prototypes;
+
+    public EmbedTemplates(ConfigManager configManager) {
+        this.configManager = configManager;
+        reload();
+    }
+
+    /**
+     * 設定からひな形を作り直す（フッター設定の変更時に呼ぶ）
+     */
+    public void reload() {
+        String footerText = configManager.getEmbedFooterText();
+        String footerIconUrl = configManager.getEmbedFooterIconUrl();
+
+        Map<Kind, MessageEmbed> built = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            EmbedBuilder embed = new EmbedBuilder();
+            embed.setColor(kind.color);
+            if (kind == Kind.SERVER_ONLINE || kind == Kind.SERVER_OFFLINE) {
+                embed.setTitle("サーバーステータス");
+            }
+            if (footerIconUrl != null && !footerIconUrl.isEmpty()) {
+                embed.setFooter(footerText, footerIconUrl);
+            } else {
+                embed.setFooter(footerText);
+            }
+            built.put(kind, embed.build());
+        }
+        this.prototypes = built;
+    }
+
+    /**
+     * ひな形をコピーしたビルダーを返す（ひな形自体は変更されない）
+     */
+    public EmbedBuilder derive(Kind kind) {
+        return new EmbedBuilder(prototypes.get(kind));
+    }
+}
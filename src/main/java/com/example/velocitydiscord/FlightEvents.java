@@ -0,0 +1,137 @@
+package com.example.velocitydiscord;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder に記録するイベント
+ * プロキシが重いときにJFRを取ると、スレッドのサンプルだけでなくプラグインの処理ごとの所要時間と内容が見えるようにする
+ *
+ * イベントは常に生成するが、記録していないときはbegin/commitがほぼ何もしないため、
+ * 文字列を作るフィールドはshouldCommit()がtrueのときだけ設定する（記録中でも閾値未満の短い処理は捨てられる）
+ * JDK Mission Control では「Velocord」カテゴリにまとまって表示される
+ */
+public final class FlightEvents {
+
+    private static final String CATEGORY = "Velocord";
+
+    private FlightEvents() {
+    }
+
+    @Name("velocord.ChatRelay")
+    @Label("Chat Relay")
+    @Description("ゲーム内チャットの他サーバー・クラスタ・Discordへの中継")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class ChatRelay extends Event {
+        @Label("Player")
+        public String player;
+
+        @Label("Server")
+        public String server;
+
+        @Label("Message Length")
+        public int messageLength;
+
+        @Label("Recipients")
+        @Description("メッセージを表示したこのプロキシのプレイヤー数")
+        public int recipients;
+
+        @Label("Forwarded To Discord")
+        @Description("Discordへの送信対象にした（このプロキシがWebhook送信を担当し、ゲーム→Discordが有効）")
+        public boolean forwardedToDiscord;
+    }
+
+    @Name("velocord.PermissionCheck")
+    @Label("Permission Check")
+    @Description("PermissionManager.canAccessServer によるサーバーへの接続可否の判定")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class PermissionCheck extends Event {
+        @Label("Player UUID")
+        public String playerUuid;
+
+        @Label("Server")
+        public String server;
+
+        @Label("Allowed")
+        public boolean allowed;
+
+        @Label("Cached")
+        @Description("許可キャッシュから判定した")
+        public boolean cached;
+
+        @Label("Fallback")
+        @Description("DiscordやDBが使えず resilience.fallback で判定した")
+        public boolean fallback;
+
+        @Label("Guild Count")
+        @Description("ロールを確認したGuildの数")
+        public int guildCount;
+
+        @Label("REST Calls")
+        @Description("メンバー取得のためにDiscord APIへ要求した回数")
+        public int restCalls;
+    }
+
+    @Name("velocord.DatabaseStatement")
+    @Label("Database Statement")
+    @Description("DatabaseManagerが実行したSQL（コネクションの取得を含む）")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class DatabaseStatement extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("SQL")
+        public String sql;
+
+        @Label("Rows")
+        @Description("取得・更新した行数")
+        public long rows;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("velocord.WebhookSend")
+    @Label("Webhook Send")
+    @Description("Discord WebhookへのHTTP送信1回（429による再送は別のイベント）")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class WebhookSend extends Event {
+        @Label("Guild ID")
+        public String guildId;
+
+        @Label("Attempt")
+        public int attempt;
+
+        @Label("Status Code")
+        @Description("HTTPステータスコード（応答がなければ0）")
+        public int statusCode;
+
+        @Label("Payload Length")
+        @Description("送信したJSONの文字数")
+        public int payloadLength;
+    }
+
+    @Name("velocord.StatusProbe")
+    @Label("Server Status Probe")
+    @Description("ServerStatusMonitorによるバックエンドサーバーへのTCP接続確認")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class StatusProbe extends Event {
+        @Label("Server")
+        public String server;
+
+        @Label("Address")
+        public String address;
+
+        @Label("Online")
+        public boolean online;
+    }
+}
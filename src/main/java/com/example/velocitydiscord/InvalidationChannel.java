@@ -0,0 +1,22 @@
+package com.example.velocitydiscord;
+
+import java.util.function.Consumer;
+
+/**
+ * キャッシュ無効化通知をプロキシ間で配る経路
+ * 自分が発行した通知は受信側に戻さない（発行元は既にローカルで反映済み）
+ */
+public interface InvalidationChannel {
+
+    /**
+     * 受信を開始する
+     */
+    void start(Consumer<CacheInvalidation> listener);
+
+    /**
+     * 他のプロキシへ通知する
+     */
+    void publish(CacheInvalidation invalidation);
+
+    void stop();
+}
@@ -0,0 +1,102 @@
+package com.example.velocitydiscord;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 連携情報（Minecraft UUID ⇔ DiscordユーザーID）のLRUキャッシュ
+ * 未連携の結果もOptional.empty()として保持し、接続のたびにDBへ問い合わせないようにする
+ *
+ * DBの読み込み中に無効化が届いた場合に古い値を書き戻さないよう、
+ * 読み込み開始時の世代番号が変わっていれば結果をキャッシュしない
+ */
+public class LinkCache {
+
+    private final Map<UUID, Optional<String>> discordIds;
+    private final Map<String, Optional<UUID>> minecraftUuids;
+    private final AtomicLong generation = new AtomicLong();
+
+    public LinkCache(int maxEntries) {
+        this.discordIds = Collections.synchronizedMap(lru(maxEntries));
+        this.minecraftUuids = Collections.synchronizedMap(lru(maxEntries));
+    }
+
+    private static <K, V> LinkedHashMap<K, V> lru(int maxEntries) {
+        return new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * DBを読む前に取得し、putの際に渡す世代番号
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * @return キャッシュになければnull、未連携ならOptional.empty()
+     */
+    public Optional<String> getDiscordId(UUID minecraftUuid) {
+        return discordIds.get(minecraftUuid);
+    }
+
+    /**
+     * @return キャッシュになければnull、未連携ならOptional.empty()
+     */
+    public Optional<UUID> getMinecraftUuid(String discordId) {
+        return minecraftUuids.get(discordId);
+    }
+
+    public void putDiscordId(UUID minecraftUuid, String discordId, long readGeneration) {
+        synchronized (this) {
+            if (generation.get() == readGeneration) {
+                discordIds.put(minecraftUuid, Optional.ofNullable(discordId));
+            }
+        }
+    }
+
+    public void putMinecraftUuid(String discordId, UUID minecraftUuid, long readGeneration) {
+        synchronized (this) {
+            if (generation.get() == readGeneration) {
+                minecraftUuids.put(discordId, Optional.ofNullable(minecraftUuid));
+            }
+        }
+    }
+
+    /**
+     * 指定したUUID・DiscordユーザーIDに関係するエントリを両方向から削除する
+     */
+    public void invalidate(UUID minecraftUuid, String discordId) {
+        synchronized (this) {
+            generation.incrementAndGet();
+            if (minecraftUuid != null) {
+                Optional<String> linked = discordIds.remove(minecraftUuid);
+                if (linked != null) {
+                    linked.ifPresent(minecraftUuids::remove);
+                }
+            }
+            if (discordId != null) {
+                Optional<UUID> linked = minecraftUuids.remove(discordId);
+                if (linked != null) {
+                    linked.ifPresent(discordIds::remove);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            generation.incrementAndGet();
+            discordIds.clear();
+            minecraftUuids.clear();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * アカウント連携書き込みのライトビハインドキュー
+ * 連携情報はまずメモリとローカルの追記ログ（ジャーナル）に記録し、
+ * DBへの書き込みは定期的にまとめて1トランザクションで行う
+ * クラッシュ後はジャーナルを読み直して未反映の連携を再投入する
+ *
+ * 制約に反する連携（別のプレイヤーに連携済みのDiscord ID）は書き込む前に見つけ、
+ * 再試行せずにキューとジャーナルから取り除く（1件のせいで後続の連携がすべて止まらないようにする）
+ */
+public class LinkWriteBehindQueue {
+
+    /**
+     * フラッシュの結果
+     *
+     * @param written DBに書き込んだ連携
+     * @param rejected 制約に反したため取り除いた連携
+     */
+    public record FlushResult(Map<UUID, String> written, Map<UUID, String> rejected) {
+        static final FlushResult EMPTY = new FlushResult(Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    private static final String OWNER_SQL = "SELECT minecraft_uuid FROM linked_accounts WHERE discord_id = ?";
+
+    private final Path journalFile;
+    private final Logger logger;
+    private final Object journalLock = new Object();
+
+    // DB未反映の連携（Minecraft UUID -> Discord ID）
+    private final ConcurrentHashMap<UUID, String> pending = new ConcurrentHashMap<>();
+
+    private FileChannel journal;
+
+    public LinkWriteBehindQueue(Path journalFile, Logger logger) {
+        this.journalFile = journalFile;
+        this.logger = logger;
+    }
+
+    /**
+     * ジャーナルを開き、前回終了時に未反映だった連携を読み込む
+     *
+     * @return 復元した件数
+     */
+    public int open() throws IOException {
+        Files.createDirectories(journalFile.getParent());
+
+        int replayed = 0;
+        if (Files.exists(journalFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (space < 0) {
+                        continue; // 書き込み途中でクラッシュした末尾行
+                    }
+                    try {
+                        pending.put(UUID.fromString(line.substring(0, space)), line.substring(space + 1));
+                        replayed++;
+                    } catch (IllegalArgumentException e) {
+                        logger.warn("不正なジャーナル行をスキップしました: {}", line);
+                    }
+                }
+            }
+        }
+
+        synchronized (journalLock) {
+            journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return replayed;
+    }
+
+    /**
+     * 連携をメモリに反映し、ジャーナルに追記する（DBへの書き込みは後で行う）
+     * 同じDiscord IDが別のプレイヤーの未反映の連携にある場合は記録しない
+     */
+    public DatabaseManager.LinkResult enqueue(UUID minecraftUuid, String discordId) {
+        byte[] line = (minecraftUuid + " " + discordId + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (journalLock) {
+            UUID pendingOwner = getPendingMinecraftUuid(discordId);
+            if (pendingOwner != null && !pendingOwner.equals(minecraftUuid)) {
+                return DatabaseManager.LinkResult.ALREADY_LINKED;
+            }
+            try {
+                journal.write(ByteBuffer.wrap(line));
+                journal.force(false);
+            } catch (IOException e) {
+                logger.error("連携ジャーナルへの書き込みに失敗しました: {}", minecraftUuid, e);
+                return DatabaseManager.LinkResult.FAILED;
+            }
+            pending.put(minecraftUuid, discordId);
+        }
+        return DatabaseManager.LinkResult.LINKED;
+    }
+
+    /**
+     * 未反映の連携を1トランザクションでまとめてDBに書き込み、ジャーナルを縮める
+     * Discord IDが別のプレイヤーに連携済みの連携は書き込まずに取り除いて結果に含める
+     * （MySQLのON DUPLICATE KEYはdiscord_idのUNIQUEキーでも発火して制約違反にならないため、書き込む前に持ち主を確かめる）
+     * まとめた書き込みが制約違反で失敗した場合は1件ずつ書き込み直す
+     * 接続断など制約以外のエラーは例外として返し、未反映の連携は次回のフラッシュで再試行する
+     */
+    public FlushResult flush(Connection conn, String upsertSql) throws SQLException, IOException {
+        if (pending.isEmpty()) {
+            return FlushResult.EMPTY;
+        }
+
+        Map<UUID, String> batch = new HashMap<>(pending);
+        Map<UUID, String> written = new HashMap<>();
+        Map<UUID, String> rejected = new HashMap<>();
+        SQLException retryLater = null;
+        conn.setAutoCommit(false);
+        try (PreparedStatement owner = conn.prepareStatement(OWNER_SQL);
+             PreparedStatement pstmt = conn.prepareStatement(upsertSql)) {
+            for (Map.Entry<UUID, String> entry : batch.entrySet()) {
+                if (isOwnedByOther(owner, entry.getKey(), entry.getValue())) {
+                    rejected.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                pstmt.setString(1, entry.getKey().toString());
+                pstmt.setString(2, entry.getValue());
+                pstmt.addBatch();
+                written.put(entry.getKey(), entry.getValue());
+            }
+            if (!written.isEmpty()) {
+                pstmt.executeBatch();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            if (!isConstraintViolation(e)) {
+                throw e;
+            }
+            written.clear();
+            rejected.clear();
+            retryLater = flushEach(conn, upsertSql, batch, written, rejected);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+
+        synchronized (journalLock) {
+            // 書き込み中に上書きされた連携は残す
+            written.forEach(pending::remove);
+            rejected.forEach(pending::remove);
+            compactJournal();
+        }
+        if (retryLater != null) {
+            throw retryLater;
+        }
+        return new FlushResult(written, rejected);
+    }
+
+    /**
+     * 1件ずつ自動コミットで書き込む
+     * 制約違反以外のエラーが起きたらそこで止め、そのエラーを返す（書き込めた分はwrittenに残る）
+     */
+    private SQLException flushEach(Connection conn, String upsertSql, Map<UUID, String> batch,
+                                   Map<UUID, String> written, Map<UUID, String> rejected) {
+        try (PreparedStatement owner = conn.prepareStatement(OWNER_SQL);
+             PreparedStatement pstmt = conn.prepareStatement(upsertSql)) {
+            conn.setAutoCommit(true);
+            for (Map.Entry<UUID, String> entry : batch.entrySet()) {
+                try {
+                    if (isOwnedByOther(owner, entry.getKey(), entry.getValue())) {
+                        rejected.put(entry.getKey(), entry.getValue());
+                        continue;
+                    }
+                    pstmt.setString(1, entry.getKey().toString());
+                    pstmt.setString(2, entry.getValue());
+                    pstmt.executeUpdate();
+                    written.put(entry.getKey(), entry.getValue());
+                } catch (SQLException e) {
+                    if (!isConstraintViolation(e)) {
+                        return e;
+                    }
+                    rejected.put(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (SQLException e) {
+            return e;
+        }
+        return null;
+    }
+
+    /**
+     * Discord IDがDB上で別のプレイヤーに連携済みか
+     */
+    private static boolean isOwnedByOther(PreparedStatement owner, UUID minecraftUuid, String discordId) throws SQLException {
+        owner.setString(1, discordId);
+        try (ResultSet rs = owner.executeQuery()) {
+            return rs.next() && !minecraftUuid.toString().equals(rs.getString(1));
+        }
+    }
+
+    /**
+     * 一意制約などの制約違反か（MySQLはSQLState 23xxx、SQLiteはエラーコード19 SQLITE_CONSTRAINT）
+     */
+    static boolean isConstraintViolation(SQLException e) {
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            if (current instanceof SQLIntegrityConstraintViolationException
+                    || (current.getSQLState() != null && current.getSQLState().startsWith("23"))
+                    || current.getErrorCode() == 19) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * ジャーナルを現在の未反映分だけに書き直す（journalLock保持中に呼ぶこと）
+     */
+    private void compactJournal() throws IOException {
+        if (pending.isEmpty()) {
+            journal.truncate(0);
+            journal.force(true);
+            return;
+        }
+
+        Path temp = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        StringBuilder content = new StringBuilder();
+        pending.forEach((uuid, discordId) -> content.append(uuid).append(' ').append(discordId).append('\n'));
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        }
+        journal.close();
+        Files.move(temp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * DB未反映の連携先Discord IDを取得する（未登録ならnull）
+     */
+    public String getPendingDiscordId(UUID minecraftUuid) {
+        return pending.get(minecraftUuid);
+    }
+
+    /**
+     * DB未反映の連携からDiscord IDに対応するMinecraft UUIDを探す（未登録ならnull）
+     */
+    public UUID getPendingMinecraftUuid(String discordId) {
+        for (Map.Entry<UUID, String> entry : pending.entrySet()) {
+            if (entry.getValue().equals(discordId)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 連携解除時に未反映の連携を取り消す
+     */
+    public void discard(UUID minecraftUuid) {
+        synchronized (journalLock) {
+            if (pending.remove(minecraftUuid) != null) {
+                try {
+                    compactJournal();
+                } catch (IOException e) {
+                    logger.error("連携ジャーナルの書き直しに失敗しました", e);
+                }
+            }
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public void close() {
+        synchronized (journalLock) {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    logger.warn("連携ジャーナルのクローズに失敗しました: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
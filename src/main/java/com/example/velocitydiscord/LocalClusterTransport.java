@@ -0,0 +1,67 @@
+package com.example.velocitydiscord;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 同一JVM内のノード同士をつなぐ通信路（動作確認・検証用）
+ * ネットワークを使わずに、同じプロセスで起動した複数のプロキシをクラスタとして動かせる
+ */
+public class LocalClusterTransport implements ClusterTransport {
+
+    private static final Map<String, LocalClusterTransport> NODES = new ConcurrentHashMap<>();
+
+    private final String nodeId;
+    private final ExecutorService deliveryExecutor;
+    private volatile FrameListener listener;
+
+    public LocalClusterTransport(String nodeId) {
+        this.nodeId = nodeId;
+        // ノードごとに1スレッドで配信し、受信順を保つ
+        this.deliveryExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "velocord-cluster-local-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void start(FrameListener listener) {
+        this.listener = listener;
+        if (NODES.putIfAbsent(nodeId, this) != null) {
+            throw new IllegalStateException("同じノードIDが既に登録されています: " + nodeId);
+        }
+    }
+
+    @Override
+    public void send(String targetId, byte[] frame) {
+        LocalClusterTransport target = NODES.get(targetId);
+        if (target == null) {
+            return;
+        }
+        byte[] copy = frame.clone();
+        target.deliveryExecutor.execute(() -> {
+            FrameListener targetListener = target.listener;
+            if (targetListener != null) {
+                targetListener.onFrame(copy);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> getPeerIds() {
+        Set<String> peers = new TreeSet<>(NODES.keySet());
+        peers.remove(nodeId);
+        return peers;
+    }
+
+    @Override
+    public void close() {
+        NODES.remove(nodeId, this);
+        deliveryExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * このプロキシに接続中のプレイヤーの索引
+ * UUID・名前・接続先サーバー・連携済みDiscordユーザーIDのどれからでも引けるようにしておき、
+ * Discordの /online・/whois にDBやDiscord APIへ問い合わせずに答える
+ *
+ * 連携情報は接続時とキャッシュ無効化の通知時にDatabaseManager（キャッシュ経由）から取得する
+ * 更新は接続・切断・サーバー移動のたびに行い、参照はロックなしで行う
+ */
+public class OnlinePlayerIndex {
+
+    /**
+     * 接続中のプレイヤー
+     *
+     * @param discordId 連携済みのDiscordユーザーID（未連携または未取得ならnull）
+     */
+    public record Entry(UUID uuid, String name, String serverName, String discordId) {}
+
+    private final Logger logger;
+    private volatile DatabaseManager databaseManager;
+
+    private final Map<UUID, Entry> byUuid = new ConcurrentHashMap<>();
+    // 小文字の名前 -> UUID
+    private final Map<String, UUID> byName = new ConcurrentHashMap<>();
+    // サーバー名 -> 接続中のプレイヤー
+    private final Map<String, Set<UUID>> byServer = new ConcurrentHashMap<>();
+    private final Map<String, UUID> byDiscordId = new ConcurrentHashMap<>();
+    // プレイヤーごとの連携情報の更新番号（thisのロックで読み書きする）
+    // 取得中に新しい通知や取得が来たら、先に始まった取得の結果は反映しない
+    private final Map<UUID, Long> linkVersions = new HashMap<>();
+    private long lastLinkVersion;
+
+    public OnlinePlayerIndex(Logger logger) {
+        this.logger = logger;
+    }
+
+    public void setDatabaseManager(DatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    /**
+     * プレイヤーの接続先を記録する（初めての接続なら連携情報も取得する）
+     */
+    public void put(UUID uuid, String name, String serverName) {
+        boolean joined;
+        synchronized (this) {
+            Entry previous = byUuid.get(uuid);
+            joined = previous == null;
+            if (previous != null) {
+                removeFromServer(previous);
+            }
+            String discordId = previous != null ? previous.discordId() : null;
+            byUuid.put(uuid, new Entry(uuid, name, serverName, discordId));
+            byName.put(name.toLowerCase(Locale.ROOT), uuid);
+            byServer.computeIfAbsent(serverName, key -> ConcurrentHashMap.newKeySet()).add(uuid);
+        }
+        if (joined) {
+            refreshLink(uuid);
+        }
+    }
+
+    public synchronized void remove(UUID uuid) {
+        Entry entry = byUuid.remove(uuid);
+        if (entry == null) {
+            return;
+        }
+        byName.remove(entry.name().toLowerCase(Locale.ROOT), uuid);
+        linkVersions.remove(uuid);
+        removeFromServer(entry);
+        if (entry.discordId() != null) {
+            byDiscordId.remove(entry.discordId(), uuid);
+        }
+    }
+
+    private void removeFromServer(Entry entry) {
+        Set<UUID> players = byServer.get(entry.serverName());
+        if (players != null) {
+            players.remove(entry.uuid());
+            if (players.isEmpty()) {
+                byServer.remove(entry.serverName(), players);
+            }
+        }
+    }
+
+    /**
+     * 連携先を設定し、取得中の古い結果で上書きされないよう更新番号を進める
+     */
+    private synchronized void applyLink(UUID uuid, String discordId) {
+        if (!byUuid.containsKey(uuid)) {
+            return;
+        }
+        nextLinkVersion(uuid);
+        setLink(uuid, discordId);
+    }
+
+    /**
+     * 連携情報の更新番号を進めて返す（thisのロックを取って呼ぶ）
+     */
+    private long nextLinkVersion(UUID uuid) {
+        long version = ++lastLinkVersion;
+        linkVersions.put(uuid, version);
+        return version;
+    }
+
+    /**
+     * 連携先を設定する（接続中でなければ何もしない。thisのロックを取って呼ぶ）
+     */
+    private void setLink(UUID uuid, String discordId) {
+        Entry entry = byUuid.get(uuid);
+        if (entry == null) {
+            return;
+        }
+        if (entry.discordId() != null) {
+            byDiscordId.remove(entry.discordId(), uuid);
+        }
+        byUuid.put(uuid, new Entry(uuid, entry.name(), entry.serverName(), discordId));
+        if (discordId != null) {
+            byDiscordId.put(discordId, uuid);
+        }
+    }
+
+    /**
+     * 連携情報をDatabaseManagerから取り直す（通常はキャッシュから返る）
+     */
+    private void refreshLink(UUID uuid) {
+        if (databaseManager == null) {
+            return;
+        }
+        long version;
+        synchronized (this) {
+            if (!byUuid.containsKey(uuid)) {
+                return;
+            }
+            version = nextLinkVersion(uuid);
+        }
+        databaseManager.getDiscordUserId(uuid).whenComplete((discordId, error) -> {
+            if (error != null) {
+                logger.debug("連携情報を取得できませんでした: {} ({})", uuid, error.getMessage());
+                return;
+            }
+            synchronized (this) {
+                Long current = linkVersions.get(uuid);
+                if (current != null && current == version) {
+                    setLink(uuid, discordId);
+                }
+            }
+        });
+    }
+
+    /**
+     * 連携の追加・解除を索引に反映する
+     */
+    public void onCacheInvalidation(CacheInvalidation invalidation) {
+        switch (invalidation.kind()) {
+            case LINK -> {
+                if (invalidation.minecraftUuid() != null) {
+                    applyLink(invalidation.minecraftUuid(), invalidation.discordId());
+                }
+            }
+            case UNLINK -> {
+                UUID uuid = invalidation.minecraftUuid();
+                if (uuid == null && invalidation.discordId() != null) {
+                    uuid = byDiscordId.get(invalidation.discordId());
+                }
+                if (uuid != null) {
+                    applyLink(uuid, null);
+                }
+            }
+            case ALL -> byUuid.keySet().forEach(this::refreshLink);
+            case ROLE -> {
+                // ロールの変更は索引に関係しない
+            }
+        }
+    }
+
+    public Entry get(UUID uuid) {
+        return byUuid.get(uuid);
+    }
+
+    public Entry findByName(String name) {
+        UUID uuid = byName.get(name.toLowerCase(Locale.ROOT));
+        return uuid != null ? byUuid.get(uuid) : null;
+    }
+
+    public Entry findByDiscordId(String discordId) {
+        UUID uuid = byDiscordId.get(discordId);
+        return uuid != null ? byUuid.get(uuid) : null;
+    }
+
+    /**
+     * サーバーに接続中のプレイヤー（名前順）
+     */
+    public List<Entry> getPlayers(String serverName) {
+        Set<UUID> players = byServer.get(serverName);
+        if (players == null) {
+            return List.of();
+        }
+        List<Entry> entries = new ArrayList<>(players.size());
+        for (UUID uuid : players) {
+            Entry entry = byUuid.get(uuid);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparing(entry -> entry.name().toLowerCase(Locale.ROOT)));
+        return entries;
+    }
+
+    /**
+     * サーバー名 -> 接続人数（サーバー名順）
+     */
+    public Map<String, Integer> getPlayerCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        byServer.forEach((serverName, players) -> {
+            if (!players.isEmpty()) {
+                counts.put(serverName, players.size());
+            }
+        });
+        return counts;
+    }
+
+    public List<Entry> getAll() {
+        return new ArrayList<>(byUuid.values());
+    }
+
+    public int size() {
+        return byUuid.size();
+    }
+}
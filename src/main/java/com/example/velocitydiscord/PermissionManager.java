@@ -4,19 +4,43 @@ import com.velocitypowered.api.proxy.Player;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
 import org.slf4j.Logger;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class PermissionManager {
+public class PermissionManager implements ConfigManager.ChangeListener {
     private final ConfigManager configManager;
     private final DatabaseManager databaseManager;
     private final Logger logger;
     private DiscordManager discordManager;
+    private ClusterManager clusterManager;
+    private StageTimings stageTimings;
+
+    // 許可済みの判定（UUID → サーバー名 → 許可）。ロール・連携の変更通知で破棄する
+    private final Map<UUID, Map<String, AccessGrant>> accessGrants = new ConcurrentHashMap<>();
+    // 判定中に変更通知が届いた場合に結果をキャッシュしないための世代番号
+    private final AtomicLong grantGeneration = new AtomicLong();
+
+    private record AccessGrant(String discordId, long expiresAtMillis) {}
+
+    // Discord REST（メンバー取得）を保護する。存在しないメンバーなどの応答は障害として数えない
+    private final CircuitBreaker discordBreaker;
+
+    // 同時に来た同じプレイヤー・同じサーバーの判定と、同じメンバーの取得を1回にまとめる
+    private final SingleFlight<AccessKey, Boolean> accessChecks = new SingleFlight<>();
+    private final SingleFlight<String, Member> memberFetches = new SingleFlight<>();
+
+    private record AccessKey(UUID playerUuid, String serverName) {}
 
     public PermissionManager(ConfigManager configManager, DiscordManager discordManager, 
                              DatabaseManager databaseManager, Logger logger) {
@@ -24,22 +48,186 @@ public class PermissionManager {
         this.discordManager = discordManager;
         this.databaseManager = databaseManager;
         this.logger = logger;
+        this.discordBreaker = CircuitBreaker.fromConfig("discord", configManager, PermissionManager::isMemberAbsent);
+    }
+
+    /**
+     * Guildにいない・存在しないユーザーへの応答か（Discordは正常に応答しているため障害として数えない）
+     * 5xxなど他のエラー応答は障害として数える
+     */
+    private static boolean isMemberAbsent(Throwable error) {
+        return error instanceof ErrorResponseException response
+            && (response.getErrorResponse() == ErrorResponse.UNKNOWN_MEMBER
+                || response.getErrorResponse() == ErrorResponse.UNKNOWN_USER);
+    }
+
+    public CircuitBreaker getDiscordCircuitBreaker() {
+        return discordBreaker;
+    }
+
+    /**
+     * 同時の判定・メンバー取得をまとめて省略できた回数
+     */
+    public long getCoalescedChecks() {
+        return accessChecks.getCoalesced();
+    }
+
+    public long getCoalescedMemberFetches() {
+        return memberFetches.getCoalesced();
     }
 
     public void setDiscordManager(DiscordManager discordManager) {
         this.discordManager = discordManager;
     }
 
+    public void setClusterManager(ClusterManager clusterManager) {
+        this.clusterManager = clusterManager;
+    }
+
+    public void setStageTimings(StageTimings stageTimings) {
+        this.stageTimings = stageTimings;
+    }
+
     public String getServerDisplayName(String serverName) {
         Map<String, String> servers = configManager.getServers();
         return servers.getOrDefault(serverName, serverName);
     }
 
+    /**
+     * サーバーへの接続可否を返す
+     * 許可された判定はpermission_ttl_seconds の間キャッシュし、連携・ロールの変更通知で即座に破棄する
+     * 拒否はキャッシュしない（ロール付与直後の再接続をすぐ通すため）
+     * DiscordやDBが使えない場合は resilience.fallback に従って判定する
+     */
+    public boolean canAccessServer(UUID playerUuid, String serverName) {
+        long startNanos = System.nanoTime();
+        long startBytes = StageTimings.allocatedBytes();
+        FlightEvents.PermissionCheck flightEvent = new FlightEvents.PermissionCheck();
+        flightEvent.begin();
+        boolean allowed = false;
+        try {
+            allowed = evaluateServerAccess(playerUuid, serverName, flightEvent);
+            return allowed;
+        } finally {
+            if (stageTimings != null) {
+                stageTimings.record(StageTimings.Stage.PERMISSION_CHECK, startNanos, startBytes);
+            }
+            if (flightEvent.shouldCommit()) {
+                flightEvent.playerUuid = playerUuid.toString();
+                flightEvent.server = serverName;
+                flightEvent.allowed = allowed;
+                flightEvent.commit();
+            }
+        }
+    }
+
+    private boolean evaluateServerAccess(UUID playerUuid, String serverName, FlightEvents.PermissionCheck flightEvent) {
+        Map<String, AccessGrant> grants = accessGrants.get(playerUuid);
+        AccessGrant grant = grants == null ? null : grants.get(serverName);
+        if (grant != null && grant.expiresAtMillis() > System.currentTimeMillis()) {
+            logger.debug("権限チェック（キャッシュ）: Player {} to server {} -> 許可", playerUuid, serverName);
+            flightEvent.cached = true;
+            return true;
+        }
+
+        long generation = grantGeneration.get();
+        boolean allowed;
+        try {
+            allowed = accessChecks.execute(new AccessKey(playerUuid, serverName),
+                () -> CompletableFuture.completedFuture(checkAccess(playerUuid, serverName, flightEvent))).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof CircuitBreaker.UnavailableException unavailable) {
+                flightEvent.fallback = true;
+                return fallbackVerdict(playerUuid, serverName, grant, unavailable);
+            }
+            throw e;
+        }
+        if (!allowed && grants != null) {
+            // 期限切れの許可を残すと、障害時のallow_if_cachedで取り消された権限を通してしまう
+            grants.remove(serverName);
+        }
+        int ttlSeconds = configManager.getPermissionCacheTtlSeconds();
+        if (allowed && ttlSeconds > 0) {
+            String discordId = databaseManager.getDiscordUserId(playerUuid).getNow(null);
+            synchronized (accessGrants) {
+                if (generation == grantGeneration.get()) {
+                    accessGrants.computeIfAbsent(playerUuid, uuid -> new ConcurrentHashMap<>())
+                        .put(serverName, new AccessGrant(discordId, System.currentTimeMillis() + ttlSeconds * 1000L));
+                }
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * 依存先が使えず判定できなかった場合の結果
+     *
+     * @param staleGrant 期限切れだが変更通知で破棄されていない以前の許可（なければnull）
+     */
+    private boolean fallbackVerdict(UUID playerUuid, String serverName, AccessGrant staleGrant, CircuitBreaker.UnavailableException cause) {
+        String policy = configManager.getResilienceFallback().toLowerCase();
+        boolean allowed = switch (policy) {
+            case "allow_if_cached" -> staleGrant != null;
+            case "degrade" -> configManager.isDegradedConnectAllowed();
+            default -> false;
+        };
+        logger.warn("権限チェックを実行できません（{}）: Player {} to server {} -> {} (fallback: {})",
+            cause.getMessage(), playerUuid, serverName, allowed ? "許可" : "拒否", policy);
+        return allowed;
+    }
+
+    /**
+     * 連携・ロールの変更通知を受けて、該当プレイヤーの許可キャッシュを破棄する
+     */
+    public void onCacheInvalidation(CacheInvalidation invalidation) {
+        synchronized (accessGrants) {
+            grantGeneration.incrementAndGet();
+            if (invalidation.kind() == CacheInvalidation.Kind.ALL) {
+                accessGrants.clear();
+                return;
+            }
+            if (invalidation.minecraftUuid() != null) {
+                accessGrants.remove(invalidation.minecraftUuid());
+            }
+            String discordId = invalidation.discordId();
+            if (discordId != null) {
+                accessGrants.values().forEach(grants -> grants.values().removeIf(grant -> discordId.equals(grant.discordId())));
+                accessGrants.values().removeIf(Map::isEmpty);
+            }
+        }
+    }
+
+    /**
+     * 切断したプレイヤーの許可キャッシュを破棄する（再接続時は改めて判定する）
+     * 判定中の結果が切断後に書き戻されないよう世代も進める
+     */
+    public void onPlayerDisconnect(UUID playerUuid) {
+        synchronized (accessGrants) {
+            grantGeneration.incrementAndGet();
+            accessGrants.remove(playerUuid);
+        }
+    }
+
+    /**
+     * Discord側でメンバーのロールが変わったことを全プロキシに通知する
+     */
+    public void onDiscordRolesChanged(String discordId) {
+        databaseManager.publishInvalidation(new CacheInvalidation(CacheInvalidation.Kind.ROLE, null, discordId));
+    }
+
+    @Override
+    public void onConfigChanged(Set<ConfigManager.ChangeType> changes) {
+        if (changes.contains(ConfigManager.ChangeType.ROLE_MAPPING) || changes.contains(ConfigManager.ChangeType.GUILDS)) {
+            onCacheInvalidation(CacheInvalidation.all());
+        }
+    }
+
     /**
      * 複数サーバー対応のリアルタイム権限チェック（自動検出対応）
      * 設定済みサーバーまたは参加している全サーバーからロール情報を取得して権限を確認します
+     * 確認したGuildの数とDiscord APIへの要求回数はflightEventに数える（同時の判定に相乗りした呼び出し元では0のまま）
      */
-    public boolean canAccessServer(UUID playerUuid, String serverName) {
+    private boolean checkAccess(UUID playerUuid, String serverName, FlightEvents.PermissionCheck flightEvent) {
         try {
             // ① DB でリンク確認
             logger.info("=== 権限チェック開始: Player {} to server {} ===", playerUuid, serverName);
@@ -54,6 +242,12 @@ public class PermissionManager {
             
             // ② Discord ユーザーID確保済み
             var jda = discordManager.getJda();
+            if (jda == null && clusterManager != null && !clusterManager.isLeader()) {
+                // Discordに接続しているリーダーのプロキシで判定する
+                boolean allowed = clusterManager.queryAccess(playerUuid, serverName);
+                logger.info("🔗 クラスタのリーダー {} で権限チェック: {} -> {}", clusterManager.getLeaderId(), serverName, allowed);
+                return allowed;
+            }
             if (jda == null) {
                 logger.warn("JDA not ready – deny access to {}", serverName);
                 return false;
@@ -88,11 +282,19 @@ public class PermissionManager {
             for (net.dv8tion.jda.api.entities.Guild guild : targetGuilds) {
                 String guildId = guild.getId();
                 logger.info("🔍 サーバーチェック中: {} ({})", guild.getName(), guildId);
+                flightEvent.guildCount++;
                 
                 Member member;
                 try {
-                    member = guild.retrieveMemberById(discordUserId).complete();
+                    member = memberFetches.execute(guildId + ":" + discordUserId,
+                        () -> discordBreaker.call(() -> {
+                            flightEvent.restCalls++;
+                            return guild.retrieveMemberById(discordUserId).submit();
+                        })).get();
                 } catch (Exception e) {
+                    if (CircuitBreaker.isUnavailable(e)) {
+                        throw new CircuitBreaker.UnavailableException(e.getMessage(), e);
+                    }
                     logger.warn("❌ メンバー取得失敗: Discord ID {} from guild {} – エラー: {}", 
                         discordUserId, guild.getName(), e.getMessage());
                     continue;
@@ -161,6 +363,11 @@ public class PermissionManager {
             return false;
             
         } catch (Exception e) {
+            if (CircuitBreaker.isUnavailable(e)) {
+                // 依存先の停止は呼び出し元でフォールバック判定する
+                throw e instanceof CircuitBreaker.UnavailableException unavailable
+                    ? unavailable : new CircuitBreaker.UnavailableException(e.getMessage(), e);
+            }
             logger.error("💥 権限チェックエラー: Error during permission check for player {} to server {}", 
                 playerUuid, serverName, e);
             // エラー時は安全のため拒否
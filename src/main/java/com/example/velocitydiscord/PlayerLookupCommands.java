@@ -0,0 +1,169 @@
+package com.example.velocitydiscord;
+
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.commands.OptionMapping;
+import net.dv8tion.jda.api.interactions.commands.OptionType;
+import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Discordの /online・/whois コマンド
+ * OnlinePlayerIndexだけを参照して応答し、コマンドごとにDBやDiscord APIへ問い合わせない
+ * クラスタ構成ではDiscordに接続しているリーダーのプロキシのプレイヤーが対象になる
+ */
+public class PlayerLookupCommands {
+
+    // /online <server> の1ページあたりの人数
+    private static final int PAGE_SIZE = 40;
+    // /online の一覧で、サーバーごとに表示する名前の数
+    private static final int SUMMARY_NAMES = 15;
+    // Discordのメッセージの上限（2000文字）に収めるための目安
+    private static final int MAX_REPLY_LENGTH = 1900;
+
+    private final OnlinePlayerIndex onlinePlayers;
+    private final ConfigManager configManager;
+
+    public PlayerLookupCommands(OnlinePlayerIndex onlinePlayers, ConfigManager configManager) {
+        this.onlinePlayers = onlinePlayers;
+        this.configManager = configManager;
+    }
+
+    public static List<SlashCommandData> buildSlashCommands() {
+        return List.of(
+            Commands.slash("online", "オンラインのプレイヤーを表示します。")
+                    .addOption(OptionType.STRING, "server", "サーバー名（指定するとそのサーバーの全員を表示）", false)
+                    .addOption(OptionType.INTEGER, "page", "ページ番号", false),
+            Commands.slash("whois", "プレイヤーの接続先と連携アカウントを表示します。")
+                    .addOption(OptionType.STRING, "player", "Minecraftのプレイヤー名", false)
+                    .addOption(OptionType.USER, "user", "Discordユーザー", false)
+        );
+    }
+
+    /**
+     * 対象のコマンドであれば応答してtrueを返す
+     */
+    public boolean handle(SlashCommandInteractionEvent event) {
+        switch (event.getName()) {
+            case "online" -> replyOnline(event);
+            case "whois" -> replyWhois(event);
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void replyOnline(SlashCommandInteractionEvent event) {
+        OptionMapping serverOption = event.getOption("server");
+        if (serverOption == null) {
+            event.reply(renderSummary()).setEphemeral(true).queue();
+            return;
+        }
+
+        String serverName = resolveServerName(serverOption.getAsString());
+        List<OnlinePlayerIndex.Entry> players = onlinePlayers.getPlayers(serverName);
+        String displayName = configManager.getServerDisplayName(serverName);
+        if (players.isEmpty()) {
+            event.reply(String.format("**%s** にオンラインのプレイヤーはいません。", displayName)).setEphemeral(true).queue();
+            return;
+        }
+
+        int pages = (players.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        OptionMapping pageOption = event.getOption("page");
+        int page = Math.min(Math.max(1, pageOption != null ? pageOption.getAsInt() : 1), pages);
+        List<OnlinePlayerIndex.Entry> shown = players.subList((page - 1) * PAGE_SIZE, Math.min(page * PAGE_SIZE, players.size()));
+
+        StringBuilder reply = new StringBuilder();
+        reply.append(String.format("🟢 **%s** (%d人) ページ %d/%d\n", displayName, players.size(), page, pages));
+        appendNames(reply, shown);
+        event.reply(reply.toString()).setEphemeral(true).queue();
+    }
+
+    private String renderSummary() {
+        Map<String, Integer> counts = onlinePlayers.getPlayerCounts();
+        if (counts.isEmpty()) {
+            return "オンラインのプレイヤーはいません。";
+        }
+
+        StringBuilder reply = new StringBuilder();
+        reply.append(String.format("🟢 オンライン: %d人\n", onlinePlayers.size()));
+        for (String serverName : counts.keySet()) {
+            List<OnlinePlayerIndex.Entry> players = onlinePlayers.getPlayers(serverName);
+            if (players.isEmpty()) {
+                continue;
+            }
+            // サーバーごとの段落を組み立ててから、上限に収まる場合だけ追加する
+            StringBuilder block = new StringBuilder();
+            block.append(String.format("\n**%s** (%d人)\n", configManager.getServerDisplayName(serverName), players.size()));
+            appendNames(block, players.subList(0, Math.min(SUMMARY_NAMES, players.size())));
+            if (players.size() > SUMMARY_NAMES) {
+                block.append(String.format(" 他%d人（`/online server:%s` で全員を表示）", players.size() - SUMMARY_NAMES, serverName));
+            }
+            block.append("\n");
+            if (reply.length() + block.length() > MAX_REPLY_LENGTH) {
+                reply.append("\n…（`/online server:<サーバー名>` で個別に表示）");
+                break;
+            }
+            reply.append(block);
+        }
+        return reply.toString();
+    }
+
+    private void appendNames(StringBuilder reply, List<OnlinePlayerIndex.Entry> players) {
+        for (int i = 0; i < players.size(); i++) {
+            if (i > 0) {
+                reply.append(", ");
+            }
+            reply.append(escape(players.get(i).name()));
+        }
+    }
+
+    private void replyWhois(SlashCommandInteractionEvent event) {
+        OptionMapping playerOption = event.getOption("player");
+        OptionMapping userOption = event.getOption("user");
+        OnlinePlayerIndex.Entry entry;
+        String target;
+        if (playerOption != null) {
+            target = escape(playerOption.getAsString());
+            entry = onlinePlayers.findByName(playerOption.getAsString());
+        } else if (userOption != null) {
+            User user = userOption.getAsUser();
+            target = user.getAsMention();
+            entry = onlinePlayers.findByDiscordId(user.getId());
+        } else {
+            event.reply("❌ `player` か `user` のどちらかを指定してください。").setEphemeral(true).queue();
+            return;
+        }
+
+        if (entry == null) {
+            event.reply(String.format("%s はオンラインではありません。", target)).setEphemeral(true).queue();
+            return;
+        }
+        String linked = entry.discordId() != null ? "<@" + entry.discordId() + ">" : "未連携";
+        event.reply(String.format("👤 **%s**\nサーバー: %s\nDiscord: %s",
+            escape(entry.name()), configManager.getServerDisplayName(entry.serverName()), linked)).setEphemeral(true).queue();
+    }
+
+    /**
+     * サーバー名か表示名からサーバー名を求める（見つからなければ入力のまま）
+     */
+    private String resolveServerName(String input) {
+        for (String serverName : onlinePlayers.getPlayerCounts().keySet()) {
+            if (serverName.equalsIgnoreCase(input) || configManager.getServerDisplayName(serverName).equalsIgnoreCase(input)) {
+                return serverName;
+            }
+        }
+        return input;
+    }
+
+    /**
+     * 名前の「_」でDiscordの書式が崩れないようにする
+     */
+    private static String escape(String name) {
+        return name.replace("_", "\\_").replace("*", "\\*");
+    }
+}
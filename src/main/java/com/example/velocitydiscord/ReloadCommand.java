@@ -6,6 +6,8 @@ import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import org.slf4j.Logger;
 
+import java.util.Set;
+
 public class ReloadCommand implements SimpleCommand {
     
     private final ConfigManager configManager;
@@ -29,10 +31,11 @@ public class ReloadCommand implements SimpleCommand {
         try {
             source.sendMessage(Component.text("設定ファイルを再読み込み中...", NamedTextColor.YELLOW));
             
-            // config.ymlを再読み込み
-            configManager.loadConfig();
+            // config.ymlを再読み込みし、変更された項目だけ各機能に反映
+            Set<ConfigManager.ChangeType> changes = configManager.reloadConfig();
             
             source.sendMessage(Component.text("✅ 設定ファイルの再読み込みが完了しました！", NamedTextColor.GREEN));
+            source.sendMessage(Component.text(changes.isEmpty() ? "変更はありません。" : "反映した項目: " + changes, NamedTextColor.GRAY));
             logger.info("Configuration reloaded by {}", source.toString());
             
         } catch (Exception e) {
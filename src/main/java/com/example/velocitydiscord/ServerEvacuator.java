@@ -0,0 +1,213 @@
+package com.example.velocitydiscord;
+
+import com.velocitypowered.api.proxy.ConnectionRequestBuilder;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * オフラインになったサーバーのプレイヤーを他のサーバーへまとめて移動する
+ *
+ * 移動先はServerRouterのスコアで決め、割り当て済みで接続が完了していない人数もスコアに含めて移動先を分散させる
+ * 接続要求は同時にmax_concurrent件まで並列に行い、全員の処理が終わったら結果をログとDiscordに報告する
+ */
+public class ServerEvacuator {
+
+    /**
+     * 退避の結果
+     *
+     * @param moved 移動できた人数
+     * @param failed 移動先はあったが接続に失敗した人数
+     * @param stranded 接続を許可された移動先がなかった人数
+     * @param destinations 移動先のサーバー名 -> 移動できた人数
+     */
+    public record Report(String serverName, int total, int moved, int failed, int stranded,
+                         Map<String, Integer> destinations, long elapsedMillis) {}
+
+    private final ProxyServer server;
+    private final ConfigManager configManager;
+    private final ServerRouter router;
+    private final DiscordManager discordManager;
+    private final Logger logger;
+
+    // 退避中のサーバー（監視の周期が重なっても同じサーバーを二重に処理しない）
+    private final Set<String> evacuating = ConcurrentHashMap.newKeySet();
+
+    public ServerEvacuator(ProxyServer server, ConfigManager configManager, ServerRouter router,
+                           DiscordManager discordManager, Logger logger) {
+        this.server = server;
+        this.configManager = configManager;
+        this.router = router;
+        this.discordManager = discordManager;
+        this.logger = logger;
+    }
+
+    /**
+     * サーバーに接続中のプレイヤーを全員移動する
+     * すでに退避中の場合や接続中のプレイヤーがいない場合はnullで完了する
+     */
+    public CompletableFuture<Report> evacuate(String serverName) {
+        Optional<RegisteredServer> registered = server.getServer(serverName);
+        if (registered.isEmpty() || !evacuating.add(serverName)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        List<Player> players = new ArrayList<>(registered.get().getPlayersConnected());
+        if (players.isEmpty()) {
+            evacuating.remove(serverName);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        logger.info("{} がオフラインになったため、{}人のプレイヤーを退避します", serverName, players.size());
+        Evacuation evacuation = new Evacuation(serverName, players);
+        int workers = Math.min(Math.max(1, configManager.getEvacuationMaxConcurrent()), players.size());
+        CompletableFuture<?>[] lanes = new CompletableFuture<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            lanes[i] = evacuation.nextPlayer();
+        }
+        return CompletableFuture.allOf(lanes)
+            .thenApply(ignored -> evacuation.report())
+            .whenComplete((report, error) -> {
+                evacuating.remove(serverName);
+                if (error != null) {
+                    logger.error("{} からの退避中にエラーが発生しました", serverName, error);
+                    return;
+                }
+                logger.info("{} からの退避が完了しました: 移動 {}/{}人, 接続失敗 {}人, 移動先なし {}人, 移動先 {} ({}ms)",
+                    serverName, report.moved(), report.total(), report.failed(), report.stranded(),
+                    report.destinations(), report.elapsedMillis());
+                if (configManager.isServerStatusEnabled()) {
+                    discordManager.sendEvacuationReport(report);
+                }
+            });
+    }
+
+    /**
+     * 1台のサーバーの退避処理
+     * 同時実行数と同じ数のレーンがキューからプレイヤーを1人ずつ取り出し、接続が終わったら次のプレイヤーへ進む
+     */
+    private class Evacuation {
+        private final String serverName;
+        private final int total;
+        private final long startedAt = System.currentTimeMillis();
+        private final Queue<Player> queue;
+        // 移動先のサーバー名 -> 割り当て済みで接続が完了していない人数
+        private final Map<String, Integer> pending = new HashMap<>();
+        private final Map<String, Integer> destinations = new ConcurrentHashMap<>();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger stranded = new AtomicInteger();
+
+        Evacuation(String serverName, List<Player> players) {
+            this.serverName = serverName;
+            this.total = players.size();
+            this.queue = new ConcurrentLinkedQueue<>(players);
+        }
+
+        /**
+         * キューが空になるまでプレイヤーを順に移動する
+         */
+        CompletableFuture<Void> nextPlayer() {
+            Player player = queue.poll();
+            if (player == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            // 権限チェックでDBやDiscordに問い合わせることがあるため、接続処理のスレッドでは選ばない
+            return CompletableFuture.supplyAsync(() -> reserveTarget(player))
+                .thenCompose(target -> move(player, target))
+                .exceptionally(error -> {
+                    logger.warn("{} の退避に失敗しました: {}", player.getUsername(), error.getMessage());
+                    failed.incrementAndGet();
+                    return null;
+                })
+                .thenCompose(ignored -> nextPlayer());
+        }
+
+        private CompletableFuture<Void> move(Player player, RegisteredServer target) {
+            // 退避を待つ間に自分で移動した、または切断したプレイヤーは数えない
+            boolean stillThere = player.getCurrentServer()
+                .map(connection -> connection.getServerInfo().getName().equals(serverName))
+                .orElse(false);
+            if (target == null) {
+                if (stillThere) {
+                    stranded.incrementAndGet();
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+            String targetName = target.getServerInfo().getName();
+            if (!stillThere) {
+                release(targetName);
+                return CompletableFuture.completedFuture(null);
+            }
+            return player.createConnectionRequest(target).connect()
+                .handle((result, error) -> {
+                    release(targetName);
+                    if (error == null && result.isSuccessful()) {
+                        destinations.merge(targetName, 1, Integer::sum);
+                    } else {
+                        failed.incrementAndGet();
+                        logger.debug("{} を {} へ移動できませんでした: {}", player.getUsername(), targetName,
+                            error != null ? error.getMessage() : statusOf(result));
+                    }
+                    return null;
+                });
+        }
+
+        /**
+         * 割り当て済みの人数を含めて最も空いているサーバーを予約し、権限を確認する
+         * 拒否された場合は予約を戻して次の候補を試す
+         */
+        private RegisteredServer reserveTarget(Player player) {
+            Set<String> denied = new HashSet<>();
+            while (true) {
+                RegisteredServer candidate = null;
+                synchronized (pending) {
+                    for (RegisteredServer ranked : router.rankServers(serverName, pending)) {
+                        if (!denied.contains(ranked.getServerInfo().getName())) {
+                            candidate = ranked;
+                            break;
+                        }
+                    }
+                    if (candidate == null) {
+                        return null;
+                    }
+                    pending.merge(candidate.getServerInfo().getName(), 1, Integer::sum);
+                }
+                String candidateName = candidate.getServerInfo().getName();
+                if (router.canRouteTo(player, candidateName)) {
+                    return candidate;
+                }
+                release(candidateName);
+                denied.add(candidateName);
+            }
+        }
+
+        private void release(String targetName) {
+            synchronized (pending) {
+                pending.computeIfPresent(targetName, (name, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+
+        private String statusOf(ConnectionRequestBuilder.Result result) {
+            return result != null ? String.valueOf(result.getStatus()) : "不明";
+        }
+
+        Report report() {
+            int moved = destinations.values().stream().mapToInt(Integer::intValue).sum();
+            return new Report(serverName, total, moved, failed.get(), stranded.get(),
+                new HashMap<>(destinations), System.currentTimeMillis() - startedAt);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.velocitydiscord;
+
+import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.player.KickedFromServerEvent;
+import com.velocitypowered.api.event.player.PlayerChooseInitialServerEvent;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 負荷を考慮した接続先の振り分け
+ * ログイン時の最初の接続先と、サーバーからキックされたときの移動先を、候補の中から最も空いているサーバーに決める
+ *
+ * ServerStatusMonitorの監視結果でオフラインのサーバーを除き、応答時間と接続人数から計算したスコアの低い順に
+ * 権限チェックを行い、最初に接続が許可されたサーバーを選ぶ
+ */
+public class ServerRouter {
+
+    private final VelocityDiscordPlugin plugin;
+    private final ProxyServer server;
+    private final ConfigManager configManager;
+    private final PermissionManager permissionManager;
+    private final Logger logger;
+
+    public ServerRouter(VelocityDiscordPlugin plugin, ProxyServer server, ConfigManager configManager,
+                        PermissionManager permissionManager, Logger logger) {
+        this.plugin = plugin;
+        this.server = server;
+        this.configManager = configManager;
+        this.permissionManager = permissionManager;
+        this.logger = logger;
+    }
+
+    @Subscribe
+    public void onChooseInitialServer(PlayerChooseInitialServerEvent event) {
+        if (!configManager.isRoutingEnabled()) {
+            return;
+        }
+        selectServer(event.getPlayer(), null).ifPresent(target -> {
+            event.setInitialServer(target);
+            logger.debug("初期接続先を振り分けました: {} -> {}", event.getPlayer().getUsername(), target.getServerInfo().getName());
+        });
+    }
+
+    @Subscribe
+    public void onKickedFromServer(KickedFromServerEvent event) {
+        if (!configManager.isRoutingEnabled() || !configManager.isRoutingKickFallbackEnabled()) {
+            return;
+        }
+        // 別のサーバーへの移動に失敗しただけなら、今いるサーバーに留める
+        if (event.kickedDuringServerConnect() && event.getPlayer().getCurrentServer().isPresent()) {
+            return;
+        }
+        String kickedFrom = event.getServer().getServerInfo().getName();
+        selectServer(event.getPlayer(), kickedFrom).ifPresent(target -> {
+            event.setResult(KickedFromServerEvent.RedirectPlayer.create(target));
+            logger.info("{} を {} から {} へ移動します", event.getPlayer().getUsername(), kickedFrom, target.getServerInfo().getName());
+        });
+    }
+
+    /**
+     * 候補のうち、オンラインで最も空いていて、プレイヤーが接続を許可されているサーバーを選ぶ
+     *
+     * @param excluded 候補から除くサーバー名（キックされたサーバー）
+     */
+    public Optional<RegisteredServer> selectServer(Player player, String excluded) {
+        for (RegisteredServer candidate : rankServers(excluded, Collections.emptyMap())) {
+            if (canRouteTo(player, candidate.getServerInfo().getName())) {
+                return Optional.of(candidate);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * オンラインの候補をスコアの低い順に並べる（権限は確認しない）
+     *
+     * @param excluded 候補から除くサーバー名
+     * @param pending サーバー名 -> まだ接続が完了していない割り当て人数（接続人数に加算してスコアを計算する）
+     */
+    public List<RegisteredServer> rankServers(String excluded, Map<String, Integer> pending) {
+        ServerStatusMonitor monitor = plugin.getServerStatusMonitor();
+        List<Candidate> candidates = new ArrayList<>();
+        for (String serverName : getCandidateNames()) {
+            if (serverName.equals(excluded)) {
+                continue;
+            }
+            Optional<RegisteredServer> registered = server.getServer(serverName);
+            if (registered.isEmpty()) {
+                continue;
+            }
+            ServerStatusMonitor.ServerHealth health = monitor != null ? monitor.getServerHealth(serverName) : null;
+            if (health != null && !health.online()) {
+                continue;
+            }
+            int players = registered.get().getPlayersConnected().size() + pending.getOrDefault(serverName, 0);
+            candidates.add(new Candidate(registered.get(), score(players, health)));
+        }
+        candidates.sort(Comparator.comparingLong(Candidate::score));
+
+        List<RegisteredServer> ranked = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            ranked.add(candidate.server());
+        }
+        return ranked;
+    }
+
+    /**
+     * プレイヤーをサーバーへ振り分けてよいか
+     * 起動処理中はServerPreConnectEventの縮退ポリシーに任せ、ここでは権限を確認しない
+     */
+    public boolean canRouteTo(Player player, String serverName) {
+        return !plugin.isStartupComplete() || permissionManager.canAccessServer(player.getUniqueId(), serverName);
+    }
+
+    /**
+     * スコア（小さいほど優先）= 応答時間(ms) + 接続人数 × 1人あたりのペナルティ(ms)
+     * 応答時間が未計測のサーバーは0msとして扱う
+     */
+    private long score(int players, ServerStatusMonitor.ServerHealth health) {
+        long rtt = health != null && health.rttMillis() >= 0 ? health.rttMillis() : 0;
+        return rtt + (long) players * configManager.getRoutingPlayerPenaltyMillis();
+    }
+
+    /**
+     * 振り分け候補（設定がなければVelocityのtryリスト）
+     */
+    private List<String> getCandidateNames() {
+        List<String> configured = configManager.getRoutingServers();
+        if (!configured.isEmpty()) {
+            return configured;
+        }
+        return server.getConfiguration().getAttemptConnectionOrder();
+    }
+
+    private record Candidate(RegisteredServer server, long score) {}
+}
@@ -6,6 +6,9 @@ import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import org.slf4j.Logger;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
 
@@ -18,6 +21,8 @@ public class ServerStatusCommand implements SimpleCommand {
     private final VelocityDiscordPlugin plugin;
     private final Logger logger;
     
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm").withZone(ZoneId.systemDefault());
+    
     public ServerStatusCommand(VelocityDiscordPlugin plugin, Logger logger) {
         this.plugin = plugin;
         this.logger = logger;
@@ -30,6 +35,7 @@ public class ServerStatusCommand implements SimpleCommand {
         ServerStatusMonitor monitor = plugin.getServerStatusMonitor();
         if (monitor == null) {
             source.sendMessage(Component.text("サーバー状態監視機能が無効化されています。", NamedTextColor.RED));
+            sendRecentChat(source);
             return;
         }
         
@@ -37,6 +43,7 @@ public class ServerStatusCommand implements SimpleCommand {
         
         if (serverStatus.isEmpty()) {
             source.sendMessage(Component.text("監視対象のサーバーがありません。", NamedTextColor.YELLOW));
+            sendRecentChat(source);
             return;
         }
         
@@ -67,9 +74,37 @@ public class ServerStatusCommand implements SimpleCommand {
             );
         }
         
+        sendRecentChat(source);
         source.sendMessage(Component.text("━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━━", NamedTextColor.GRAY));
     }
     
+    /**
+     * チャット履歴から最近のチャットを表示
+     */
+    private void sendRecentChat(CommandSource source) {
+        int count = plugin.getConfigManager().getChatHistoryShowInStatus();
+        ChatManager chatManager = plugin.getChatManager();
+        if (count <= 0 || chatManager == null) {
+            return;
+        }
+        
+        List<ChatHistoryBuffer.Entry> entries = chatManager.getRecentChat(count);
+        if (entries.isEmpty()) {
+            return;
+        }
+        
+        source.sendMessage(Component.text("💬 最近のチャット", NamedTextColor.AQUA));
+        for (ChatHistoryBuffer.Entry entry : entries) {
+            String time = TIME_FORMAT.format(Instant.ofEpochMilli(entry.timestampMillis()));
+            source.sendMessage(
+                Component.text("  " + time + " ", NamedTextColor.GRAY)
+                    .append(Component.text("[" + entry.serverName() + "] ", NamedTextColor.GRAY))
+                    .append(Component.text(entry.playerName(), NamedTextColor.WHITE))
+                    .append(Component.text(": " + entry.message(), NamedTextColor.GRAY))
+            );
+        }
+    }
+    
     @Override
     public boolean hasPermission(Invocation invocation) {
         // 管理者権限を持つプレイヤーのみ実行可能
@@ -9,6 +9,8 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -17,7 +19,7 @@ import java.util.concurrent.TimeUnit;
  * サーバー状態監視クラス
  * 各登録されたサーバーへ定期的にpingを送信し、状態変化をDiscordに通知する
  */
-public class ServerStatusMonitor implements Runnable {
+public class ServerStatusMonitor implements Runnable, ConfigManager.ChangeListener {
     
     private final ProxyServer server;
     private final Logger logger;
@@ -30,7 +32,22 @@ public class ServerStatusMonitor implements Runnable {
     private int scanDelay;
     
     // サーバー名 -> 前回の状態（true: オンライン, false: オフライン）
-    private final Map<String, Boolean> serverStatus = new HashMap<>();
+    private final Map<String, Boolean> serverStatus = new ConcurrentHashMap<>();
+    // サーバー名 -> 最後に接続できたときの応答時間（ミリ秒）。振り分け先の選択に使う
+    private final Map<String, Long> serverRtt = new ConcurrentHashMap<>();
+    // サーバー名 -> プレイヤーが接続中のまま続けて接続できなかった回数
+    private final Map<String, Integer> occupiedFailures = new ConcurrentHashMap<>();
+    
+    private volatile ServerEvacuator evacuator;
+    private volatile StatusDashboard dashboard;
+    
+    /**
+     * 振り分けに使うサーバーの状態
+     *
+     * @param online オンラインか
+     * @param rttMillis 最後に計測した応答時間（未計測なら-1）
+     */
+    public record ServerHealth(boolean online, long rttMillis) {}
     
     public ServerStatusMonitor(ProxyServer server, Logger logger, ConfigManager configManager, 
                              DiscordManager discordManager, ScheduledExecutorService scheduler) {
@@ -84,12 +101,22 @@ public class ServerStatusMonitor implements Runnable {
                 player.getCurrentServer().ifPresent(serverConnection -> {
                     String serverName = serverConnection.getServerInfo().getName();
                     if (servers.containsKey(serverName)) {
+                        RegisteredServer occupied = servers.remove(serverName);
+                        // 退避が無効なら応答時間の計測のみ行い、状態の判定には使わない
+                        if (!measureRtt(serverName, occupied.getServerInfo().getAddress()) && isEvacuationActive()) {
+                            // confirm_probes回続けて接続できなかったらオフラインとみなし、それまでは状態を変えない
+                            int failures = occupiedFailures.merge(serverName, 1, Integer::sum);
+                            if (failures >= configManager.getEvacuationConfirmProbes()) {
+                                markOffline(serverName);
+                            }
+                            return;
+                        }
+                        occupiedFailures.remove(serverName);
                         boolean wasOffline = serverStatus.containsKey(serverName) && !serverStatus.get(serverName);
                         if (wasOffline) {
                             announceServerStatusChange(serverName, true);
                         }
                         serverStatus.put(serverName, true);
-                        servers.remove(serverName); // ping対象から除外
                     }
                 });
             });
@@ -100,14 +127,18 @@ public class ServerStatusMonitor implements Runnable {
                 RegisteredServer registeredServer = entry.getValue();
                 SocketAddress address = registeredServer.getServerInfo().getAddress();
                 
-                boolean isOnline = isServerReachable(address);
+                boolean isOnline = measureRtt(serverName, address);
+                if (!isOnline) {
+                    markOffline(serverName);
+                    continue;
+                }
                 Boolean previousStatus = serverStatus.get(serverName);
                 
-                if (previousStatus == null || previousStatus != isOnline) {
-                    announceServerStatusChange(serverName, isOnline);
+                if (previousStatus == null || !previousStatus) {
+                    announceServerStatusChange(serverName, true);
                 }
                 
-                serverStatus.put(serverName, isOnline);
+                serverStatus.put(serverName, true);
             }
             
         } catch (Exception e) {
@@ -116,15 +147,50 @@ public class ServerStatusMonitor implements Runnable {
     }
     
     /**
-     * サーバーに接続可能かどうかをチェックする
+     * オフラインになったサーバーのプレイヤーを退避させるか
+     * 有効な場合はプレイヤーが接続中のサーバーも接続確認の結果で状態を判定する
+     */
+    private boolean isEvacuationActive() {
+        return evacuator != null && configManager.isEvacuationEnabled();
+    }
+    
+    /**
+     * サーバーをオフラインとして記録し、オンラインからの変化であれば通知と退避を行う
+     */
+    private void markOffline(String serverName) {
+        Boolean previousStatus = serverStatus.put(serverName, false);
+        occupiedFailures.remove(serverName);
+        if (previousStatus != null && !previousStatus) {
+            return;
+        }
+        announceServerStatusChange(serverName, false);
+        if (isEvacuationActive()) {
+            evacuator.evacuate(serverName);
+        }
+    }
+    
+    /**
+     * サーバーに接続可能かどうかをチェックし、接続できた場合は応答時間を記録する
      */
-    private boolean isServerReachable(SocketAddress address) {
+    private boolean measureRtt(String serverName, SocketAddress address) {
+        FlightEvents.StatusProbe flightEvent = new FlightEvents.StatusProbe();
+        flightEvent.begin();
+        long start = System.nanoTime();
+        boolean online;
         try (Socket socket = new Socket()) {
             socket.connect(address, pingTimeout);
-            return true;
+            serverRtt.put(serverName, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            online = true;
         } catch (IOException e) {
-            return false;
+            online = false;
         }
+        if (flightEvent.shouldCommit()) {
+            flightEvent.server = serverName;
+            flightEvent.address = String.valueOf(address);
+            flightEvent.online = online;
+            flightEvent.commit();
+        }
+        return online;
     }
     
     /**
@@ -136,8 +202,13 @@ public class ServerStatusMonitor implements Runnable {
                 return;
             }
             
-            // Embed形式でDiscordに通知
-            discordManager.sendServerStatusMessage("", serverName, isOnline);
+            if (dashboard != null && dashboard.isEnabled()) {
+                // ダッシュボードが有効なら新しいメッセージは送らず、ダッシュボードの編集で知らせる
+                dashboard.requestUpdate();
+            } else {
+                // Embed形式でDiscordに通知
+                discordManager.sendServerStatusMessage("", serverName, isOnline);
+            }
             
             logger.info("サーバー状態変化を通知: {} -> {}", configManager.getServerDisplayName(serverName), 
                 isOnline ? "ONLINE" : "OFFLINE");
@@ -159,10 +230,42 @@ public class ServerStatusMonitor implements Runnable {
         logger.info("サーバー状態監視の設定をリロードしました");
     }
     
+    @Override
+    public void onConfigChanged(Set<ConfigManager.ChangeType> changes) {
+        if (changes.contains(ConfigManager.ChangeType.SERVER_STATUS)) {
+            reloadConfig();
+        }
+    }
+    
+    /**
+     * オフラインになったサーバーのプレイヤーを退避させる場合に設定する
+     */
+    public void setEvacuator(ServerEvacuator evacuator) {
+        this.evacuator = evacuator;
+    }
+    
+    /**
+     * 状態変化をダッシュボードの編集で知らせる場合に設定する
+     */
+    public void setDashboard(StatusDashboard dashboard) {
+        this.dashboard = dashboard;
+    }
+    
     /**
      * 現在のサーバー状態を取得する
      */
     public Map<String, Boolean> getCurrentServerStatus() {
         return new HashMap<>(serverStatus);
     }
+    
+    /**
+     * 振り分け用のサーバー状態を取得する（まだ監視していないサーバーはnull）
+     */
+    public ServerHealth getServerHealth(String serverName) {
+        Boolean online = serverStatus.get(serverName);
+        if (online == null) {
+            return null;
+        }
+        return new ServerHealth(online, serverRtt.getOrDefault(serverName, -1L));
+    }
 } 
\ No newline at end of file
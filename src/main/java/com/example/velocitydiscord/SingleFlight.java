@@ -0,0 +1,62 @@
+package com.example.velocitydiscord;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 同じキーの問い合わせが同時に来た場合に1回の実行にまとめる
+ * 実行中の問い合わせがあればその結果を共有し、完了したら次の問い合わせから再び実行する（結果自体は保持しない）
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * 同じキーで実行中のものがあればその結果を、なければactionを実行した結果を返す
+     * actionは呼び出し元のスレッドで実行される
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> action) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            // 共有しているFutureを呼び出し側が完了させないようコピーを返す
+            return existing.copy();
+        }
+
+        executions.incrementAndGet();
+        try {
+            action.get().whenComplete((value, error) -> {
+                inFlight.remove(key, flight);
+                if (error == null) {
+                    flight.complete(value);
+                } else {
+                    flight.completeExceptionally(error);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+        }
+        return flight.copy();
+    }
+
+    /**
+     * 実際に実行した回数
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     * 実行中の問い合わせに相乗りして、実行を省略できた回数
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+}
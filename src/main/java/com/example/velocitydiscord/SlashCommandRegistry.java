@@ -0,0 +1,200 @@
+package com.example.velocitydiscord;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.interactions.commands.Command;
+import net.dv8tion.jda.api.interactions.commands.build.CommandData;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * スラッシュコマンドの登録状態を管理する
+ * コマンド定義のハッシュを登録先（Guild IDまたはglobal）ごとにディスクへ保存し、
+ * 定義が変わった登録先にだけREST呼び出しを行う
+ */
+public class SlashCommandRegistry {
+
+    private static final String GLOBAL_KEY = "global";
+
+    private final Path cacheFile;
+    private final Logger logger;
+    private final Properties registeredHashes = new Properties();
+
+    public SlashCommandRegistry(Path cacheFile, Logger logger) {
+        this.cacheFile = cacheFile;
+        this.logger = logger;
+        load();
+    }
+
+    /**
+     * 各Guildにコマンドを登録する（前回登録時とハッシュが同じGuildはスキップ）
+     * グローバル登録から切り替えた場合はグローバルコマンドを削除する
+     */
+    public void registerGuildCommands(JDA jda, List<Guild> guilds, List<? extends CommandData> commands) {
+        String hash = hash(commands);
+
+        if (registeredHashes.containsKey(GLOBAL_KEY)) {
+            jda.updateCommands().queue(
+                success -> forget(GLOBAL_KEY),
+                error -> logger.warn("グローバルコマンドの削除に失敗しました: {}", error.getMessage())
+            );
+        }
+
+        int skipped = 0;
+        for (Guild guild : guilds) {
+            if (hash.equals(registeredHashes.getProperty(guild.getId()))) {
+                skipped++;
+                continue;
+            }
+            try {
+                guild.updateCommands().addCommands(commands).queue(
+                    success -> {
+                        remember(guild.getId(), hash);
+                        logger.info("スラッシュコマンドを登録しました: {} ({})", guild.getName(), guild.getId());
+                    },
+                    error -> logger.warn("スラッシュコマンドの登録に失敗しました: {} ({}): {}", guild.getName(), guild.getId(), error.getMessage())
+                );
+            } catch (Exception e) {
+                logger.warn("スラッシュコマンドの登録でエラーが発生しました: {} ({}): {}", guild.getName(), guild.getId(), e.getMessage());
+            }
+        }
+
+        if (skipped > 0) {
+            logger.info("スラッシュコマンドに変更がないため {} サーバーの登録をスキップしました", skipped);
+        }
+    }
+
+    /**
+     * Discord側に登録済みのコマンドを取得し、定義したコマンドが揃っていなければ登録記録を破棄して登録し直す
+     * Guildに参加したとき（再招待を含む）に呼ぶ。外部でコマンドが削除された場合もここで復旧する
+     */
+    public void verifyGuildCommands(JDA jda, Guild guild, List<? extends CommandData> commands) {
+        guild.retrieveCommands().queue(
+            registered -> {
+                Set<String> names = new HashSet<>();
+                for (Command command : registered) {
+                    names.add(command.getName());
+                }
+                for (CommandData command : commands) {
+                    if (!names.contains(command.getName())) {
+                        forget(guild.getId());
+                        break;
+                    }
+                }
+                registerGuildCommands(jda, List.of(guild), commands);
+            },
+            error -> {
+                logger.warn("登録済みのスラッシュコマンドを取得できません。登録し直します: {} ({}): {}",
+                    guild.getName(), guild.getId(), error.getMessage());
+                forget(guild.getId());
+                registerGuildCommands(jda, List.of(guild), commands);
+            }
+        );
+    }
+
+    /**
+     * 退出したGuildの登録記録を破棄する（再招待時に登録し直すため）
+     */
+    public void forgetGuild(String guildId) {
+        forget(guildId);
+    }
+
+    /**
+     * グローバルコマンドとして1回だけ登録する（変更がなければREST呼び出しなし）
+     * 以前Guild単位で登録していた場合は、重複表示を避けるためGuildコマンドを削除する
+     */
+    public void registerGlobalCommands(JDA jda, List<? extends CommandData> commands) {
+        String hash = hash(commands);
+
+        for (String key : registeredHashes.stringPropertyNames()) {
+            if (key.equals(GLOBAL_KEY)) {
+                continue;
+            }
+            Guild guild = jda.getGuildById(key);
+            if (guild == null) {
+                forget(key);
+                continue;
+            }
+            guild.updateCommands().queue(
+                success -> forget(key),
+                error -> logger.warn("Guildコマンドの削除に失敗しました: {} ({}): {}", guild.getName(), key, error.getMessage())
+            );
+        }
+
+        if (hash.equals(registeredHashes.getProperty(GLOBAL_KEY))) {
+            logger.info("グローバルスラッシュコマンドに変更はありません");
+            return;
+        }
+
+        jda.updateCommands().addCommands(commands).queue(
+            success -> {
+                remember(GLOBAL_KEY, hash);
+                logger.info("グローバルスラッシュコマンドを登録しました（反映まで最大1時間かかる場合があります）");
+            },
+            error -> logger.warn("グローバルスラッシュコマンドの登録に失敗しました: {}", error.getMessage())
+        );
+    }
+
+    private static String hash(List<? extends CommandData> commands) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (CommandData command : commands) {
+                digest.update(command.toData().toString().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized void remember(String key, String hash) {
+        registeredHashes.setProperty(key, hash);
+        save();
+    }
+
+    private synchronized void forget(String key) {
+        if (registeredHashes.remove(key) != null) {
+            save();
+        }
+    }
+
+    private synchronized void load() {
+        if (!Files.exists(cacheFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            registeredHashes.load(reader);
+        } catch (IOException e) {
+            logger.warn("スラッシュコマンドの登録キャッシュを読み込めません。全サーバーに再登録します: {}", e.getMessage());
+            registeredHashes.clear();
+        }
+    }
+
+    private void save() {
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                registeredHashes.store(writer, "Velocord slash command hashes");
+            }
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("スラッシュコマンドの登録キャッシュを保存できません: {}", e.getMessage());
+        }
+    }
+}
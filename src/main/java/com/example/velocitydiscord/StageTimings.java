@@ -0,0 +1,193 @@
+package com.example.velocitydiscord;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * イベント処理の段階ごとの処理時間の分布
+ * プレイヤー数を増やしたときにどの段階から詰まるかを、/vddebug latency の件数・スループット・p50/p99/p999で確認する
+ *
+ * 記録はロックもオブジェクト生成もせず、処理時間を対数目盛りのバケット（1段あたり8分割、誤差12.5%以内）に数えるだけにする
+ *
+ * JVMが対応していれば、処理したスレッドで確保されたメモリ量も数え、1件あたりの平均を
+ * diagnostics.allocation_budget_bytes の上限と比べられるようにする（非同期で続く処理の分は含まない）
+ */
+public class StageTimings {
+
+    /**
+     * 計測する段階
+     */
+    public enum Stage {
+        CHAT_RELAY("チャット中継"),
+        DISCORD_RELAY("Discord→ゲーム中継"),
+        SERVER_CONNECTED("サーバー接続通知"),
+        PRE_CONNECT("接続前チェック"),
+        PERMISSION_CHECK("権限チェック");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * 計測値のスナップショット（時間はナノ秒）
+     *
+     * @param throughputPerSecond 計測開始（またはリセット）からの1秒あたりの件数
+     * @param bytesPerOperation 1件あたりの平均メモリ確保量（計測できない場合は-1）
+     */
+    public record Summary(Stage stage, long count, double throughputPerSecond, long p50, long p99, long p999, long max,
+                          long bytesPerOperation) {}
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = allocationBean();
+
+    private final Map<Stage, Histogram> histograms = new EnumMap<>(Stage.class);
+
+    public StageTimings() {
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new Histogram());
+        }
+    }
+
+    /**
+     * スレッドごとのメモリ確保量を取得できる場合はそのMXBeanを返す
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                    && bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return bean;
+            }
+        } catch (UnsupportedOperationException | SecurityException e) {
+            // 計測できないJVMでは処理時間だけを記録する
+        }
+        return null;
+    }
+
+    /**
+     * 現在のスレッドがこれまでに確保したメモリ量（計測できない場合は-1）
+     */
+    public static long allocatedBytes() {
+        return THREAD_BEAN != null ? THREAD_BEAN.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    /**
+     * System.nanoTime()で取得した開始時刻と、allocatedBytes()で取得した開始時の確保量から現在までを記録する
+     */
+    public void record(Stage stage, long startNanos, long startBytes) {
+        long allocated = startBytes >= 0 ? allocatedBytes() - startBytes : -1;
+        histograms.get(stage).record(System.nanoTime() - startNanos, allocated);
+    }
+
+    public Summary summarize(Stage stage) {
+        return histograms.get(stage).summarize(stage);
+    }
+
+    /**
+     * 全段階の計測値を破棄し、スループットの計測期間もここから数え直す
+     */
+    public void reset() {
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    private static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong allocationSamples = new AtomicLong();
+        private volatile long startedAtNanos = System.nanoTime();
+
+        void record(long nanos, long allocated) {
+            if (allocated >= 0) {
+                allocatedBytes.addAndGet(allocated);
+                allocationSamples.incrementAndGet();
+            }
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucketOf(value));
+            long currentMax;
+            while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+                // 他のスレッドが更新した場合は読み直す
+            }
+        }
+
+        Summary summarize(Stage stage) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            double elapsedSeconds = (System.nanoTime() - startedAtNanos) / 1_000_000_000.0;
+            double throughput = elapsedSeconds > 0 ? total / elapsedSeconds : 0;
+            long samples = allocationSamples.get();
+            long bytesPerOperation = samples > 0 ? allocatedBytes.get() / samples : -1;
+            return new Summary(stage, total, throughput, percentile(snapshot, total, 0.50),
+                percentile(snapshot, total, 0.99), percentile(snapshot, total, 0.999), max.get(), bytesPerOperation);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            max.set(0);
+            allocatedBytes.set(0);
+            allocationSamples.set(0);
+            startedAtNanos = System.nanoTime();
+        }
+
+        /**
+         * 指定した割合の記録が収まるバケットの上限値
+         */
+        private static long percentile(long[] snapshot, long total, double fraction) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return upperBoundOf(i);
+                }
+            }
+            return upperBoundOf(BUCKETS - 1);
+        }
+    }
+
+    /**
+     * 値の最上位ビットの位置で段を決め、その下の3ビットで段内を8分割する
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long lower = (1L << exponent) + ((long) sub << (exponent - SUB_BUCKET_BITS));
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
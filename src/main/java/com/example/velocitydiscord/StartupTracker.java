@@ -0,0 +1,57 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * プラグイン起動の各フェーズを実行し、所要時間を記録する
+ * 依存関係のないフェーズは並列に実行し、最後にまとめて所要時間を報告する
+ */
+public class StartupTracker {
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> durations = new LinkedHashMap<>();
+
+    /**
+     * フェーズを呼び出し元のスレッドで実行する
+     */
+    public void run(String phase, Runnable task) {
+        long begin = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            record(phase, begin);
+        }
+    }
+
+    /**
+     * フェーズを指定したExecutorで非同期に実行する
+     */
+    public CompletableFuture<Void> runAsync(String phase, Runnable task, Executor executor) {
+        return CompletableFuture.runAsync(() -> run(phase, task), executor);
+    }
+
+    private synchronized void record(String phase, long beginNanos) {
+        durations.put(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos));
+    }
+
+    /**
+     * 各フェーズと起動開始からの合計時間をログに出力する
+     */
+    public synchronized void report(Logger logger) {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(entry.getKey()).append(' ').append(entry.getValue()).append("ms");
+        }
+        long total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        logger.info("起動フェーズ所要時間: {} (合計 {}ms)", summary, total);
+    }
+}
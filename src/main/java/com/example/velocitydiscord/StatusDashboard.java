@@ -0,0 +1,274 @@
+package com.example.velocitydiscord;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+import org.slf4j.Logger;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * サーバー状態のダッシュボード
+ * 状態チャンネルごとに1つのメッセージを置き、全サーバーの状態・応答時間・接続人数をそのメッセージの編集で更新し続ける
+ *
+ * 内容が前回送信したものと同じなら編集しない。チャンネルごとの編集回数は max-edits-per-minute までに抑え、
+ * 上限に達している間の変化は次の更新でまとめて反映する
+ * メッセージIDはDBのstatus_dashboardテーブルに保存し、再起動やクラスタのリーダー交代後も同じメッセージを編集する
+ */
+public class StatusDashboard implements ConfigManager.ChangeListener {
+
+    // 応答時間は計測のたびに揺れるため、この単位に丸めてから表示・比較する
+    private static final long RTT_STEP_MILLIS = 10;
+
+    private final ProxyServer server;
+    private final ConfigManager configManager;
+    private final DiscordManager discordManager;
+    private final DatabaseManager databaseManager;
+    private final ServerStatusMonitor monitor;
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger;
+
+    private volatile ScheduledFuture<?> task;
+    // チャンネルID -> ダッシュボードの状態
+    private final Map<String, Panel> panels = new ConcurrentHashMap<>();
+
+    /**
+     * 表示内容
+     *
+     * @param content 本文（前回と同じなら編集しない）
+     * @param allOnline 全サーバーがオンラインか（Embedの色に使う）
+     */
+    private record Snapshot(String content, boolean allOnline) {}
+
+    /**
+     * チャンネルごとのダッシュボードの状態（更新処理は監視用スケジューラのスレッドで行う）
+     */
+    private static class Panel {
+        private String messageId;
+        private boolean loaded;
+        private String lastContent;
+        private long lastEditAtMillis;
+        private volatile boolean requestInFlight;
+    }
+
+    public StatusDashboard(ProxyServer server, ConfigManager configManager, DiscordManager discordManager,
+                           DatabaseManager databaseManager, ServerStatusMonitor monitor,
+                           ScheduledExecutorService scheduler, Logger logger) {
+        this.server = server;
+        this.configManager = configManager;
+        this.discordManager = discordManager;
+        this.databaseManager = databaseManager;
+        this.monitor = monitor;
+        this.scheduler = scheduler;
+        this.logger = logger;
+    }
+
+    /**
+     * 定期更新を開始する
+     */
+    public synchronized void start() {
+        if (task != null && !task.isCancelled()) {
+            task.cancel(false);
+        }
+        int interval = Math.max(1, configManager.getServerStatusDashboardInterval());
+        task = scheduler.scheduleWithFixedDelay(this::update, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    public boolean isEnabled() {
+        return configManager.isServerStatusDashboardEnabled();
+    }
+
+    /**
+     * 状態が変化したときに、次の定期更新を待たずに反映を試みる（編集回数の上限は通常どおり適用する）
+     */
+    public void requestUpdate() {
+        if (task != null) {
+            scheduler.execute(this::update);
+        }
+    }
+
+    @Override
+    public void onConfigChanged(Set<ConfigManager.ChangeType> changes) {
+        if (changes.contains(ConfigManager.ChangeType.SERVER_STATUS)) {
+            // チャンネルが変わった可能性があるため、メッセージIDはDBから読み直す
+            panels.clear();
+            if (task != null) {
+                start();
+            }
+        }
+    }
+
+    private synchronized void update() {
+        try {
+            JDA jda = discordManager.getJda();
+            // クラスタのリーダー以外はDiscordに接続していない
+            if (!isEnabled() || jda == null) {
+                return;
+            }
+            // メッセージIDの保存先（status_dashboardテーブル）はDBの初期化時に作成される
+            if (!databaseManager.isReady()) {
+                return;
+            }
+
+            Snapshot snapshot = render();
+            long minIntervalMillis = 60_000L / Math.max(1, configManager.getServerStatusDashboardMaxEditsPerMinute());
+            long now = System.currentTimeMillis();
+            for (String channelId : getChannelIds()) {
+                Panel panel = panels.computeIfAbsent(channelId, id -> new Panel());
+                if (panel.requestInFlight || snapshot.content().equals(panel.lastContent)) {
+                    continue;
+                }
+                if (now - panel.lastEditAtMillis < minIntervalMillis) {
+                    continue;
+                }
+                TextChannel channel = jda.getTextChannelById(channelId);
+                if (channel == null) {
+                    logger.warn("ダッシュボードのチャンネルが見つかりません: {}", channelId);
+                    continue;
+                }
+                publish(channelId, panel, channel, snapshot, now);
+            }
+        } catch (Exception e) {
+            logger.error("ダッシュボードの更新中にエラーが発生しました", e);
+        }
+    }
+
+    /**
+     * 保存済みのメッセージを編集し、なければ新しく送信してIDを保存する
+     */
+    private void publish(String channelId, Panel panel, TextChannel channel, Snapshot snapshot, long now) {
+        if (!panel.loaded) {
+            try {
+                panel.messageId = databaseManager.getDashboardMessageId(channelId).join();
+            } catch (CompletionException e) {
+                // 読み込めないまま送信するとダッシュボードが二重にできるため、次の更新で読み込み直す
+                logger.warn("ダッシュボードのメッセージIDを読み込めませんでした (Channel: {}): {}", channelId, e.getMessage());
+                return;
+            }
+            panel.loaded = true;
+        }
+        MessageEmbed embed = buildEmbed(snapshot);
+        String content = snapshot.content();
+        panel.requestInFlight = true;
+        panel.lastEditAtMillis = now;
+
+        if (panel.messageId == null) {
+            channel.sendMessageEmbeds(embed).queue(message -> {
+                panel.messageId = message.getId();
+                panel.lastContent = content;
+                panel.requestInFlight = false;
+                databaseManager.saveDashboardMessageId(channelId, message.getId()).exceptionally(error -> {
+                    logger.warn("ダッシュボードのメッセージIDを保存できませんでした (Channel: {}): {}", channelId, error.getMessage());
+                    return false;
+                });
+                logger.info("ダッシュボードを作成しました: チャンネル {} メッセージ {}", channelId, message.getId());
+            }, error -> {
+                panel.requestInFlight = false;
+                logger.warn("ダッシュボードの送信に失敗しました (Channel: {}): {}", channelId, error.getMessage());
+            });
+            return;
+        }
+
+        String messageId = panel.messageId;
+        channel.editMessageEmbedsById(messageId, embed).queue(message -> {
+            panel.lastContent = content;
+            panel.requestInFlight = false;
+        }, error -> {
+            if (error instanceof ErrorResponseException response
+                    && response.getErrorResponse() == ErrorResponse.UNKNOWN_MESSAGE) {
+                // 手動で削除された場合は次の更新で新しく送信する
+                logger.info("ダッシュボードのメッセージが見つからないため作り直します (Channel: {})", channelId);
+                panel.messageId = null;
+                panel.lastContent = null;
+                panel.lastEditAtMillis = 0;
+            } else {
+                logger.warn("ダッシュボードの編集に失敗しました (Channel: {}): {}", channelId, error.getMessage());
+            }
+            panel.requestInFlight = false;
+        });
+    }
+
+    /**
+     * 全サーバーの状態を表示用の文字列にする
+     */
+    private Snapshot render() {
+        List<RegisteredServer> servers = new ArrayList<>(server.getAllServers());
+        servers.sort(Comparator.comparing(registered -> registered.getServerInfo().getName()));
+
+        StringBuilder lines = new StringBuilder();
+        int totalPlayers = 0;
+        boolean allOnline = true;
+        for (RegisteredServer registered : servers) {
+            String serverName = registered.getServerInfo().getName();
+            ServerStatusMonitor.ServerHealth health = monitor.getServerHealth(serverName);
+            int players = registered.getPlayersConnected().size();
+            totalPlayers += players;
+
+            if (health == null) {
+                lines.append("⚪ **").append(configManager.getServerDisplayName(serverName)).append("** 確認中\n");
+            } else if (!health.online()) {
+                allOnline = false;
+                lines.append("🔴 **").append(configManager.getServerDisplayName(serverName)).append("** オフライン\n");
+            } else {
+                lines.append("🟢 **").append(configManager.getServerDisplayName(serverName)).append("** ")
+                    .append(players).append("人");
+                if (health.rttMillis() >= 0) {
+                    long rtt = Math.round((double) health.rttMillis() / RTT_STEP_MILLIS) * RTT_STEP_MILLIS;
+                    lines.append(" · ").append(rtt).append("ms");
+                }
+                lines.append("\n");
+            }
+        }
+        lines.append("\n合計 ").append(totalPlayers).append("人");
+        return new Snapshot(lines.toString(), allOnline);
+    }
+
+    private MessageEmbed buildEmbed(Snapshot snapshot) {
+        EmbedBuilder builder = discordManager.getEmbedTemplates().derive(EmbedTemplates.Kind.ofServerStatus(snapshot.allOnline()));
+        builder.setDescription(snapshot.content());
+        builder.setTimestamp(Instant.now());
+        return builder.build();
+    }
+
+    /**
+     * ダッシュボードを置くチャンネル（状態通知専用のチャンネルがなければ各ギルドの通常チャンネル）
+     */
+    private Set<String> getChannelIds() {
+        Set<String> channelIds = new LinkedHashSet<>();
+        String statusChannelId = configManager.getServerStatusDiscordChannel();
+        if (statusChannelId != null && !statusChannelId.isEmpty()) {
+            channelIds.add(statusChannelId);
+            return channelIds;
+        }
+        for (Map<String, Object> guildConfig : configManager.getDiscordGuilds().values()) {
+            boolean enabled = (Boolean) guildConfig.getOrDefault("enabled", true);
+            String channelId = (String) guildConfig.get("channel_id");
+            if (enabled && channelId != null && !channelId.isEmpty()) {
+                channelIds.add(channelId);
+            }
+        }
+        return channelIds;
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.velocitydiscord;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * TCPでノード同士を直接つなぐ通信路（フルメッシュ）
+ * 各ノードは全ピアへ送信用の接続を1本ずつ張り、受信は待ち受けソケットで受け付ける
+ * 送信に失敗したフレームは再接続後に同じものを送り直す
+ */
+public class TcpClusterTransport implements ClusterTransport {
+
+    // 1フレームの最大サイズ
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    // ピアごとに保持する未送信フレーム数
+    private static final int SEND_QUEUE_CAPACITY = 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+    // 共有シークレットの最小文字数
+    private static final int MIN_SECRET_LENGTH = 16;
+
+    private final String nodeId;
+    private final InetSocketAddress bindAddress;
+    private final String secret;
+    private final Logger logger;
+    private final Map<String, PeerLink> links = new LinkedHashMap<>();
+
+    private volatile boolean closed;
+    private ServerSocket serverSocket;
+    private FrameListener listener;
+
+    public TcpClusterTransport(String nodeId, String bindAddress, Map<String, String> peers, String secret, Logger logger) {
+        this.nodeId = nodeId;
+        this.bindAddress = parseAddress(bindAddress);
+        this.secret = secret;
+        this.logger = logger;
+        for (Map.Entry<String, String> peer : peers.entrySet()) {
+            if (!peer.getKey().equals(nodeId)) {
+                links.put(peer.getKey(), new PeerLink(peer.getKey(), parseAddress(peer.getValue())));
+            }
+        }
+    }
+
+    static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("host:port の形式で指定してください: " + address);
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    @Override
+    public void start(FrameListener listener) throws IOException {
+        // シークレットが空だと誰でもチャットの配信や権限の問い合わせ・キャッシュ無効化を送り込めてしまう
+        if (secret == null || secret.isBlank() || secret.length() < MIN_SECRET_LENGTH) {
+            throw new IOException("cluster.secret を " + MIN_SECRET_LENGTH + " 文字以上で設定してください");
+        }
+        this.listener = listener;
+        serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress);
+        startDaemon(this::acceptLoop, "velocord-cluster-accept");
+        for (PeerLink link : links.values()) {
+            link.writer = startDaemon(link::writeLoop, "velocord-cluster-send-" + link.peerId);
+        }
+        logger.info("クラスタ通信を開始しました: {} (待ち受け {}, ピア {} 件)", nodeId, bindAddress, links.size());
+    }
+
+    private static Thread startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                startDaemon(() -> readLoop(socket), "velocord-cluster-recv-" + socket.getRemoteSocketAddress());
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warn("クラスタ接続の受け付けに失敗しました: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            // 最初に共有シークレットを確認する
+            byte[] presented = in.readUTF().getBytes(StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(presented, secret.getBytes(StandardCharsets.UTF_8))) {
+                logger.warn("クラスタ接続を拒否しました（シークレット不一致）: {}", socket.getRemoteSocketAddress());
+                return;
+            }
+            while (!closed) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_FRAME_BYTES) {
+                    logger.warn("不正なクラスタフレームを受信しました ({} bytes): {}", length, socket.getRemoteSocketAddress());
+                    return;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                listener.onFrame(frame);
+            }
+        } catch (EOFException e) {
+            // 相手が切断
+        } catch (IOException e) {
+            if (!closed) {
+                logger.debug("クラスタ受信接続が切断されました: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void send(String targetId, byte[] frame) {
+        PeerLink link = links.get(targetId);
+        if (link != null) {
+            link.enqueue(frame);
+        }
+    }
+
+    @Override
+    public Set<String> getPeerIds() {
+        return Collections.unmodifiableSet(links.keySet());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        for (PeerLink link : links.values()) {
+            link.close();
+        }
+    }
+
+    /**
+     * 1ピアへの送信用接続と未送信フレーム
+     */
+    private final class PeerLink {
+        private final String peerId;
+        private final InetSocketAddress address;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
+        private Thread writer;
+        private Socket socket;
+        private DataOutputStream out;
+
+        private PeerLink(String peerId, InetSocketAddress address) {
+            this.peerId = peerId;
+            this.address = address;
+        }
+
+        private void enqueue(byte[] frame) {
+            // 長時間つながらない場合は古いフレームから捨てる
+            while (!queue.offer(frame)) {
+                queue.poll();
+            }
+        }
+
+        private void writeLoop() {
+            long backoff = 500;
+            while (!closed) {
+                byte[] frame;
+                try {
+                    frame = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // 書き込めるまで同じフレームを送り直す（重複は受信側で除外される）
+                while (!closed) {
+                    try {
+                        if (out == null) {
+                            connect();
+                            logger.info("クラスタノードに接続しました: {} ({})", peerId, address);
+                        }
+                        out.writeInt(frame.length);
+                        out.write(frame);
+                        out.flush();
+                        backoff = 500;
+                        break;
+                    } catch (IOException e) {
+                        disconnect();
+                        logger.debug("クラスタノードへの送信に失敗しました: {} ({}): {}", peerId, address, e.getMessage());
+                        try {
+                            Thread.sleep(backoff);
+                        } catch (InterruptedException interrupted) {
+                            return;
+                        }
+                        backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                    }
+                }
+            }
+        }
+
+        private void connect() throws IOException {
+            Socket connected = new Socket();
+            connected.setTcpNoDelay(true);
+            connected.connect(address, CONNECT_TIMEOUT_MILLIS);
+            socket = connected;
+            out = new DataOutputStream(new BufferedOutputStream(connected.getOutputStream()));
+            out.writeUTF(secret);
+        }
+
+        private void disconnect() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException ignored) {
+            }
+            socket = null;
+            out = null;
+        }
+
+        private void close() {
+            if (writer != null) {
+                writer.interrupt();
+            }
+            disconnect();
+        }
+    }
+}
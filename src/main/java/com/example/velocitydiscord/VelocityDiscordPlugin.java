@@ -18,8 +18,13 @@ import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.server.RegisteredServer;
 import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.net.http.HttpClient;
 import java.nio.file.Path;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import net.kyori.adventure.text.Component;
@@ -41,12 +46,22 @@ public class VelocityDiscordPlugin {
     
     private DiscordManager discordManager;
     private ChatManager chatManager;
+    private DiscordRelayQueue relayQueue;
+    private ChatLog chatLog;
+    private ClusterManager clusterManager;
     private PermissionManager permissionManager;
     private DatabaseManager databaseManager;
     private AccountLinkingManager accountLinkingManager;
     private ScheduledExecutorService scheduler;
     private ConfigManager configManager;
     private ServerStatusMonitor serverStatusMonitor;
+    private ServerRouter serverRouter;
+    // イベント処理の段階ごとの処理時間（/vddebug latency で表示）
+    private final StageTimings stageTimings = new StageTimings();
+    private StatusDashboard statusDashboard;
+    private ConfigWatcher configWatcher;
+    private volatile CompletableFuture<Void> databaseReady;
+    private volatile CompletableFuture<Void> discordReady;
     
     @Inject
     public VelocityDiscordPlugin(ProxyServer server, Logger logger, @DataDirectory Path dataDirectory) {
@@ -59,73 +74,235 @@ public class VelocityDiscordPlugin {
     public void onProxyInitialization(ProxyInitializeEvent event) {
         logger.info("Velocity Discord Plugin を初期化中...");
         
+        StartupTracker startup = new StartupTracker();
+        
         try {
             // スケジューラーの初期化
             scheduler = Executors.newScheduledThreadPool(2);
             
-            // 設定ファイルの初期化
+            // 設定ファイルの初期化（以降の全フェーズが依存）
             configManager = new ConfigManager(dataDirectory);
-            configManager.loadConfig();
+            startup.run("config", configManager::loadConfig);
             
-            // データベースの初期化
+            // 各マネージャーの作成（接続処理はまだ行わない）
             databaseManager = new DatabaseManager(configManager, logger);
-            databaseManager.initialize();
-            
-            // 各マネージャーの初期化（依存関係を考慮した順序）
             permissionManager = new PermissionManager(configManager, null, databaseManager, logger);
             
-            // WebhookManagerの初期化
-            WebhookManager webhookManager = new WebhookManager(configManager.getWebhookUrl(), logger);
+            // Webhook送信とアバター取得で共有するHTTP/2クライアント
+            HttpClient httpClient = WebhookManager.createHttpClient();
+            
+            // アバターURL解決（UUID単位でキャッシュ）
+            AvatarResolver avatarResolver = AvatarResolver.fromConfig(configManager, httpClient, logger);
+            
+            // WebhookManagerの初期化（全GuildのWebhookへ並列送信）
+            WebhookManager webhookManager = new WebhookManager(configManager, httpClient, avatarResolver, logger);
             
             chatManager = new ChatManager(server, logger, configManager, permissionManager, webhookManager);
+            chatManager.setStageTimings(stageTimings);
+            permissionManager.setStageTimings(stageTimings);
             accountLinkingManager = new AccountLinkingManager(configManager, databaseManager, permissionManager, logger, scheduler);
+            // Discord→ゲーム内の中継はJDAのスレッドから切り離して専用スレッドで配信
+            relayQueue = new DiscordRelayQueue(chatManager, configManager, logger);
+            relayQueue.start();
             
-            // DiscordManagerの初期化（accountLinkingManagerが作成された後）
-            discordManager = new DiscordManager(configManager, chatManager, accountLinkingManager, logger);
-            discordManager.initialize();
+            // モデレーション用のチャットログ（ゲーム内とDiscordの両方を記録）
+            if (configManager.isChatLogEnabled()) {
+                chatLog = new ChatLog(configManager, logger);
+                try {
+                    chatLog.start();
+                    chatManager.setChatLog(chatLog);
+                    relayQueue.setChatLog(chatLog);
+                } catch (IOException e) {
+                    logger.error("チャットログを開始できませんでした", e);
+                    chatLog = null;
+                }
+            }
+            discordManager = new DiscordManager(configManager, relayQueue, accountLinkingManager, avatarResolver, logger);
+            discordManager.setStageTimings(stageTimings);
             
             // PermissionManagerにDiscordManagerを設定
             permissionManager.setDiscordManager(discordManager);
             
-            // コマンドの登録
+            // クラスタ構成ではリーダーに選ばれたプロキシだけがDiscordにログインする
+            if (configManager.isClusterEnabled()) {
+                clusterManager = new ClusterManager(configManager, ClusterTransport.fromConfig(configManager, logger),
+                    chatManager, relayQueue, logger);
+                clusterManager.setDiscordManager(discordManager);
+                clusterManager.setPermissionManager(permissionManager);
+                clusterManager.setLeadershipListener(this::onClusterLeadershipChanged);
+                chatManager.setClusterManager(clusterManager);
+                discordManager.setClusterManager(clusterManager);
+                permissionManager.setClusterManager(clusterManager);
+            }
+            
+            // 連携・ロールの変更を他のプロキシのキャッシュへ伝える
+            databaseManager.setInvalidationChannel(createInvalidationChannel());
+            databaseManager.addInvalidationListener(permissionManager::onCacheInvalidation);
+            discordManager.setRoleChangeListener(permissionManager::onDiscordRolesChanged);
+            discordManager.setReconnectListener(chatManager::retryPendingDeliveries);
+            
+            // Discordの /online・/whois は接続中のプレイヤーの索引から応答する
+            OnlinePlayerIndex onlinePlayers = chatManager.getOnlinePlayers();
+            onlinePlayers.setDatabaseManager(databaseManager);
+            databaseManager.addInvalidationListener(onlinePlayers::onCacheInvalidation);
+            discordManager.setPlayerLookupCommands(new PlayerLookupCommands(onlinePlayers, configManager));
+            
+            // 設定変更時に各機能が該当部分のみ再構築する
+            configManager.addChangeListener(webhookManager);
+            configManager.addChangeListener(discordManager);
+            configManager.addChangeListener(permissionManager);
+            
+            // コマンドとイベントリスナーは即座に登録する（準備完了までの接続は縮退ポリシーで処理）
             CommandManager commandManager = server.getCommandManager();
             commandManager.register(commandManager.metaBuilder("link").build(), accountLinkingManager);
-            commandManager.register(commandManager.metaBuilder("vddebug").build(), new DebugCommand(permissionManager, databaseManager));
+            commandManager.register(commandManager.metaBuilder("vddebug").build(), new DebugCommand(permissionManager, databaseManager, configManager, chatLog, stageTimings));
             commandManager.register(commandManager.metaBuilder("vdreload").build(), new ReloadCommand(configManager, logger));
             commandManager.register(commandManager.metaBuilder("serverstatus").build(), new ServerStatusCommand(this, logger));
             
-            // イベントリスナーの登録
             server.getEventManager().register(this, chatManager);
             server.getEventManager().register(this, accountLinkingManager);
             server.getEventManager().register(this, discordManager);
+            serverRouter = new ServerRouter(this, server, configManager, permissionManager, logger);
+            server.getEventManager().register(this, serverRouter);
             
-            // サーバー状態監視機能の初期化
-            if (configManager.isServerStatusEnabled()) {
-                serverStatusMonitor = new ServerStatusMonitor(server, logger, configManager, discordManager, scheduler);
-                logger.info("サーバー状態監視機能を有効化しました");
-            } else {
-                logger.info("サーバー状態監視機能は無効化されています");
+            // config.ymlの変更監視
+            if (configManager.isConfigWatchEnabled()) {
+                configWatcher = new ConfigWatcher(configManager, scheduler, logger);
+                configWatcher.start();
             }
             
-            logger.info("Velocity Discord Plugin の初期化が完了しました！");
+            // データベース初期化とDiscordログインはプロキシの初期化スレッドを止めずに並列実行する
+            ExecutorService startupExecutor = Executors.newFixedThreadPool(2, r -> {
+                Thread thread = new Thread(r, "velocord-startup");
+                thread.setDaemon(true);
+                return thread;
+            });
+            databaseReady = startup.runAsync("database", databaseManager::initialize, startupExecutor);
+            Runnable discordStartup = clusterManager != null ? clusterManager::start : discordManager::initialize;
+            discordReady = startup.runAsync("discord", discordStartup, startupExecutor)
+                .thenRun(() -> startup.run("server-status", this::startServerStatusMonitor));
+            
+            CompletableFuture.allOf(databaseReady, discordReady).whenComplete((ignored, error) -> {
+                startupExecutor.shutdown();
+                if (error != null) {
+                    logger.error("プラグインの起動処理中にエラーが発生しました", error);
+                }
+                // ダッシュボードはメッセージIDをDBに保存するため、DBの準備ができてから動かす
+                if (statusDashboard != null) {
+                    if (databaseManager.isFailed()) {
+                        logger.warn("データベースを使えないため、サーバー状態ダッシュボードは起動しません");
+                    } else {
+                        statusDashboard.start();
+                    }
+                }
+                startup.report(logger);
+                logger.info("Velocity Discord Plugin の初期化が完了しました！");
+            });
+            
+            logger.info("Velocity Discord Plugin のイベント登録が完了しました。データベースとDiscordの接続をバックグラウンドで開始します...");
             
         } catch (Exception e) {
             logger.error("プラグインの初期化中にエラーが発生しました", e);
         }
     }
     
+    /**
+     * サーバー状態監視機能の初期化（Discord接続後に実行）
+     */
+    private void startServerStatusMonitor() {
+        if (configManager.isServerStatusEnabled()) {
+            serverStatusMonitor = new ServerStatusMonitor(server, logger, configManager, discordManager, scheduler);
+            serverStatusMonitor.setEvacuator(new ServerEvacuator(server, configManager, serverRouter, discordManager, logger));
+            statusDashboard = new StatusDashboard(server, configManager, discordManager, databaseManager,
+                serverStatusMonitor, scheduler, logger);
+            serverStatusMonitor.setDashboard(statusDashboard);
+            configManager.addChangeListener(statusDashboard);
+            configManager.addChangeListener(serverStatusMonitor);
+            logger.info("サーバー状態監視機能を有効化しました");
+        } else {
+            logger.info("サーバー状態監視機能は無効化されています");
+        }
+    }
+    
+    /**
+     * 設定に応じたキャッシュ無効化の経路を作成する
+     */
+    private InvalidationChannel createInvalidationChannel() {
+        String mode = configManager.getCacheInvalidationMode().toLowerCase();
+        if (mode.equals("auto")) {
+            // 変更を共有する相手がいるのはクラスタ構成か、複数のプロキシがMySQLを共有している場合のみ
+            if (clusterManager != null) {
+                mode = "cluster";
+            } else if (configManager.getDatabaseType().equalsIgnoreCase("mysql")) {
+                mode = "changelog";
+            } else {
+                mode = "none";
+            }
+        }
+        if (mode.equals("none")) {
+            return null;
+        }
+        if (mode.equals("cluster")) {
+            if (clusterManager != null) {
+                return new ClusterInvalidationChannel(clusterManager);
+            }
+            logger.warn("cache.invalidation が cluster ですがクラスタが無効です。changelog を使用します");
+        }
+        return new ChangeLogInvalidationChannel(databaseManager, configManager, logger);
+    }
+    
+    /**
+     * クラスタのリーダーになったらDiscordにログインし、外れたらログアウトする
+     */
+    private void onClusterLeadershipChanged(boolean leader) {
+        if (leader) {
+            logger.info("クラスタのリーダーになりました。Discordに接続します");
+            discordManager.initialize();
+        } else {
+            logger.info("クラスタのリーダーから外れました。Discordとの接続を終了します");
+            discordManager.shutdown();
+        }
+    }
+    
+    /**
+     * データベースとDiscordの起動処理が両方完了しているか
+     */
+    public boolean isStartupComplete() {
+        return databaseReady != null && databaseReady.isDone() && discordReady != null && discordReady.isDone();
+    }
+    
     @Subscribe
     public void onProxyShutdown(ProxyShutdownEvent event) {
         logger.info("Velocity Discord Plugin をシャットダウン中...");
         
+        if (configWatcher != null) {
+            configWatcher.stop();
+        }
+        
         if (serverStatusMonitor != null) {
             serverStatusMonitor.stopMonitoring();
         }
         
+        if (statusDashboard != null) {
+            statusDashboard.stop();
+        }
+        
+        if (clusterManager != null) {
+            clusterManager.shutdown();
+        }
+        
         if (discordManager != null) {
             discordManager.shutdown();
         }
         
+        if (relayQueue != null) {
+            relayQueue.shutdown();
+        }
+        
+        if (chatLog != null) {
+            chatLog.shutdown();
+        }
+        
         if (databaseManager != null) {
             databaseManager.shutdown();
         }
@@ -134,6 +311,10 @@ public class VelocityDiscordPlugin {
             scheduler.shutdown();
         }
         
+        if (configManager != null) {
+            configManager.shutdown();
+        }
+        
         logger.info("Velocity Discord Plugin のシャットダウンが完了しました。");
     }
     
@@ -154,11 +335,11 @@ public class VelocityDiscordPlugin {
                 // サーバー間移動
                 String previousServerName = event.getPreviousServer().getServerInfo().getName();
                 String previousDisplayName = permissionManager.getServerDisplayName(previousServerName);
-                discordManager.sendPlayerActionEmbed(playerName, DiscordManager.PlayerActionType.MOVE, 
+                discordManager.sendPlayerActionEmbed(event.getPlayer().getUniqueId(), playerName, DiscordManager.PlayerActionType.MOVE, 
                     previousDisplayName, displayName);
             } else {
                 // 初回接続
-                discordManager.sendPlayerActionEmbed(playerName, DiscordManager.PlayerActionType.JOIN, 
+                discordManager.sendPlayerActionEmbed(event.getPlayer().getUniqueId(), playerName, DiscordManager.PlayerActionType.JOIN, 
                     null, null);
             }
         }
@@ -166,6 +347,16 @@ public class VelocityDiscordPlugin {
     
     @Subscribe
     public void onServerPreConnect(ServerPreConnectEvent event) {
+        long startNanos = System.nanoTime();
+        long startBytes = StageTimings.allocatedBytes();
+        try {
+            checkServerAccess(event);
+        } finally {
+            stageTimings.record(StageTimings.Stage.PRE_CONNECT, startNanos, startBytes);
+        }
+    }
+    
+    private void checkServerAccess(ServerPreConnectEvent event) {
         UUID playerUuid = event.getPlayer().getUniqueId();
         String playerName = event.getPlayer().getUsername();
         
@@ -176,10 +367,48 @@ public class VelocityDiscordPlugin {
             logger.info("Permission check: Player {} (UUID: {}) attempting to connect to server {}", 
                 playerName, playerUuid, targetServerName);
             
+            // 起動処理中（DB・Discord未接続）の接続は縮退ポリシーに従う
+            if (!isStartupComplete()) {
+                if (configManager.isDegradedConnectAllowed()) {
+                    logger.info("Startup in progress: allowing {} to connect to {} without checks (degraded policy: allow)",
+                        playerName, targetServerName);
+                } else {
+                    logger.info("Startup in progress: denying {} access to {} (degraded policy: deny)", playerName, targetServerName);
+                    event.setResult(ServerPreConnectEvent.ServerResult.denied());
+                    event.getPlayer().disconnect(LegacyComponentSerializer.legacyAmpersand()
+                        .deserialize(configManager.getStartupDegradedMessage()));
+                }
+                return;
+            }
+            
+            // DBの初期化に失敗した場合は連携も権限も確認できないため、起動処理中と同じ縮退ポリシーに従う
+            if (databaseManager.isFailed()) {
+                if (configManager.isDegradedConnectAllowed()) {
+                    logger.warn("Database unavailable: allowing {} to connect to {} without checks (degraded policy: allow)",
+                        playerName, targetServerName);
+                } else {
+                    logger.warn("Database unavailable: denying {} access to {} (degraded policy: deny)", playerName, targetServerName);
+                    event.setResult(ServerPreConnectEvent.ServerResult.denied());
+                    event.getPlayer().disconnect(LegacyComponentSerializer.legacyAmpersand()
+                        .deserialize(configManager.getStartupDatabaseFailedMessage()));
+                }
+                return;
+            }
+            
             try {
                 // アカウント連携チェック
                 if (configManager.isAccountLinkingEnabled() && configManager.isForceLinkEnabled()) {
-                    boolean isLinked = databaseManager.isAccountLinked(playerUuid).get();
+                    boolean isLinked;
+                    try {
+                        isLinked = databaseManager.isAccountLinked(playerUuid).get();
+                    } catch (ExecutionException e) {
+                        if (!CircuitBreaker.isUnavailable(e)) {
+                            throw e;
+                        }
+                        // DBが使えない場合は連携コードを発行せず、下の権限チェックのフォールバックで判定する
+                        logger.warn("連携状態を確認できません（{}）: {}", e.getCause().getMessage(), playerName);
+                        isLinked = true;
+                    }
                     if (!isLinked) {
                         // 未連携の場合は接続を拒否し、連携コードを生成
                         String code = accountLinkingManager.generateVerificationCode(playerUuid);
@@ -275,9 +504,12 @@ public class VelocityDiscordPlugin {
     
     @Subscribe
     public void onDisconnect(DisconnectEvent event) {
+        if (permissionManager != null) {
+            permissionManager.onPlayerDisconnect(event.getPlayer().getUniqueId());
+        }
         if (discordManager != null) {
             String playerName = event.getPlayer().getUsername();
-            discordManager.sendPlayerActionEmbed(playerName, DiscordManager.PlayerActionType.LEAVE, 
+            discordManager.sendPlayerActionEmbed(event.getPlayer().getUniqueId(), playerName, DiscordManager.PlayerActionType.LEAVE, 
                 null, null);
         }
     }
@@ -321,4 +553,8 @@ public class VelocityDiscordPlugin {
     public ConfigManager getConfigManager() {
         return configManager;
     }
+
+    public StageTimings getStageTimings() {
+        return stageTimings;
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,270 @@
+package com.example.velocitydiscord;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 連携コード（0〜999999の整数）をキーにしたオープンアドレス法のコード表
+ * 有効期限はハッシュ化タイミングホイールで管理し、1本の定期tickでまとめて失効させる
+ * コード1件ごとのスケジュールタスクや文字列キーを作らないため、接続が集中しても負荷が増えない
+ */
+public class VerificationCodeTable {
+
+    public static final int CODE_SPACE = 1_000_000;
+
+    private static final int EMPTY = -1;
+    private static final int WHEEL_SIZE = 512; // 2の累乗
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final long tickMillis;
+    private final long startMillis;
+
+    // コード表（線形探索）
+    private int[] codes;
+    private UUID[] owners;
+    private long[] expiries;
+    private int size;
+
+    // 同じプレイヤーには有効なコードを再利用する
+    private final Map<UUID, Integer> codeByOwner = new HashMap<>();
+
+    // タイミングホイール：各スロットに失効予定のコードを積む
+    private final int[][] wheel = new int[WHEEL_SIZE][];
+    private final int[] wheelSizes = new int[WHEEL_SIZE];
+    private long lastTick;
+
+    public VerificationCodeTable(long tickMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = System.currentTimeMillis();
+        this.lastTick = 0;
+        allocate(1024);
+    }
+
+    private void allocate(int capacity) {
+        codes = new int[capacity];
+        Arrays.fill(codes, EMPTY);
+        owners = new UUID[capacity];
+        expiries = new long[capacity];
+        size = 0;
+    }
+
+    /**
+     * プレイヤーにコードを割り当てる
+     * 有効なコードが既にあればそれを再利用して期限を延長し、なければ未使用のコードを新規に割り当てる
+     */
+    public synchronized int acquire(UUID owner, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        long expiresAt = now + ttlMillis;
+
+        Integer existing = codeByOwner.get(owner);
+        if (existing != null) {
+            int slot = findSlot(existing);
+            if (slot >= 0 && expiries[slot] > now) {
+                // 再発行のたびにホイールへ積み増さないよう、前の失効予定を外してから積み直す
+                unschedule(existing, expiries[slot]);
+                expiries[slot] = expiresAt;
+                schedule(existing, expiresAt);
+                return existing;
+            }
+        }
+
+        int code = allocateCode(now);
+        put(code, owner, expiresAt);
+        codeByOwner.put(owner, code);
+        schedule(code, expiresAt);
+        return code;
+    }
+
+    /**
+     * 有効なコードの所有者を返す（未登録・期限切れならnull）
+     */
+    public synchronized UUID lookup(int code) {
+        int slot = findSlot(code);
+        if (slot < 0 || expiries[slot] <= System.currentTimeMillis()) {
+            return null;
+        }
+        return owners[slot];
+    }
+
+    /**
+     * コードを使用済みとして削除する
+     */
+    public synchronized void release(int code) {
+        int slot = findSlot(code);
+        if (slot >= 0) {
+            codeByOwner.remove(owners[slot], code);
+            removeSlot(slot);
+        }
+    }
+
+    /**
+     * タイミングホイールを現在時刻まで進め、期限切れのコードを削除する
+     * 定期タスクから1本だけ呼び出す
+     */
+    public synchronized void tick() {
+        long now = System.currentTimeMillis();
+        long currentTick = (now - startMillis) / tickMillis;
+
+        // 遅延でtickが飛んだ場合もホイール1周分までは全スロットを処理する
+        long from = Math.max(lastTick + 1, currentTick - WHEEL_MASK);
+        for (long t = from; t <= currentTick; t++) {
+            expireBucket((int) (t & WHEEL_MASK), now);
+        }
+        lastTick = currentTick;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int allocateCode(long now) {
+        if (size >= CODE_SPACE / 2) {
+            throw new IllegalStateException("連携コードの空きがありません");
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            int candidate = random.nextInt(CODE_SPACE);
+            int slot = findSlot(candidate);
+            if (slot < 0) {
+                return candidate;
+            }
+            if (expiries[slot] <= now) {
+                // tick前の期限切れコードは再利用できる
+                codeByOwner.remove(owners[slot], candidate);
+                removeSlot(slot);
+                return candidate;
+            }
+        }
+    }
+
+    private int bucketOf(long expiresAt) {
+        long deadlineTick = (expiresAt - startMillis + tickMillis - 1) / tickMillis;
+        return (int) (deadlineTick & WHEEL_MASK);
+    }
+
+    private void schedule(int code, long expiresAt) {
+        int bucket = bucketOf(expiresAt);
+        int[] entries = wheel[bucket];
+        if (entries == null) {
+            entries = wheel[bucket] = new int[16];
+        } else if (wheelSizes[bucket] == entries.length) {
+            entries = wheel[bucket] = Arrays.copyOf(entries, entries.length * 2);
+        }
+        entries[wheelSizes[bucket]++] = code;
+    }
+
+    /**
+     * 期限expiresAtで積んだコードをスロットから外す（順序は保たない）
+     */
+    private void unschedule(int code, long expiresAt) {
+        int bucket = bucketOf(expiresAt);
+        int[] entries = wheel[bucket];
+        if (entries == null) {
+            return;
+        }
+        for (int i = 0; i < wheelSizes[bucket]; i++) {
+            if (entries[i] == code) {
+                entries[i] = entries[--wheelSizes[bucket]];
+                return;
+            }
+        }
+    }
+
+    private void expireBucket(int bucket, long now) {
+        int[] entries = wheel[bucket];
+        if (entries == null) {
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < wheelSizes[bucket]; i++) {
+            int code = entries[i];
+            int slot = findSlot(code);
+            if (slot < 0) {
+                continue; // 使用済み
+            }
+            if (expiries[slot] <= now) {
+                codeByOwner.remove(owners[slot], code);
+                removeSlot(slot);
+                continue;
+            }
+            if (bucketOf(expiries[slot]) == bucket) {
+                entries[kept++] = code; // 次の周回で失効
+            }
+            // 期限延長で別スロットに移ったものはここから外す
+        }
+        wheelSizes[bucket] = kept;
+    }
+
+    private int indexFor(int code) {
+        return (code * 0x9E3779B9) >>> 1 & (codes.length - 1);
+    }
+
+    private int findSlot(int code) {
+        int mask = codes.length - 1;
+        for (int i = indexFor(code); ; i = (i + 1) & mask) {
+            if (codes[i] == code) {
+                return i;
+            }
+            if (codes[i] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private void put(int code, UUID owner, long expiresAt) {
+        if ((size + 1) * 2 > codes.length) {
+            rehash(codes.length * 2);
+        }
+        int mask = codes.length - 1;
+        int i = indexFor(code);
+        while (codes[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        codes[i] = code;
+        owners[i] = owner;
+        expiries[i] = expiresAt;
+        size++;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldCodes = codes;
+        UUID[] oldOwners = owners;
+        long[] oldExpiries = expiries;
+        allocate(capacity);
+        for (int i = 0; i < oldCodes.length; i++) {
+            if (oldCodes[i] != EMPTY) {
+                put(oldCodes[i], oldOwners[i], oldExpiries[i]);
+            }
+        }
+    }
+
+    /**
+     * 後方シフト削除（トゥームストーンを残さない）
+     */
+    private void removeSlot(int slot) {
+        int mask = codes.length - 1;
+        int hole = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            if (codes[i] == EMPTY) {
+                break;
+            }
+            int home = indexFor(codes[i]);
+            // iの本来の位置がholeより後ろ（巡回）なら移動できない
+            boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                codes[hole] = codes[i];
+                owners[hole] = owners[i];
+                expiries[hole] = expiries[i];
+                hole = i;
+            }
+        }
+        codes[hole] = EMPTY;
+        owners[hole] = null;
+        size--;
+    }
+}
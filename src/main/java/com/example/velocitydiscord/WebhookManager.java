@@ -4,106 +4,334 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 
-import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
-public class WebhookManager {
-    
-    private final String webhookUrl;
+/**
+ * Discord Webhook送信クラス
+ * 設定された全GuildのWebhookへ並列に送信する（URIは読み込み時に1度だけ解析）
+ * HTTP/2の共有HttpClientで接続を多重化し、Webhookごとにレート制限を追跡する
+ */
+public class WebhookManager implements ConfigManager.ChangeListener {
+
+    // 429応答時の再送回数
+    private static final int MAX_RETRIES = 2;
+
+    private final ConfigManager configManager;
+    private final AvatarResolver avatarResolver;
     private final Logger logger;
     private final HttpClient httpClient;
     private final Gson gson;
-    
-    public WebhookManager(String webhookUrl, Logger logger) {
-        this.webhookUrl = webhookUrl;
+
+    private volatile List<WebhookTarget> targets = Collections.emptyList();
+
+    public WebhookManager(ConfigManager configManager, HttpClient httpClient, AvatarResolver avatarResolver, Logger logger) {
+        this.configManager = configManager;
+        this.httpClient = httpClient;
+        this.avatarResolver = avatarResolver;
         this.logger = logger;
-        this.httpClient = HttpClient.newHttpClient();
         this.gson = new Gson();
+        reloadTargets();
     }
-    
+
     /**
-     * プレイヤーのスキンアイコン付きでメッセージを送信
+     * Webhook送信とアバター取得で共有するHTTP/2クライアントを作成する
+     */
+    public static HttpClient createHttpClient() {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    /**
+     * 設定からWebhook URLを読み込み直し、送信先を再構築する
+     * 変更のないURLはレート制限の状態を引き継ぐ
      */
-    public CompletableFuture<Boolean> sendMessageWithSkin(String playerName, String message, String serverName) {
-        return CompletableFuture.supplyAsync(() -> {
+    public void reloadTargets() {
+        Map<String, String> urls = configManager.getGuildWebhookUrls();
+        List<WebhookTarget> previous = targets;
+        List<WebhookTarget> reloaded = new ArrayList<>();
+
+        for (Map.Entry<String, String> entry : urls.entrySet()) {
+            String url = applyApiBaseUrl(entry.getValue());
+            WebhookTarget existing = previous.stream()
+                    .filter(target -> target.uri.toString().equals(url) && !reloaded.contains(target))
+                    .findFirst()
+                    .orElse(null);
+            if (existing != null) {
+                // 同じWebhookを別のGuildの設定に付け替えた場合に備えてGuild IDは設定に合わせる
+                existing.guildId = entry.getKey();
+                reloaded.add(existing);
+                continue;
+            }
             try {
-                if (webhookUrl == null || webhookUrl.isEmpty() || webhookUrl.equals("YOUR_WEBHOOK_URL")) {
-                    logger.warn("Webhook URLが設定されていません");
-                    return false;
-                }
-                
-                // MinecraftスキンのアイコンURLを生成
-                String avatarUrl = String.format("https://mc-heads.net/avatar/%s", playerName);
-                
-                // Webhookペイロードを作成（プレイヤーの名前とアイコンで送信）
-                JsonObject payload = new JsonObject();
-                payload.addProperty("content", message);
-                payload.addProperty("username", playerName);
-                payload.addProperty("avatar_url", avatarUrl);
-                
-                // HTTPリクエストを作成
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(webhookUrl))
-                        .header("Content-Type", "application/json")
-                        .POST(HttpRequest.BodyPublishers.ofString(payload.toString()))
-                        .build();
-                
-                // リクエストを送信
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                
-                if (response.statusCode() == 204) {
-                    return true;
-                } else {
-                    logger.error("Webhook送信に失敗しました。ステータスコード: {}, レスポンス: {}", 
-                        response.statusCode(), response.body());
-                    return false;
-                }
-                
-            } catch (IOException | InterruptedException e) {
-                logger.error("Webhook送信中にエラーが発生しました", e);
-                return false;
+                reloaded.add(new WebhookTarget(entry.getKey(), URI.create(url)));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Webhook URLが不正です (Guild: {}): {}", entry.getKey(), e.getMessage());
             }
+        }
+
+        targets = Collections.unmodifiableList(reloaded);
+        if (reloaded.isEmpty()) {
+            logger.warn("Webhook URLが設定されていません");
+        } else {
+            logger.info("Webhook送信先: {} 件", reloaded.size());
+        }
+    }
+
+    /**
+     * discord.api_base_url が設定されていれば、Webhook URLの「/webhooks/」より前をその接続先に置き換える
+     */
+    private String applyApiBaseUrl(String url) {
+        String baseUrl = configManager.getDiscordApiBaseUrl();
+        int webhooksPath = url.indexOf("/webhooks/");
+        if (baseUrl == null || baseUrl.isEmpty() || webhooksPath < 0) {
+            return url;
+        }
+        String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        return base + url.substring(webhooksPath);
+    }
+
+    /**
+     * 送信先のWebhookが1件以上あるか
+     */
+    public boolean hasTargets() {
+        return !targets.isEmpty();
+    }
+
+    @Override
+    public void onConfigChanged(Set<ConfigManager.ChangeType> changes) {
+        if (changes.contains(ConfigManager.ChangeType.WEBHOOKS)) {
+            reloadTargets();
+        }
+    }
+
+    /**
+     * プレイヤーのスキンアイコン付きでメッセージを送信
+     * アバターURLはUUID単位でキャッシュされたものを使う
+     *
+     * @param completedGuilds このメッセージを受け付けた、または恒久的に拒否したGuild。ここに含まれるGuildには送らず、
+     *                        今回受け付けたGuildを追加する（再送時に同じSetを渡すと、受け付け済みのGuildへ二重に送らない）
+     * @return 全送信先について完了した場合にtrue
+     */
+    public CompletableFuture<Boolean> sendMessageWithSkin(UUID playerUuid, String playerName, String message, String serverName,
+                                                          Set<String> completedGuilds) {
+        if (targets.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return avatarResolver.resolve(playerUuid, playerName).thenCompose(avatarUrl -> {
+            // Webhookペイロードを作成（プレイヤーの名前とアイコンで送信）
+            JsonObject payload = new JsonObject();
+            payload.addProperty("content", message);
+            payload.addProperty("username", playerName);
+            payload.addProperty("avatar_url", avatarUrl);
+            return broadcast(gson.toJson(payload), completedGuilds);
         });
     }
-    
+
     /**
      * 通常のメッセージを送信（アイコンなし）
      */
     public CompletableFuture<Boolean> sendMessage(String message) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                if (webhookUrl == null || webhookUrl.isEmpty() || webhookUrl.equals("YOUR_WEBHOOK_URL")) {
-                    logger.warn("Webhook URLが設定されていません");
-                    return false;
+        if (targets.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        JsonObject payload = new JsonObject();
+        payload.addProperty("content", message);
+        return broadcast(gson.toJson(payload), ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * 完了していない送信先へ並列に送信する。全送信先が完了した場合にtrue
+     * 2xxで受け付けた送信先と、429以外の4xxで拒否された送信先（再送しても通らない）を完了とする
+     */
+    private CompletableFuture<Boolean> broadcast(String body, Set<String> completedGuilds) {
+        List<WebhookTarget> current = targets;
+        List<CompletableFuture<SendResult>> results = new ArrayList<>(current.size());
+        for (WebhookTarget target : current) {
+            if (completedGuilds.contains(target.guildId)) {
+                continue;
+            }
+            results.add(send(target, body, 0).thenApply(result -> {
+                if (result != SendResult.FAILED) {
+                    completedGuilds.add(target.guildId);
                 }
-                
-                JsonObject payload = new JsonObject();
-                payload.addProperty("content", message);
-                
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(webhookUrl))
-                        .header("Content-Type", "application/json")
-                        .POST(HttpRequest.BodyPublishers.ofString(payload.toString()))
-                        .build();
-                
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                
-                if (response.statusCode() == 204) {
-                    return true;
-                } else {
-                    logger.error("Webhook送信に失敗しました。ステータスコード: {}, レスポンス: {}", 
-                        response.statusCode(), response.body());
-                    return false;
+                return result;
+            }));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> results.stream().noneMatch(result -> result.join() == SendResult.FAILED));
+    }
+
+    private CompletableFuture<SendResult> send(WebhookTarget target, String body, int attempt) {
+        long waitMillis = target.reserve();
+        if (waitMillis > 0) {
+            Executor delayed = CompletableFuture.delayedExecutor(waitMillis, TimeUnit.MILLISECONDS);
+            return CompletableFuture.supplyAsync(() -> null, delayed).thenCompose(ignored -> send(target, body, attempt));
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(target.uri)
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofSeconds(10))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+
+        FlightEvents.WebhookSend flightEvent = new FlightEvents.WebhookSend();
+        flightEvent.begin();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, error) -> {
+                    target.release(response);
+                    commitSend(flightEvent, target, body, attempt, response);
+                })
+                .thenCompose(response -> {
+                    int status = response.statusCode();
+                    if (status >= 200 && status < 300) {
+                        return CompletableFuture.completedFuture(SendResult.ACCEPTED);
+                    }
+                    if (status == 429 && attempt < MAX_RETRIES) {
+                        logger.warn("Webhookのレート制限に達しました (Guild: {})。{}ms後に再送します",
+                            target.guildId, target.millisUntilReset());
+                        return send(target, body, attempt + 1);
+                    }
+                    if (status >= 400 && status < 500 && status != 429) {
+                        // 削除されたWebhookや不正なペイロードは再送しても通らないため、この送信先は諦める
+                        logger.error("Webhookが送信を拒否しました (Guild: {})。このメッセージは送信しません。ステータスコード: {}, レスポンス: {}",
+                            target.guildId, status, response.body());
+                        return CompletableFuture.completedFuture(SendResult.REJECTED);
+                    }
+                    logger.error("Webhook送信に失敗しました (Guild: {})。ステータスコード: {}, レスポンス: {}",
+                        target.guildId, status, response.body());
+                    return CompletableFuture.completedFuture(SendResult.FAILED);
+                })
+                .exceptionally(e -> {
+                    logger.error("Webhook送信中にエラーが発生しました (Guild: {})", target.guildId, e);
+                    return SendResult.FAILED;
+                });
+    }
+
+    /**
+     * JFRで記録中であれば、送信1回分の所要時間と応答をイベントとして記録する
+     */
+    private static void commitSend(FlightEvents.WebhookSend flightEvent, WebhookTarget target, String body, int attempt,
+                                   HttpResponse<String> response) {
+        if (flightEvent.shouldCommit()) {
+            flightEvent.guildId = target.guildId;
+            flightEvent.attempt = attempt;
+            flightEvent.statusCode = response != null ? response.statusCode() : 0;
+            flightEvent.payloadLength = body.length();
+            flightEvent.commit();
+        }
+    }
+
+    /**
+     * 送信先1件への送信結果
+     */
+    private enum SendResult {
+        // 2xxで受け付けられた
+        ACCEPTED,
+        // 429以外の4xxで拒否された（再送しない）
+        REJECTED,
+        // 5xx・通信エラー・再送上限までの429（後で再送する）
+        FAILED
+    }
+
+    /**
+     * Webhook送信先とそのレート制限バケット
+     */
+    private static final class WebhookTarget {
+        // 応答待ちの送信があってバケットの残りがわからない間、空きを確かめ直す間隔
+        private static final long IN_FLIGHT_POLL_MILLIS = 50;
+
+        private volatile String guildId;
+        private final URI uri;
+        // 以下はこのオブジェクトのロックを取って読み書きする
+        private int remaining = 1;
+        private long resetAtMillis;
+        private int inFlight;
+
+        private WebhookTarget(String guildId, URI uri) {
+            this.guildId = guildId;
+            this.uri = uri;
+        }
+
+        /**
+         * バケットから1件分を確保する。確保できたら0、できなければ確かめ直すまでの待ち時間を返す
+         * 残りが0でもリセット時刻を過ぎていて応答待ちの送信がなければ、1件だけ送って応答のヘッダーで残りを知る
+         */
+        private synchronized long reserve() {
+            long now = System.currentTimeMillis();
+            if (remaining > 0) {
+                remaining--;
+                inFlight++;
+                return 0;
+            }
+            if (now < resetAtMillis) {
+                return resetAtMillis - now;
+            }
+            if (inFlight == 0) {
+                inFlight++;
+                return 0;
+            }
+            return IN_FLIGHT_POLL_MILLIS;
+        }
+
+        /**
+         * 送信1件の完了時に、X-RateLimit-* / Retry-After ヘッダーからバケットの状態を更新する（通信エラーはnull）
+         * ヘッダーの残りには、まだ応答のない送信の分が含まれていないため差し引く
+         */
+        private synchronized void release(HttpResponse<?> response) {
+            inFlight--;
+            if (response == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (response.statusCode() == 429) {
+                double retryAfter = parseSeconds(response.headers().firstValue("Retry-After").orElse(null), 1.0);
+                remaining = 0;
+                resetAtMillis = now + (long) (retryAfter * 1000);
+                return;
+            }
+            response.headers().firstValue("X-RateLimit-Remaining").ifPresent(value -> {
+                try {
+                    remaining = Math.max(0, Integer.parseInt(value.trim()) - inFlight);
+                } catch (NumberFormatException ignored) {
+                    remaining = 0;
                 }
-                
-            } catch (IOException | InterruptedException e) {
-                logger.error("Webhook送信中にエラーが発生しました", e);
-                return false;
+            });
+            response.headers().firstValue("X-RateLimit-Reset-After").ifPresent(value ->
+                    resetAtMillis = now + (long) (parseSeconds(value, 0) * 1000));
+        }
+
+        private synchronized long millisUntilReset() {
+            return Math.max(0, resetAtMillis - System.currentTimeMillis());
+        }
+
+        private static double parseSeconds(String value, double def) {
+            if (value == null) {
+                return def;
             }
-        });
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                return def;
+            }
+        }
     }
-} 
\ No newline at end of file
+}
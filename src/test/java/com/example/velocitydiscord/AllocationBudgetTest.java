@@ -0,0 +1,157 @@
+package com.example.velocitydiscord;
+
+import com.velocitypowered.api.event.player.PlayerChatEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 段階ごとの1件あたりのメモリ確保量が diagnostics.allocation_budget_bytes の上限に収まることを確かめる
+ * 十分に呼び出してJITを温めてから、StageTimingsが記録した平均（処理したスレッドで確保した分のみ）を上限と比べる
+ */
+class AllocationBudgetTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AllocationBudgetTest.class);
+
+    private static final int WARMUP = 2000;
+    private static final int MEASURED = 1000;
+
+    private static final String GUILD_ID = "1000";
+    private static final String CHANNEL_ID = "2000";
+    private static final String ROLE_ID = "3000";
+    private static final String DISCORD_USER_ID = "4000";
+    private static final List<String> SERVERS = List.of("lobby", "survival");
+
+    @TempDir
+    Path dataDirectory;
+
+    private FakeDiscordServer discord;
+    private ConfigManager configManager;
+    private DatabaseManager databaseManager;
+    private DiscordRelayQueue relayQueue;
+    private DiscordManager discordManager;
+    private PermissionManager permissionManager;
+    private ChatManager chatManager;
+    private final StageTimings timings = new StageTimings();
+    private final List<FakeProxy.FakePlayer> players = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        discord = FakeDiscordServer.start();
+        // Webhookのレート制限で送信が止まらないようにする（送信の待ちはメモリ確保量と関係しない）
+        discord.setRateLimit(1_000_000, 1000);
+        configManager = TestConfig.load(dataDirectory, Map.of(
+            "discord.api_base_url", discord.getBaseUrl(),
+            "discord.guilds", Map.of(GUILD_ID, TestConfig.guild(CHANNEL_ID, FakeDiscordServer.webhookUrl("budget"))),
+            "permissions.discordRoleMapping", Map.of(GUILD_ID, TestConfig.roleMapping(ROLE_ID, SERVERS.toArray(new String[0]))),
+            "chat.discord_relay.queue_capacity", 1_000_000));
+
+        FakeProxy proxy = new FakeProxy(SERVERS);
+        for (int i = 0; i < 20; i++) {
+            FakeProxy.FakePlayer player = proxy.createPlayer(UUID.randomUUID(), "Player" + i);
+            player.connect(proxy.getServer(SERVERS.get(i % SERVERS.size())));
+            players.add(player);
+        }
+
+        databaseManager = new DatabaseManager(configManager, LOGGER);
+        databaseManager.initialize();
+        assertTrue(databaseManager.isReady());
+
+        HttpClient httpClient = WebhookManager.createHttpClient();
+        AvatarResolver avatarResolver = AvatarResolver.fromConfig(configManager, httpClient, LOGGER);
+        WebhookManager webhookManager = new WebhookManager(configManager, httpClient, avatarResolver, LOGGER);
+        permissionManager = new PermissionManager(configManager, null, databaseManager, LOGGER);
+        permissionManager.setStageTimings(timings);
+        chatManager = new ChatManager(proxy.getProxyServer(), LOGGER, configManager, permissionManager, webhookManager);
+        chatManager.setStageTimings(timings);
+        relayQueue = new DiscordRelayQueue(chatManager, configManager, LOGGER);
+        relayQueue.start();
+        discordManager = new DiscordManager(configManager, relayQueue, null, avatarResolver, LOGGER);
+        discordManager.setStageTimings(timings);
+        permissionManager.setDiscordManager(discordManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        relayQueue.shutdown();
+        databaseManager.shutdown();
+        discord.close();
+    }
+
+    @Test
+    void chatRelayStaysWithinBudget() {
+        int[] next = {0};
+        long bytes = bytesPerOperation(StageTimings.Stage.CHAT_RELAY, () -> {
+            FakeProxy.FakePlayer player = players.get(next[0]++ % players.size());
+            chatManager.onPlayerChat(new PlayerChatEvent(player.getPlayer(), "こんにちは、今日は何をしますか？"));
+        });
+
+        assertWithinBudget(StageTimings.Stage.CHAT_RELAY, bytes);
+        assertTrue(discord.getWebhookRequests().size() > 0, "Webhookへ送信していません");
+    }
+
+    @Test
+    void discordRelayStaysWithinBudget() {
+        FakeJda jda = new FakeJda(configManager, GUILD_ID, CHANNEL_ID);
+        discordManager.attachJda(jda.getJda());
+
+        long bytes = bytesPerOperation(StageTimings.Stage.DISCORD_RELAY,
+            () -> discordManager.onMessageReceived(jda.messageReceived(DISCORD_USER_ID, "Alex", "おはようございます")));
+
+        assertWithinBudget(StageTimings.Stage.DISCORD_RELAY, bytes);
+    }
+
+    @Test
+    void cachedPermissionCheckStaysWithinBudget() {
+        discordManager.attachJda(new FakeJda(configManager, GUILD_ID, CHANNEL_ID).getJda());
+        UUID playerUuid = players.get(0).getUniqueId();
+        assertTrue(databaseManager.linkAccount(playerUuid, DISCORD_USER_ID).join());
+        discord.addMember(GUILD_ID, DISCORD_USER_ID, "Alex", ROLE_ID);
+        assertTrue(permissionManager.canAccessServer(playerUuid, "survival"));
+
+        long bytes = bytesPerOperation(StageTimings.Stage.PERMISSION_CHECK,
+            () -> assertTrue(permissionManager.canAccessServer(playerUuid, "survival")));
+
+        assertWithinBudget(StageTimings.Stage.PERMISSION_CHECK, bytes);
+        // 計測した判定は全て許可キャッシュから行う
+        assertEquals(1, discord.getMemberRequests().size());
+    }
+
+    /**
+     * 温めてから計測し直した、1件あたりの平均メモリ確保量
+     */
+    private long bytesPerOperation(StageTimings.Stage stage, Runnable operation) {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run();
+        }
+        timings.reset();
+        for (int i = 0; i < MEASURED; i++) {
+            operation.run();
+        }
+        StageTimings.Summary summary = timings.summarize(stage);
+        assertEquals(MEASURED, summary.count());
+        assumeTrue(summary.bytesPerOperation() >= 0, "このJVMではスレッドごとのメモリ確保量を計測できません");
+        return summary.bytesPerOperation();
+    }
+
+    private void assertWithinBudget(StageTimings.Stage stage, long bytesPerOperation) {
+        long budget = configManager.getAllocationBudgetBytes(stage.name().toLowerCase());
+        assertTrue(budget > 0, "diagnostics.allocation_budget_bytes." + stage.name().toLowerCase() + " が設定されていません");
+        assertTrue(bytesPerOperation <= budget,
+            stage.getLabel() + ": " + bytesPerOperation + " B/件（上限 " + budget + " B）");
+    }
+}
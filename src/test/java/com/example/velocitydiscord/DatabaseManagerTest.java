@@ -0,0 +1,50 @@
+package com.example.velocitydiscord;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * DatabaseManagerの初期化に失敗した場合に、起動中のままではなく失敗した状態になることを確かめる
+ */
+class DatabaseManagerTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseManagerTest.class);
+
+    @TempDir
+    Path dataDirectory;
+
+    @Test
+    void unreachableDatabaseIsReportedAsFailed() throws Exception {
+        // 誰も待ち受けていないポートに接続させる
+        ConfigManager configManager = TestConfig.load(dataDirectory, Map.of(
+            "database.type", "mysql",
+            "database.mysql.host", "127.0.0.1",
+            "database.mysql.port", 1));
+        DatabaseManager databaseManager = new DatabaseManager(configManager, LOGGER);
+        try {
+            assertEquals(DatabaseManager.State.STARTING, databaseManager.getState());
+
+            databaseManager.initialize();
+
+            assertTrue(databaseManager.isFailed());
+            assertFalse(databaseManager.isReady());
+            assertThrows(ExecutionException.class,
+                () -> databaseManager.getDiscordUserId(UUID.randomUUID()).get(5, TimeUnit.SECONDS));
+        } finally {
+            databaseManager.shutdown();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.velocitydiscord;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * /vddebug chatlog の since の解釈を確かめる
+ */
+class DebugCommandTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    void relativeSinceIsSubtractedFromNow() {
+        assertEquals(NOW - 30 * 60_000L, DebugCommand.parseSince("30m", NOW));
+        assertEquals(NOW - 7 * 86_400_000L, DebugCommand.parseSince("7d", NOW));
+    }
+
+    @Test
+    void overflowingSinceIsRejected() {
+        assertThrows(ArithmeticException.class, () -> DebugCommand.parseSince("9223372036854775807d", NOW));
+        assertThrows(ArithmeticException.class, () -> DebugCommand.parseSince("200000000000000h", NOW));
+    }
+
+    @Test
+    void sinceBeforeEpochIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> DebugCommand.parseSince("100000d", NOW));
+    }
+}
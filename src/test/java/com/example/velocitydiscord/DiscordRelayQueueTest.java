@@ -0,0 +1,28 @@
+package com.example.velocitydiscord;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Discordから中継する本文の切り詰めを確かめる
+ */
+class DiscordRelayQueueTest {
+
+    @Test
+    void longContentIsCutAtMaxLength() {
+        assertEquals("abc…", DiscordRelayQueue.truncate("abcdef", 10, 3));
+    }
+
+    @Test
+    void surrogatePairIsNotSplit() {
+        // "あ😀" の😀は2文字分（サロゲートペア）
+        assertEquals("あ…", DiscordRelayQueue.truncate("あ😀い", 10, 2));
+        assertEquals("あ😀…", DiscordRelayQueue.truncate("あ😀い", 10, 3));
+    }
+
+    @Test
+    void extraLinesAreHidden() {
+        assertEquals("1\n2 (+2行)", DiscordRelayQueue.truncate("1\n2\n3\n4", 2, 100));
+    }
+}
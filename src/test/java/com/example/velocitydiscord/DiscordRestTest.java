@@ -0,0 +1,126 @@
+package com.example.velocitydiscord;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Botのメンバー取得・メッセージ送信を discord.api_base_url でFakeDiscordServerに向けて、権限チェックとチャンネルへの送信を確かめる
+ * JDAはログインせず、FakeJdaのRESTだけを使う（エラー応答はJDAと同じErrorResponseException、5xxは最大4回まで送る）
+ */
+class DiscordRestTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiscordRestTest.class);
+
+    private static final String GUILD_ID = "1000";
+    private static final String CHANNEL_ID = "2000";
+    private static final String ROLE_ID = "3000";
+    private static final String DISCORD_USER_ID = "4000";
+    private static final String SERVER = "survival";
+
+    @TempDir
+    Path dataDirectory;
+
+    private FakeDiscordServer discord;
+    private ConfigManager configManager;
+    private DatabaseManager databaseManager;
+    private DiscordManager discordManager;
+    private PermissionManager permissionManager;
+    private UUID playerUuid;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        discord = FakeDiscordServer.start();
+        configManager = TestConfig.load(dataDirectory, Map.of(
+            "discord.api_base_url", discord.getBaseUrl(),
+            "discord.guilds", Map.of(GUILD_ID, TestConfig.guild(CHANNEL_ID, "")),
+            "permissions.discordRoleMapping", Map.of(GUILD_ID, TestConfig.roleMapping(ROLE_ID, SERVER)),
+            "resilience.discord.failure_threshold", 2));
+
+        databaseManager = new DatabaseManager(configManager, LOGGER);
+        databaseManager.initialize();
+        assertTrue(databaseManager.isReady());
+        playerUuid = UUID.randomUUID();
+        assertTrue(databaseManager.linkAccount(playerUuid, DISCORD_USER_ID).join());
+
+        discordManager = new DiscordManager(configManager, null, null, null, LOGGER);
+        discordManager.attachJda(new FakeJda(configManager, GUILD_ID, CHANNEL_ID).getJda());
+        permissionManager = new PermissionManager(configManager, discordManager, databaseManager, LOGGER);
+    }
+
+    @AfterEach
+    void tearDown() {
+        databaseManager.shutdown();
+        discord.close();
+    }
+
+    @Test
+    void memberWithMappedRoleIsAllowedAndCached() {
+        discord.addMember(GUILD_ID, DISCORD_USER_ID, "Alex", ROLE_ID);
+
+        assertTrue(permissionManager.canAccessServer(playerUuid, SERVER));
+        assertTrue(permissionManager.canAccessServer(playerUuid, SERVER));
+
+        // 2回目は許可キャッシュから判定する
+        assertEquals(1, discord.getMemberRequests().size());
+        assertTrue(discord.getMemberRequests().get(0).path().endsWith("/guilds/" + GUILD_ID + "/members/" + DISCORD_USER_ID));
+    }
+
+    @Test
+    void memberWithoutMappedRoleIsDenied() {
+        discord.addMember(GUILD_ID, DISCORD_USER_ID, "Alex", "3999");
+
+        assertFalse(permissionManager.canAccessServer(playerUuid, SERVER));
+    }
+
+    @Test
+    void unknownMemberIsDeniedWithoutOpeningBreaker() {
+        // failure_threshold（2）を超える回数、UNKNOWN_MEMBERで失敗させる
+        for (int i = 0; i < 3; i++) {
+            assertFalse(permissionManager.canAccessServer(playerUuid, SERVER));
+        }
+
+        // 404は送り直さず、メンバー未発見として障害に数えない
+        assertEquals(3, discord.getMemberRequests().size());
+        CircuitBreaker.Metrics metrics = permissionManager.getDiscordCircuitBreaker().getMetrics();
+        assertEquals(CircuitBreaker.State.CLOSED, metrics.state());
+        assertEquals(0, metrics.failures());
+    }
+
+    @Test
+    void serverErrorsOpenDiscordBreaker() {
+        discord.setMemberFetchStatus(503);
+
+        assertFalse(permissionManager.canAccessServer(playerUuid, SERVER));
+        assertFalse(permissionManager.canAccessServer(playerUuid, SERVER));
+        assertEquals(CircuitBreaker.State.OPEN, permissionManager.getDiscordCircuitBreaker().getState());
+
+        // 1回の判定につき4回まで送り直してから失敗する
+        assertEquals(8, discord.getMemberRequests().size());
+
+        // 開いている間はDiscordに要求せず resilience.fallback で判定する（以前の許可がないため拒否）
+        assertFalse(permissionManager.canAccessServer(playerUuid, SERVER));
+        assertEquals(8, discord.getMemberRequests().size());
+    }
+
+    @Test
+    void messageIsSentToConfiguredChannel() throws Exception {
+        discordManager.sendMessageToDiscord("サーバーが起動しました");
+
+        assertTrue(discord.awaitMessageRequests(1, 5000));
+        FakeDiscordServer.Request request = discord.getMessageRequests().get(0);
+        assertEquals("/api/v10/channels/" + CHANNEL_ID + "/messages", request.path());
+        assertTrue(request.body().contains("サーバーが起動しました"));
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.velocitydiscord;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * テスト・負荷試験用のDiscord APIの代わり（127.0.0.1の空きポートで待ち受ける）
+ * discord.api_base_url に getBaseUrl() を設定すると、Webhook送信とBotのREST呼び出しがここに届く
+ *
+ * - POST /api/webhooks/{id}/{token}: Webhookの実行。通常は204と X-RateLimit-* を返し、
+ *   Webhookごとに window 内で limit 件を超えると、Discordと同じく429・Retry-After（秒）・retry_after を返す
+ * - POST /api/v10/channels/{id}/messages: メッセージ送信。200と作成したメッセージを返す
+ * - GET /api/v10/guilds/{id}/members/{userId}: メンバー取得。addMemberで登録したメンバーは200、それ以外は404（Unknown Member）
+ *
+ * 受け取った要求は記録し、テストから件数・本文・時刻を確認できる
+ */
+final class FakeDiscordServer implements AutoCloseable {
+
+    /**
+     * 受け取った要求
+     */
+    record Request(String method, String path, String body, long receivedAtNanos) {}
+
+    private record Member(String userId, String name, List<String> roleIds) {}
+
+    private record ScriptedResponse(int status, double retryAfterSeconds) {}
+
+    private static final Pattern WEBHOOK_PATH = Pattern.compile("/api/webhooks/([^/]+)/[^/]+");
+    private static final Pattern MESSAGE_PATH = Pattern.compile("/api/v10/channels/([^/]+)/messages");
+    private static final Pattern MEMBER_PATH = Pattern.compile("/api/v10/guilds/([^/]+)/members/([^/]+)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<Request> webhookRequests = new CopyOnWriteArrayList<>();
+    private final List<Request> messageRequests = new CopyOnWriteArrayList<>();
+    private final List<Request> memberRequests = new CopyOnWriteArrayList<>();
+    private final AtomicLong rateLimitedResponses = new AtomicLong();
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    private final Map<String, Deque<ScriptedResponse>> scriptedResponses = new ConcurrentHashMap<>();
+    private final Map<String, RateBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextSnowflake = new AtomicLong(1_100_000_000_000_000_000L);
+
+    private volatile int rateLimit = 5;
+    private volatile long rateWindowMillis = 2000;
+    private volatile int memberFetchStatus = 0;
+    private volatile long responseDelayMillis;
+
+    private FakeDiscordServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    static FakeDiscordServer start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "fake-discord");
+            thread.setDaemon(true);
+            return thread;
+        });
+        FakeDiscordServer fake = new FakeDiscordServer(server, executor);
+        server.createContext("/api/", fake::handle);
+        server.setExecutor(executor);
+        server.start();
+        return fake;
+    }
+
+    /**
+     * discord.api_base_url に設定する接続先
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+    }
+
+    /**
+     * 本番の形式のWebhook URL（api_base_url によってこのサーバーへ向け直される）
+     */
+    static String webhookUrl(String webhookId) {
+        return "https://discord.com/api/webhooks/" + webhookId + "/fake-token";
+    }
+
+    /**
+     * Webhookごとのレート制限（window ミリ秒あたり limit 件）
+     */
+    void setRateLimit(int limit, long windowMillis) {
+        this.rateLimit = limit;
+        this.rateWindowMillis = windowMillis;
+    }
+
+    /**
+     * 全ての応答を指定時間だけ遅らせる（Discordの応答時間の再現）
+     */
+    void setResponseDelayMillis(long responseDelayMillis) {
+        this.responseDelayMillis = responseDelayMillis;
+    }
+
+    /**
+     * Webhookの次の応答を指定したステータスにする（呼ぶたびに後ろに積む）
+     */
+    void enqueueWebhookResponse(String webhookId, int status) {
+        scriptedResponses.computeIfAbsent(webhookId, id -> new ConcurrentLinkedDeque<>())
+            .add(new ScriptedResponse(status, 0));
+    }
+
+    /**
+     * Webhookの次の応答を、指定した秒数を待つよう求める429にする
+     */
+    void enqueueRateLimit(String webhookId, double retryAfterSeconds) {
+        scriptedResponses.computeIfAbsent(webhookId, id -> new ConcurrentLinkedDeque<>())
+            .add(new ScriptedResponse(429, retryAfterSeconds));
+    }
+
+    void addMember(String guildId, String userId, String name, String... roleIds) {
+        members.put(guildId + ":" + userId, new Member(userId, name, List.of(roleIds)));
+    }
+
+    /**
+     * メンバー取得を指定したステータスで失敗させる（0で通常の応答に戻す）
+     */
+    void setMemberFetchStatus(int status) {
+        this.memberFetchStatus = status;
+    }
+
+    List<Request> getWebhookRequests() {
+        return new ArrayList<>(webhookRequests);
+    }
+
+    List<Request> getMessageRequests() {
+        return new ArrayList<>(messageRequests);
+    }
+
+    List<Request> getMemberRequests() {
+        return new ArrayList<>(memberRequests);
+    }
+
+    /**
+     * 429を返した回数（台本による429を含む）
+     */
+    long getRateLimitedResponses() {
+        return rateLimitedResponses.get();
+    }
+
+    /**
+     * Webhookの要求が指定件数に達するまで待つ
+     */
+    boolean awaitWebhookRequests(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (webhookRequests.size() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    boolean awaitMessageRequests(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (messageRequests.size() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod().toUpperCase(Locale.ROOT);
+            String path = exchange.getRequestURI().getPath();
+            String body = readBody(exchange.getRequestBody());
+            Request request = new Request(method, path, body, System.nanoTime());
+            delay();
+
+            Matcher webhook = WEBHOOK_PATH.matcher(path);
+            if (method.equals("POST") && webhook.matches()) {
+                webhookRequests.add(request);
+                executeWebhook(exchange, webhook.group(1));
+                return;
+            }
+            Matcher message = MESSAGE_PATH.matcher(path);
+            if (method.equals("POST") && message.matches()) {
+                messageRequests.add(request);
+                createMessage(exchange, message.group(1), body);
+                return;
+            }
+            Matcher member = MEMBER_PATH.matcher(path);
+            if (method.equals("GET") && member.matches()) {
+                memberRequests.add(request);
+                fetchMember(exchange, member.group(1), member.group(2));
+                return;
+            }
+            sendJson(exchange, 404, error(0, "404: Not Found"));
+        }
+    }
+
+    private void executeWebhook(HttpExchange exchange, String webhookId) throws IOException {
+        Deque<ScriptedResponse> script = scriptedResponses.get(webhookId);
+        ScriptedResponse scripted = script != null ? script.poll() : null;
+        if (scripted != null) {
+            if (scripted.status() == 429) {
+                sendRateLimited(exchange, scripted.retryAfterSeconds());
+            } else if (scripted.status() == 204) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                sendJson(exchange, scripted.status(), error(0, "scripted " + scripted.status()));
+            }
+            return;
+        }
+
+        RateBucket bucket = buckets.computeIfAbsent(webhookId, id -> new RateBucket());
+        long now = System.currentTimeMillis();
+        int remaining;
+        long resetAfterMillis;
+        synchronized (bucket) {
+            if (now >= bucket.windowStartMillis + rateWindowMillis) {
+                bucket.windowStartMillis = now;
+                bucket.used = 0;
+            }
+            resetAfterMillis = bucket.windowStartMillis + rateWindowMillis - now;
+            if (bucket.used >= rateLimit) {
+                sendRateLimited(exchange, resetAfterMillis / 1000.0);
+                return;
+            }
+            bucket.used++;
+            remaining = rateLimit - bucket.used;
+        }
+        exchange.getResponseHeaders().set("X-RateLimit-Limit", String.valueOf(rateLimit));
+        exchange.getResponseHeaders().set("X-RateLimit-Remaining", String.valueOf(remaining));
+        exchange.getResponseHeaders().set("X-RateLimit-Reset-After", String.format(Locale.ROOT, "%.3f", resetAfterMillis / 1000.0));
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    private void sendRateLimited(HttpExchange exchange, double retryAfterSeconds) throws IOException {
+        rateLimitedResponses.incrementAndGet();
+        JsonObject body = new JsonObject();
+        body.addProperty("message", "You are being rate limited.");
+        body.addProperty("retry_after", retryAfterSeconds);
+        body.addProperty("global", false);
+        // ヘッダーのRetry-Afterは整数の秒（切り上げ）、本文のretry_afterは小数の秒
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf((long) Math.ceil(retryAfterSeconds)));
+        exchange.getResponseHeaders().set("X-RateLimit-Remaining", "0");
+        exchange.getResponseHeaders().set("X-RateLimit-Reset-After", String.format(Locale.ROOT, "%.3f", retryAfterSeconds));
+        sendJson(exchange, 429, body);
+    }
+
+    private void createMessage(HttpExchange exchange, String channelId, String requestBody) throws IOException {
+        JsonObject message = new JsonObject();
+        message.addProperty("id", String.valueOf(nextSnowflake.incrementAndGet()));
+        message.addProperty("channel_id", channelId);
+        message.addProperty("content", requestBody);
+        sendJson(exchange, 200, message);
+    }
+
+    private void fetchMember(HttpExchange exchange, String guildId, String userId) throws IOException {
+        int status = memberFetchStatus;
+        if (status != 0) {
+            sendJson(exchange, status, error(0, "scripted " + status));
+            return;
+        }
+        Member member = members.get(guildId + ":" + userId);
+        if (member == null) {
+            sendJson(exchange, 404, error(10007, "Unknown Member"));
+            return;
+        }
+        JsonObject user = new JsonObject();
+        user.addProperty("id", member.userId());
+        user.addProperty("username", member.name());
+        JsonArray roles = new JsonArray();
+        member.roleIds().forEach(roles::add);
+        JsonObject json = new JsonObject();
+        json.add("user", user);
+        json.add("roles", roles);
+        sendJson(exchange, 200, json);
+    }
+
+    private void delay() {
+        long delay = responseDelayMillis;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static JsonObject error(int code, String message) {
+        JsonObject json = new JsonObject();
+        json.addProperty("code", code);
+        json.addProperty("message", message);
+        return json;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonObject json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static final class RateBucket {
+        private long windowStartMillis;
+        private int used;
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.velocitydiscord;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.entities.channel.ChannelType;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.entities.channel.unions.MessageChannelUnion;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+import net.dv8tion.jda.api.requests.Response;
+import net.dv8tion.jda.api.requests.restaction.MessageCreateAction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * テスト・負荷試験用のJDA（Gatewayにはログインしない）
+ * 本物のJDAはログイン時にGatewayへ接続するため、RESTの接続先だけを差し替えた本物は作れない
+ * 代わりにGuild1つとテキストチャンネル1つを持ち、REST呼び出しはJDAと同じ形でHTTP送信する
+ *
+ * - 接続先はDiscordManagerがRestConfigに設定するのと同じ discord.api_base_url から作ったURL
+ * - エラー応答は本文のエラーコードからErrorResponseExceptionを作って失敗させる（404はUNKNOWN_MEMBERなど）
+ * - 5xxはJDAのRequesterにならい、少しずつ間隔を空けて最大4回まで送る
+ *
+ * - Guild#retrieveMemberById: GET {base}/guilds/{id}/members/{userId}
+ * - TextChannel#sendMessage: POST {base}/channels/{id}/messages
+ */
+final class FakeJda {
+
+    private static final AtomicLong RESPONSE_NUMBER = new AtomicLong();
+    // 5xxのときに送る最大回数と、再送の間隔（回数×この時間）
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_BACKOFF_MILLIS = 50;
+
+    private final String restBaseUrl;
+    private final HttpClient httpClient;
+    private final String guildId;
+    private final String channelId;
+    private final Guild guild;
+    private final TextChannel channel;
+    private final JDA jda;
+
+    FakeJda(ConfigManager configManager, String guildId, String channelId) {
+        this.restBaseUrl = DiscordManager.getRestBaseUrl(configManager);
+        if (restBaseUrl == null) {
+            throw new IllegalArgumentException("discord.api_base_url にFakeDiscordServerのURLを設定してください");
+        }
+        this.guildId = guildId;
+        this.channelId = channelId;
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+        this.jda = Fakes.proxy(JDA.class, Map.of(
+            "getGuilds", args -> List.of(getGuild()),
+            "getGuildById", args -> guildId.equals(String.valueOf(args[0])) ? getGuild() : null,
+            "getTextChannelById", args -> channelId.equals(String.valueOf(args[0])) ? getChannel() : null,
+            "getStatus", args -> JDA.Status.CONNECTED,
+            "getSelfUser", args -> null));
+        this.guild = Fakes.proxy(Guild.class, Map.of(
+            "getId", args -> guildId,
+            "getIdLong", args -> Long.parseLong(guildId),
+            "getName", args -> "Fake Guild",
+            "getJDA", args -> jda,
+            "getTextChannels", args -> List.of(getChannel()),
+            "getTextChannelById", args -> channelId.equals(String.valueOf(args[0])) ? getChannel() : null,
+            "retrieveMemberById", args -> restAction(retrieveMemberType(), () -> fetchMember(String.valueOf(args[0])))));
+        this.channel = Fakes.proxy(TextChannel.class, Map.of(
+            "getId", args -> channelId,
+            "getIdLong", args -> Long.parseLong(channelId),
+            "getName", args -> "fake-channel",
+            "getType", args -> ChannelType.TEXT,
+            "getGuild", args -> getGuild(),
+            "getJDA", args -> jda,
+            "canTalk", args -> true,
+            "sendMessage", args -> restAction(MessageCreateAction.class, () -> sendMessage(String.valueOf(args[0])))),
+            MessageChannelUnion.class);
+    }
+
+    JDA getJda() {
+        return jda;
+    }
+
+    Guild getGuild() {
+        return guild;
+    }
+
+    TextChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * このGuildのチャンネルにユーザーが書き込んだときのイベント
+     */
+    MessageReceivedEvent messageReceived(String userId, String name, String content) {
+        User author = user(userId, name, false);
+        Member member = Fakes.proxy(Member.class, Map.of(
+            "getUser", args -> author,
+            "getEffectiveName", args -> name,
+            "getGuild", args -> guild,
+            "getRoles", args -> List.of()));
+        Message message = Fakes.proxy(Message.class, Map.of(
+            "getIdLong", args -> RESPONSE_NUMBER.get(),
+            "getAuthor", args -> author,
+            "getMember", args -> member,
+            "getChannel", args -> channel,
+            "getGuild", args -> guild,
+            "getContentDisplay", args -> content,
+            "getContentRaw", args -> content,
+            "isFromGuild", args -> true));
+        return new MessageReceivedEvent(jda, RESPONSE_NUMBER.incrementAndGet(), message);
+    }
+
+    private static Class<?> retrieveMemberType() {
+        try {
+            // JDAのバージョンによってRestActionのサブインターフェース（CacheRestAction）を返す
+            return Guild.class.getMethod("retrieveMemberById", String.class).getReturnType();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private CompletableFuture<Member> fetchMember(String userId) {
+        HttpRequest request = HttpRequest.newBuilder()
+            .uri(URI.create(restBaseUrl + "guilds/" + guildId + "/members/" + userId))
+            .header("Authorization", "Bot fake-token")
+            .timeout(Duration.ofSeconds(5))
+            .GET()
+            .build();
+        return execute(request, 1).thenApply(response -> {
+            JsonObject json = JsonParser.parseString(response.body()).getAsJsonObject();
+            JsonObject userJson = json.getAsJsonObject("user");
+            String name = userJson.get("username").getAsString();
+            User user = user(userJson.get("id").getAsString(), name, false);
+            List<Role> roles = new ArrayList<>();
+            for (JsonElement roleId : json.getAsJsonArray("roles")) {
+                roles.add(role(roleId.getAsString()));
+            }
+            return Fakes.proxy(Member.class, Map.of(
+                "getId", args -> user.getId(),
+                "getUser", args -> user,
+                "getEffectiveName", args -> name,
+                "getGuild", args -> guild,
+                "getRoles", args -> roles));
+        });
+    }
+
+    private CompletableFuture<Message> sendMessage(String content) {
+        JsonObject body = new JsonObject();
+        body.addProperty("content", content);
+        HttpRequest request = HttpRequest.newBuilder()
+            .uri(URI.create(restBaseUrl + "channels/" + channelId + "/messages"))
+            .header("Authorization", "Bot fake-token")
+            .header("Content-Type", "application/json")
+            .timeout(Duration.ofSeconds(5))
+            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+            .build();
+        return execute(request, 1).thenApply(response -> {
+            String id = JsonParser.parseString(response.body()).getAsJsonObject().get("id").getAsString();
+            return Fakes.proxy(Message.class, Map.of(
+                "getId", args -> id,
+                "getIdLong", args -> Long.parseLong(id),
+                "getChannel", args -> channel,
+                "getContentRaw", args -> content,
+                "getContentDisplay", args -> content));
+        });
+    }
+
+    /**
+     * 要求を送り、2xxの応答で完了する
+     * 5xxはMAX_ATTEMPTS回まで送り直し、それ以外のエラー応答や送り直しても5xxの場合はErrorResponseExceptionで失敗する
+     */
+    private CompletableFuture<HttpResponse<String>> execute(HttpRequest request, int attempt) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenCompose(response -> {
+            int status = response.statusCode();
+            if (status >= 200 && status < 300) {
+                return CompletableFuture.completedFuture(response);
+            }
+            if (status >= 500 && attempt < MAX_ATTEMPTS) {
+                Executor delayed = CompletableFuture.delayedExecutor(RETRY_BACKOFF_MILLIS * attempt, TimeUnit.MILLISECONDS);
+                return CompletableFuture.supplyAsync(() -> request, delayed).thenCompose(retry -> execute(retry, attempt + 1));
+            }
+            return CompletableFuture.failedFuture(errorResponse(response));
+        });
+    }
+
+    /**
+     * エラー応答をJDAと同じErrorResponseExceptionにする（本文のcodeがなければSERVER_ERROR）
+     */
+    private static ErrorResponseException errorResponse(HttpResponse<String> response) {
+        int code = 0;
+        try {
+            JsonElement json = JsonParser.parseString(response.body());
+            if (json.isJsonObject() && json.getAsJsonObject().has("code")) {
+                code = json.getAsJsonObject().get("code").getAsInt();
+            }
+        } catch (RuntimeException e) {
+            // 本文がJSONでなければコードなしとして扱う
+        }
+        Response jdaResponse = new Response(null, response.statusCode(), response.body(), -1, Set.of());
+        return ErrorResponseException.create(ErrorResponse.fromCode(code), jdaResponse);
+    }
+
+    private static User user(String id, String name, boolean bot) {
+        return Fakes.proxy(User.class, Map.of(
+            "getId", args -> id,
+            "getIdLong", args -> Long.parseLong(id),
+            "getName", args -> name,
+            "getEffectiveName", args -> name,
+            "isBot", args -> bot));
+    }
+
+    private static Role role(String id) {
+        return Fakes.proxy(Role.class, Map.of(
+            "getId", args -> id,
+            "getIdLong", args -> Long.parseLong(id),
+            "getName", args -> "role-" + id));
+    }
+
+    /**
+     * 呼び出すたびにactionを実行するRestAction（queue・submit・completeに対応）
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Object restAction(Class<?> type, Supplier<CompletableFuture<T>> action) {
+        InvocationHandler handler = (self, method, args) -> {
+            switch (method.getName()) {
+                case "submit":
+                    return action.get();
+                case "complete":
+                    try {
+                        return action.get().join();
+                    } catch (CompletionException e) {
+                        // JDAのcompleteと同じく、ErrorResponseExceptionなどをそのまま投げる
+                        throw e.getCause();
+                    }
+                case "queue": {
+                    Consumer<Object> success = args != null && args.length > 0 && args[0] != null
+                        ? (Consumer<Object>) args[0] : value -> { };
+                    Consumer<Throwable> failure = args != null && args.length > 1 && args[1] != null
+                        ? (Consumer<Throwable>) args[1] : error -> { };
+                    action.get().whenComplete((value, error) -> {
+                        if (error != null) {
+                            failure.accept(error);
+                        } else {
+                            success.accept(value);
+                        }
+                    });
+                    return null;
+                }
+                case "equals":
+                    return self == args[0];
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "toString":
+                    return "FakeRestAction";
+                default:
+                    // timeout・deadline・useCacheなどの設定は無視して自身を返す
+                    return method.getReturnType().isInstance(self) ? self : Fakes.defaultValue(method.getReturnType());
+            }
+        };
+        return Proxy.newProxyInstance(FakeJda.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.velocitydiscord;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.ServerConnection;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.proxy.server.ServerInfo;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * テスト・負荷試験用のVelocityプロキシ
+ * バックエンドサーバーとプレイヤーはメモリ上にだけ存在し、プレイヤーへのメッセージと切断は件数を数えるだけにする
+ * コマンド・イベントの登録やスケジューラーは何もしない
+ */
+final class FakeProxy {
+
+    private final Map<String, RegisteredServer> servers = new LinkedHashMap<>();
+    private final Map<UUID, FakePlayer> onlinePlayers = new ConcurrentHashMap<>();
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final ProxyServer proxyServer;
+
+    FakeProxy(List<String> serverNames) {
+        int port = 25566;
+        for (String name : serverNames) {
+            ServerInfo info = new ServerInfo(name, InetSocketAddress.createUnresolved("127.0.0.1", port++));
+            servers.put(name, Fakes.proxy(RegisteredServer.class, Map.of(
+                "getServerInfo", args -> info,
+                "getPlayersConnected", args -> playersOn(name))));
+        }
+        this.proxyServer = Fakes.proxy(ProxyServer.class, Map.of(
+            "getAllPlayers", args -> allPlayers(),
+            "getPlayerCount", args -> onlinePlayers.size(),
+            "getAllServers", args -> List.copyOf(servers.values()),
+            "getServer", args -> Optional.ofNullable(servers.get((String) args[0])),
+            "getPlayer", args -> findPlayer(args[0])));
+    }
+
+    ProxyServer getProxyServer() {
+        return proxyServer;
+    }
+
+    RegisteredServer getServer(String name) {
+        return servers.get(name);
+    }
+
+    List<RegisteredServer> getServers() {
+        return List.copyOf(servers.values());
+    }
+
+    /**
+     * プロキシに接続したがまだどのサーバーにも入っていないプレイヤーを作る
+     */
+    FakePlayer createPlayer(UUID uuid, String name) {
+        return new FakePlayer(uuid, name);
+    }
+
+    /**
+     * プレイヤーに送ったメッセージの件数
+     */
+    long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    /**
+     * disconnectで切断したプレイヤーの件数
+     */
+    long getDisconnects() {
+        return disconnects.get();
+    }
+
+    int getOnlineCount() {
+        return onlinePlayers.size();
+    }
+
+    private Collection<Player> allPlayers() {
+        List<Player> players = new ArrayList<>(onlinePlayers.size());
+        for (FakePlayer player : onlinePlayers.values()) {
+            players.add(player.getPlayer());
+        }
+        return players;
+    }
+
+    private Collection<Player> playersOn(String serverName) {
+        List<Player> players = new ArrayList<>();
+        for (FakePlayer player : onlinePlayers.values()) {
+            RegisteredServer current = player.currentServer;
+            if (current != null && current.getServerInfo().getName().equals(serverName)) {
+                players.add(player.getPlayer());
+            }
+        }
+        return players;
+    }
+
+    private Optional<Player> findPlayer(Object key) {
+        if (key instanceof UUID uuid) {
+            FakePlayer player = onlinePlayers.get(uuid);
+            return player != null ? Optional.of(player.getPlayer()) : Optional.empty();
+        }
+        for (FakePlayer player : onlinePlayers.values()) {
+            if (player.name.equalsIgnoreCase(String.valueOf(key))) {
+                return Optional.of(player.getPlayer());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 合成プレイヤー1人分（接続中のサーバーを差し替えられる）
+     */
+    final class FakePlayer {
+        private final UUID uuid;
+        private final String name;
+        private final Player player;
+        private volatile RegisteredServer currentServer;
+        private volatile Optional<ServerConnection> connection = Optional.empty();
+
+        private FakePlayer(UUID uuid, String name) {
+            this.uuid = uuid;
+            this.name = name;
+            this.player = Fakes.proxy(Player.class, Map.of(
+                "getUniqueId", args -> uuid,
+                "getUsername", args -> name,
+                "getCurrentServer", args -> connection,
+                "sendMessage", args -> {
+                    messagesSent.incrementAndGet();
+                    return null;
+                },
+                "disconnect", args -> {
+                    disconnects.incrementAndGet();
+                    leave();
+                    return null;
+                }));
+        }
+
+        Player getPlayer() {
+            return player;
+        }
+
+        UUID getUniqueId() {
+            return uuid;
+        }
+
+        RegisteredServer getCurrentServer() {
+            return currentServer;
+        }
+
+        /**
+         * 接続先のサーバーを切り替える（初回はプロキシへの参加も兼ねる）
+         */
+        void connect(RegisteredServer server) {
+            currentServer = server;
+            connection = Optional.of(Fakes.proxy(ServerConnection.class, Map.of(
+                "getServer", args -> server,
+                "getServerInfo", args -> server.getServerInfo(),
+                "getPlayer", args -> player)));
+            onlinePlayers.put(uuid, this);
+        }
+
+        void leave() {
+            onlinePlayers.remove(uuid);
+            currentServer = null;
+            connection = Optional.empty();
+        }
+    }
+}
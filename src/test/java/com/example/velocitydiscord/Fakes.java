@@ -0,0 +1,114 @@
+package com.example.velocitydiscord;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * VelocityやJDAのインターフェースを動的プロキシで実装するテスト用の部品
+ * 指定したメソッド名だけ応答し、それ以外は既定値（false・0・空のコレクション・null）を返す
+ * 戻り値がインターフェースのメソッドは同じく既定値を返すプロキシを返すため、ビルダーの連鎖呼び出しもそのまま通る
+ */
+final class Fakes {
+
+    /**
+     * メソッド呼び出し1回分の応答
+     */
+    @FunctionalInterface
+    interface Answer {
+        Object answer(Object[] args) throws Exception;
+    }
+
+    private Fakes() {
+    }
+
+    static <T> T proxy(Class<T> type, Map<String, Answer> answers) {
+        return proxy(type, answers, new Class<?>[0]);
+    }
+
+    /**
+     * typeと追加のインターフェースをまとめて実装するプロキシを作る（JDAのチャンネルのように複数の型へキャストされるもの）
+     */
+    static <T> T proxy(Class<T> type, Map<String, Answer> answers, Class<?>... extraTypes) {
+        Class<?>[] types = new Class<?>[extraTypes.length + 1];
+        types[0] = type;
+        System.arraycopy(extraTypes, 0, types, 1, extraTypes.length);
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+                Object[] arguments = args != null ? args : new Object[0];
+                Answer answer = answers.get(method.getName());
+                if (answer != null) {
+                    return answer.answer(arguments);
+                }
+                switch (method.getName()) {
+                    case "equals":
+                        return arguments.length == 1 && self == arguments[0];
+                    case "hashCode":
+                        return System.identityHashCode(self);
+                    case "toString":
+                        return "Fake" + type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(self));
+                    default:
+                        return defaultValue(method.getReturnType());
+                }
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(Fakes.class.getClassLoader(), types, handler));
+    }
+
+    static Object defaultValue(Class<?> returnType) {
+        if (returnType == void.class) {
+            return null;
+        }
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        if (returnType == double.class) {
+            return 0.0;
+        }
+        if (returnType == float.class) {
+            return 0.0f;
+        }
+        if (returnType == short.class) {
+            return (short) 0;
+        }
+        if (returnType == byte.class) {
+            return (byte) 0;
+        }
+        if (returnType == char.class) {
+            return '\0';
+        }
+        if (returnType == Optional.class) {
+            return Optional.empty();
+        }
+        if (returnType == List.class || returnType == Collection.class) {
+            return Collections.emptyList();
+        }
+        if (returnType == Set.class) {
+            return Collections.emptySet();
+        }
+        if (returnType == Map.class) {
+            return Collections.emptyMap();
+        }
+        if (returnType == CompletableFuture.class) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (returnType.isInterface()) {
+            return proxy(returnType, Map.of());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.velocitydiscord;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * LinkWriteBehindQueueのフラッシュが、別のプレイヤーに連携済みのDiscord IDを書き込まずに取り除くことを確かめる
+ */
+class LinkWriteBehindQueueTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LinkWriteBehindQueueTest.class);
+
+    private static final String SQLITE_UPSERT = "INSERT INTO linked_accounts (minecraft_uuid, discord_id) VALUES (?, ?) "
+            + "ON CONFLICT(minecraft_uuid) DO UPDATE SET discord_id=excluded.discord_id;";
+    // MySQLのON DUPLICATE KEY UPDATEと同じく、discord_idのUNIQUEキーとぶつかっても制約違反にせず何もしない
+    private static final String SILENT_UPSERT = "INSERT INTO linked_accounts (minecraft_uuid, discord_id) VALUES (?, ?) "
+            + "ON CONFLICT DO NOTHING;";
+
+    @TempDir
+    Path dataDirectory;
+
+    private Connection conn;
+    private LinkWriteBehindQueue queue;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:sqlite:" + dataDirectory.resolve("accounts.db"));
+        try (Statement statement = conn.createStatement()) {
+            statement.executeUpdate("CREATE TABLE linked_accounts ("
+                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "minecraft_uuid TEXT NOT NULL UNIQUE,"
+                    + "discord_id TEXT NOT NULL UNIQUE)");
+        }
+        queue = new LinkWriteBehindQueue(dataDirectory.resolve("link-journal.log"), LOGGER);
+        queue.open();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        queue.close();
+        conn.close();
+    }
+
+    @Test
+    void discordIdLinkedToOtherPlayerIsRejectedWhenUpsertIgnoresIt() throws Exception {
+        assertConflictingLinkIsRejected(SILENT_UPSERT);
+    }
+
+    @Test
+    void discordIdLinkedToOtherPlayerIsRejectedWhenUpsertFails() throws Exception {
+        assertConflictingLinkIsRejected(SQLITE_UPSERT);
+    }
+
+    @Test
+    void relinkingSameDiscordIdIsWritten() throws Exception {
+        UUID owner = UUID.randomUUID();
+        insert(owner, "100");
+        queue.enqueue(owner, "100");
+
+        LinkWriteBehindQueue.FlushResult result = queue.flush(conn, SILENT_UPSERT);
+
+        assertEquals(Map.of(owner, "100"), result.written());
+        assertTrue(result.rejected().isEmpty());
+        assertEquals(owner.toString(), ownerOf("100"));
+    }
+
+    private void assertConflictingLinkIsRejected(String upsertSql) throws Exception {
+        UUID owner = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        UUID newcomer = UUID.randomUUID();
+        insert(owner, "100");
+        queue.enqueue(other, "100");
+        queue.enqueue(newcomer, "200");
+
+        LinkWriteBehindQueue.FlushResult result = queue.flush(conn, upsertSql);
+
+        assertEquals(Map.of(newcomer, "200"), result.written());
+        assertEquals(Map.of(other, "100"), result.rejected());
+        assertEquals(owner.toString(), ownerOf("100"));
+        assertEquals(newcomer.toString(), ownerOf("200"));
+        assertEquals(0, queue.getPendingCount());
+        assertNull(queue.getPendingDiscordId(other));
+        assertEquals(0, Files.size(dataDirectory.resolve("link-journal.log")));
+    }
+
+    private void insert(UUID minecraftUuid, String discordId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(SQLITE_UPSERT)) {
+            pstmt.setString(1, minecraftUuid.toString());
+            pstmt.setString(2, discordId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private String ownerOf(String discordId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT minecraft_uuid FROM linked_accounts WHERE discord_id = ?")) {
+            pstmt.setString(1, discordId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+}
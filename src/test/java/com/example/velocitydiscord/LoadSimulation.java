@@ -0,0 +1,230 @@
+package com.example.velocitydiscord;
+
+import com.velocitypowered.api.event.player.PlayerChatEvent;
+import com.velocitypowered.api.event.player.ServerConnectedEvent;
+import com.velocitypowered.api.event.player.ServerPreConnectEvent;
+import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 合成プレイヤーによる負荷試験（./gradlew loadTest で実行し、通常の test では実行しない）
+ *
+ * FakeProxy・FakeJda・FakeDiscordServerとSQLiteでプラグインを起動し、連携済みのN人を参加させてから、
+ * 指定した頻度でチャット（onPlayerChat）とサーバー移動（onServerPreConnect → onServerConnected）を続ける
+ * 参加時と定常時のそれぞれで、段階ごとの件数・スループット・p50/p99/p999・1件あたりのメモリ確保量を出力する
+ *
+ * 規模はシステムプロパティで変える（例: ./gradlew loadTest -Dvelocord.load.players=1000）
+ * - velocord.load.players: プレイヤー数（既定 200）
+ * - velocord.load.seconds: 定常時の計測時間（既定 30）
+ * - velocord.load.chats_per_second: 全体のチャット頻度（既定 50）
+ * - velocord.load.hops_per_second: 全体のサーバー移動頻度（既定 10）
+ * - velocord.load.threads: イベントを処理するスレッド数（既定 4）
+ * - velocord.load.discord_latency_ms: Discord APIの応答時間（既定 50）
+ */
+@Tag("load")
+class LoadSimulation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadSimulation.class);
+
+    private static final int PLAYERS = Integer.getInteger("velocord.load.players", 200);
+    private static final int SECONDS = Integer.getInteger("velocord.load.seconds", 30);
+    private static final int CHATS_PER_SECOND = Integer.getInteger("velocord.load.chats_per_second", 50);
+    private static final int HOPS_PER_SECOND = Integer.getInteger("velocord.load.hops_per_second", 10);
+    private static final int THREADS = Integer.getInteger("velocord.load.threads", 4);
+    private static final long DISCORD_LATENCY_MILLIS = Long.getLong("velocord.load.discord_latency_ms", 50);
+
+    private static final List<String> SERVERS = List.of("lobby", "survival", "creative");
+    private static final String GUILD_ID = "1000";
+    private static final String CHANNEL_ID = "2000";
+    private static final String ROLE_ID = "3000";
+    private static final long FIRST_DISCORD_ID = 500_000_000_000_000_000L;
+
+    @TempDir
+    Path dataDirectory;
+
+    private final AtomicLong deniedConnections = new AtomicLong();
+    private final AtomicLong eventErrors = new AtomicLong();
+
+    @Test
+    void syntheticPlayers() throws Exception {
+        try (FakeDiscordServer discord = FakeDiscordServer.start()) {
+            discord.setResponseDelayMillis(DISCORD_LATENCY_MILLIS);
+            ConfigManager configManager = TestConfig.load(dataDirectory, Map.of(
+                "discord.api_base_url", discord.getBaseUrl(),
+                "discord.guilds", Map.of(GUILD_ID, TestConfig.guild(CHANNEL_ID, FakeDiscordServer.webhookUrl("load"))),
+                "permissions.discordRoleMapping", Map.of(GUILD_ID, TestConfig.roleMapping(ROLE_ID, SERVERS.toArray(new String[0])))));
+
+            FakeProxy proxy = new FakeProxy(SERVERS);
+            VelocityDiscordPlugin plugin = new VelocityDiscordPlugin(proxy.getProxyServer(), LOGGER, dataDirectory);
+            plugin.onProxyInitialization(new ProxyInitializeEvent());
+            ExecutorService events = Executors.newFixedThreadPool(THREADS);
+            ScheduledExecutorService driver = Executors.newSingleThreadScheduledExecutor();
+            try {
+                awaitStartup(plugin);
+                plugin.getDiscordManager().attachJda(new FakeJda(configManager, GUILD_ID, CHANNEL_ID).getJda());
+                List<FakeProxy.FakePlayer> players = linkPlayers(plugin, proxy, discord);
+                StageTimings timings = plugin.getStageTimings();
+
+                // 参加: 全員がlobbyへ接続する（権限はまだキャッシュされていない）
+                long joinStarted = System.nanoTime();
+                List<Future<?>> joins = new ArrayList<>(players.size());
+                for (FakeProxy.FakePlayer player : players) {
+                    joins.add(events.submit(() -> connect(plugin, player, proxy.getServer("lobby"))));
+                }
+                for (Future<?> join : joins) {
+                    join.get(5, TimeUnit.MINUTES);
+                }
+                report("参加", timings, System.nanoTime() - joinStarted);
+                timings.reset();
+
+                // 定常: チャットとサーバー移動を一定の頻度で発生させる
+                long steadyStarted = System.nanoTime();
+                schedule(driver, CHATS_PER_SECOND, () -> events.execute(() -> chat(plugin, players)));
+                schedule(driver, HOPS_PER_SECOND, () -> events.execute(() -> hop(plugin, proxy, players)));
+                Thread.sleep(TimeUnit.SECONDS.toMillis(SECONDS));
+                driver.shutdownNow();
+                events.shutdown();
+                assertTrue(events.awaitTermination(1, TimeUnit.MINUTES), "イベント処理が終わりません");
+                report("定常", timings, System.nanoTime() - steadyStarted);
+
+                System.out.printf(Locale.ROOT, "Discord: Webhook %d件（429: %d件）/ メンバー取得 %d件 / メッセージ送信 %d件%n",
+                    discord.getWebhookRequests().size(), discord.getRateLimitedResponses(),
+                    discord.getMemberRequests().size(), discord.getMessageRequests().size());
+                System.out.printf(Locale.ROOT, "プロキシ: 接続中 %d人 / プレイヤーへのメッセージ %d件 / 拒否 %d件 / 切断 %d件%n",
+                    proxy.getOnlineCount(), proxy.getMessagesSent(), deniedConnections.get(), proxy.getDisconnects());
+
+                // 全員が連携済みでロールを持つため、拒否やイベント処理の例外は不具合
+                assertEquals(0, eventErrors.get(), "イベント処理で例外が発生しました");
+                assertEquals(0, deniedConnections.get(), "連携済みのプレイヤーが拒否されました");
+                assertEquals(PLAYERS, proxy.getOnlineCount());
+            } finally {
+                driver.shutdownNow();
+                events.shutdownNow();
+                plugin.onProxyShutdown(new ProxyShutdownEvent());
+            }
+        }
+    }
+
+    private static void awaitStartup(VelocityDiscordPlugin plugin) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!plugin.isStartupComplete()) {
+            assertTrue(System.currentTimeMillis() < deadline, "プラグインの起動が完了しません");
+            Thread.sleep(20);
+        }
+        assertTrue(plugin.getDatabaseManager().isReady(), "データベースを初期化できませんでした");
+    }
+
+    /**
+     * 合成プレイヤーを作り、DBで連携させてDiscord側のメンバーにロールを付ける
+     */
+    private static List<FakeProxy.FakePlayer> linkPlayers(VelocityDiscordPlugin plugin, FakeProxy proxy, FakeDiscordServer discord) {
+        List<FakeProxy.FakePlayer> players = new ArrayList<>(PLAYERS);
+        for (int i = 0; i < PLAYERS; i++) {
+            String name = "Player" + i;
+            String discordId = String.valueOf(FIRST_DISCORD_ID + i);
+            FakeProxy.FakePlayer player = proxy.createPlayer(UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)), name);
+            assertTrue(plugin.getDatabaseManager().linkAccount(player.getUniqueId(), discordId).join());
+            discord.addMember(GUILD_ID, discordId, name, ROLE_ID);
+            players.add(player);
+        }
+        return players;
+    }
+
+    private static void schedule(ScheduledExecutorService driver, int perSecond, Runnable action) {
+        if (perSecond > 0) {
+            driver.scheduleAtFixedRate(action, 0, TimeUnit.SECONDS.toNanos(1) / perSecond, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Velocityと同じ順に、接続前チェックを通ったら接続先を切り替えて接続済みイベントを送る
+     */
+    private void connect(VelocityDiscordPlugin plugin, FakeProxy.FakePlayer player, RegisteredServer target) {
+        try {
+            ServerPreConnectEvent preConnect = new ServerPreConnectEvent(player.getPlayer(), target);
+            plugin.onServerPreConnect(preConnect);
+            if (!preConnect.getResult().isAllowed()) {
+                deniedConnections.incrementAndGet();
+                return;
+            }
+            RegisteredServer previous = player.getCurrentServer();
+            player.connect(target);
+            plugin.getChatManager().onServerConnected(new ServerConnectedEvent(player.getPlayer(), target, previous));
+        } catch (RuntimeException e) {
+            eventErrors.incrementAndGet();
+            LOGGER.error("接続の処理中に例外が発生しました", e);
+        }
+    }
+
+    private void chat(VelocityDiscordPlugin plugin, List<FakeProxy.FakePlayer> players) {
+        FakeProxy.FakePlayer player = players.get(ThreadLocalRandom.current().nextInt(players.size()));
+        if (player.getCurrentServer() == null) {
+            return;
+        }
+        try {
+            plugin.getChatManager().onPlayerChat(new PlayerChatEvent(player.getPlayer(), "こんにちは " + System.nanoTime()));
+        } catch (RuntimeException e) {
+            eventErrors.incrementAndGet();
+            LOGGER.error("チャットの処理中に例外が発生しました", e);
+        }
+    }
+
+    private void hop(VelocityDiscordPlugin plugin, FakeProxy proxy, List<FakeProxy.FakePlayer> players) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        FakeProxy.FakePlayer player = players.get(random.nextInt(players.size()));
+        RegisteredServer current = player.getCurrentServer();
+        List<RegisteredServer> servers = proxy.getServers();
+        RegisteredServer target = servers.get(random.nextInt(servers.size()));
+        if (current == null || target == current) {
+            return;
+        }
+        connect(plugin, player, target);
+    }
+
+    private static void report(String phase, StageTimings timings, long elapsedNanos) {
+        System.out.printf(Locale.ROOT, "=== %s: %d人・%.1f秒（チャット %d件/秒・移動 %d件/秒・%dスレッド・Discord応答 %dms） ===%n",
+            phase, PLAYERS, elapsedNanos / 1_000_000_000.0, CHATS_PER_SECOND, HOPS_PER_SECOND, THREADS, DISCORD_LATENCY_MILLIS);
+        System.out.printf(Locale.ROOT, "%-14s %8s %9s %10s %10s %10s %10s %10s%n",
+            "段階", "件数", "件/秒", "p50", "p99", "p999", "最大", "B/件");
+        for (StageTimings.Stage stage : StageTimings.Stage.values()) {
+            StageTimings.Summary summary = timings.summarize(stage);
+            if (summary.count() == 0) {
+                continue;
+            }
+            System.out.printf(Locale.ROOT, "%-14s %8d %9.1f %10s %10s %10s %10s %10d%n",
+                stage.getLabel(), summary.count(), summary.throughputPerSecond(), formatNanos(summary.p50()),
+                formatNanos(summary.p99()), formatNanos(summary.p999()), formatNanos(summary.max()), summary.bytesPerOperation());
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos >= 1_000_000) {
+            return String.format(Locale.ROOT, "%.1fms", nanos / 1_000_000.0);
+        }
+        return String.format(Locale.ROOT, "%.1fµs", nanos / 1_000.0);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.velocitydiscord;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * OnlinePlayerIndexが、通知より後に終わった古い連携情報の取得結果で索引を上書きしないことを確かめる
+ */
+class OnlinePlayerIndexTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OnlinePlayerIndexTest.class);
+
+    @TempDir
+    Path dataDirectory;
+
+    private SlowDatabaseManager databaseManager;
+    private OnlinePlayerIndex index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        databaseManager = new SlowDatabaseManager(TestConfig.load(dataDirectory, Map.of()));
+        index = new OnlinePlayerIndex(LOGGER);
+        index.setDatabaseManager(databaseManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        databaseManager.shutdown();
+    }
+
+    @Test
+    void staleLookupDoesNotOverwriteNewerLink() {
+        UUID uuid = UUID.randomUUID();
+        index.put(uuid, "Steve", "lobby");
+
+        // 接続時の取得が終わる前に連携の通知が届く
+        index.onCacheInvalidation(new CacheInvalidation(CacheInvalidation.Kind.LINK, uuid, "100"));
+        databaseManager.lookup.complete(null);
+
+        assertEquals("100", index.get(uuid).discordId());
+        assertEquals(uuid, index.findByDiscordId("100").uuid());
+    }
+
+    @Test
+    void staleLookupDoesNotRestoreUnlinkedLink() {
+        UUID uuid = UUID.randomUUID();
+        index.put(uuid, "Steve", "lobby");
+
+        index.onCacheInvalidation(new CacheInvalidation(CacheInvalidation.Kind.UNLINK, uuid, null));
+        databaseManager.lookup.complete("100");
+
+        assertNull(index.get(uuid).discordId());
+        assertNull(index.findByDiscordId("100"));
+    }
+
+    @Test
+    void latestLookupIsApplied() {
+        UUID uuid = UUID.randomUUID();
+        index.put(uuid, "Steve", "lobby");
+
+        databaseManager.lookup.complete("100");
+
+        assertEquals("100", index.get(uuid).discordId());
+    }
+
+    /**
+     * 連携情報の取得をテストから完了させるDatabaseManager
+     */
+    private static final class SlowDatabaseManager extends DatabaseManager {
+        private final CompletableFuture<String> lookup = new CompletableFuture<>();
+
+        private SlowDatabaseManager(ConfigManager configManager) {
+            super(configManager, LOGGER);
+        }
+
+        @Override
+        public CompletableFuture<String> getDiscordUserId(UUID minecraftUuid) {
+            return lookup;
+        }
+    }
+}
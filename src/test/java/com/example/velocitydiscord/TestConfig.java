@@ -0,0 +1,97 @@
+package com.example.velocitydiscord;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * テスト用のconfig.ymlを作って読み込む
+ * ConfigManagerが作る既定の設定に、ドット区切りのキーで上書きした値を反映する
+ * チャットログ・設定の監視・サーバー監視は既定で無効にし、SQLiteのファイルはdataDirectoryの中に置く
+ */
+final class TestConfig {
+
+    private TestConfig() {
+    }
+
+    static ConfigManager load(Path dataDirectory, Map<String, Object> overrides) throws IOException {
+        Path configFile = dataDirectory.resolve("config.yml");
+        Files.deleteIfExists(configFile);
+        new ConfigManager(dataDirectory).loadConfig();
+
+        Map<String, Object> config;
+        try (Reader reader = Files.newBufferedReader(configFile, StandardCharsets.UTF_8)) {
+            config = new Yaml().load(reader);
+        }
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("chat.log.enabled", false);
+        values.put("config_watch.enabled", false);
+        values.put("server-status.enabled", false);
+        values.put("account_linking.write_behind.enabled", false);
+        values.put("database.type", "sqlite");
+        values.put("database.sqlite.file", dataDirectory.resolve("accounts.db").toString());
+        values.putAll(overrides);
+        values.forEach((path, value) -> put(config, path, value));
+
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        try (Writer writer = Files.newBufferedWriter(configFile, StandardCharsets.UTF_8)) {
+            new Yaml(options).dump(config, writer);
+        }
+
+        ConfigManager configManager = new ConfigManager(dataDirectory);
+        configManager.loadConfig();
+        return configManager;
+    }
+
+    /**
+     * Webhook URLと通知チャンネルを持つGuild1件分の設定
+     */
+    static Map<String, Object> guild(String channelId, String webhookUrl) {
+        Map<String, Object> guild = new LinkedHashMap<>();
+        guild.put("channel_id", channelId);
+        guild.put("webhookUrl", webhookUrl);
+        guild.put("enabled", true);
+        return guild;
+    }
+
+    /**
+     * ロールにサーバーへの接続を許可する permissions.discordRoleMapping の1件分
+     */
+    static Map<String, Object> roleMapping(String roleId, String... serverNames) {
+        Map<String, Object> serverAccess = new LinkedHashMap<>();
+        for (String serverName : serverNames) {
+            serverAccess.put(serverName, true);
+        }
+        Map<String, Object> role = new LinkedHashMap<>();
+        role.put("name", "role-" + roleId);
+        role.put("serverAccess", serverAccess);
+        Map<String, Object> roles = new LinkedHashMap<>();
+        roles.put(roleId, role);
+        return new LinkedHashMap<>(Map.of("roles", roles));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> config, String path, Object value) {
+        String[] parts = path.split("\\.");
+        Map<String, Object> current = config;
+        for (int i = 0; i < parts.length - 1; i++) {
+            Object node = current.get(parts[i]);
+            if (!(node instanceof Map)) {
+                node = new LinkedHashMap<String, Object>();
+                current.put(parts[i], node);
+            }
+            current = (Map<String, Object>) node;
+        }
+        current.put(parts[parts.length - 1], value);
+    }
+}
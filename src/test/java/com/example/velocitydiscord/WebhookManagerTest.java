@@ -0,0 +1,184 @@
+package com.example.velocitydiscord;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * WebhookManagerをFakeDiscordServerに向けて、204・429（Retry-After）・4xx・5xxへの対応と、同時送信でのバケットの共有を確かめる
+ */
+class WebhookManagerTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebhookManagerTest.class);
+
+    @TempDir
+    Path dataDirectory;
+
+    private FakeDiscordServer discord;
+    private ConfigManager configManager;
+
+    @BeforeEach
+    void startDiscord() throws Exception {
+        discord = FakeDiscordServer.start();
+    }
+
+    @AfterEach
+    void stopDiscord() {
+        discord.close();
+    }
+
+    @Test
+    void acceptedMessageIsSentOnce() throws Exception {
+        WebhookManager webhookManager = webhookManager(Map.of("100", "w100"));
+
+        assertTrue(webhookManager.sendMessage("hello").get(5, TimeUnit.SECONDS));
+
+        List<FakeDiscordServer.Request> requests = discord.getWebhookRequests();
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0).body().contains("hello"));
+    }
+
+    @Test
+    void rateLimitedMessageIsResentAfterRetryAfter() throws Exception {
+        WebhookManager webhookManager = webhookManager(Map.of("100", "w100"));
+        discord.enqueueRateLimit("w100", 1.0);
+
+        assertTrue(webhookManager.sendMessage("hello").get(10, TimeUnit.SECONDS));
+
+        List<FakeDiscordServer.Request> requests = discord.getWebhookRequests();
+        assertEquals(2, requests.size());
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(requests.get(1).receivedAtNanos() - requests.get(0).receivedAtNanos());
+        assertTrue(waitedMillis >= 900, "Retry-Afterを待たずに再送しました: " + waitedMillis + "ms");
+    }
+
+    @Test
+    void rateLimitedMessageFailsAfterMaxRetries() throws Exception {
+        WebhookManager webhookManager = webhookManager(Map.of("100", "w100"));
+        for (int i = 0; i < 3; i++) {
+            discord.enqueueRateLimit("w100", 0.1);
+        }
+
+        assertFalse(webhookManager.sendMessage("hello").get(10, TimeUnit.SECONDS));
+        assertEquals(3, discord.getWebhookRequests().size());
+    }
+
+    @Test
+    void exhaustedBucketWaitsInsteadOfHittingRateLimit() throws Exception {
+        WebhookManager webhookManager = webhookManager(Map.of("100", "w100"));
+        discord.setRateLimit(2, 1000);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(webhookManager.sendMessage("message " + i).get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(4, discord.getWebhookRequests().size());
+        assertEquals(0, discord.getRateLimitedResponses());
+    }
+
+    @Test
+    void concurrentMessagesShareBucketWithoutHittingRateLimit() throws Exception {
+        WebhookManager webhookManager = webhookManager(Map.of("100", "w100"));
+        discord.setRateLimit(3, 500);
+
+        List<CompletableFuture<Boolean>> sends = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sends.add(webhookManager.sendMessage("message " + i));
+        }
+        for (CompletableFuture<Boolean> send : sends) {
+            assertTrue(send.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(8, discord.getWebhookRequests().size());
+        assertEquals(0, discord.getRateLimitedResponses());
+    }
+
+    @Test
+    void reloadedWebhookFollowsNewGuildId() throws Exception {
+        WebhookManager webhookManager = webhookManager(Map.of("100", "w100"));
+        assertTrue(webhookManager.sendMessage("hello").get(5, TimeUnit.SECONDS));
+
+        // 同じWebhookを別のGuildの設定に付け替える
+        TestConfig.load(dataDirectory, Map.of(
+            "discord.api_base_url", discord.getBaseUrl(),
+            "discord.guilds", Map.of("300", TestConfig.guild("1", FakeDiscordServer.webhookUrl("w100")))));
+        configManager.reloadConfig();
+        webhookManager.reloadTargets();
+
+        Set<String> completedGuilds = ConcurrentHashMap.newKeySet();
+        assertTrue(webhookManager.sendMessageWithSkin(UUID.randomUUID(), "Steve", "hello", "lobby", completedGuilds)
+            .get(5, TimeUnit.SECONDS));
+        assertEquals(Set.of("300"), completedGuilds);
+    }
+
+    @Test
+    void rejectedMessageIsNotResent() throws Exception {
+        WebhookManager webhookManager = webhookManager(Map.of("100", "w100"));
+        discord.enqueueWebhookResponse("w100", 404);
+
+        // 削除されたWebhookは完了扱い（再送しても通らない）
+        assertTrue(webhookManager.sendMessage("hello").get(5, TimeUnit.SECONDS));
+        assertEquals(1, discord.getWebhookRequests().size());
+    }
+
+    @Test
+    void resendGoesOnlyToGuildsThatFailed() throws Exception {
+        Map<String, String> webhooks = new LinkedHashMap<>();
+        webhooks.put("100", "w100");
+        webhooks.put("200", "w200");
+        WebhookManager webhookManager = webhookManager(webhooks);
+        discord.enqueueWebhookResponse("w200", 500);
+        UUID playerUuid = UUID.randomUUID();
+        Set<String> completedGuilds = ConcurrentHashMap.newKeySet();
+
+        assertFalse(webhookManager.sendMessageWithSkin(playerUuid, "Steve", "hello", "lobby", completedGuilds)
+            .get(5, TimeUnit.SECONDS));
+        assertEquals(Set.of("100"), completedGuilds);
+
+        assertTrue(webhookManager.sendMessageWithSkin(playerUuid, "Steve", "hello", "lobby", completedGuilds)
+            .get(5, TimeUnit.SECONDS));
+        assertEquals(1, requestsTo("w100"));
+        assertEquals(2, requestsTo("w200"));
+    }
+
+    /**
+     * Guild ID → Webhook ID の送信先を持つWebhookManager
+     */
+    private WebhookManager webhookManager(Map<String, String> webhooks) throws Exception {
+        Map<String, Object> guilds = new LinkedHashMap<>();
+        int channel = 1;
+        for (Map.Entry<String, String> entry : webhooks.entrySet()) {
+            guilds.put(entry.getKey(), TestConfig.guild(String.valueOf(channel++), FakeDiscordServer.webhookUrl(entry.getValue())));
+        }
+        configManager = TestConfig.load(dataDirectory, Map.of(
+            "discord.api_base_url", discord.getBaseUrl(),
+            "discord.guilds", guilds));
+        HttpClient httpClient = WebhookManager.createHttpClient();
+        return new WebhookManager(configManager, httpClient,
+            AvatarResolver.fromConfig(configManager, httpClient, LOGGER), LOGGER);
+    }
+
+    private long requestsTo(String webhookId) {
+        return discord.getWebhookRequests().stream()
+            .filter(request -> request.path().contains("/webhooks/" + webhookId + "/"))
+            .count();
+    }
+}